@@ -0,0 +1,52 @@
+package com.lujanita.bff.cache;
+
+import reactor.core.publisher.Mono;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Variante reactiva de {@link SingleFlight}: los suscriptores concurrentes con la misma clave comparten
+ * una única suscripción al Mono de origen (y por tanto una única petición saliente y su resultado o error).
+ * La clave se libera cuando el origen termina o cuando todos los suscriptores cancelan.
+ */
+public class MonoSingleFlight<K, V> {
+    private final Map<K, Mono<V>> inFlight = new ConcurrentHashMap<>();
+
+    public Mono<V> execute(K key, Supplier<Mono<V>> loader) {
+        return execute(key, loader, null);
+    }
+
+    /**
+     * onCoalesced se invoca (al suscribirse) cuando la llamada se une a una ejecución ya en curso.
+     */
+    public Mono<V> execute(K key, Supplier<Mono<V>> loader, Runnable onCoalesced) {
+        return Mono.defer(() -> {
+            boolean[] leader = {false};
+            Mono<V> shared = inFlight.computeIfAbsent(key, k -> {
+                leader[0] = true;
+                return share(k, loader);
+            });
+            if (!leader[0] && onCoalesced != null) onCoalesced.run();
+            return shared;
+        });
+    }
+
+    private Mono<V> share(K key, Supplier<Mono<V>> loader) {
+        AtomicReference<Mono<V>> self = new AtomicReference<>();
+        Runnable release = () -> inFlight.remove(key, self.get());
+        // Se libera antes de propagar el resultado: quien llegue después inicia una ejecución nueva
+        Mono<V> shared = Mono.defer(loader)
+            .doOnTerminate(release)
+            .doOnCancel(release)
+            .share();
+        self.set(shared);
+        return shared;
+    }
+
+    public int inFlightCount() {
+        return inFlight.size();
+    }
+}
@@ -0,0 +1,52 @@
+package com.lujanita.bff.cache;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Coalescencia de peticiones concurrentes: mientras una ejecución para una clave está en curso,
+ * las llamadas con la misma clave esperan su resultado en lugar de repetir el trabajo.
+ * No cachea: al terminar la ejecución la clave se libera.
+ */
+public class SingleFlight<K, V> {
+    private final Map<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+    public V execute(K key, Supplier<V> loader) {
+        return execute(key, loader, null);
+    }
+
+    /**
+     * Ejecuta loader o se une a la ejecución en curso; onCoalesced se invoca cuando la llamada
+     * reutiliza una ejecución ajena. Las excepciones del loader se propagan a todos los que esperan.
+     */
+    public V execute(K key, Supplier<V> loader, Runnable onCoalesced) {
+        CompletableFuture<V> mine = new CompletableFuture<>();
+        CompletableFuture<V> existing = inFlight.putIfAbsent(key, mine);
+        if (existing != null) {
+            if (onCoalesced != null) onCoalesced.run();
+            try {
+                return existing.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException re) throw re;
+                throw e;
+            }
+        }
+        try {
+            V value = loader.get();
+            mine.complete(value);
+            return value;
+        } catch (RuntimeException | Error e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, mine);
+        }
+    }
+
+    public int inFlightCount() {
+        return inFlight.size();
+    }
+}
@@ -0,0 +1,135 @@
+package com.lujanita.bff.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+import java.util.function.Predicate;
+
+/**
+ * Cache en memoria acotada por tamaño (LRU) con expiración por entrada (TTL).
+ * Thread-safe; pensada para pocos miles de entradas (respuestas de chat, resultados MCP).
+ */
+public class TtlLruCache<K, V> {
+    private final int maxEntries;
+    private final long ttlMs;
+    private final LongSupplier clock;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<K, Entry<V>> entries;
+
+    private record Entry<V>(V value, long expiresAt) {}
+
+    public TtlLruCache(int maxEntries, long ttlMs) {
+        this(maxEntries, ttlMs, System::currentTimeMillis);
+    }
+
+    TtlLruCache(int maxEntries, long ttlMs, LongSupplier clock) {
+        this.maxEntries = Math.max(1, maxEntries);
+        this.ttlMs = ttlMs;
+        this.clock = clock;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+                return size() > TtlLruCache.this.maxEntries;
+            }
+        };
+    }
+
+    // Devuelve el valor vigente o null si no existe o expiró
+    public V get(K key) {
+        lock.lock();
+        try {
+            Entry<V> e = entries.get(key);
+            if (e == null) return null;
+            if (e.expiresAt() <= clock.getAsLong()) {
+                entries.remove(key);
+                return null;
+            }
+            return e.value();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void put(K key, V value) {
+        put(key, value, ttlMs);
+    }
+
+    // Variante con TTL propio (p.ej. por método MCP)
+    public void put(K key, V value, long entryTtlMs) {
+        if (key == null || value == null || entryTtlMs <= 0) return;
+        lock.lock();
+        try {
+            entries.put(key, new Entry<>(value, clock.getAsLong() + entryTtlMs));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reemplaza atómicamente el valor de key por fn(valor vigente o null) y renueva su TTL.
+     * Si fn devuelve null la entrada se elimina. fn se ejecuta con el lock tomado: debe ser barata.
+     */
+    public V compute(K key, java.util.function.UnaryOperator<V> fn) {
+        lock.lock();
+        try {
+            Entry<V> e = entries.get(key);
+            V current = e == null || e.expiresAt() <= clock.getAsLong() ? null : e.value();
+            V next = fn.apply(current);
+            if (next == null) {
+                entries.remove(key);
+            } else {
+                entries.put(key, new Entry<>(next, clock.getAsLong() + ttlMs));
+            }
+            return next;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void invalidate(K key) {
+        lock.lock();
+        try {
+            entries.remove(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Invalida todas las claves que cumplan el predicado; devuelve cuántas se eliminaron
+    public int invalidateIf(Predicate<K> predicate) {
+        lock.lock();
+        try {
+            int removed = 0;
+            Iterator<K> it = entries.keySet().iterator();
+            while (it.hasNext()) {
+                if (predicate.test(it.next())) {
+                    it.remove();
+                    removed++;
+                }
+            }
+            return removed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void clear() {
+        lock.lock();
+        try {
+            entries.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -10,6 +10,13 @@ public class BffProperties {
     private Mcp mcp = new Mcp();
     private RateLimit rateLimit = new RateLimit();
     private Cors cors = new Cors();
+    private Reactive reactive = new Reactive();
+    private Execution execution = new Execution();
+    private ChatCache chatCache = new ChatCache();
+    private Conversation conversation = new Conversation();
+    private Admin admin = new Admin();
+    private Resilience resilience = new Resilience();
+    private Intents intents = new Intents();
 
     public Ollama getOllama() { return ollama; }
     public void setOllama(Ollama ollama) { this.ollama = ollama; }
@@ -19,12 +26,34 @@ public class BffProperties {
     public void setRateLimit(RateLimit rateLimit) { this.rateLimit = rateLimit; }
     public Cors getCors() { return cors; }
     public void setCors(Cors cors) { this.cors = cors; }
+    public Reactive getReactive() { return reactive; }
+    public void setReactive(Reactive reactive) { this.reactive = reactive; }
+    public Execution getExecution() { return execution; }
+    public void setExecution(Execution execution) { this.execution = execution; }
+    public ChatCache getChatCache() { return chatCache; }
+    public void setChatCache(ChatCache chatCache) { this.chatCache = chatCache; }
+    public Conversation getConversation() { return conversation; }
+    public void setConversation(Conversation conversation) { this.conversation = conversation; }
+    public Admin getAdmin() { return admin; }
+    public void setAdmin(Admin admin) { this.admin = admin; }
+    public Resilience getResilience() { return resilience; }
+    public void setResilience(Resilience resilience) { this.resilience = resilience; }
+    public Intents getIntents() { return intents; }
+    public void setIntents(Intents intents) { this.intents = intents; }
 
     public static class Ollama {
         private String endpoint;
         private String model;
         private int timeoutMs;
         private boolean enabled = true;
+        // Tiempo máximo de una respuesta en streaming (SSE)
+        private int streamTimeoutMs = 120000;
+        // Usar la API nativa /api/chat (keep_alive + métricas de prompt_eval) en lugar de Spring AI
+        private boolean nativeApi = true;
+        // Tiempo que Ollama mantiene el modelo (y su cache de prompt) cargado tras cada petición, p.ej. "30m" o "-1"
+        private String keepAlive = "30m";
+        private Double temperature;
+        private Integer maxTokens;
         // Prompt de sistema configurable que se prefija a cada petición al LLM
         private String systemPrompt;
         // Directrices para el asistente (se lee desde application.yml)
@@ -33,6 +62,32 @@ public class BffProperties {
         private String corporateName = "";
         private String corporateWebsite = "";
         private String corporateInfo = "";
+        // Datos de contacto de referencia (prompt de sistema y respuestas locales de bff.intents)
+        private String corporateAddress = "";
+        private String corporateHours = "";
+        private String corporateContact = "";
+        // Modelo y opciones por etapa (null = model/temperature/maxTokens): planificación de herramientas,
+        // respuesta directa y respuesta con datos MCP
+        private String planningModel;
+        private Double planningTemperature;
+        private Integer planningMaxTokens;
+        private String directModel;
+        private Double directTemperature;
+        private Integer directMaxTokens;
+        private String groundedModel;
+        private Double groundedTemperature;
+        private Integer groundedMaxTokens;
+        // Selección de herramientas por embeddings (/api/embed): el prompt de planificación lleva sólo las
+        // toolSelectionTopK más parecidas al mensaje; sin embeddingModel o con topK 0 va el catálogo completo
+        private String embeddingModel;
+        private int toolSelectionTopK = 8;
+        // Nodos Ollama para repartir la carga (base http://host:port o URL .../api/generate); vacía = sólo endpoint
+        private java.util.List<String> endpoints = new java.util.ArrayList<>();
+        // Fallos seguidos que sacan un nodo de la rotación, y por cuánto tiempo
+        private int poolFailureThreshold = 3;
+        private int poolEjectSeconds = 30;
+        // Cada cuánto se vuelve a consultar /api/tags en los nodos (0 = sólo al arrancar)
+        private int poolProbeIntervalSeconds = 300;
         public String getEndpoint() { return endpoint; }
         public void setEndpoint(String endpoint) { this.endpoint = endpoint; }
         public String getModel() { return model; }
@@ -41,6 +96,16 @@ public class BffProperties {
         public void setTimeoutMs(int timeoutMs) { this.timeoutMs = timeoutMs; }
         public boolean isEnabled() { return enabled; }
         public void setEnabled(boolean enabled) { this.enabled = enabled; }
+        public int getStreamTimeoutMs() { return streamTimeoutMs; }
+        public void setStreamTimeoutMs(int streamTimeoutMs) { this.streamTimeoutMs = streamTimeoutMs; }
+        public boolean isNativeApi() { return nativeApi; }
+        public void setNativeApi(boolean nativeApi) { this.nativeApi = nativeApi; }
+        public String getKeepAlive() { return keepAlive; }
+        public void setKeepAlive(String keepAlive) { this.keepAlive = keepAlive; }
+        public Double getTemperature() { return temperature; }
+        public void setTemperature(Double temperature) { this.temperature = temperature; }
+        public Integer getMaxTokens() { return maxTokens; }
+        public void setMaxTokens(Integer maxTokens) { this.maxTokens = maxTokens; }
         public String getSystemPrompt() { return systemPrompt; }
         public void setSystemPrompt(String systemPrompt) { this.systemPrompt = systemPrompt; }
         public String getAssistantGuidelines() { return assistantGuidelines; }
@@ -51,6 +116,42 @@ public class BffProperties {
         public void setCorporateWebsite(String corporateWebsite) { this.corporateWebsite = corporateWebsite; }
         public String getCorporateInfo() { return corporateInfo; }
         public void setCorporateInfo(String corporateInfo) { this.corporateInfo = corporateInfo; }
+        public String getCorporateAddress() { return corporateAddress; }
+        public void setCorporateAddress(String corporateAddress) { this.corporateAddress = corporateAddress; }
+        public String getCorporateHours() { return corporateHours; }
+        public void setCorporateHours(String corporateHours) { this.corporateHours = corporateHours; }
+        public String getCorporateContact() { return corporateContact; }
+        public void setCorporateContact(String corporateContact) { this.corporateContact = corporateContact; }
+        public String getPlanningModel() { return planningModel; }
+        public void setPlanningModel(String planningModel) { this.planningModel = planningModel; }
+        public Double getPlanningTemperature() { return planningTemperature; }
+        public void setPlanningTemperature(Double planningTemperature) { this.planningTemperature = planningTemperature; }
+        public Integer getPlanningMaxTokens() { return planningMaxTokens; }
+        public void setPlanningMaxTokens(Integer planningMaxTokens) { this.planningMaxTokens = planningMaxTokens; }
+        public String getDirectModel() { return directModel; }
+        public void setDirectModel(String directModel) { this.directModel = directModel; }
+        public Double getDirectTemperature() { return directTemperature; }
+        public void setDirectTemperature(Double directTemperature) { this.directTemperature = directTemperature; }
+        public Integer getDirectMaxTokens() { return directMaxTokens; }
+        public void setDirectMaxTokens(Integer directMaxTokens) { this.directMaxTokens = directMaxTokens; }
+        public String getGroundedModel() { return groundedModel; }
+        public void setGroundedModel(String groundedModel) { this.groundedModel = groundedModel; }
+        public Double getGroundedTemperature() { return groundedTemperature; }
+        public void setGroundedTemperature(Double groundedTemperature) { this.groundedTemperature = groundedTemperature; }
+        public Integer getGroundedMaxTokens() { return groundedMaxTokens; }
+        public void setGroundedMaxTokens(Integer groundedMaxTokens) { this.groundedMaxTokens = groundedMaxTokens; }
+        public String getEmbeddingModel() { return embeddingModel; }
+        public void setEmbeddingModel(String embeddingModel) { this.embeddingModel = embeddingModel; }
+        public int getToolSelectionTopK() { return toolSelectionTopK; }
+        public void setToolSelectionTopK(int toolSelectionTopK) { this.toolSelectionTopK = toolSelectionTopK; }
+        public java.util.List<String> getEndpoints() { return endpoints; }
+        public void setEndpoints(java.util.List<String> endpoints) { this.endpoints = endpoints; }
+        public int getPoolFailureThreshold() { return poolFailureThreshold; }
+        public void setPoolFailureThreshold(int poolFailureThreshold) { this.poolFailureThreshold = poolFailureThreshold; }
+        public int getPoolEjectSeconds() { return poolEjectSeconds; }
+        public void setPoolEjectSeconds(int poolEjectSeconds) { this.poolEjectSeconds = poolEjectSeconds; }
+        public int getPoolProbeIntervalSeconds() { return poolProbeIntervalSeconds; }
+        public void setPoolProbeIntervalSeconds(int poolProbeIntervalSeconds) { this.poolProbeIntervalSeconds = poolProbeIntervalSeconds; }
     }
     public static class Mcp {
         private String endpoint;
@@ -72,7 +173,34 @@ public class BffProperties {
         private int maxLifeTimeSeconds = 60;
         private int pendingAcquireTimeoutSeconds = 45;
         private int evictInBackgroundSeconds = 120;
-        
+        // Cache del catálogo tools.list (0 = sin cache) y ventana de refresco anticipado
+        private int toolsCacheTtlSeconds = 300;
+        private int toolsRefreshAheadSeconds = 60;
+        // Llamadas idénticas concurrentes (mismo método, params y llamante) comparten una sola petición al MCP;
+        // sólo para métodos de lectura, reconocidos por el verbo final (orders.get, products.search)
+        private boolean coalesceCalls = true;
+        private java.util.List<String> coalesceVerbs = new java.util.ArrayList<>(java.util.List.of("get", "list", "search", "read", "count", "find"));
+        // Cache de resultados: sólo los métodos listados (método -> TTL en segundos), por params y llamante
+        private java.util.Map<String, Integer> resultCacheTtlSeconds = new java.util.LinkedHashMap<>();
+        private int resultCacheMaxEntries = 2000;
+        // Tras vencer, un resultado se sigue sirviendo estos segundos mientras se refresca en segundo plano (0 = no)
+        private int resultCacheStaleSeconds = 0;
+        // Planes con varias llamadas: máximo de llamadas aceptadas y cuántas independientes se ejecutan a la vez
+        private int planMaxCalls = 4;
+        private int planParallelism = 4;
+        // Las llamadas independientes de una misma ola viajan en un único lote JSON-RPC (un round-trip)
+        private boolean batchCalls = true;
+        // Planificación por reglas (antes de pedirle el plan al LLM): regex sobre el mensaje -> método MCP y params
+        private java.util.List<PlanRule> planRules = new java.util.ArrayList<>();
+        // Sesión MCP: vigencia asumida, renovación anticipada en segundo plano y espera tras un handshake fallido
+        private int sessionTtlSeconds = 1800;
+        private int sessionRefreshAheadSeconds = 120;
+        private int sessionRetryBackoffSeconds = 5;
+        // Códigos de error (HTTP o JSON-RPC) que indican sesión/credenciales rechazadas: se renueva la sesión y se reintenta una vez
+        private java.util.List<String> sessionErrorCodes = new java.util.ArrayList<>(java.util.List.of("401", "419", "-32001"));
+        // Reintentos ante cortes de conexión; pocos para no multiplicar la carga sobre un backend que ya falla
+        private int transportRetries = 1;
+
         public String getEndpoint() { return endpoint; }
         public void setEndpoint(String endpoint) { this.endpoint = endpoint; }
         public int getTimeoutMs() { return timeoutMs; }
@@ -109,6 +237,38 @@ public class BffProperties {
         public void setPendingAcquireTimeoutSeconds(int pendingAcquireTimeoutSeconds) { this.pendingAcquireTimeoutSeconds = pendingAcquireTimeoutSeconds; }
         public int getEvictInBackgroundSeconds() { return evictInBackgroundSeconds; }
         public void setEvictInBackgroundSeconds(int evictInBackgroundSeconds) { this.evictInBackgroundSeconds = evictInBackgroundSeconds; }
+        public int getToolsCacheTtlSeconds() { return toolsCacheTtlSeconds; }
+        public void setToolsCacheTtlSeconds(int toolsCacheTtlSeconds) { this.toolsCacheTtlSeconds = toolsCacheTtlSeconds; }
+        public boolean isCoalesceCalls() { return coalesceCalls; }
+        public void setCoalesceCalls(boolean coalesceCalls) { this.coalesceCalls = coalesceCalls; }
+        public java.util.List<String> getCoalesceVerbs() { return coalesceVerbs; }
+        public void setCoalesceVerbs(java.util.List<String> coalesceVerbs) { this.coalesceVerbs = coalesceVerbs; }
+        public java.util.Map<String, Integer> getResultCacheTtlSeconds() { return resultCacheTtlSeconds; }
+        public void setResultCacheTtlSeconds(java.util.Map<String, Integer> resultCacheTtlSeconds) { this.resultCacheTtlSeconds = resultCacheTtlSeconds; }
+        public int getResultCacheMaxEntries() { return resultCacheMaxEntries; }
+        public void setResultCacheMaxEntries(int resultCacheMaxEntries) { this.resultCacheMaxEntries = resultCacheMaxEntries; }
+        public int getResultCacheStaleSeconds() { return resultCacheStaleSeconds; }
+        public void setResultCacheStaleSeconds(int resultCacheStaleSeconds) { this.resultCacheStaleSeconds = resultCacheStaleSeconds; }
+        public int getPlanMaxCalls() { return planMaxCalls; }
+        public void setPlanMaxCalls(int planMaxCalls) { this.planMaxCalls = planMaxCalls; }
+        public int getPlanParallelism() { return planParallelism; }
+        public void setPlanParallelism(int planParallelism) { this.planParallelism = planParallelism; }
+        public boolean isBatchCalls() { return batchCalls; }
+        public void setBatchCalls(boolean batchCalls) { this.batchCalls = batchCalls; }
+        public java.util.List<PlanRule> getPlanRules() { return planRules; }
+        public void setPlanRules(java.util.List<PlanRule> planRules) { this.planRules = planRules; }
+        public int getSessionTtlSeconds() { return sessionTtlSeconds; }
+        public void setSessionTtlSeconds(int sessionTtlSeconds) { this.sessionTtlSeconds = sessionTtlSeconds; }
+        public int getSessionRefreshAheadSeconds() { return sessionRefreshAheadSeconds; }
+        public void setSessionRefreshAheadSeconds(int sessionRefreshAheadSeconds) { this.sessionRefreshAheadSeconds = sessionRefreshAheadSeconds; }
+        public int getSessionRetryBackoffSeconds() { return sessionRetryBackoffSeconds; }
+        public void setSessionRetryBackoffSeconds(int sessionRetryBackoffSeconds) { this.sessionRetryBackoffSeconds = sessionRetryBackoffSeconds; }
+        public java.util.List<String> getSessionErrorCodes() { return sessionErrorCodes; }
+        public int getTransportRetries() { return transportRetries; }
+        public void setTransportRetries(int transportRetries) { this.transportRetries = transportRetries; }
+        public void setSessionErrorCodes(java.util.List<String> sessionErrorCodes) { this.sessionErrorCodes = sessionErrorCodes; }
+        public int getToolsRefreshAheadSeconds() { return toolsRefreshAheadSeconds; }
+        public void setToolsRefreshAheadSeconds(int toolsRefreshAheadSeconds) { this.toolsRefreshAheadSeconds = toolsRefreshAheadSeconds; }
     }
     public static class RateLimit {
         private boolean enabled;
@@ -135,6 +295,168 @@ public class BffProperties {
         public int getMaxAge() { return maxAge; }
         public void setMaxAge(int maxAge) { this.maxAge = maxAge; }
     }
+    // Servidor Netty secundario para el chat no bloqueante (ver ReactiveChatServer)
+    public static class Reactive {
+        private boolean enabled;
+        private int port = 9001;
+        public boolean isEnabled() { return enabled; }
+        public void setEnabled(boolean enabled) { this.enabled = enabled; }
+        public int getPort() { return port; }
+        public void setPort(int port) { this.port = port; }
+    }
+    // Modo de ejecución del stack servlet (ver ExecutionConfig)
+    public static class Execution {
+        // Hilos virtuales (JDK 21) para Tomcat, bffTaskExecutor, llamadas bloqueantes y el mock MCP
+        private boolean virtualThreads;
+        public boolean isVirtualThreads() { return virtualThreads; }
+        public void setVirtualThreads(boolean virtualThreads) { this.virtualThreads = virtualThreads; }
+    }
+    // Cache de respuestas de chat por mensaje normalizado + rol/perfil + versión de prompts + modelo
+    public static class ChatCache {
+        private boolean enabled = true;
+        private int ttlSeconds = 600;
+        private int maxEntries = 1000;
+        // Las respuestas con datos MCP (pedidos, facturas) se pueden quedar viejas: por defecto no se cachean
+        private boolean cacheMcpAnswers = false;
+        public boolean isEnabled() { return enabled; }
+        public void setEnabled(boolean enabled) { this.enabled = enabled; }
+        public int getTtlSeconds() { return ttlSeconds; }
+        public void setTtlSeconds(int ttlSeconds) { this.ttlSeconds = ttlSeconds; }
+        public int getMaxEntries() { return maxEntries; }
+        public void setMaxEntries(int maxEntries) { this.maxEntries = maxEntries; }
+        public boolean isCacheMcpAnswers() { return cacheMcpAnswers; }
+        public void setCacheMcpAnswers(boolean cacheMcpAnswers) { this.cacheMcpAnswers = cacheMcpAnswers; }
+    }
+    // Endpoints /api/admin (cabecera X-Admin-Token); sin token configurado quedan deshabilitados
+    public static class Admin {
+        private String token;
+        public String getToken() { return token; }
+        public void setToken(String token) { this.token = token; }
+    }
+    // Historial multi-turno por conversación (cabecera X-Conversation-Id)
+    public static class Conversation {
+        private boolean enabled = true;
+        private int maxTurns = 6;
+        private int maxChars = 6000;
+        private int maxConversations = 2000;
+        private int idleTtlSeconds = 1800;
+        public boolean isEnabled() { return enabled; }
+        public void setEnabled(boolean enabled) { this.enabled = enabled; }
+        public int getMaxTurns() { return maxTurns; }
+        public void setMaxTurns(int maxTurns) { this.maxTurns = maxTurns; }
+        public int getMaxChars() { return maxChars; }
+        public void setMaxChars(int maxChars) { this.maxChars = maxChars; }
+        public int getMaxConversations() { return maxConversations; }
+        public void setMaxConversations(int maxConversations) { this.maxConversations = maxConversations; }
+        public int getIdleTtlSeconds() { return idleTtlSeconds; }
+        public void setIdleTtlSeconds(int idleTtlSeconds) { this.idleTtlSeconds = idleTtlSeconds; }
+    }
+    // Circuit breakers (ollama, mcp y mcp:<método>) y límites de concurrencia por backend
+    public static class Resilience {
+        private boolean enabled = true;
+        private int failureRateThreshold = 50;
+        private int minimumCalls = 10;
+        private int slidingWindowSize = 20;
+        private int openStateSeconds = 30;
+        private int halfOpenCalls = 2;
+        private int ollamaMaxConcurrent = 16;
+        private int mcpMaxConcurrent = 32;
+        // Limitador adaptativo de generaciones Ollama: límite inicial/mínimo/máximo y cola acotada de espera
+        private boolean limiterEnabled = true;
+        private int limiterInitial = 4;
+        private int limiterMin = 1;
+        private int limiterMax = 12;
+        private int limiterQueueSize = 32;
+        private long limiterMaxWaitMs = 15000;
+        // Cola justa por pesos del limitador: clase de trabajo por perfil (prioritario) o rol, con su peso
+        private java.util.Map<String, Integer> schedulerProfileWeights = new java.util.LinkedHashMap<>(java.util.Map.of("premium", 8, "batch", 1));
+        private java.util.Map<String, Integer> schedulerRoleWeights = new java.util.LinkedHashMap<>(java.util.Map.of("operador", 6, "vendedor", 3, "cliente", 2));
+        private int schedulerDefaultWeight = 2;
+        // Clases aceptadas aunque no sean perfiles/roles de prompts.yml (trabajo interno); el resto debe estar declarado allí
+        private java.util.List<String> schedulerInternalClasses = new java.util.ArrayList<>(java.util.List.of("batch"));
+        public boolean isEnabled() { return enabled; }
+        public void setEnabled(boolean enabled) { this.enabled = enabled; }
+        public int getFailureRateThreshold() { return failureRateThreshold; }
+        public void setFailureRateThreshold(int failureRateThreshold) { this.failureRateThreshold = failureRateThreshold; }
+        public int getMinimumCalls() { return minimumCalls; }
+        public void setMinimumCalls(int minimumCalls) { this.minimumCalls = minimumCalls; }
+        public int getSlidingWindowSize() { return slidingWindowSize; }
+        public void setSlidingWindowSize(int slidingWindowSize) { this.slidingWindowSize = slidingWindowSize; }
+        public int getOpenStateSeconds() { return openStateSeconds; }
+        public void setOpenStateSeconds(int openStateSeconds) { this.openStateSeconds = openStateSeconds; }
+        public int getHalfOpenCalls() { return halfOpenCalls; }
+        public void setHalfOpenCalls(int halfOpenCalls) { this.halfOpenCalls = halfOpenCalls; }
+        public int getOllamaMaxConcurrent() { return ollamaMaxConcurrent; }
+        public void setOllamaMaxConcurrent(int ollamaMaxConcurrent) { this.ollamaMaxConcurrent = ollamaMaxConcurrent; }
+        public int getMcpMaxConcurrent() { return mcpMaxConcurrent; }
+        public void setMcpMaxConcurrent(int mcpMaxConcurrent) { this.mcpMaxConcurrent = mcpMaxConcurrent; }
+        public boolean isLimiterEnabled() { return limiterEnabled; }
+        public void setLimiterEnabled(boolean limiterEnabled) { this.limiterEnabled = limiterEnabled; }
+        public int getLimiterInitial() { return limiterInitial; }
+        public void setLimiterInitial(int limiterInitial) { this.limiterInitial = limiterInitial; }
+        public int getLimiterMin() { return limiterMin; }
+        public void setLimiterMin(int limiterMin) { this.limiterMin = limiterMin; }
+        public int getLimiterMax() { return limiterMax; }
+        public void setLimiterMax(int limiterMax) { this.limiterMax = limiterMax; }
+        public int getLimiterQueueSize() { return limiterQueueSize; }
+        public void setLimiterQueueSize(int limiterQueueSize) { this.limiterQueueSize = limiterQueueSize; }
+        public long getLimiterMaxWaitMs() { return limiterMaxWaitMs; }
+        public void setLimiterMaxWaitMs(long limiterMaxWaitMs) { this.limiterMaxWaitMs = limiterMaxWaitMs; }
+        public java.util.Map<String, Integer> getSchedulerProfileWeights() { return schedulerProfileWeights; }
+        public void setSchedulerProfileWeights(java.util.Map<String, Integer> schedulerProfileWeights) { this.schedulerProfileWeights = schedulerProfileWeights; }
+        public java.util.Map<String, Integer> getSchedulerRoleWeights() { return schedulerRoleWeights; }
+        public void setSchedulerRoleWeights(java.util.Map<String, Integer> schedulerRoleWeights) { this.schedulerRoleWeights = schedulerRoleWeights; }
+        public int getSchedulerDefaultWeight() { return schedulerDefaultWeight; }
+        public void setSchedulerDefaultWeight(int schedulerDefaultWeight) { this.schedulerDefaultWeight = schedulerDefaultWeight; }
+        public java.util.List<String> getSchedulerInternalClasses() { return schedulerInternalClasses; }
+        public void setSchedulerInternalClasses(java.util.List<String> schedulerInternalClasses) { this.schedulerInternalClasses = schedulerInternalClasses; }
+    }
+    // Regla de planificación: cada coincidencia de pattern (sin distinguir mayúsculas) genera una llamada a method;
+    // en params, {grupo} o {grupo:upper} toma el grupo de captura (por nombre o número), "true"/"false" van como booleanos
+    public static class PlanRule {
+        private String name;
+        private String pattern;
+        private String method;
+        private java.util.Map<String, String> params = new java.util.LinkedHashMap<>();
+        public String getName() { return name; }
+        public void setName(String name) { this.name = name; }
+        public String getPattern() { return pattern; }
+        public void setPattern(String pattern) { this.pattern = pattern; }
+        public String getMethod() { return method; }
+        public void setMethod(String method) { this.method = method; }
+        public java.util.Map<String, String> getParams() { return params; }
+        public void setParams(java.util.Map<String, String> params) { this.params = params; }
+    }
+    // Respuestas locales (sin LLM ni MCP) para intenciones triviales: saludos, agradecimientos, horario, contacto
+    public static class Intents {
+        private boolean enabled = true;
+        // Mensajes con menos letras/dígitos que esto reciben tooShortResponse
+        private int minChars = 2;
+        private String tooShortResponse;
+        private java.util.List<Intent> routes = new java.util.ArrayList<>();
+        public boolean isEnabled() { return enabled; }
+        public void setEnabled(boolean enabled) { this.enabled = enabled; }
+        public int getMinChars() { return minChars; }
+        public void setMinChars(int minChars) { this.minChars = minChars; }
+        public String getTooShortResponse() { return tooShortResponse; }
+        public void setTooShortResponse(String tooShortResponse) { this.tooShortResponse = tooShortResponse; }
+        public java.util.List<Intent> getRoutes() { return routes; }
+        public void setRoutes(java.util.List<Intent> routes) { this.routes = routes; }
+    }
+    // Intención: el mensaje completo (normalizado) debe ser una o varias de sus frases; response admite
+    // {welcomeMessage}, {chatbotName} y los datos corporativos de bff.ollama ({corporateName}, {corporateWebsite},
+    // {corporateInfo}, {corporateAddress}, {corporateHours}, {corporateContact})
+    public static class Intent {
+        private String name;
+        private java.util.List<String> phrases = new java.util.ArrayList<>();
+        private String response;
+        public String getName() { return name; }
+        public void setName(String name) { this.name = name; }
+        public java.util.List<String> getPhrases() { return phrases; }
+        public void setPhrases(java.util.List<String> phrases) { this.phrases = phrases; }
+        public String getResponse() { return response; }
+        public void setResponse(String response) { this.response = response; }
+    }
     // Propiedades generales del chatbot (configurables desde application.yml)
     private String chatbotName;
     private String welcomeMessage;
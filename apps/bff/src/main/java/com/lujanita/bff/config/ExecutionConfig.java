@@ -0,0 +1,53 @@
+package com.lujanita.bff.config;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import java.util.concurrent.Executors;
+
+@Configuration
+public class ExecutionConfig {
+
+    // Executor para trabajo bloqueante fuera del hilo de la petición (p.ej. chat en streaming)
+    @Bean(name = "bffTaskExecutor")
+    public TaskExecutor bffTaskExecutor(BffProperties bffProperties) {
+        if (virtualThreads(bffProperties)) {
+            SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor("bff-vtask-");
+            executor.setVirtualThreads(true);
+            return executor;
+        }
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setThreadNamePrefix("bff-task-");
+        executor.setCorePoolSize(8);
+        executor.setMaxPoolSize(64);
+        executor.setQueueCapacity(200);
+        executor.initialize();
+        return executor;
+    }
+
+    // Scheduler de Reactor para llamadas bloqueantes desde la ruta reactiva (sesión MCP, RestTemplate)
+    @Bean(name = "bffBlockingScheduler", destroyMethod = "dispose")
+    public Scheduler bffBlockingScheduler(BffProperties bffProperties) {
+        if (virtualThreads(bffProperties)) {
+            return Schedulers.fromExecutorService(Executors.newVirtualThreadPerTaskExecutor(), "bff-vblocking");
+        }
+        return Schedulers.newBoundedElastic(Schedulers.DEFAULT_BOUNDED_ELASTIC_SIZE, Schedulers.DEFAULT_BOUNDED_ELASTIC_QUEUESIZE, "bff-blocking");
+    }
+
+    // Tomcat atiende cada petición en un hilo virtual: las esperas a Ollama/MCP no consumen hilos de plataforma
+    @Bean
+    @ConditionalOnProperty(prefix = "bff.execution", name = "virtual-threads", havingValue = "true")
+    public TomcatProtocolHandlerCustomizer<?> virtualThreadProtocolHandlerCustomizer() {
+        return protocolHandler -> protocolHandler.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+    }
+
+    static boolean virtualThreads(BffProperties bffProperties) {
+        return bffProperties != null && bffProperties.getExecution() != null && bffProperties.getExecution().isVirtualThreads();
+    }
+}
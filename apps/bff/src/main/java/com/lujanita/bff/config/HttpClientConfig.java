@@ -73,10 +73,7 @@ public class HttpClientConfig {
             .build();
 
         // Get timeout from properties, default to 30 seconds
-        int timeoutMs = mcpProps.getTimeoutMs();
-        if (timeoutMs <= 0) {
-            timeoutMs = DEFAULT_TIMEOUT_MS;
-        }
+        final int timeoutMs = mcpProps.getTimeoutMs() > 0 ? mcpProps.getTimeoutMs() : DEFAULT_TIMEOUT_MS;
         Duration timeout = Duration.ofMillis(timeoutMs);
 
         HttpClient httpClient;
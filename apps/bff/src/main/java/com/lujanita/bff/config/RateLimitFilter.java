@@ -14,6 +14,7 @@ import java.io.IOException;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 
 @Component
 public class RateLimitFilter implements Filter {
@@ -27,39 +28,50 @@ public class RateLimitFilter implements Filter {
     @Override
     public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
         // SDD: Filtro de rate limiting por apiKey, responde MW007 si se excede el límite
-        if (bffProperties.getRateLimit() != null && !bffProperties.getRateLimit().isEnabled()) {
-            chain.doFilter(request, response);
-            return;
-        }
-        int limit = bffProperties.getRateLimit() != null ? bffProperties.getRateLimit().getRequestsPerMinute() : LIMIT;
         if (request instanceof HttpServletRequest req && response instanceof HttpServletResponse resp) {
             String apiKey = req.getHeader("X-Api-Key");
             String correlationId = req.getHeader("X-Correlation-Id");
             if (apiKey != null) {
-                Window window = apiKeyWindows.computeIfAbsent(apiKey, k -> new Window());
-                synchronized (window) {
-                    long now = System.currentTimeMillis();
-                    if (now - window.start >= WINDOW_MS) {
-                        window.start = now;
-                        window.count.set(0);
-                    }
-                    if (window.count.incrementAndGet() > limit) {
-                        resp.setStatus(429);
-                        resp.setContentType("application/json");
-                        String body = String.format("{\"code\":\"MW007\",\"message\":\"Rate limit exceeded\",\"correlationId\":\"%s\"}", correlationId != null ? correlationId : "");
-                        resp.getWriter().write(body);
-                        // Logging estructurado (puede integrarse con observabilidad)
-                        System.out.printf("[BFF][RateLimit] apiKey=%s correlationId=%s MW007\n", apiKey, correlationId);
-                        return;
-                    }
+                if (!tryAcquire(apiKey)) {
+                    resp.setStatus(429);
+                    resp.setContentType("application/json");
+                    String body = String.format("{\"code\":\"MW007\",\"message\":\"Rate limit exceeded\",\"correlationId\":\"%s\"}", correlationId != null ? correlationId : "");
+                    resp.getWriter().write(body);
+                    // Logging estructurado (puede integrarse con observabilidad)
+                    System.out.printf("[BFF][RateLimit] apiKey=%s correlationId=%s MW007\n", apiKey, correlationId);
+                    return;
                 }
             }
         }
         chain.doFilter(request, response);
     }
 
+    /**
+     * Cuenta una petición en la ventana de la apiKey; false si excede el límite por minuto. Sin apiKey o con el
+     * límite desactivado siempre entra. Lo usa también ReactiveChatServer: ambos puertos comparten la misma ventana.
+     */
+    public boolean tryAcquire(String apiKey) {
+        if (apiKey == null) return true;
+        if (bffProperties.getRateLimit() != null && !bffProperties.getRateLimit().isEnabled()) return true;
+        int limit = bffProperties.getRateLimit() != null ? bffProperties.getRateLimit().getRequestsPerMinute() : LIMIT;
+        Window window = apiKeyWindows.computeIfAbsent(apiKey, k -> new Window());
+        // Sólo el conteo va bajo el lock; la respuesta 429 se escribe fuera (sin I/O con el lock tomado)
+        window.lock.lock();
+        try {
+            long now = System.currentTimeMillis();
+            if (now - window.start >= WINDOW_MS) {
+                window.start = now;
+                window.count.set(0);
+            }
+            return window.count.incrementAndGet() <= limit;
+        } finally {
+            window.lock.unlock();
+        }
+    }
+
     private static class Window {
         long start = System.currentTimeMillis();
         AtomicInteger count = new AtomicInteger(0);
+        final ReentrantLock lock = new ReentrantLock();
     }
 }
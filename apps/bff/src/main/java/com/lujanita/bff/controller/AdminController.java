@@ -0,0 +1,48 @@
+package com.lujanita.bff.controller;
+
+import com.lujanita.bff.config.BffProperties;
+import com.lujanita.bff.service.McpInteractionService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Map;
+
+/**
+ * Operaciones de administración del BFF. Requieren la cabecera X-Admin-Token igual a bff.admin.token;
+ * si no hay token configurado responden 403.
+ */
+@RestController
+@RequestMapping("/api/admin")
+public class AdminController {
+    private static final Logger log = LoggerFactory.getLogger(AdminController.class);
+
+    @Autowired
+    private McpInteractionService mcpInteractionService;
+    @Autowired
+    private BffProperties bffProperties;
+
+    /**
+     * Invalida la cache de resultados MCP: sólo el método indicado (?method=products.search) o toda la cache.
+     */
+    @PostMapping("/mcp-cache/invalidate")
+    public ResponseEntity<Map<String, Object>> invalidateMcpCache(@RequestHeader(value = "X-Admin-Token", required = false) String token,
+                                                                  @RequestParam(value = "method", required = false) String method) {
+        if (!authorized(token)) {
+            return ResponseEntity.status(403).body(Map.of("code", "AD001", "message", "Token de administración inválido"));
+        }
+        int removed = mcpInteractionService.invalidateResults(method);
+        log.info("[Admin] Cache MCP invalidada method={} entradas={}", method == null ? "<todas>" : method, removed);
+        return ResponseEntity.ok(Map.of("method", method == null ? "*" : method, "invalidated", removed));
+    }
+
+    private boolean authorized(String token) {
+        String expected = bffProperties.getAdmin() != null ? bffProperties.getAdmin().getToken() : null;
+        if (expected == null || expected.isBlank() || token == null) return false;
+        return MessageDigest.isEqual(expected.getBytes(StandardCharsets.UTF_8), token.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -17,6 +17,12 @@ import org.springframework.context.event.EventListener;
 import org.springframework.boot.context.event.ApplicationReadyEvent;
 import com.lujanita.bff.config.BffProperties;
 import org.springframework.core.annotation.Order;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import com.lujanita.bff.service.ChatStreamListener;
+import java.io.IOException;
 
 @RestController
 @RequestMapping("/api")
@@ -31,6 +37,9 @@ public class BffController {
     private McpSessionService mcpSessionService;
     @Autowired
     private BffProperties bffProperties;
+    @Autowired
+    @Qualifier("bffTaskExecutor")
+    private TaskExecutor bffTaskExecutor;
 
     private static final Logger log = LoggerFactory.getLogger(BffController.class);
 
@@ -44,6 +53,7 @@ public class BffController {
         Map<String, String> normHeaders = new HashMap<>();
         headers.forEach((k, v) -> normHeaders.put(k.toLowerCase(), v));
         String message = (String) body.get("message");
+        conversationIdFromBody(normHeaders, body);
         String resp;
         String correlationId = UUID.randomUUID().toString();
         try {
@@ -56,23 +66,141 @@ public class BffController {
             log.error("[BFF][{}] Error backend: {}", correlationId, e.getMessage());
             return ResponseEntity.status(502).body("{\"code\":\"MW005\",\"correlationId\":\""+correlationId+"\"}");
         }
+        int status = chatStatus(resp, correlationId);
+        if (status == 503) {
+            return ResponseEntity.status(status).header("Retry-After", retryAfter(resp)).body(resp);
+        }
+        if (status != 200) {
+            return ResponseEntity.status(status).body(resp);
+        }
+        // Logging de correlationId si existe
+        if (resp.contains("correlationId")) {
+            log.info("[BFF][{}] Respuesta chat: {}", correlationId, resp);
+        }
+        return ResponseEntity.ok(resp);
+    }
+
+    // Código HTTP para la respuesta del orquestador (errores MW00X de validación); compartido con ReactiveChatServer
+    static int chatStatus(String resp, String correlationId) {
         if (resp.contains("\"code\":\"MW001\"")) {
             log.warn("[BFF][{}] Falta apiKey", correlationId);
-            return ResponseEntity.status(401).body(resp);
+            return 401;
         }
         if (resp.contains("\"code\":\"MW002\"")) {
             log.warn("[BFF][{}] Rol/profile inválido", correlationId);
-            return ResponseEntity.status(403).body(resp);
+            return 403;
         }
         if (resp.contains("\"code\":\"MW003\"")) {
             log.warn("[BFF][{}] Payload inválido", correlationId);
-            return ResponseEntity.status(400).body(resp);
+            return 400;
         }
-        // Logging de correlationId si existe
-        if (resp.contains("correlationId")) {
-            log.info("[BFF][{}] Respuesta chat: {}", correlationId, resp);
+        if (resp.contains("\"code\":\"MW008\"")) {
+            log.warn("[BFF][{}] LLM saturado", correlationId);
+            return 503;
+        }
+        return 200;
+    }
+
+    // Segundos del campo retryAfter de una respuesta MW008 (1 si no viene)
+    static String retryAfter(String resp) {
+        java.util.regex.Matcher m = java.util.regex.Pattern.compile("\"retryAfter\":(\\d+)").matcher(resp);
+        return m.find() ? m.group(1) : "1";
+    }
+
+    // La conversación se identifica por X-Conversation-Id o, si no viene la cabecera, por conversationId en el body
+    static void conversationIdFromBody(Map<String, String> normHeaders, Map<?, ?> body) {
+        Object conversationId = body == null ? null : body.get("conversationId");
+        if (conversationId instanceof String id && !id.isBlank()) {
+            normHeaders.putIfAbsent("x-conversation-id", id);
+        }
+    }
+
+    /**
+     * Chat en streaming (Server-Sent Events): eventos stage, token, done y error
+     */
+    @PostMapping(value = "/chat/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter chatStream(@RequestHeader Map<String, String> headers, @RequestBody Map<String, Object> body) {
+        Map<String, String> normHeaders = new HashMap<>();
+        headers.forEach((k, v) -> normHeaders.put(k.toLowerCase(), v));
+        String correlationId = normHeaders.computeIfAbsent("x-correlation-id", k -> UUID.randomUUID().toString());
+        String message = (String) body.get("message");
+        conversationIdFromBody(normHeaders, body);
+        SseEmitter emitter = new SseEmitter((long) bffProperties.getOllama().getStreamTimeoutMs());
+        SseChatStreamListener listener = new SseChatStreamListener(emitter, correlationId);
+        if (!bffProperties.getOllama().isEnabled()) {
+            log.warn("[BFF][{}] LLM deshabilitado por feature flag", correlationId);
+            listener.onError("{\"code\":\"LLM001\"}", correlationId);
+            return emitter;
+        }
+        try {
+            bffTaskExecutor.execute(() -> orchestrator.handleChatStream(normHeaders, message, listener));
+        } catch (Exception e) {
+            log.error("[BFF][{}] No se pudo iniciar el streaming: {}", correlationId, e.getMessage());
+            listener.onError("{\"code\":\"MW005\"}", correlationId);
+        }
+        return emitter;
+    }
+
+    // Adapta los eventos del orquestador a SSE
+    private static class SseChatStreamListener implements ChatStreamListener {
+        private final SseEmitter emitter;
+        private final String correlationId;
+        private final java.util.concurrent.atomic.AtomicBoolean cancelled = new java.util.concurrent.atomic.AtomicBoolean();
+
+        SseChatStreamListener(SseEmitter emitter, String correlationId) {
+            this.emitter = emitter;
+            this.correlationId = correlationId;
+            // Timeout, desconexión o cierre del emitter: la generación en curso se corta (ver isCancelled)
+            emitter.onTimeout(() -> cancelled.set(true));
+            emitter.onError(e -> cancelled.set(true));
+            emitter.onCompletion(() -> cancelled.set(true));
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return cancelled.get();
+        }
+
+        @Override
+        public void onStage(String stage) {
+            send("stage", Map.of("stage", stage, "correlationId", correlationId));
+        }
+
+        @Override
+        public void onToken(String text) {
+            send("token", Map.of("text", text));
+        }
+
+        @Override
+        public void onComplete(String corrId) {
+            send("done", Map.of("correlationId", corrId));
+            emitter.complete();
+        }
+
+        @Override
+        public void onError(String errorJson, String corrId) {
+            try {
+                emitter.send(SseEmitter.event().name("error").data(withCorrelationId(errorJson, corrId), MediaType.APPLICATION_JSON));
+                emitter.complete();
+            } catch (Exception e) {
+                emitter.completeWithError(e);
+            }
+        }
+
+        private void send(String event, Map<String, String> data) {
+            try {
+                emitter.send(SseEmitter.event().name(event).data(data, MediaType.APPLICATION_JSON));
+            } catch (IOException e) {
+                // Cliente desconectado: cortar la generación en curso
+                cancelled.set(true);
+                throw new IllegalStateException("Cliente SSE desconectado", e);
+            }
+        }
+
+        private static String withCorrelationId(String json, String corrId) {
+            if (json.contains("\"correlationId\"")) return json;
+            return json.substring(0, json.lastIndexOf('}')) + ",\"correlationId\":\"" + corrId + "\"}";
         }
-        return ResponseEntity.ok(resp);
     }
 
     /**
@@ -0,0 +1,145 @@
+package com.lujanita.bff.controller;
+
+import com.lujanita.bff.config.BffProperties;
+import com.lujanita.bff.config.RateLimitFilter;
+import com.lujanita.bff.service.BffOrchestratorService;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.http.server.reactive.HttpHandler;
+import org.springframework.http.server.reactive.ReactorHttpHandlerAdapter;
+import org.springframework.stereotype.Component;
+import org.springframework.web.cors.CorsConfiguration;
+import org.springframework.web.cors.reactive.CorsWebFilter;
+import org.springframework.web.cors.reactive.UrlBasedCorsConfigurationSource;
+import org.springframework.web.reactive.function.server.HandlerStrategies;
+import org.springframework.web.reactive.function.server.RequestPredicates;
+import org.springframework.web.reactive.function.server.RouterFunction;
+import org.springframework.web.reactive.function.server.RouterFunctions;
+import org.springframework.web.reactive.function.server.ServerRequest;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Ruta de chat no bloqueante sobre Netty (WebFlux funcional), en un puerto aparte del Tomcat principal.
+ * Mismo contrato que POST /api/chat de BffController, pero sin retener un hilo mientras el LLM genera.
+ * Los filtros servlet no aplican a este puerto: el rate limit por apiKey (misma ventana que RateLimitFilter) y
+ * CORS (bff.cors) se aplican aquí como filtros de la ruta.
+ */
+@Component
+public class ReactiveChatServer {
+    private static final Logger log = LoggerFactory.getLogger(ReactiveChatServer.class);
+
+    @Autowired
+    private BffOrchestratorService orchestrator;
+    @Autowired
+    private BffProperties bffProperties;
+    @Autowired
+    private RateLimitFilter rateLimitFilter;
+
+    private DisposableServer server;
+
+    @PostConstruct
+    public void startIfEnabled() {
+        try {
+            if (bffProperties != null && bffProperties.getReactive() != null && bffProperties.getReactive().isEnabled()) {
+                int port = bffProperties.getReactive().getPort();
+                server = HttpServer.create()
+                    .port(port)
+                    .handle(new ReactorHttpHandlerAdapter(httpHandler()))
+                    .bindNow();
+                log.info("Reactive chat server started at http://localhost:{}/api/chat", server.port());
+            }
+        } catch (Exception e) {
+            log.error("Failed to start reactive chat server: {}", e.getMessage(), e);
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (server != null) {
+            server.disposeNow();
+            log.info("Reactive chat server stopped");
+        }
+    }
+
+    HttpHandler httpHandler() {
+        RouterFunction<ServerResponse> routes = RouterFunctions.route(RequestPredicates.POST("/api/chat"), this::chat)
+            .filter((request, next) -> {
+                String apiKey = request.headers().firstHeader("X-Api-Key");
+                if (rateLimitFilter.tryAcquire(apiKey)) return next.handle(request);
+                String correlationId = request.headers().firstHeader("X-Correlation-Id");
+                log.warn("[BFF][RateLimit] apiKey={} correlationId={} MW007 (reactive)", apiKey, correlationId);
+                return json(429, String.format("{\"code\":\"MW007\",\"message\":\"Rate limit exceeded\",\"correlationId\":\"%s\"}",
+                    correlationId != null ? correlationId : ""));
+            });
+        return RouterFunctions.toHttpHandler(routes, HandlerStrategies.builder().webFilter(corsFilter()).build());
+    }
+
+    // Misma política que WebConfig#addCorsMappings (bff.cors)
+    private CorsWebFilter corsFilter() {
+        BffProperties.Cors cors = bffProperties.getCors();
+        CorsConfiguration config = new CorsConfiguration();
+        if (cors != null) {
+            config.setAllowedOrigins(cors.getAllowedOrigins() != null ? Arrays.asList(cors.getAllowedOrigins().split(",")) : List.of("*"));
+            config.setAllowedMethods(List.of(cors.getAllowedMethods() != null ? cors.getAllowedMethods() : "*"));
+            config.setAllowedHeaders(List.of(cors.getAllowedHeaders() != null ? cors.getAllowedHeaders() : "*"));
+            config.setAllowCredentials(cors.isAllowCredentials());
+            config.setMaxAge((long) (cors.getMaxAge() > 0 ? cors.getMaxAge() : 3600));
+        } else {
+            config.setAllowedOrigins(List.of("*"));
+            config.setAllowedMethods(List.of("*"));
+            config.setAllowedHeaders(List.of("*"));
+        }
+        UrlBasedCorsConfigurationSource source = new UrlBasedCorsConfigurationSource();
+        source.registerCorsConfiguration("/**", config);
+        return new CorsWebFilter(source);
+    }
+
+    Mono<ServerResponse> chat(ServerRequest request) {
+        // Normalizar headers a minúsculas, igual que BffController
+        Map<String, String> normHeaders = new HashMap<>();
+        request.headers().asHttpHeaders().forEach((k, v) -> {
+            if (v != null && !v.isEmpty()) normHeaders.put(k.toLowerCase(), v.get(0));
+        });
+        String correlationId = UUID.randomUUID().toString();
+        if (!bffProperties.getOllama().isEnabled()) {
+            log.warn("[BFF][{}] LLM deshabilitado por feature flag", correlationId);
+            return json(503, "{\"code\":\"LLM001\",\"correlationId\":\"" + correlationId + "\"}");
+        }
+        return request.bodyToMono(Map.class)
+            .defaultIfEmpty(Map.of())
+            .flatMap(body -> {
+                Object message = body.get("message");
+                BffController.conversationIdFromBody(normHeaders, body);
+                return orchestrator.handleChatReactive(normHeaders, message instanceof String ? (String) message : null);
+            })
+            .flatMap(resp -> {
+                int status = BffController.chatStatus(resp, correlationId);
+                if (status == 503) {
+                    return ServerResponse.status(status).header("Retry-After", BffController.retryAfter(resp))
+                        .contentType(MediaType.APPLICATION_JSON).bodyValue(resp);
+                }
+                return json(status, resp);
+            })
+            .onErrorResume(e -> {
+                log.error("[BFF][{}] Error backend: {}", correlationId, e.getMessage());
+                return json(502, "{\"code\":\"MW005\",\"correlationId\":\"" + correlationId + "\"}");
+            });
+    }
+
+    private static Mono<ServerResponse> json(int status, String body) {
+        return ServerResponse.status(status).contentType(MediaType.APPLICATION_JSON).bodyValue(body);
+    }
+}
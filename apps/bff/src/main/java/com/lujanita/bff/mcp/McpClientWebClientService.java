@@ -4,14 +4,18 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.lujanita.bff.config.BffProperties;
 import com.lujanita.bff.model.dto.McpResponse;
 import lombok.RequiredArgsConstructor;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.MediaType;
 import org.springframework.stereotype.Service;
 import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import reactor.util.retry.Retry;
 import java.time.Duration;
 import com.fasterxml.jackson.core.type.TypeReference;
+import java.util.List;
 import java.util.Map;
 import java.util.HashMap;
 import java.util.UUID;
@@ -25,39 +29,206 @@ public class McpClientWebClientService {
     private final WebClient.Builder webClientBuilder;
     private final ObjectMapper objectMapper = new ObjectMapper();
     private final McpSessionService mcpSessionService;
+    @Autowired(required = false)
+    private MeterRegistry meterRegistry;
+    // Tras un rechazo explícito de lotes (JSON-RPC -32600/-32700) se usan llamadas individuales durante un tiempo;
+    // luego se vuelve a probar por si el servidor se actualizó
+    static final long BATCH_RETRY_AFTER_MS = 10 * 60 * 1000L;
+    private static final java.util.Set<String> BATCH_REJECTION_CODES = java.util.Set.of("-32600", "-32700");
+    private volatile long batchUnsupportedUntil = 0L;
+    // Cliente y headers fijos construidos una vez desde BffProperties.Mcp; se reconstruyen si cambia la config
+    private volatile ClientTemplate template;
+
+    /**
+     * Parte invariable de cada llamada MCP: WebClient con baseUrl y headers de credenciales/transporte ya resueltos.
+     * configKey identifica la configuración con la que se construyó.
+     */
+    private record ClientTemplate(String configKey, WebClient client, Map<String, String> baseHeaders, String maskedApiKey) {
+        boolean hasApiKey() { return baseHeaders.containsKey("Authorization"); }
+    }
+
+    // Llamada individual dentro de un lote JSON-RPC
+    public record McpCall(String method, Map<String, Object> params) {}
+
+    // Rechazo de sesión/credenciales por HTTP (401/419...): se renueva la sesión y se reintenta una vez
+    static class McpSessionRejectedException extends RuntimeException {
+        McpSessionRejectedException(String message) { super(message); }
+    }
 
     public Mono<McpResponse> callMcp(String method, Map<String, Object> params, Map<String, String> headers) {
-        String endpoint = bffProperties.getMcp().getEndpoint();
-        WebClient client = webClientBuilder.baseUrl(endpoint).build();
+        return callMcp(method, params, headers, true);
+    }
 
-        // Asegurar sesión antes de construir headers (handshake si es necesario)
-        String ensuredSession = null;
+    private Mono<McpResponse> callMcp(String method, Map<String, Object> params, Map<String, String> headers, boolean retryOnRejectedSession) {
+        ClientTemplate tpl = template();
+        Map<String, Object> payload = new HashMap<>();
+        payload.put("jsonrpc", "2.0");
+        payload.put("id", UUID.randomUUID().toString());
+        payload.put("method", method);
+        payload.put("params", params != null ? params : Map.of());
+
+        return mcpSessionService.getSessionIdAsync().defaultIfEmpty("")
+            .flatMap(sessionId -> post(tpl.client(), effectiveHeaders(tpl, headers, sessionId, method), payload)
+                .map(body -> parseResponse(body))
+                .flatMap(resp -> {
+                    if (!retryOnRejectedSession || !isSessionError(resp.getCode())) return Mono.just(resp);
+                    return renewAndRetry(sessionId, method, resp.getCode(), () -> callMcp(method, params, headers, false));
+                })
+                .onErrorResume(McpSessionRejectedException.class, e -> retryOnRejectedSession
+                    ? renewAndRetry(sessionId, method, e.getMessage(), () -> callMcp(method, params, headers, false))
+                    : Mono.error(e)))
+            .onErrorResume(e -> {
+                log.warn("[MCP][WebClient] Error llamando MCP: {}", e.getMessage());
+                return Mono.just(errorResponse(e));
+            });
+    }
+
+    private Mono<McpResponse> renewAndRetry(String sessionId, String method, String reason, java.util.function.Supplier<Mono<McpResponse>> retry) {
+        log.info("[MCP][WebClient] Sesión rechazada ({}) en method={}, se renueva y se reintenta una vez", reason, method);
+        try { if (meterRegistry != null) meterRegistry.counter("mcp.session.renewals", "method", method).increment(); } catch (Exception ignore) {}
+        mcpSessionService.invalidateSession(sessionId.isEmpty() ? null : sessionId);
+        return Mono.defer(retry);
+    }
+
+    private boolean isSessionError(String code) {
+        java.util.List<String> codes = bffProperties.getMcp().getSessionErrorCodes();
+        return code != null && codes != null && codes.contains(code);
+    }
+
+    /**
+     * Lote JSON-RPC 2.0: envía todas las llamadas en un único POST (array) y correlaciona las respuestas por id.
+     * Emite las respuestas en el mismo orden que calls. Si el servidor no responde con un array recurre a llamadas
+     * individuales en paralelo; sólo si además lo rechazó como petición JSON-RPC inválida deja de intentar lotes por
+     * BATCH_RETRY_AFTER_MS (un error transitorio no desactiva los lotes).
+     */
+    public Mono<List<McpResponse>> callMcpBatch(List<McpCall> calls, Map<String, String> headers) {
+        if (calls == null || calls.isEmpty()) return Mono.just(List.of());
+        if (calls.size() == 1 || System.currentTimeMillis() < batchUnsupportedUntil) return callIndividually(calls, headers);
+        ClientTemplate tpl = template();
+
+        List<String> ids = new java.util.ArrayList<>(calls.size());
+        List<Map<String, Object>> payload = new java.util.ArrayList<>(calls.size());
+        for (McpCall call : calls) {
+            String id = UUID.randomUUID().toString();
+            ids.add(id);
+            Map<String, Object> item = new HashMap<>();
+            item.put("jsonrpc", "2.0");
+            item.put("id", id);
+            item.put("method", call.method());
+            item.put("params", call.params() != null ? call.params() : Map.of());
+            payload.add(item);
+        }
+
+        return mcpSessionService.getSessionIdAsync().defaultIfEmpty("")
+            .flatMap(sessionId -> post(tpl.client(), effectiveHeaders(tpl, headers, sessionId, "batch"), payload))
+            .flatMap(body -> {
+                List<McpResponse> responses = parseBatchResponse(body, ids);
+                if (responses != null) return Mono.just(responses);
+                if (isBatchRejection(body)) {
+                    batchUnsupportedUntil = System.currentTimeMillis() + BATCH_RETRY_AFTER_MS;
+                    log.warn("[MCP][WebClient] El servidor MCP no acepta lotes JSON-RPC; llamadas individuales durante {}s",
+                        BATCH_RETRY_AFTER_MS / 1000);
+                } else {
+                    log.warn("[MCP][WebClient] Respuesta inesperada a un lote MCP; se reintenta como llamadas individuales");
+                }
+                return callIndividually(calls, headers);
+            })
+            .onErrorResume(e -> {
+                log.warn("[MCP][WebClient] Error en lote MCP, reintentando como llamadas individuales: {}", e.getMessage());
+                return callIndividually(calls, headers);
+            });
+    }
+
+    // Objeto de error JSON-RPC (no array) con código de petición inválida o no parseable
+    private boolean isBatchRejection(String body) {
         try {
-            ensuredSession = mcpSessionService.getSessionId();
-            if (ensuredSession == null || ensuredSession.isBlank()) {
-                ensuredSession = mcpSessionService.startSession();
-            }
-            log.info("[MCP][WebClient] Sesión asegurada mcpSession={} para method={}", ensuredSession == null ? "<none>" : maskToken(ensuredSession), method);
+            com.fasterxml.jackson.databind.JsonNode root = objectMapper.readTree(body);
+            return root != null && root.isObject() && root.path("error").has("code")
+                && BATCH_REJECTION_CODES.contains(root.path("error").get("code").asText());
         } catch (Exception e) {
-            log.warn("[MCP][WebClient] No se pudo asegurar sesión: {}", e.getMessage());
+            return false;
         }
-        Map<String, String> effectiveHeaders = new HashMap<>();
+    }
+
+    private Mono<List<McpResponse>> callIndividually(List<McpCall> calls, Map<String, String> headers) {
+        return Flux.fromIterable(calls)
+            .flatMapSequential(call -> callMcp(call.method(), call.params(), headers))
+            .collectList();
+    }
+
+    private Mono<String> post(WebClient client, Map<String, String> effectiveHeaders, Object payload) {
+        return client.post()
+            .uri("")
+            .contentType(MediaType.APPLICATION_JSON)
+            .headers(httpHeaders -> effectiveHeaders.forEach(httpHeaders::set))
+            .bodyValue(payload)
+            .exchangeToMono(resp -> {
+                int status = resp.statusCode().value();
+                if (status == 401 || status == 419) {
+                    return resp.releaseBody().then(Mono.error(new McpSessionRejectedException("HTTP " + status)));
+                }
+                return resp.bodyToMono(String.class).defaultIfEmpty("");
+            })
+            .retryWhen(
+                Retry.backoff(Math.max(0, bffProperties.getMcp().getTransportRetries()), Duration.ofMillis(500))
+                    .maxBackoff(Duration.ofSeconds(2))
+                    .filter(e -> e instanceof reactor.netty.http.client.PrematureCloseException
+                               || e instanceof java.nio.channels.ClosedChannelException
+                               || e instanceof java.io.IOException)
+                    .doBeforeRetry(signal -> log.warn("[MCP][WebClient] Reintentando tras error (intento {}): {}", 
+                        signal.totalRetries() + 1, signal.failure().getMessage()))
+                    .onRetryExhaustedThrow((spec, signal) -> signal.failure())
+            )
+            .doOnNext(body -> {
+                if (log.isDebugEnabled()) {
+                    log.debug("[MCP][WebClient] Respuesta HTTP body={}", body.length() > 500 ? body.substring(0, 500) + "..." : body);
+                }
+            });
+    }
+
+    // Template vigente; sólo se reconstruye cuando cambian endpoint, credenciales o transporte
+    private ClientTemplate template() {
+        BffProperties.Mcp mcp = bffProperties.getMcp();
+        String configKey = mcp.getEndpoint() + "\n" + mcp.getAuthToken() + "\n" + mcp.getTestApiKey() + "\n" + mcp.getTransport();
+        ClientTemplate current = template;
+        if (current != null && current.configKey().equals(configKey)) return current;
+        synchronized (this) {
+            current = template;
+            if (current != null && current.configKey().equals(configKey)) return current;
+            Map<String, String> base = new HashMap<>();
+            String apiKey = resolveApiKey();
+            if (apiKey != null && !apiKey.isBlank()) {
+                String token = apiKey.trim();
+                base.put("Authorization", "Bearer " + token);
+                base.put("X-Api-Key", token); // forzar X-Api-Key real aunque el cliente envíe demo
+            }
+            String transport = Optional.ofNullable(mcp.getTransport()).orElse("http");
+            if (!transport.isBlank()) {
+                base.put("MCP-Transport", transport.trim());
+            }
+            current = new ClientTemplate(configKey, webClientBuilder.baseUrl(mcp.getEndpoint()).build(), Map.copyOf(base), maskToken(apiKey));
+            template = current;
+            log.info("[MCP][WebClient] Cliente MCP construido endpoint={} authToken={} transport={}",
+                mcp.getEndpoint(), current.maskedApiKey(), base.getOrDefault("MCP-Transport", "<none>"));
+            return current;
+        }
+    }
+
+    // Headers de la petición MCP: headers fijos del template + rol/perfil, sesión y (sin API key configurada) la del cliente
+    private Map<String, String> effectiveHeaders(ClientTemplate tpl, Map<String, String> headers, String sessionId, String method) {
+        Map<String, String> effectiveHeaders = new HashMap<>((headers != null ? headers.size() : 0) + 6);
         if (headers != null) {
             effectiveHeaders.putAll(headers);
         }
-        // Resolver API key: primero properties/env, luego header entrante
-        String authToken = resolveApiKey();
-        if ((authToken == null || authToken.isBlank()) && headers != null) {
+        effectiveHeaders.putAll(tpl.baseHeaders());
+        if (!tpl.hasApiKey() && headers != null) {
             String fromHeader = Optional.ofNullable(headers.get("X-Api-Key")).orElse(headers.get("x-api-key"));
             if (fromHeader != null && !fromHeader.isBlank()) {
-                authToken = fromHeader.trim();
+                String token = fromHeader.trim();
+                effectiveHeaders.put("Authorization", "Bearer " + token);
+                effectiveHeaders.put("X-Api-Key", token);
             }
         }
-        if (authToken != null && !authToken.isBlank()) {
-            String token = authToken.trim();
-            effectiveHeaders.put("Authorization", "Bearer " + token);
-            effectiveHeaders.put("X-Api-Key", token); // forzar X-Api-Key real aunque el cliente envíe demo
-        }
         // Alinear role/profile desde headers entrantes si existen
         if (headers != null) {
             String roleHeader = Optional.ofNullable(headers.get("X-Role")).orElse(headers.get("x-role"));
@@ -69,57 +240,16 @@ public class McpClientWebClientService {
                 effectiveHeaders.put("X-Profile", profileHeader);
             }
         }
-        String sessionId = ensuredSession != null ? ensuredSession : resolveSessionId();
         if (sessionId != null && !sessionId.isBlank()) {
             effectiveHeaders.put("mcp-session-id", sessionId);
         }
-        String transport = Optional.ofNullable(bffProperties.getMcp().getTransport()).orElse("http");
-        if (!transport.isBlank()) {
-            effectiveHeaders.put("MCP-Transport", transport.trim());
-        }
-
-        log.info("[MCP][WebClient] Llamando MCP endpoint={} method={} authToken={} mcpSession={} headers=\n{}",
-                endpoint,
-                method,
-                maskToken(authToken),
-            sessionId == null ? "<none>" : maskToken(sessionId),
-                effectiveHeaders);
 
-        Map<String, Object> payload = new HashMap<>();
-        payload.put("jsonrpc", "2.0");
-        payload.put("id", UUID.randomUUID().toString());
-        payload.put("method", method);
-        payload.put("params", params != null ? params : Map.of());
-
-        return client.post()
-            .uri("")
-            .contentType(MediaType.APPLICATION_JSON)
-            .headers(httpHeaders -> effectiveHeaders.forEach(httpHeaders::set))
-            .bodyValue(payload)
-            .exchangeToMono(resp -> resp.bodyToMono(String.class).defaultIfEmpty(""))
-            .retryWhen(
-                Retry.backoff(3, Duration.ofMillis(500))
-                    .maxBackoff(Duration.ofSeconds(2))
-                    .filter(e -> e instanceof reactor.netty.http.client.PrematureCloseException
-                               || e instanceof java.nio.channels.ClosedChannelException
-                               || e instanceof java.io.IOException)
-                    .doBeforeRetry(signal -> log.warn("[MCP][WebClient] Reintentando tras error (intento {}): {}", 
-                        signal.totalRetries() + 1, signal.failure().getMessage()))
-                    .onRetryExhaustedThrow((spec, signal) -> signal.failure())
-            )
-            .map(body -> {
-                String truncated = body;
-                if (truncated != null && truncated.length() > 500) {
-                    truncated = truncated.substring(0, 500) + "...";
-                }
-                log.info("[MCP][WebClient] Respuesta HTTP body={}", truncated);
-                return body;
-            })
-            .map(body -> parseResponse(body))
-            .onErrorResume(e -> {
-                log.warn("[MCP][WebClient] Error llamando MCP: {}", e.getMessage());
-                return Mono.just(errorResponse(e));
-            });
+        if (log.isDebugEnabled()) {
+            log.debug("[MCP][WebClient] Llamando MCP method={} authToken={} mcpSession={} headers={}",
+                method, tpl.hasApiKey() ? tpl.maskedApiKey() : maskToken(effectiveHeaders.get("X-Api-Key")),
+                sessionId == null || sessionId.isBlank() ? "<none>" : maskToken(sessionId), effectiveHeaders.keySet());
+        }
+        return effectiveHeaders;
     }
 
     private McpResponse errorResponse(Throwable e) {
@@ -137,7 +267,44 @@ public class McpClientWebClientService {
             return empty;
         }
         try {
-            var root = objectMapper.readTree(body);
+            return parseNode(objectMapper.readTree(body));
+        } catch (Exception e) {
+            log.warn("[MCP][WebClient] Error deserializando respuesta MCP: {}", e.getMessage());
+            return errorResponse(e);
+        }
+    }
+
+    /**
+     * Respuestas de un lote en el orden de ids; las que falten quedan como MW005.
+     * Devuelve null si el cuerpo no es un array JSON-RPC (el servidor no acepta lotes).
+     */
+    List<McpResponse> parseBatchResponse(String body, List<String> ids) {
+        com.fasterxml.jackson.databind.JsonNode root;
+        try {
+            root = body == null || body.isBlank() ? null : objectMapper.readTree(body);
+        } catch (Exception e) {
+            return null;
+        }
+        if (root == null || !root.isArray()) return null;
+        Map<String, McpResponse> byId = new HashMap<>();
+        for (com.fasterxml.jackson.databind.JsonNode item : root) {
+            if (item.hasNonNull("id")) byId.put(item.get("id").asText(), parseNode(item));
+        }
+        List<McpResponse> ordered = new java.util.ArrayList<>(ids.size());
+        for (String id : ids) {
+            McpResponse resp = byId.get(id);
+            if (resp == null) {
+                resp = new McpResponse();
+                resp.setCode("MW005");
+                resp.setMessage("Sin respuesta MCP para id=" + id + " en el lote");
+            }
+            ordered.add(resp);
+        }
+        return ordered;
+    }
+
+    private McpResponse parseNode(com.fasterxml.jackson.databind.JsonNode root) {
+        try {
             if (root.has("error")) {
                 var err = root.get("error");
                 String code = err.has("code") ? err.get("code").asText() : "MW005";
@@ -180,16 +347,4 @@ public class McpClientWebClientService {
         String t = token.trim().toUpperCase();
         return t.isEmpty() || "YOUR_API_KEY".equals(t) || "DEMO".equals(t);
     }
-
-    private String resolveSessionId() {
-        try {
-            String sid = mcpSessionService.getSessionId();
-            if (sid == null) return null;
-            sid = sid.trim();
-            return sid.isEmpty() ? null : sid;
-        } catch (Exception e) {
-            log.warn("[MCP][WebClient] No se pudo resolver mcp-session-id: {}", e.getMessage());
-            return null;
-        }
-    }
 }
@@ -1,7 +1,10 @@
 package com.lujanita.bff.mcp;
 
+import com.lujanita.bff.cache.MonoSingleFlight;
 import com.lujanita.bff.config.BffProperties;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Service;
 
 import org.springframework.http.HttpEntity;
@@ -10,44 +13,90 @@ import org.springframework.http.HttpMethod;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.client.RestTemplate;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
 import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.LongSupplier;
 
+/**
+ * Sesión MCP compartida por todas las llamadas. El handshake se ejecuta fuera del hilo del llamante y una sola vez
+ * aunque haya muchos llamantes concurrentes; la sesión se renueva en segundo plano antes de vencer y se invalida
+ * cuando el servidor MCP la rechaza (ver McpClientWebClientService).
+ */
 @Slf4j
 @Service
 public class McpSessionService {
+    private static final String HANDSHAKE_KEY = "session";
+
     private final BffProperties bffProperties;
-    private final AtomicReference<String> cachedSession = new AtomicReference<>();
+    private final AtomicReference<Session> cachedSession = new AtomicReference<>();
+    private final MonoSingleFlight<String, Session> handshakes = new MonoSingleFlight<>();
     private final RestTemplate restTemplate;
+    private final LongSupplier clock;
+    // Momento del último handshake fallido: durante el backoff no se reintenta en cada llamada
+    private volatile long failedAt = 0L;
+
+    // Scheduler para el handshake (RestTemplate es bloqueante)
+    @Autowired(required = false)
+    @Qualifier("bffBlockingScheduler")
+    private Scheduler blockingScheduler;
+
+    private record Session(String id, long refreshAt, long expiresAt) {}
 
+    @Autowired
     public McpSessionService(BffProperties bffProperties, RestTemplate restTemplate) {
+        this(bffProperties, restTemplate, System::currentTimeMillis);
+    }
+
+    McpSessionService(BffProperties bffProperties, RestTemplate restTemplate, LongSupplier clock) {
         this.bffProperties = bffProperties;
         this.restTemplate = restTemplate;
+        this.clock = clock;
     }
 
+    /**
+     * Sesión vigente sin bloquear. Si está por vencer se devuelve igual y se renueva en segundo plano;
+     * si no hay sesión los llamantes concurrentes esperan el mismo handshake. Vacío si no se pudo obtener.
+     */
+    public Mono<String> getSessionIdAsync() {
+        String staticSession = staticSession();
+        if (staticSession != null) {
+            return Mono.just(staticSession);
+        }
+        long now = clock.getAsLong();
+        Session current = cachedSession.get();
+        if (current != null && now < current.expiresAt()) {
+            if (now >= current.refreshAt()) {
+                refreshInBackground();
+            }
+            return Mono.just(current.id());
+        }
+        if (now - failedAt < backoffMs()) {
+            return Mono.empty();
+        }
+        return handshake().map(Session::id)
+            .onErrorResume(e -> {
+                log.warn("[MCP][Session] No se pudo obtener sesión: {}", e.getMessage());
+                return Mono.empty();
+            });
+    }
+
+    // Variante bloqueante para llamantes síncronos (RestTemplate, health); no usar desde hilos de Reactor
     public String getSessionId() {
-        String staticSession = Optional.ofNullable(bffProperties.getMcp().getStaticSessionId())
-                .map(String::trim)
-                .filter(s -> !s.isEmpty())
-                .orElse(null);
+        String staticSession = staticSession();
         if (staticSession != null) {
             return staticSession;
         }
-        String existing = cachedSession.get();
-        if (existing != null) {
-            return existing;
-        }
-        synchronized (cachedSession) {
-            existing = cachedSession.get();
-            if (existing != null) {
-                return existing;
-            }
-            String sessionFromServer = fetchSessionFromServer();
-            cachedSession.set(sessionFromServer);
-            return sessionFromServer;
+        Session current = cachedSession.get();
+        long now = clock.getAsLong();
+        if (current != null && now < current.refreshAt()) {
+            return current.id();
         }
+        return getSessionIdAsync().block();
     }
 
     public void invalidateSession() {
@@ -55,17 +104,69 @@ public class McpSessionService {
     }
 
     /**
-     * Fuerza un handshake POST al endpoint de sesión y actualiza el cache con el valor obtenido.
-     * Retorna el sessionId resultante (o UUID si no fue posible obtener cookie).
+     * Invalida la sesión sólo si sigue siendo staleId: cuando varias llamadas reciben a la vez el mismo rechazo,
+     * la primera la descarta y el resto reutiliza la sesión nueva en lugar de forzar más handshakes.
      */
-    public String startSession() {
-        synchronized (cachedSession) {
-            String sessionFromServer = fetchSessionFromServer();
-            cachedSession.set(sessionFromServer);
-            return sessionFromServer;
+    public void invalidateSession(String staleId) {
+        if (staleId == null) return;
+        Session prev = cachedSession.getAndUpdate(s -> s != null && s.id().equals(staleId) ? null : s);
+        if (prev != null && prev.id().equals(staleId)) {
+            failedAt = 0L;
+            log.info("[MCP][Session] Sesión rechazada por el servidor MCP, se invalida: {}", maskToken(staleId));
         }
     }
 
+    /**
+     * Fuerza un handshake y actualiza el cache con el valor obtenido.
+     * Retorna el sessionId resultante (o null si el servidor no entregó sesión).
+     */
+    public String startSession() {
+        cachedSession.set(null);
+        failedAt = 0L;
+        return handshake().map(Session::id).block();
+    }
+
+    private Mono<Session> handshake() {
+        return handshakes.execute(HANDSHAKE_KEY, () -> Mono.fromCallable(this::fetchSessionFromServer)
+            .subscribeOn(blockingScheduler != null ? blockingScheduler : Schedulers.boundedElastic())
+            .map(this::newSession)
+            .doOnNext(session -> {
+                cachedSession.set(session);
+                failedAt = 0L;
+            })
+            .switchIfEmpty(Mono.defer(() -> {
+                failedAt = clock.getAsLong();
+                return Mono.empty();
+            }))
+            .doOnError(e -> failedAt = clock.getAsLong()));
+    }
+
+    // Renovación anticipada: la sesión actual sigue sirviendo hasta que llegue la nueva
+    private void refreshInBackground() {
+        handshake().subscribe(
+            s -> log.info("[MCP][Session] Sesión renovada antes de vencer: {}", maskToken(s.id())),
+            e -> log.warn("[MCP][Session] Renovación anticipada falló: {}", e.getMessage()));
+    }
+
+    private Session newSession(String id) {
+        BffProperties.Mcp mcp = bffProperties.getMcp();
+        long now = clock.getAsLong();
+        long ttlMs = Math.max(1, mcp.getSessionTtlSeconds()) * 1000L;
+        long aheadMs = Math.min(Math.max(0, mcp.getSessionRefreshAheadSeconds()) * 1000L, ttlMs);
+        return new Session(id, now + ttlMs - aheadMs, now + ttlMs);
+    }
+
+    private long backoffMs() {
+        return Math.max(0, bffProperties.getMcp().getSessionRetryBackoffSeconds()) * 1000L;
+    }
+
+    private String staticSession() {
+        return Optional.ofNullable(bffProperties.getMcp().getStaticSessionId())
+                .map(String::trim)
+                .filter(s -> !s.isEmpty())
+                .orElse(null);
+    }
+
     private String fetchSessionFromServer() {
         String baseEndpoint = Optional.ofNullable(bffProperties.getMcp().getEndpoint()).orElse("");
         String sessionEndpoint = Optional.ofNullable(bffProperties.getMcp().getSessionEndpoint())
@@ -97,9 +198,9 @@ public class McpSessionService {
             if (sessionFromPost != null) return sessionFromPost;
         }
 
-        String fallbackSession = UUID.randomUUID().toString();
-        log.warn("[MCP][Session] Usando session provisional: {}", fallbackSession);
-        return fallbackSession;
+        // Sin sesión: una provisional inventada sería rechazada por el servidor; se reintenta tras el backoff
+        log.warn("[MCP][Session] El servidor MCP no entregó sesión; se llamará sin mcp-session-id");
+        return null;
     }
 
     private String extractSessionIdCookie(java.util.List<String> setCookies) {
@@ -175,6 +276,12 @@ public class McpSessionService {
             if (setCookies != null) {
                 log.info("[MCP][Session][POST] Set-Cookie headers: {}", setCookies);
             }
+            // Servidores MCP streamable-http entregan la sesión en el header mcp-session-id
+            String headerSession = resp.getHeaders().getFirst("mcp-session-id");
+            if (headerSession != null && !headerSession.isBlank()) {
+                log.info("[MCP][Session] mcp-session-id obtenido tras POST handshake: {}", maskToken(headerSession));
+                return headerSession.trim();
+            }
             String sessionIdCookie = extractSessionIdCookie(setCookies);
             if (sessionIdCookie != null && !sessionIdCookie.isBlank()) {
                 log.info("[MCP][Session] session_id obtenido tras POST handshake: {}", sessionIdCookie);
@@ -8,6 +8,10 @@ import org.springframework.stereotype.Component;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.sun.net.httpserver.HttpServer;
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
@@ -40,8 +44,9 @@ public class MockMcpAutoStarter {
                 if (path == null || path.isBlank()) path = "/mcp";
 
                 server = HttpServer.create(new InetSocketAddress(port), 0);
-                server.createContext(path, new McpHandler());
-                server.setExecutor(Executors.newCachedThreadPool());
+                server.createContext(path, new McpHandler(true));
+                boolean virtualThreads = bffProperties.getExecution() != null && bffProperties.getExecution().isVirtualThreads();
+                server.setExecutor(virtualThreads ? Executors.newVirtualThreadPerTaskExecutor() : Executors.newCachedThreadPool());
                 server.start();
                 log.info("Mock MCP server started at http://localhost:{}{} (mockEnabled=true)", port, path);
             }
@@ -59,14 +64,50 @@ public class MockMcpAutoStarter {
     }
 
     static class McpHandler implements HttpHandler {
+        private static final ObjectMapper MAPPER = new ObjectMapper();
+        // false simula un servidor sin soporte de lotes JSON-RPC (responde -32600 a los arrays)
+        private final boolean batchSupported;
+
+        McpHandler(boolean batchSupported) {
+            this.batchSupported = batchSupported;
+        }
+
         @Override
         public void handle(HttpExchange exchange) throws IOException {
-            String response = "{}";
+            String response;
             String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
             // Handshake: devolver header mcp-session-id simulando el servidor real
             if (body.contains("\"method\":\"handshake\"")) {
                 exchange.getResponseHeaders().add("mcp-session-id", "mock-session-id");
             }
+            if (body.stripLeading().startsWith("[")) {
+                response = batchSupported ? batchResponse(body)
+                    : "{\"jsonrpc\":\"2.0\",\"id\":null,\"error\":{\"code\":-32600,\"message\":\"Batch not supported\"}}";
+            } else {
+                response = resultFor(body);
+            }
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            byte[] respBytes = response.getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, respBytes.length);
+            OutputStream os = exchange.getResponseBody();
+            os.write(respBytes);
+            os.close();
+        }
+
+        // Lote JSON-RPC 2.0: una respuesta {jsonrpc, id, result} por cada llamada del array
+        private static String batchResponse(String body) throws IOException {
+            ArrayNode out = MAPPER.createArrayNode();
+            for (JsonNode call : MAPPER.readTree(body)) {
+                ObjectNode item = out.addObject();
+                item.put("jsonrpc", "2.0");
+                item.set("id", call.get("id"));
+                item.set("result", MAPPER.readTree(resultFor(MAPPER.writeValueAsString(call))));
+            }
+            return MAPPER.writeValueAsString(out);
+        }
+
+        private static String resultFor(String body) {
+            String response;
             // Simula el contrato MCP real del llm_mcp_server de Odoo (métodos comunes)
             if (body.contains("\"method\":\"orders.get\"")) {
                 if (body.contains("includeLines") && body.contains("true")) {
@@ -133,12 +174,7 @@ public class MockMcpAutoStarter {
             } else {
                 response = "{\"ok\":true,\"message\":\"Método MCP simulado\"}";
             }
-            exchange.getResponseHeaders().add("Content-Type", "application/json");
-            byte[] respBytes = response.getBytes(StandardCharsets.UTF_8);
-            exchange.sendResponseHeaders(200, respBytes.length);
-            OutputStream os = exchange.getResponseBody();
-            os.write(respBytes);
-            os.close();
+            return response;
         }
     }
 }
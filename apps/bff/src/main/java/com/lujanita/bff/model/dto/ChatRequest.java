@@ -3,6 +3,8 @@ package com.lujanita.bff.model.dto;
 public class ChatRequest {
     private String correlationId;
     private String message;
+    // Opcional: agrupa los mensajes de una misma conversación (equivale a la cabecera X-Conversation-Id)
+    private String conversationId;
 
     public String getCorrelationId() {
         return correlationId;
@@ -19,4 +21,12 @@ public class ChatRequest {
     public void setMessage(String message) {
         this.message = message;
     }
+
+    public String getConversationId() {
+        return conversationId;
+    }
+
+    public void setConversationId(String conversationId) {
+        this.conversationId = conversationId;
+    }
 }
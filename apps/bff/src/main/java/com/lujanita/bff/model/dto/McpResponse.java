@@ -15,5 +15,15 @@ public class McpResponse {
     public void setMessage(String message) { this.message = message; }
     public String getCorrelationId() { return correlationId; }
     public void setCorrelationId(String correlationId) { this.correlationId = correlationId; }
+
+    // Copia superficial (data se comparte): para respuestas cacheadas o compartidas entre varios llamantes
+    public McpResponse copy() {
+        McpResponse c = new McpResponse();
+        c.data = data;
+        c.code = code;
+        c.message = message;
+        c.correlationId = correlationId;
+        return c;
+    }
 }
 
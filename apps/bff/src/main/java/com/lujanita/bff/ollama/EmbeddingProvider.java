@@ -0,0 +1,18 @@
+package com.lujanita.bff.ollama;
+
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+
+/**
+ * Origen de embeddings para la selección de herramientas (ver ToolSelector). La implementación por defecto
+ * es {@link OllamaEmbeddingProvider}; los tests pueden usar una propia sin Ollama.
+ */
+public interface EmbeddingProvider {
+
+    // false si no hay modelo de embeddings configurado: se usa el catálogo completo
+    boolean isEnabled();
+
+    // Un vector por texto, en el mismo orden
+    Mono<List<float[]>> embed(List<String> texts);
+}
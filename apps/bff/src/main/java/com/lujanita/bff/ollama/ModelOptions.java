@@ -0,0 +1,12 @@
+package com.lujanita.bff.ollama;
+
+/**
+ * Modelo y opciones de generación de una llamada a Ollama. temperature/maxTokens en null usan los de
+ * bff.ollama (temperature, maxTokens); model en null o vacío usa bff.ollama.model.
+ */
+public record ModelOptions(String model, Double temperature, Integer maxTokens) {
+
+    public static ModelOptions of(String model) {
+        return new ModelOptions(model, null, null);
+    }
+}
@@ -0,0 +1,324 @@
+package com.lujanita.bff.ollama;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.lujanita.bff.config.BffProperties;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.RestTemplate;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+/**
+ * Nodos Ollama de bff.ollama.endpoints (o sólo bff.ollama.endpoint). Cada generación va al nodo con menos
+ * peticiones en curso entre los que tienen el modelo (según /api/tags) y no están expulsados; tras
+ * poolFailureThreshold fallos seguidos (conexión, timeout o 5xx) el nodo sale de la rotación poolEjectSeconds y
+ * luego vuelve a recibir tráfico: un fallo más lo expulsa de nuevo. Exporta ollama.backend.latency,
+ * ollama.backend.outstanding, ollama.backend.available y ollama.backend.ejections por nodo.
+ */
+@Component
+public class OllamaBackendPool {
+    private static final Logger log = LoggerFactory.getLogger(OllamaBackendPool.class);
+    private static final String DEFAULT_BASE_URL = "http://localhost:11434";
+    private static final int PROBE_TIMEOUT_MS = 3000;
+
+    @Autowired
+    private BffProperties bffProperties;
+    @Autowired(required = false)
+    private MeterRegistry meterRegistry;
+    // Executor acotado de la app para el re-sondeo de /api/tags (sin él, el pool común de ForkJoin)
+    @Autowired(required = false)
+    @Qualifier("bffTaskExecutor")
+    private TaskExecutor probeExecutor;
+
+    private final LongSupplier clock;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final AtomicInteger rotation = new AtomicInteger();
+    private final AtomicBoolean probing = new AtomicBoolean();
+    private volatile List<Backend> backends = List.of();
+    private volatile List<String> configuredUrls;
+    private volatile long lastProbeAt;
+
+    public OllamaBackendPool() {
+        this.clock = System::currentTimeMillis;
+    }
+
+    OllamaBackendPool(BffProperties bffProperties, MeterRegistry meterRegistry, LongSupplier clock) {
+        this.bffProperties = bffProperties;
+        this.meterRegistry = meterRegistry;
+        this.clock = clock;
+    }
+
+    // Base http://host:port a partir de una URL de Ollama (p.ej. bff.ollama.endpoint, que apunta a /api/generate)
+    public static String baseUrlOf(String endpoint) {
+        if (endpoint == null || endpoint.isBlank()) return DEFAULT_BASE_URL;
+        String trimmed = endpoint.trim();
+        int api = trimmed.indexOf("/api/");
+        String base = api >= 0 ? trimmed.substring(0, api) : trimmed;
+        return base.endsWith("/") ? base.substring(0, base.length() - 1) : base;
+    }
+
+    /**
+     * Turno en el nodo elegido para model. Siempre devuelve uno: si ninguno está disponible usa el que antes
+     * termina su expulsión, para que el error lo decida el circuit breaker de Ollama y no el pool.
+     */
+    public Lease acquire(String model) {
+        List<Backend> all = backends();
+        refreshModelsIfStale();
+        long now = clock.getAsLong();
+        int start = Math.floorMod(rotation.getAndIncrement(), all.size());
+        Backend best = null;
+        for (int i = 0; i < all.size(); i++) {
+            Backend b = all.get((start + i) % all.size());
+            if (!b.serves(model) || !b.isAvailable(now)) continue;
+            if (best == null || b.outstanding.get() < best.outstanding.get()) best = b;
+        }
+        if (best == null) {
+            for (Backend b : all) {
+                if (best == null) {
+                    best = b;
+                } else if (b.serves(model) != best.serves(model)) {
+                    if (b.serves(model)) best = b;
+                } else if (b.ejectedUntil < best.ejectedUntil) {
+                    best = b;
+                }
+            }
+        }
+        best.outstanding.incrementAndGet();
+        return new Lease(best, now);
+    }
+
+    public List<Backend> getBackends() {
+        return backends();
+    }
+
+    public void validateModel(String model) {
+        validateModels(List.of(model));
+    }
+
+    /**
+     * Consulta /api/tags en cada nodo (una vez) y guarda sus modelos. Lanza IllegalStateException si algún modelo
+     * no está en ningún nodo; los nodos sin el modelo o que no respondieron sólo se registran en el log.
+     */
+    public void validateModels(java.util.Collection<String> models) {
+        probeModels();
+        for (String model : models) checkModel(model);
+    }
+
+    private void checkModel(String model) {
+        List<String> serving = new ArrayList<>();
+        List<String> unreachable = new ArrayList<>();
+        for (Backend b : backends()) {
+            if (b.models == null) {
+                unreachable.add(b.baseUrl);
+                log.warn("[Ollama] No se pudo consultar /api/tags en {}", b.baseUrl);
+            } else if (b.serves(model)) {
+                serving.add(b.baseUrl);
+            } else {
+                log.warn("[Ollama] El nodo {} no tiene el modelo '{}'; no recibirá esas peticiones", b.baseUrl, model);
+            }
+        }
+        if (serving.isEmpty() && unreachable.size() == backends().size()) {
+            log.error("[Ollama] No se pudo verificar el modelo Ollama en {}", unreachable);
+            throw new IllegalStateException("No se pudo verificar el modelo Ollama en " + unreachable);
+        }
+        if (serving.isEmpty()) {
+            log.error("[Ollama] El modelo '{}' NO está disponible en Ollama. Descárgalo con: ollama pull {}", model, model);
+            throw new IllegalStateException("El modelo '" + model + "' no está disponible en Ollama. Descárgalo con: ollama pull " + model);
+        }
+        log.info("[Ollama] Modelo '{}' disponible en {}", model, serving);
+    }
+
+    // Modelos de cada nodo según /api/tags; un nodo que no responde queda con modelos desconocidos (recibe tráfico)
+    public void probeModels() {
+        SimpleClientHttpRequestFactory factory = new SimpleClientHttpRequestFactory();
+        factory.setConnectTimeout(PROBE_TIMEOUT_MS);
+        factory.setReadTimeout(PROBE_TIMEOUT_MS);
+        RestTemplate restTemplate = new RestTemplate(factory);
+        for (Backend b : backends()) {
+            try {
+                String body = restTemplate.getForObject(b.baseUrl + "/api/tags", String.class);
+                Set<String> names = new LinkedHashSet<>();
+                JsonNode models = objectMapper.readTree(body == null ? "{}" : body).path("models");
+                for (JsonNode m : models) {
+                    String name = m.path("name").asText(m.path("model").asText(""));
+                    if (!name.isBlank()) names.add(name);
+                }
+                b.models = Set.copyOf(names);
+            } catch (Exception e) {
+                log.warn("[Ollama] /api/tags falló en {}: {}", b.baseUrl, e.getMessage());
+            }
+        }
+        lastProbeAt = clock.getAsLong();
+    }
+
+    // Re-sondeo periódico de /api/tags fuera del hilo de la petición (un nodo nuevo o un ollama pull posterior)
+    private void refreshModelsIfStale() {
+        long intervalMs = bffProperties.getOllama().getPoolProbeIntervalSeconds() * 1000L;
+        if (intervalMs <= 0 || clock.getAsLong() - lastProbeAt < intervalMs) return;
+        if (!probing.compareAndSet(false, true)) return;
+        Runnable probe = () -> {
+            try {
+                probeModels();
+            } finally {
+                probing.set(false);
+            }
+        };
+        try {
+            if (probeExecutor != null) probeExecutor.execute(probe);
+            else CompletableFuture.runAsync(probe);
+        } catch (Exception e) {
+            probing.set(false);
+            log.warn("[Ollama] No se pudo programar el sondeo de /api/tags: {}", e.getMessage());
+        }
+    }
+
+    // Nodos configurados; se reconstruyen (conservando el estado de los que siguen) si cambia la lista
+    private List<Backend> backends() {
+        BffProperties.Ollama props = bffProperties.getOllama();
+        List<String> urls = new ArrayList<>();
+        if (props.getEndpoints() != null) {
+            for (String e : props.getEndpoints()) {
+                if (e != null && !e.isBlank() && !urls.contains(baseUrlOf(e))) urls.add(baseUrlOf(e));
+            }
+        }
+        if (urls.isEmpty()) urls.add(baseUrlOf(props.getEndpoint()));
+        if (urls.equals(configuredUrls)) return backends;
+        synchronized (this) {
+            if (urls.equals(configuredUrls)) return backends;
+            List<Backend> next = new ArrayList<>();
+            for (String url : urls) {
+                Backend existing = null;
+                for (Backend b : backends) if (b.baseUrl.equals(url)) existing = b;
+                next.add(existing != null ? existing : register(new Backend(url)));
+            }
+            backends = List.copyOf(next);
+            configuredUrls = urls;
+            log.info("[Ollama] Nodos: {}", urls);
+            return backends;
+        }
+    }
+
+    private Backend register(Backend b) {
+        try {
+            if (meterRegistry != null) {
+                Gauge.builder("ollama.backend.outstanding", b, x -> x.outstanding.get())
+                    .description("Requests in flight per Ollama node").tag("backend", b.baseUrl).register(meterRegistry);
+                Gauge.builder("ollama.backend.available", b, x -> x.isAvailable(clock.getAsLong()) ? 1 : 0)
+                    .description("1 if the Ollama node is in rotation, 0 if ejected").tag("backend", b.baseUrl).register(meterRegistry);
+            }
+        } catch (Exception ignore) {}
+        return b;
+    }
+
+    private void onSuccess(Backend b, long elapsedMs) {
+        b.consecutiveFailures.set(0);
+        try {
+            if (meterRegistry != null) {
+                Timer.builder("ollama.backend.latency")
+                    .description("Duration of Ollama calls per node")
+                    .tag("backend", b.baseUrl)
+                    .register(meterRegistry)
+                    .record(elapsedMs, TimeUnit.MILLISECONDS);
+            }
+        } catch (Exception ignore) {}
+    }
+
+    private void onFailure(Backend b, Throwable error) {
+        // Un 4xx (p.ej. modelo inexistente o petición inválida) no dice nada de la salud del nodo
+        if (error instanceof WebClientResponseException wre && wre.getStatusCode().is4xxClientError()) return;
+        if (error instanceof HttpClientErrorException) return;
+        int failures = b.consecutiveFailures.incrementAndGet();
+        int threshold = Math.max(1, bffProperties.getOllama().getPoolFailureThreshold());
+        if (failures < threshold) return;
+        long now = clock.getAsLong();
+        if (!b.isAvailable(now)) return;
+        b.ejectedUntil = now + bffProperties.getOllama().getPoolEjectSeconds() * 1000L;
+        log.warn("[Ollama] Nodo {} fuera de rotación {}s tras {} fallos seguidos: {}",
+            b.baseUrl, bffProperties.getOllama().getPoolEjectSeconds(), failures, error == null ? "" : error.getMessage());
+        try {
+            if (meterRegistry != null) meterRegistry.counter("ollama.backend.ejections", "backend", b.baseUrl).increment();
+        } catch (Exception ignore) {}
+    }
+
+    public static final class Backend {
+        private final String baseUrl;
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private final AtomicInteger consecutiveFailures = new AtomicInteger();
+        private volatile long ejectedUntil;
+        // Modelos según /api/tags; null mientras no se pudo consultar
+        private volatile Set<String> models;
+
+        private Backend(String baseUrl) {
+            this.baseUrl = baseUrl;
+        }
+
+        public String getBaseUrl() { return baseUrl; }
+        public int getOutstanding() { return outstanding.get(); }
+
+        boolean isAvailable(long now) {
+            return ejectedUntil <= now;
+        }
+
+        // "mistral" también coincide con "mistral:latest" u otra etiqueta de mistral
+        boolean serves(String model) {
+            Set<String> m = models;
+            if (m == null || model == null || model.isBlank()) return true;
+            for (String name : m) {
+                if (name.equals(model) || (!model.contains(":") && name.startsWith(model + ":"))) return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Petición en curso en un nodo; se cierra una sola vez con success, failure o release (cancelada).
+     */
+    public final class Lease {
+        private final Backend backend;
+        private final long startedAt;
+        private final AtomicBoolean done = new AtomicBoolean();
+
+        private Lease(Backend backend, long startedAt) {
+            this.backend = backend;
+            this.startedAt = startedAt;
+        }
+
+        public String baseUrl() { return backend.baseUrl; }
+
+        public void success() {
+            if (!done.compareAndSet(false, true)) return;
+            backend.outstanding.decrementAndGet();
+            onSuccess(backend, clock.getAsLong() - startedAt);
+        }
+
+        public void failure(Throwable error) {
+            if (!done.compareAndSet(false, true)) return;
+            backend.outstanding.decrementAndGet();
+            onFailure(backend, error);
+        }
+
+        public void release() {
+            if (!done.compareAndSet(false, true)) return;
+            backend.outstanding.decrementAndGet();
+        }
+    }
+}
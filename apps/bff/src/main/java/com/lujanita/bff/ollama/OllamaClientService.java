@@ -6,6 +6,9 @@ import org.springframework.ai.chat.messages.UserMessage;
 import org.springframework.ai.chat.prompt.Prompt;
 import org.springframework.ai.chat.ChatResponse;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+import jakarta.annotation.PostConstruct;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.slf4j.Logger;
@@ -21,6 +24,9 @@ import org.springframework.http.MediaType;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.lujanita.bff.prompt.PromptConfigService;
+import com.lujanita.bff.prompt.PromptConfigSnapshot;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
 @Service
 public class OllamaClientService {
@@ -35,14 +41,255 @@ public class OllamaClientService {
     @Autowired
     private PromptConfigService promptConfigService;
 
+    @Autowired(required = false)
+    private OllamaNativeClient ollamaNativeClient;
+
+    @Autowired(required = false)
+    private OllamaBackendPool backendPool;
+
+    // (rol|perfil) -> prompt de sistema renderizado; se reemplaza entera en cada recarga de prompts.yml
+    private final AtomicReference<Map<String, String>> systemPrompts = new AtomicReference<>();
+
     public String generate(String model, String prompt, String role, String profile) {
+        return generate(ModelOptions.of(model), prompt, role, profile);
+    }
+
+    public String generate(ModelOptions options, String prompt, String role, String profile) {
+        return generate(options, prompt, role, profile, null);
+    }
+
+    /**
+     * staticContext es texto estable entre peticiones (p.ej. el catálogo de herramientas MCP): va como mensaje de
+     * sistema después del prompt de sistema y antes del mensaje del usuario, para que el prefijo sea idéntico
+     * byte a byte y Ollama reutilice su evaluación.
+     */
+    public String generate(ModelOptions options, String prompt, String role, String profile, String staticContext) {
+        return generate(options, prompt, role, profile, staticContext, List.of());
+    }
+
+    /**
+     * history son los turnos previos de la conversación (usuario/asistente, más antiguos primero). Van entre el
+     * contexto estático y el mensaje nuevo: el prefijo de la petición coincide con el de la petición anterior de
+     * la misma conversación y Ollama sólo evalúa el turno nuevo.
+     */
+    public String generate(ModelOptions options, String prompt, String role, String profile, String staticContext,
+                           List<OllamaNativeClient.ChatMessage> history) {
         String endpoint = bffProperties.getOllama().getEndpoint();
-        String modelName = bffProperties.getOllama().getModel();
+        ModelOptions resolved = resolve(options);
+        String modelName = resolved.model();
         log.info("[Ollama] Usando modelo: {} (endpoint: {})", modelName, endpoint);
 
-        // Obtener prompts dinámicos según rol/perfil
-        String systemPrompt = promptConfigService.getSystemPrompt(role, profile);
-        String assistantGuidelines = promptConfigService.getAssistantGuidelines(role, profile);
+        try {
+            if (useNativeApi()) {
+                String result = ollamaNativeClient.chat(resolved, nativeMessages(prompt, role, profile, staticContext, history)).block();
+                return result == null ? "" : result.trim();
+            }
+            ChatResponse chatResponse = ollamaChatClient.call(buildPrompt(prompt, role, profile, staticContext, history));
+            String result = chatResponse.getResult().getOutput().getContent();
+            return result == null ? "" : result.trim();
+        } catch (Exception e) {
+            log.error("[Ollama] Error al procesar el prompt: {}", e.getMessage(), e);
+            // Fallback HTTP directo a /api/chat si Spring AI falla (con pool, al nodo que elija): mismos mensajes que la
+            // API nativa, para no perder el prompt de sistema, el contexto estático ni el historial
+            OllamaBackendPool.Lease lease = backendPool != null ? backendPool.acquire(modelName) : null;
+            String fallbackUrl = (lease != null ? lease.baseUrl() : OllamaBackendPool.baseUrlOf(endpoint)) + "/api/chat";
+            try {
+                RestTemplate rt = new RestTemplate();
+                HttpHeaders headers = new HttpHeaders();
+                headers.setContentType(MediaType.APPLICATION_JSON);
+                ObjectMapper mapper = new ObjectMapper();
+                ObjectNode body = fallbackRequestBody(mapper, resolved, nativeMessages(prompt, role, profile, staticContext, history));
+                HttpEntity<String> request = new HttpEntity<>(mapper.writeValueAsString(body), headers);
+                ResponseEntity<String> resp = rt.postForEntity(fallbackUrl, request, String.class);
+                String respBody = resp.getBody();
+                if (resp.getStatusCode().is2xxSuccessful() && respBody != null) {
+                    String content = mapper.readTree(respBody).path("message").path("content").asText("");
+                    if (lease != null) lease.success();
+                    return content.trim();
+                } else {
+                    log.error("[Ollama] Fallback HTTP falló con status {} y body: {}", resp.getStatusCode().value(), respBody);
+                    throw new RuntimeException("Fallback HTTP a Ollama falló: status=" + resp.getStatusCode().value());
+                }
+            } catch (Exception ex2) {
+                if (lease != null) lease.failure(ex2);
+                log.error("[Ollama] Fallback HTTP también falló: {}", ex2.getMessage());
+                throw new RuntimeException("Error al conectar con Ollama (modelo: " + modelName + "): " + ex2.getMessage(), ex2);
+            }
+        }
+    }
+
+    // Cuerpo de /api/chat (stream=false) del fallback HTTP, con keep_alive y las options de la etapa
+    ObjectNode fallbackRequestBody(ObjectMapper mapper, ModelOptions resolved, List<OllamaNativeClient.ChatMessage> messages) {
+        ObjectNode body = mapper.createObjectNode();
+        body.put("model", resolved.model());
+        com.fasterxml.jackson.databind.node.ArrayNode array = body.putArray("messages");
+        for (OllamaNativeClient.ChatMessage message : messages) {
+            array.addObject().put("role", message.role()).put("content", message.content());
+        }
+        body.put("stream", false);
+        String keepAlive = bffProperties.getOllama().getKeepAlive();
+        if (keepAlive != null && !keepAlive.isBlank()) body.put("keep_alive", keepAlive);
+        ObjectNode options = mapper.createObjectNode();
+        if (resolved.temperature() != null) options.put("temperature", resolved.temperature());
+        if (resolved.maxTokens() != null) options.put("num_predict", resolved.maxTokens());
+        if (!options.isEmpty()) body.set("options", options);
+        return body;
+    }
+
+    /**
+     * Generación en streaming: emite los fragmentos de texto a medida que Ollama los produce.
+     */
+    public Flux<String> generateStream(ModelOptions options, String prompt, String role, String profile) {
+        return generateStream(options, prompt, role, profile, null);
+    }
+
+    public Flux<String> generateStream(ModelOptions options, String prompt, String role, String profile, String staticContext) {
+        return generateStream(options, prompt, role, profile, staticContext, List.of());
+    }
+
+    public Flux<String> generateStream(ModelOptions options, String prompt, String role, String profile, String staticContext,
+                                       List<OllamaNativeClient.ChatMessage> history) {
+        ModelOptions resolved = resolve(options);
+        log.info("[Ollama] Streaming con modelo: {} (endpoint: {})", resolved.model(), bffProperties.getOllama().getEndpoint());
+        if (useNativeApi()) {
+            return ollamaNativeClient.chatStream(resolved, nativeMessages(prompt, role, profile, staticContext, history))
+                .doOnError(e -> log.error("[Ollama] Error en streaming: {}", e.getMessage()));
+        }
+        Prompt chatPrompt = buildPrompt(prompt, role, profile, staticContext, history);
+        return ollamaChatClient.stream(chatPrompt)
+            .map(chunk -> {
+                if (chunk == null || chunk.getResult() == null || chunk.getResult().getOutput() == null) return "";
+                String content = chunk.getResult().getOutput().getContent();
+                return content == null ? "" : content;
+            })
+            .filter(content -> !content.isEmpty())
+            .doOnError(e -> log.error("[Ollama] Error en streaming: {}", e.getMessage()));
+    }
+
+    /**
+     * Generación no bloqueante: emite la respuesta completa (con la API nativa es una sola petición stream=false;
+     * con Spring AI acumula el stream). No usa el fallback HTTP con RestTemplate de {@link #generate}
+     * porque bloquearía el event loop.
+     */
+    public Mono<String> generateReactive(ModelOptions options, String prompt, String role, String profile) {
+        return generateReactive(options, prompt, role, profile, null);
+    }
+
+    public Mono<String> generateReactive(ModelOptions options, String prompt, String role, String profile, String staticContext) {
+        return generateReactive(options, prompt, role, profile, staticContext, List.of());
+    }
+
+    public Mono<String> generateReactive(ModelOptions options, String prompt, String role, String profile, String staticContext,
+                                         List<OllamaNativeClient.ChatMessage> history) {
+        if (useNativeApi()) {
+            return Mono.defer(() -> ollamaNativeClient.chat(resolve(options), nativeMessages(prompt, role, profile, staticContext, history)))
+                .map(String::trim);
+        }
+        return Flux.defer(() -> generateStream(options, prompt, role, profile, staticContext, history))
+            .collect(StringBuilder::new, StringBuilder::append)
+            .map(sb -> sb.toString().trim());
+    }
+
+    // Completa con bff.ollama lo que la etapa no define. La ruta Spring AI usa siempre spring.ai.ollama.chat.options
+    private ModelOptions resolve(ModelOptions options) {
+        BffProperties.Ollama props = bffProperties.getOllama();
+        if (options == null) return new ModelOptions(props.getModel(), props.getTemperature(), props.getMaxTokens());
+        String model = options.model() == null || options.model().isBlank() ? props.getModel() : options.model();
+        return new ModelOptions(model,
+            options.temperature() != null ? options.temperature() : props.getTemperature(),
+            options.maxTokens() != null ? options.maxTokens() : props.getMaxTokens());
+    }
+
+    private boolean useNativeApi() {
+        return ollamaNativeClient != null && bffProperties.getOllama().isNativeApi();
+    }
+
+    List<OllamaNativeClient.ChatMessage> nativeMessages(String prompt, String role, String profile, String staticContext) {
+        return nativeMessages(prompt, role, profile, staticContext, List.of());
+    }
+
+    // Orden fijo: sistema (por rol/perfil), contexto estático, historial de la conversación y al final el turno del usuario
+    List<OllamaNativeClient.ChatMessage> nativeMessages(String prompt, String role, String profile, String staticContext,
+                                                        List<OllamaNativeClient.ChatMessage> history) {
+        List<OllamaNativeClient.ChatMessage> messages = new java.util.ArrayList<>(3 + (history == null ? 0 : history.size()));
+        String systemFull = systemPromptFor(role, profile);
+        if (!systemFull.isBlank()) messages.add(new OllamaNativeClient.ChatMessage("system", systemFull));
+        if (staticContext != null && !staticContext.isBlank()) messages.add(new OllamaNativeClient.ChatMessage("system", staticContext.trim()));
+        if (history != null) messages.addAll(history);
+        messages.add(new OllamaNativeClient.ChatMessage("user", prompt == null ? "" : prompt.trim()));
+        return messages;
+    }
+
+    // Construcción de mensajes para Spring AI según rol/perfil
+    private Prompt buildPrompt(String prompt, String role, String profile, String staticContext,
+                               List<OllamaNativeClient.ChatMessage> history) {
+        String systemFull = systemPromptFor(role, profile);
+
+        // Construcción correcta de mensajes para Spring AI
+        List<org.springframework.ai.chat.messages.Message> messages = new java.util.ArrayList<>();
+        if (!systemFull.isBlank()) {
+            messages.add(new org.springframework.ai.chat.messages.SystemMessage(systemFull));
+        }
+        if (staticContext != null && !staticContext.isBlank()) {
+            messages.add(new org.springframework.ai.chat.messages.SystemMessage(staticContext.trim()));
+        }
+        if (history != null) {
+            for (OllamaNativeClient.ChatMessage turn : history) {
+                messages.add("assistant".equals(turn.role())
+                    ? new org.springframework.ai.chat.messages.AssistantMessage(turn.content())
+                    : new UserMessage(turn.content()));
+            }
+        }
+        // El mensaje del usuario debe ser el último y el foco principal
+        messages.add(new UserMessage(prompt == null ? "" : prompt.trim()));
+        return new Prompt(messages);
+    }
+
+    @PostConstruct
+    public void registerPromptReload() {
+        if (promptConfigService != null) {
+            promptConfigService.addReloadListener(this::rebuildSystemPrompts);
+        }
+    }
+
+    /**
+     * Prompt de sistema ya renderizado para (rol, perfil). Los roles/perfiles que no están en prompts.yml
+     * caen en las mismas entradas que getFromConfig (sólo rol, sólo perfil o default).
+     */
+    String systemPromptFor(String role, String profile) {
+        Map<String, String> table = systemPrompts.get();
+        if (table == null) table = rebuildSystemPrompts(promptConfigService.getSnapshot());
+        String r = role == null ? "" : role;
+        String p = profile == null ? "" : profile;
+        String sys = table.get(r + "|" + p);
+        if (sys == null) sys = table.get(r + "|");
+        if (sys == null) sys = table.get("|" + p);
+        if (sys == null) sys = table.get("|");
+        return sys == null ? "" : sys;
+    }
+
+    // Precalcula el prompt de sistema de cada combinación rol x perfil del snapshot y publica la tabla de una vez
+    Map<String, String> rebuildSystemPrompts(PromptConfigSnapshot snapshot) {
+        java.util.Set<String> roles = new java.util.LinkedHashSet<>(snapshot.getRoles());
+        java.util.Set<String> profiles = new java.util.LinkedHashSet<>(snapshot.getProfiles());
+        roles.add("");
+        profiles.add("");
+        Map<String, String> table = new java.util.HashMap<>();
+        for (String r : roles) {
+            for (String p : profiles) {
+                table.put(r + "|" + p, renderSystemPrompt(snapshot.resolve(r.isEmpty() ? null : r, p.isEmpty() ? null : p)));
+            }
+        }
+        Map<String, String> immutable = Map.copyOf(table);
+        systemPrompts.set(immutable);
+        log.info("[Ollama] Tabla de prompts recompilada: {} combinaciones rol/perfil", immutable.size());
+        return immutable;
+    }
+
+    private String renderSystemPrompt(PromptConfigSnapshot.PromptEntry prompts) {
+        // Prompts dinámicos ya resueltos para el rol/perfil
+        String systemPrompt = prompts.systemPrompt();
+        String assistantGuidelines = prompts.assistantGuidelines();
         String botName = bffProperties.getChatbotName();
         String welcomeTemplate = bffProperties != null ? bffProperties.getWelcomeMessage() : "";
         String welcomeRendered = "";
@@ -68,54 +315,27 @@ public class OllamaClientService {
             }
             systemBuilder.append(guidelinesRendered.trim()).append("\n");
         }
-        String systemFull = systemBuilder.toString().trim();
-
-        // Construcción correcta de mensajes para Spring AI
-        List<org.springframework.ai.chat.messages.Message> messages = new java.util.ArrayList<>();
-        if (!systemFull.isBlank()) {
-            messages.add(new org.springframework.ai.chat.messages.SystemMessage(systemFull));
-        }
-        // El mensaje del usuario debe ser el último y el foco principal
-        messages.add(new UserMessage(prompt == null ? "" : prompt.trim()));
-        Prompt chatPrompt = new Prompt(messages);
-
-        try {
-            ChatResponse chatResponse = ollamaChatClient.call(chatPrompt);
-            String result = chatResponse.getResult().getOutput().getContent();
-            return result == null ? "" : result.trim();
-        } catch (Exception e) {
-            log.error("[Ollama] Error al procesar el prompt: {}", e.getMessage(), e);
-            // Fallback HTTP directo si Spring AI falla
-            try {
-                RestTemplate rt = new RestTemplate();
-                HttpHeaders headers = new HttpHeaders();
-                headers.setContentType(MediaType.APPLICATION_JSON);
-                ObjectMapper mapper = new ObjectMapper();
-                ObjectNode body = mapper.createObjectNode();
-                body.put("model", modelName);
-                body.put("prompt", prompt == null ? "" : prompt.trim());
-                body.put("stream", false);
-                HttpEntity<String> request = new HttpEntity<>(mapper.writeValueAsString(body), headers);
-                ResponseEntity<String> resp = rt.postForEntity(endpoint, request, String.class);
-                String respBody = resp.getBody();
-                if (resp.getStatusCode().is2xxSuccessful() && respBody != null) {
-                    return respBody;
-                } else {
-                    log.error("[Ollama] Fallback HTTP falló con status {} y body: {}", resp.getStatusCode().value(), respBody);
-                    throw new RuntimeException("Fallback HTTP a Ollama falló: status=" + resp.getStatusCode().value());
-                }
-            } catch (Exception ex2) {
-                log.error("[Ollama] Fallback HTTP también falló: {}", ex2.getMessage());
-                throw new RuntimeException("Error al conectar con Ollama (modelo: " + modelName + "): " + ex2.getMessage(), ex2);
-            }
-        }
+        return systemBuilder.toString().trim();
     }
 
     // Validación automática en el startup
     @EventListener(ContextRefreshedEvent.class)
     public void validateModelOnStartup() {
-        String endpoint = bffProperties.getOllama().getEndpoint();
-        String modelName = bffProperties.getOllama().getModel();
+        BffProperties.Ollama props = bffProperties.getOllama();
+        // Modelo por defecto, los de cada etapa (planificación, respuesta directa, respuesta con datos MCP) y el de embeddings
+        java.util.Set<String> models = new java.util.LinkedHashSet<>();
+        for (String m : java.util.Arrays.asList(props.getModel(), props.getPlanningModel(), props.getDirectModel(), props.getGroundedModel(), props.getEmbeddingModel())) {
+            if (m != null && !m.isBlank()) models.add(m);
+        }
+        if (backendPool != null) {
+            // Consulta /api/tags en cada nodo: basta con que uno tenga el modelo, el resto queda fuera para ese modelo
+            backendPool.validateModels(models);
+            return;
+        }
+        for (String m : models) validateModel(props.getEndpoint(), m);
+    }
+
+    private void validateModel(String endpoint, String modelName) {
         String listUrl = endpoint.replace("/api/generate", "/api/tags");
         RestTemplate restTemplate = new RestTemplate();
         try {
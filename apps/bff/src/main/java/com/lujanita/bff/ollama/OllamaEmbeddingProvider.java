@@ -0,0 +1,31 @@
+package com.lujanita.bff.ollama;
+
+import com.lujanita.bff.config.BffProperties;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+
+/**
+ * Embeddings con bff.ollama.embeddingModel vía /api/embed (repartidos por {@link OllamaBackendPool} si está).
+ */
+@Component
+public class OllamaEmbeddingProvider implements EmbeddingProvider {
+
+    @Autowired
+    private BffProperties bffProperties;
+    @Autowired
+    private OllamaNativeClient nativeClient;
+
+    @Override
+    public boolean isEnabled() {
+        String model = bffProperties.getOllama().getEmbeddingModel();
+        return model != null && !model.isBlank();
+    }
+
+    @Override
+    public Mono<List<float[]>> embed(List<String> texts) {
+        return nativeClient.embed(bffProperties.getOllama().getEmbeddingModel(), texts);
+    }
+}
@@ -0,0 +1,233 @@
+package com.lujanita.bff.ollama;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.lujanita.bff.config.BffProperties;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cliente HTTP directo a la API nativa de Ollama (/api/chat). A diferencia de Spring AI permite enviar
+ * keep_alive y leer las métricas de cada respuesta (prompt_eval_count, prompt_eval_duration, load_duration),
+ * que son las que muestran si Ollama reutilizó el prefijo de prompt ya evaluado. Con {@link OllamaBackendPool}
+ * cada petición va al nodo que elija el pool.
+ */
+@Component
+public class OllamaNativeClient {
+    private static final Logger log = LoggerFactory.getLogger(OllamaNativeClient.class);
+
+    @Autowired
+    private BffProperties bffProperties;
+    @Autowired(required = false)
+    private MeterRegistry meterRegistry;
+    @Autowired(required = false)
+    private OllamaBackendPool backendPool;
+
+    private volatile WebClient webClient;
+
+    // Mensaje de /api/chat (role: system|user|assistant)
+    public record ChatMessage(String role, String content) {}
+
+    /**
+     * Generación completa (stream=false). Emite el contenido del mensaje del asistente.
+     */
+    public Mono<String> chat(String model, List<ChatMessage> messages) {
+        return chat(ModelOptions.of(model), messages);
+    }
+
+    // Con options de la etapa (modelo, temperature, num_predict)
+    public Mono<String> chat(ModelOptions options, List<ChatMessage> messages) {
+        if (backendPool == null) return chat(baseUrl(), options, messages);
+        return Mono.defer(() -> {
+            OllamaBackendPool.Lease lease = backendPool.acquire(options.model());
+            return chat(lease.baseUrl(), options, messages)
+                .doOnSuccess(v -> lease.success())
+                .doOnError(lease::failure)
+                .doOnCancel(lease::release);
+        });
+    }
+
+    private Mono<String> chat(String baseUrl, ModelOptions options, List<ChatMessage> messages) {
+        return client().post()
+            .uri(baseUrl + "/api/chat")
+            .contentType(MediaType.APPLICATION_JSON)
+            .bodyValue(requestBody(options, messages, false))
+            .retrieve()
+            .bodyToMono(JsonNode.class)
+            .doOnNext(resp -> recordMetrics(options.model(), resp))
+            .map(resp -> resp.path("message").path("content").asText(""));
+    }
+
+    /**
+     * Generación en streaming (NDJSON). Emite los fragmentos de texto; las métricas llegan en el último objeto (done=true).
+     */
+    public Flux<String> chatStream(String model, List<ChatMessage> messages) {
+        return chatStream(ModelOptions.of(model), messages);
+    }
+
+    public Flux<String> chatStream(ModelOptions options, List<ChatMessage> messages) {
+        if (backendPool == null) return chatStream(baseUrl(), options, messages);
+        return Flux.defer(() -> {
+            OllamaBackendPool.Lease lease = backendPool.acquire(options.model());
+            return chatStream(lease.baseUrl(), options, messages)
+                .doOnComplete(lease::success)
+                .doOnError(lease::failure)
+                .doOnCancel(lease::release);
+        });
+    }
+
+    private Flux<String> chatStream(String baseUrl, ModelOptions options, List<ChatMessage> messages) {
+        return client().post()
+            .uri(baseUrl + "/api/chat")
+            .contentType(MediaType.APPLICATION_JSON)
+            .accept(MediaType.APPLICATION_NDJSON)
+            .bodyValue(requestBody(options, messages, true))
+            .retrieve()
+            .bodyToFlux(JsonNode.class)
+            .doOnNext(chunk -> {
+                if (chunk.path("done").asBoolean(false)) recordMetrics(options.model(), chunk);
+            })
+            .map(chunk -> chunk.path("message").path("content").asText(""))
+            .filter(content -> !content.isEmpty());
+    }
+
+    /**
+     * Embeddings (/api/embed) de varios textos en una sola petición; un vector por texto, en el mismo orden.
+     */
+    public Mono<List<float[]>> embed(String model, List<String> inputs) {
+        if (backendPool == null) return embed(baseUrl(), model, inputs);
+        return Mono.defer(() -> {
+            OllamaBackendPool.Lease lease = backendPool.acquire(model);
+            return embed(lease.baseUrl(), model, inputs)
+                .doOnSuccess(v -> lease.success())
+                .doOnError(lease::failure)
+                .doOnCancel(lease::release);
+        });
+    }
+
+    private Mono<List<float[]>> embed(String baseUrl, String model, List<String> inputs) {
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("model", model);
+        body.put("input", inputs);
+        String keepAlive = bffProperties.getOllama().getKeepAlive();
+        if (keepAlive != null && !keepAlive.isBlank()) body.put("keep_alive", keepAlive);
+        return client().post()
+            .uri(baseUrl + "/api/embed")
+            .contentType(MediaType.APPLICATION_JSON)
+            .bodyValue(body)
+            .retrieve()
+            .bodyToMono(JsonNode.class)
+            .map(resp -> {
+                List<float[]> vectors = new java.util.ArrayList<>();
+                for (JsonNode embedding : resp.path("embeddings")) {
+                    float[] v = new float[embedding.size()];
+                    for (int i = 0; i < v.length; i++) v[i] = (float) embedding.get(i).asDouble();
+                    vectors.add(v);
+                }
+                if (vectors.size() != inputs.size()) {
+                    throw new IllegalStateException("Ollama devolvió " + vectors.size() + " embeddings para " + inputs.size() + " textos");
+                }
+                return vectors;
+            });
+    }
+
+    Map<String, Object> requestBody(String model, List<ChatMessage> messages, boolean stream) {
+        return requestBody(ModelOptions.of(model), messages, stream);
+    }
+
+    Map<String, Object> requestBody(ModelOptions modelOptions, List<ChatMessage> messages, boolean stream) {
+        BffProperties.Ollama props = bffProperties.getOllama();
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("model", modelOptions.model());
+        body.put("messages", messages);
+        body.put("stream", stream);
+        String keepAlive = props.getKeepAlive();
+        if (keepAlive != null && !keepAlive.isBlank()) {
+            body.put("keep_alive", keepAlive);
+        }
+        Map<String, Object> options = new LinkedHashMap<>();
+        Double temperature = modelOptions.temperature() != null ? modelOptions.temperature() : props.getTemperature();
+        Integer maxTokens = modelOptions.maxTokens() != null ? modelOptions.maxTokens() : props.getMaxTokens();
+        if (temperature != null) options.put("temperature", temperature);
+        if (maxTokens != null) options.put("num_predict", maxTokens);
+        if (!options.isEmpty()) body.put("options", options);
+        return body;
+    }
+
+    // Base http://host:port a partir de bff.ollama.endpoint (que apunta a /api/generate); se usa sin pool
+    String baseUrl() {
+        return OllamaBackendPool.baseUrlOf(bffProperties.getOllama().getEndpoint());
+    }
+
+    private void recordMetrics(String model, JsonNode resp) {
+        long promptEvalCount = resp.path("prompt_eval_count").asLong(0);
+        long promptEvalNs = resp.path("prompt_eval_duration").asLong(0);
+        long evalCount = resp.path("eval_count").asLong(0);
+        long loadNs = resp.path("load_duration").asLong(0);
+        log.debug("[Ollama] model={} prompt_eval_count={} prompt_eval_ms={} eval_count={} load_ms={}",
+            model, promptEvalCount, promptEvalNs / 1_000_000, evalCount, loadNs / 1_000_000);
+        try {
+            if (meterRegistry != null) {
+                DistributionSummary.builder("ollama.prompt_eval.count")
+                    .description("Prompt tokens evaluated by Ollama (low values mean the prompt prefix was reused)")
+                    .tag("model", String.valueOf(model))
+                    .register(meterRegistry)
+                    .record(promptEvalCount);
+                Timer.builder("ollama.prompt_eval.duration")
+                    .description("Time Ollama spent evaluating the prompt")
+                    .tag("model", String.valueOf(model))
+                    .register(meterRegistry)
+                    .record(promptEvalNs, TimeUnit.NANOSECONDS);
+                DistributionSummary.builder("ollama.eval.count")
+                    .description("Tokens generated by Ollama")
+                    .tag("model", String.valueOf(model))
+                    .register(meterRegistry)
+                    .record(evalCount);
+                Timer.builder("ollama.load.duration")
+                    .description("Model load time reported by Ollama (non-zero after an unload)")
+                    .tag("model", String.valueOf(model))
+                    .register(meterRegistry)
+                    .record(loadNs, TimeUnit.NANOSECONDS);
+            }
+        } catch (Exception ignore) {}
+    }
+
+    // WebClient propio: los timeouts del pool MCP son demasiado cortos para una generación completa
+    private WebClient client() {
+        WebClient c = webClient;
+        if (c != null) return c;
+        synchronized (this) {
+            if (webClient != null) return webClient;
+            int timeoutMs = Math.max(bffProperties.getOllama().getStreamTimeoutMs(), bffProperties.getOllama().getTimeoutMs());
+            ConnectionProvider provider = ConnectionProvider.builder("ollama-connection-pool")
+                .maxConnections(50)
+                .maxIdleTime(Duration.ofSeconds(60))
+                .build();
+            HttpClient httpClient = HttpClient.create(provider)
+                .responseTimeout(Duration.ofMillis(timeoutMs > 0 ? timeoutMs : 120000));
+            c = WebClient.builder()
+                .clientConnector(new ReactorClientHttpConnector(httpClient))
+                .codecs(cfg -> cfg.defaultCodecs().maxInMemorySize(4 * 1024 * 1024))
+                .build();
+            webClient = c;
+            return c;
+        }
+    }
+}
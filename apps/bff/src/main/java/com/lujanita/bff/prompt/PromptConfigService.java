@@ -4,75 +4,183 @@ import org.springframework.stereotype.Service;
 import org.springframework.beans.factory.annotation.Value;
 import org.yaml.snakeyaml.Yaml;
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
 import java.io.InputStream;
+import java.nio.file.FileSystems;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
 
 @Service
+@Slf4j
 public class PromptConfigService {
     @Value("${bff.prompts.path:src/main/resources/prompts.yml}")
     private String promptsPath;
-    private Map<String, Object> config;
+    // Recarga automática al modificar prompts.yml (WatchService sobre el directorio del archivo)
+    @Value("${bff.prompts.watch:true}")
+    private boolean watchEnabled = false;
+    @Value("${bff.prompts.watchDebounceMs:300}")
+    private long watchDebounceMs = 300;
+
+    // Snapshot inmutable publicado de forma atómica; los lectores nunca ven una carga a medias
+    private final AtomicReference<PromptConfigSnapshot> snapshot = new AtomicReference<>(PromptConfigSnapshot.EMPTY);
+    // Se invocan con cada snapshot nuevo antes de publicarlo (p.ej. para recompilar tablas de prompts derivadas)
+    private final java.util.List<java.util.function.Consumer<PromptConfigSnapshot>> reloadListeners = new java.util.concurrent.CopyOnWriteArrayList<>();
+    // Serializa las cargas (arranque, watcher y /reload): una carga lenta no puede publicar por encima de una más nueva
+    private final ReentrantLock loadLock = new ReentrantLock();
+    private volatile WatchService watchService;
+    private Thread watchThread;
 
     @PostConstruct
+    public void init() {
+        loadPrompts();
+        if (watchEnabled) startWatcher();
+    }
+
     public void loadPrompts() {
+        loadLock.lock();
         try (InputStream in = Files.newInputStream(Paths.get(promptsPath))) {
+            byte[] raw = in.readAllBytes();
+            String version = contentHash(raw);
+            if (version.equals(snapshot.get().getVersion())) {
+                return;
+            }
             Yaml yaml = new Yaml();
-            config = yaml.load(in);
+            Map<?, ?> parsed = yaml.load(new String(raw, java.nio.charset.StandardCharsets.UTF_8));
+            PromptConfigSnapshot next = PromptConfigSnapshot.parse(parsed, version);
+            publish(next);
+            log.info("[Prompts] prompts.yml cargado version={} roles={} profiles={}", version,
+                next.getRoles(), next.getProfiles());
         } catch (Exception e) {
             throw new RuntimeException("No se pudo cargar prompts: " + promptsPath, e);
+        } finally {
+            loadLock.unlock();
         }
     }
 
-    public String getSystemPrompt(String role, String profile) {
-        String prompt = getFromConfig("systemPrompt", role, profile);
-        if (prompt == null) {
-            prompt = (String) ((Map<?,?>)config.get("default")).get("systemPrompt");
+    // Primero los listeners recompilan sus tablas derivadas con el snapshot nuevo y recién después se publica:
+    // quien vea la nueva versión (parte de la clave de ChatResponseCache) ya renderiza con los prompts nuevos
+    void publish(PromptConfigSnapshot next) {
+        for (java.util.function.Consumer<PromptConfigSnapshot> listener : reloadListeners) {
+            try {
+                listener.accept(next);
+            } catch (Exception e) {
+                log.warn("[Prompts] Listener de recarga falló: {}", e.getMessage());
+            }
         }
-        return prompt;
+        snapshot.set(next);
     }
 
-    public String getAssistantGuidelines(String role, String profile) {
-        String prompt = getFromConfig("assistantGuidelines", role, profile);
-        if (prompt == null) {
-            prompt = (String) ((Map<?,?>)config.get("default")).get("assistantGuidelines");
-        }
-        return prompt;
+    public PromptConfigSnapshot getSnapshot() {
+        return snapshot.get();
     }
 
-    private String getFromConfig(String key, String role, String profile) {
-        if (role != null && config.containsKey("role")) {
-            Map<?,?> roles = (Map<?,?>) config.get("role");
-            if (roles.containsKey(role)) {
-                Map<?,?> roleMap = (Map<?,?>) roles.get(role);
-                if (roleMap.containsKey(key)) return (String) roleMap.get(key);
-            }
-        }
-        if (profile != null && config.containsKey("profile")) {
-            Map<?,?> profiles = (Map<?,?>) config.get("profile");
-            if (profiles.containsKey(profile)) {
-                Map<?,?> profileMap = (Map<?,?>) profiles.get(profile);
-                if (profileMap.containsKey(key)) return (String) profileMap.get(key);
-            }
-        }
-        return null;
+    // Hash del contenido cargado; cambia con cada prompts.yml distinto (forma parte de claves de cache)
+    public String getVersion() {
+        return snapshot.get().getVersion();
+    }
+
+    public void addReloadListener(java.util.function.Consumer<PromptConfigSnapshot> listener) {
+        reloadListeners.add(listener);
+    }
+
+    public String getSystemPrompt(String role, String profile) {
+        return snapshot.get().resolve(role, profile).systemPrompt();
+    }
+
+    public String getAssistantGuidelines(String role, String profile) {
+        return snapshot.get().resolve(role, profile).assistantGuidelines();
     }
 
     public boolean isValidRole(String role) {
         if (role == null || role.isBlank()) return false;
-        if (config == null || !config.containsKey("role")) return false;
-        Map<?,?> roles = (Map<?,?>) config.get("role");
-        return roles.containsKey(role);
+        return snapshot.get().getRoles().contains(role);
     }
 
     public boolean isValidProfile(String profile) {
         if (profile == null || profile.isBlank()) return false;
-        if (config == null || !config.containsKey("profile")) return false;
-        Map<?,?> profiles = (Map<?,?>) config.get("profile");
-        return profiles.containsKey(profile);
+        return snapshot.get().getProfiles().contains(profile);
+    }
+
+    // Roles y perfiles declarados en prompts.yml
+    public java.util.Set<String> getRoles() {
+        return snapshot.get().getRoles();
+    }
+
+    public java.util.Set<String> getProfiles() {
+        return snapshot.get().getProfiles();
     }
 
     // Método para recargar prompts manualmente
     public void reload() { loadPrompts(); }
+
+    private void startWatcher() {
+        try {
+            Path file = Paths.get(promptsPath).toAbsolutePath();
+            Path dir = file.getParent();
+            WatchService ws = FileSystems.getDefault().newWatchService();
+            dir.register(ws, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_CREATE);
+            watchService = ws;
+            watchThread = new Thread(() -> watchLoop(ws, file), "prompts-watcher");
+            watchThread.setDaemon(true);
+            watchThread.start();
+            log.info("[Prompts] Observando cambios en {}", file);
+        } catch (Exception e) {
+            log.warn("[Prompts] No se pudo iniciar el watcher de {}: {}", promptsPath, e.getMessage());
+        }
+    }
+
+    // Re-parsea fuera del camino de las peticiones; si el YAML es inválido se conserva el snapshot anterior
+    private void watchLoop(WatchService ws, Path file) {
+        while (!Thread.currentThread().isInterrupted()) {
+            WatchKey key;
+            try {
+                key = ws.take();
+            } catch (InterruptedException | java.nio.file.ClosedWatchServiceException e) {
+                return;
+            }
+            boolean touched = false;
+            for (WatchEvent<?> event : key.pollEvents()) {
+                Object ctx = event.context();
+                if (ctx instanceof Path changed && file.getFileName().equals(changed.getFileName())) touched = true;
+            }
+            key.reset();
+            if (!touched) continue;
+            try {
+                // Los editores suelen escribir en varios pasos: esperar a que el archivo se estabilice
+                Thread.sleep(watchDebounceMs);
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                loadPrompts();
+            } catch (Exception e) {
+                log.warn("[Prompts] Recarga de {} descartada, se mantiene version={}: {}", file, getVersion(),
+                    e.getCause() != null ? e.getCause().getMessage() : e.getMessage());
+            }
+        }
+    }
+
+    @PreDestroy
+    public void stopWatcher() {
+        try {
+            if (watchService != null) watchService.close();
+        } catch (Exception ignore) {}
+        if (watchThread != null) watchThread.interrupt();
+    }
+
+    private static String contentHash(byte[] raw) throws java.security.NoSuchAlgorithmException {
+        byte[] digest = java.security.MessageDigest.getInstance("SHA-256").digest(raw);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 8; i++) sb.append(String.format("%02x", digest[i]));
+        return sb.toString();
+    }
 }
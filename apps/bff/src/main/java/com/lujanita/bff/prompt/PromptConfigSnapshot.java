@@ -0,0 +1,100 @@
+package com.lujanita.bff.prompt;
+
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Vista inmutable y tipada de prompts.yml. Cada combinación rol x perfil (incluidas las vacías) se
+ * resuelve al cargar con la misma prioridad que antes: rol, luego perfil, luego default.
+ */
+public final class PromptConfigSnapshot {
+    public static final PromptConfigSnapshot EMPTY = new PromptConfigSnapshot(Map.of(), "0", 0L);
+
+    // Par de textos configurables por rol/perfil/default
+    public record PromptEntry(String systemPrompt, String assistantGuidelines) {
+        static final PromptEntry NONE = new PromptEntry(null, null);
+    }
+
+    private final Set<String> roles;
+    private final Set<String> profiles;
+    private final Map<String, PromptEntry> merged;
+    private final String version;
+    private final long loadedAtMillis;
+
+    private PromptConfigSnapshot(Map<?, ?> raw, String version, long loadedAtMillis) {
+        this.version = version;
+        this.loadedAtMillis = loadedAtMillis;
+        PromptEntry defaults = entry(raw.get("default"));
+        Map<String, PromptEntry> roleEntries = section(raw.get("role"));
+        Map<String, PromptEntry> profileEntries = section(raw.get("profile"));
+        this.roles = Set.copyOf(roleEntries.keySet());
+        this.profiles = Set.copyOf(profileEntries.keySet());
+
+        Set<String> roleKeys = new LinkedHashSet<>(roleEntries.keySet());
+        Set<String> profileKeys = new LinkedHashSet<>(profileEntries.keySet());
+        roleKeys.add("");
+        profileKeys.add("");
+        Map<String, PromptEntry> table = new HashMap<>();
+        for (String r : roleKeys) {
+            PromptEntry re = roleEntries.getOrDefault(r, PromptEntry.NONE);
+            for (String p : profileKeys) {
+                PromptEntry pe = profileEntries.getOrDefault(p, PromptEntry.NONE);
+                table.put(r + "|" + p, new PromptEntry(
+                    firstNonNull(re.systemPrompt(), pe.systemPrompt(), defaults.systemPrompt()),
+                    firstNonNull(re.assistantGuidelines(), pe.assistantGuidelines(), defaults.assistantGuidelines())));
+            }
+        }
+        this.merged = Map.copyOf(table);
+    }
+
+    /**
+     * Construye el snapshot a partir del YAML ya parseado. Lanza IllegalArgumentException si la
+     * estructura no es la esperada (secciones que no son mapas).
+     */
+    public static PromptConfigSnapshot parse(Map<?, ?> raw, String version) {
+        if (raw == null) throw new IllegalArgumentException("prompts.yml vacío");
+        return new PromptConfigSnapshot(raw, version, System.currentTimeMillis());
+    }
+
+    // Prompts efectivos; roles/perfiles desconocidos se comportan como ausentes
+    public PromptEntry resolve(String role, String profile) {
+        String r = role == null ? "" : role;
+        String p = profile == null ? "" : profile;
+        PromptEntry e = merged.get(r + "|" + p);
+        if (e == null) e = merged.get(r + "|");
+        if (e == null) e = merged.get("|" + p);
+        if (e == null) e = merged.get("|");
+        return e == null ? PromptEntry.NONE : e;
+    }
+
+    public Set<String> getRoles() { return roles; }
+    public Set<String> getProfiles() { return profiles; }
+    public String getVersion() { return version; }
+    public long getLoadedAtMillis() { return loadedAtMillis; }
+
+    private static Map<String, PromptEntry> section(Object node) {
+        if (node == null) return Map.of();
+        if (!(node instanceof Map<?, ?> map)) throw new IllegalArgumentException("Sección de prompts inválida: " + node);
+        Map<String, PromptEntry> out = new HashMap<>();
+        for (Map.Entry<?, ?> e : map.entrySet()) {
+            out.put(String.valueOf(e.getKey()), entry(e.getValue()));
+        }
+        return out;
+    }
+
+    private static PromptEntry entry(Object node) {
+        if (node == null) return PromptEntry.NONE;
+        if (!(node instanceof Map<?, ?> map)) throw new IllegalArgumentException("Entrada de prompts inválida: " + node);
+        return new PromptEntry(text(map.get("systemPrompt")), text(map.get("assistantGuidelines")));
+    }
+
+    private static String text(Object value) {
+        return value == null ? null : value.toString();
+    }
+
+    private static String firstNonNull(String a, String b, String c) {
+        return a != null ? a : (b != null ? b : c);
+    }
+}
@@ -0,0 +1,377 @@
+package com.lujanita.bff.resilience;
+
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+import java.util.function.ToIntFunction;
+
+/**
+ * Límite de concurrencia adaptativo (estilo gradiente) para un backend cuyo rendimiento cae al pasar de cierto
+ * paralelismo, como Ollama en una sola GPU. Compara la latencia reciente con la de largo plazo: si la reciente
+ * sube el límite baja en proporción, si se mantiene el límite crece de a poco (~sqrt(límite)); un error o timeout
+ * lo reduce un 10%. Las llamadas que exceden el límite esperan en una cola acotada hasta maxWaitMs; con la cola
+ * llena o la espera agotada se rechazan con OverloadedException.
+ * <p>
+ * La cola es justa por pesos (stride scheduling): cada clase de trabajo (rol/perfil) tiene su propia cola y recibe
+ * turnos en proporción a su peso, así una clase con mucho tráfico no retrasa a las de mayor peso y tampoco las
+ * de menor peso quedan sin turno. Con la cola llena, una clase de mayor peso desplaza al último en espera de la
+ * clase de menor peso.
+ */
+public class AdaptiveLimiter {
+    private static final double TOLERANCE = 1.5;
+    private static final double SMOOTHING = 0.2;
+    private static final double BACKOFF_RATIO = 0.9;
+    private static final double STRIDE = 1_000_000.0;
+    public static final String DEFAULT_CLASS = "default";
+
+    private final String name;
+    private final int minLimit;
+    private final int maxLimit;
+    private final int maxQueue;
+    private final long maxWaitMs;
+    private final LongSupplier clock;
+    private final ToIntFunction<String> weights;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<String, ClassQueue> queues = new LinkedHashMap<>();
+    private int queued;
+    // Tiempo virtual: pass del último turno concedido; una clase que vuelve a tener espera arranca desde aquí
+    private double virtualTime;
+    private double limit;
+    private int inFlight;
+    // Latencia (ms) reciente y de largo plazo, como medias exponenciales; -1 hasta la primera muestra
+    private double shortRtt = -1;
+    private double longRtt = -1;
+
+    public AdaptiveLimiter(String name, int initialLimit, int minLimit, int maxLimit, int maxQueue, long maxWaitMs) {
+        this(name, initialLimit, minLimit, maxLimit, maxQueue, maxWaitMs, workClass -> 1, System::currentTimeMillis);
+    }
+
+    // weights: peso (>= 1) de cada clase de trabajo en la cola
+    public AdaptiveLimiter(String name, int initialLimit, int minLimit, int maxLimit, int maxQueue, long maxWaitMs,
+                           ToIntFunction<String> weights) {
+        this(name, initialLimit, minLimit, maxLimit, maxQueue, maxWaitMs, weights, System::currentTimeMillis);
+    }
+
+    AdaptiveLimiter(String name, int initialLimit, int minLimit, int maxLimit, int maxQueue, long maxWaitMs, LongSupplier clock) {
+        this(name, initialLimit, minLimit, maxLimit, maxQueue, maxWaitMs, workClass -> 1, clock);
+    }
+
+    AdaptiveLimiter(String name, int initialLimit, int minLimit, int maxLimit, int maxQueue, long maxWaitMs,
+                    ToIntFunction<String> weights, LongSupplier clock) {
+        this.name = name;
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.limit = Math.min(this.maxLimit, Math.max(this.minLimit, initialLimit));
+        this.maxQueue = Math.max(0, maxQueue);
+        this.maxWaitMs = Math.max(0, maxWaitMs);
+        this.weights = weights;
+        this.clock = clock;
+    }
+
+    public CompletableFuture<Permit> acquire() {
+        return acquire(DEFAULT_CLASS);
+    }
+
+    /**
+     * Turno para una llamada: inmediato si hay cupo, si no tras esperar en la cola. Completa con
+     * OverloadedException si la cola está llena o la espera se agota.
+     */
+    public CompletableFuture<Permit> acquire(String workClass) {
+        String cls = workClass == null || workClass.isBlank() ? DEFAULT_CLASS : workClass;
+        CompletableFuture<Permit> waiter;
+        Waiter evicted = null;
+        OverloadedException evictedError = null;
+        lock.lock();
+        try {
+            if (inFlight < currentLimit() && queued == 0) {
+                inFlight++;
+                return CompletableFuture.completedFuture(new Permit(cls, inFlight, 0));
+            }
+            if (maxWaitMs == 0 || maxQueue == 0) {
+                return CompletableFuture.failedFuture(overloaded(cls, "cola llena"));
+            }
+            ClassQueue queue = queue(cls);
+            if (queued >= maxQueue) {
+                evicted = evictLowerThan(queue.weight);
+                if (evicted == null) return CompletableFuture.failedFuture(overloaded(cls, "cola llena"));
+                evictedError = overloaded(evicted.workClass, "desplazado por mayor prioridad");
+            }
+            if (queue.waiters.isEmpty()) queue.pass = Math.max(queue.pass, virtualTime) + STRIDE / queue.weight;
+            waiter = new CompletableFuture<>();
+            queue.waiters.addLast(new Waiter(waiter, cls, clock.getAsLong()));
+            queued++;
+        } finally {
+            lock.unlock();
+        }
+        if (evicted != null) evicted.future.completeExceptionally(evictedError);
+        CompletableFuture.delayedExecutor(maxWaitMs, TimeUnit.MILLISECONDS).execute(() -> {
+            OverloadedException timeout;
+            lock.lock();
+            try {
+                if (waiter.isDone()) return;
+                removeWaiter(cls, waiter);
+                timeout = overloaded(cls, "espera agotada");
+            } finally {
+                lock.unlock();
+            }
+            waiter.completeExceptionally(timeout);
+        });
+        return waiter;
+    }
+
+    // Variante bloqueante (hilos de petición del servlet)
+    public Permit acquireBlocking() {
+        return acquireBlocking(DEFAULT_CLASS);
+    }
+
+    public Permit acquireBlocking(String workClass) {
+        CompletableFuture<Permit> future = acquire(workClass);
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException re) throw re;
+            throw new IllegalStateException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            if (future.cancel(false)) {
+                removeWaiter(workClass, future);
+            } else {
+                future.thenAccept(Permit::ignore);
+            }
+            throw new OverloadedException(name, 1, "interrumpido");
+        }
+    }
+
+    // Variante reactiva: si el suscriptor cancela mientras espera, el turno se devuelve sin contar muestra
+    public Mono<Permit> acquireReactive() {
+        return acquireReactive(DEFAULT_CLASS);
+    }
+
+    public Mono<Permit> acquireReactive(String workClass) {
+        return Mono.defer(() -> {
+            CompletableFuture<Permit> future = acquire(workClass);
+            return Mono.fromFuture(future, true)
+                .doOnCancel(() -> {
+                    if (future.cancel(false)) {
+                        removeWaiter(workClass, future);
+                    } else {
+                        future.thenAccept(Permit::ignore);
+                    }
+                });
+        });
+    }
+
+    private void removeWaiter(String workClass, CompletableFuture<Permit> future) {
+        String cls = workClass == null || workClass.isBlank() ? DEFAULT_CLASS : workClass;
+        lock.lock();
+        try {
+            ClassQueue queue = queues.get(cls);
+            if (queue != null && queue.waiters.removeIf(w -> w.future == future)) queued--;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private ClassQueue queue(String workClass) {
+        return queues.computeIfAbsent(workClass, c -> new ClassQueue(Math.max(1, weights.applyAsInt(c))));
+    }
+
+    // Saca al último en espera de la clase de menor peso (si es menor que weight); se llama con el lock tomado
+    private Waiter evictLowerThan(int weight) {
+        ClassQueue victim = null;
+        for (ClassQueue q : queues.values()) {
+            if (!q.waiters.isEmpty() && q.weight < weight && (victim == null || q.weight < victim.weight)) victim = q;
+        }
+        if (victim == null) return null;
+        queued--;
+        return victim.waiters.pollLast();
+    }
+
+    // Siguiente en espera según los pesos: la clase con menor pass (marca de fin de su próximo turno), que luego
+    // avanza STRIDE / peso si le quedan llamadas en espera
+    private Waiter pollNext() {
+        ClassQueue next = null;
+        for (ClassQueue q : queues.values()) {
+            if (!q.waiters.isEmpty() && (next == null || q.pass < next.pass)) next = q;
+        }
+        if (next == null) return null;
+        virtualTime = next.pass;
+        queued--;
+        Waiter waiter = next.waiters.pollFirst();
+        if (!next.waiters.isEmpty()) next.pass += STRIDE / next.weight;
+        return waiter;
+    }
+
+    public double getLimit() {
+        lock.lock();
+        try {
+            return limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getQueueDepth() {
+        lock.lock();
+        try {
+            return queued;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getQueueDepth(String workClass) {
+        lock.lock();
+        try {
+            ClassQueue queue = queues.get(workClass);
+            return queue == null ? 0 : queue.waiters.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public String getName() { return name; }
+
+    private int currentLimit() {
+        return (int) Math.floor(limit);
+    }
+
+    private OverloadedException overloaded(String workClass, String reason) {
+        // Estimación del tiempo hasta que la cola actual se vacíe
+        double rtt = longRtt > 0 ? longRtt : 1000;
+        long seconds = (long) Math.ceil(rtt * (queued + 1) / Math.max(1, limit) / 1000.0);
+        return new OverloadedException(name, seconds, reason + " (" + workClass + ")");
+    }
+
+    private void onSample(long elapsedMs, int inFlightAtStart) {
+        long rttMs = Math.max(1, elapsedMs);
+        lock.lock();
+        try {
+            shortRtt = shortRtt < 0 ? rttMs : shortRtt * 0.8 + rttMs * 0.2;
+            longRtt = longRtt < 0 ? rttMs : longRtt * 0.95 + rttMs * 0.05;
+            // Si la latencia base quedó muy por encima (p.ej. tras una racha lenta) se deja bajar más rápido
+            if (longRtt > 2 * shortRtt) longRtt *= 0.95;
+            double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * longRtt / shortRtt));
+            // Dentro de la tolerancia crece ~sqrt(límite); por encima baja en proporción al aumento de latencia
+            double next = gradient >= 1.0 ? limit + Math.sqrt(limit) : limit * gradient;
+            // Con poca carga la latencia no dice nada del límite: no se sube
+            if (next > limit && inFlightAtStart < limit / 2) next = limit;
+            limit = Math.max(minLimit, Math.min(maxLimit, limit * (1 - SMOOTHING) + next * SMOOTHING));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void onDropped() {
+        lock.lock();
+        try {
+            limit = Math.max(minLimit, limit * BACKOFF_RATIO);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void release() {
+        lock.lock();
+        try {
+            inFlight = Math.max(0, inFlight - 1);
+        } finally {
+            lock.unlock();
+        }
+        drain();
+    }
+
+    // Da turno a los que esperan mientras haya cupo; el complete se hace fuera del lock (dispara código del llamante)
+    private void drain() {
+        while (true) {
+            Waiter next;
+            int inFlightNow;
+            lock.lock();
+            try {
+                if (queued == 0 || inFlight >= currentLimit()) return;
+                next = pollNext();
+                inFlightNow = ++inFlight;
+            } finally {
+                lock.unlock();
+            }
+            long queuedMs = Math.max(0, clock.getAsLong() - next.enqueuedAt);
+            if (next.future.complete(new Permit(next.workClass, inFlightNow, queuedMs))) continue;
+            // Expiró o se canceló mientras tanto: se devuelve el cupo
+            lock.lock();
+            try {
+                inFlight = Math.max(0, inFlight - 1);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private record Waiter(CompletableFuture<Permit> future, String workClass, long enqueuedAt) {}
+
+    private static final class ClassQueue {
+        private final int weight;
+        private final Deque<Waiter> waiters = new ArrayDeque<>();
+        private double pass;
+
+        private ClassQueue(int weight) {
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * Turno concedido; se cierra una sola vez con success (muestra de latencia), dropped (error/timeout) o ignore.
+     */
+    public final class Permit {
+        private final long startedAt = clock.getAsLong();
+        private final String workClass;
+        private final int inFlightAtStart;
+        private final long queuedMs;
+        private final AtomicBoolean done = new AtomicBoolean();
+
+        private Permit(String workClass, int inFlightAtStart, long queuedMs) {
+            this.workClass = workClass;
+            this.inFlightAtStart = inFlightAtStart;
+            this.queuedMs = queuedMs;
+        }
+
+        public String getWorkClass() { return workClass; }
+
+        // Tiempo en cola hasta obtener el turno (0 si fue inmediato)
+        public long getQueuedMs() { return queuedMs; }
+
+        public void success() {
+            if (!done.compareAndSet(false, true)) return;
+            onSample(clock.getAsLong() - startedAt, inFlightAtStart);
+            release();
+        }
+
+        public void dropped() {
+            if (!done.compareAndSet(false, true)) return;
+            onDropped();
+            release();
+        }
+
+        public void ignore() {
+            if (!done.compareAndSet(false, true)) return;
+            release();
+        }
+    }
+}
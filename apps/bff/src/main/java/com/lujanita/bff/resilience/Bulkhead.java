@@ -0,0 +1,34 @@
+package com.lujanita.bff.resilience;
+
+import java.util.concurrent.Semaphore;
+
+/**
+ * Límite de llamadas concurrentes hacia un backend. No espera: si no hay cupo la llamada se rechaza enseguida,
+ * así un backend lento no acapara todos los hilos/conexiones del BFF.
+ */
+public class Bulkhead {
+    private final String name;
+    private final int maxConcurrent;
+    private final Semaphore permits;
+
+    public Bulkhead(String name, int maxConcurrent) {
+        this.name = name;
+        this.maxConcurrent = Math.max(1, maxConcurrent);
+        this.permits = new Semaphore(this.maxConcurrent);
+    }
+
+    public boolean tryAcquire() {
+        return permits.tryAcquire();
+    }
+
+    public void release() {
+        permits.release();
+    }
+
+    public int available() {
+        return permits.availablePermits();
+    }
+
+    public int getMaxConcurrent() { return maxConcurrent; }
+    public String getName() { return name; }
+}
@@ -0,0 +1,155 @@
+package com.lujanita.bff.resilience;
+
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * Circuit breaker por conteo sobre las últimas slidingWindowSize llamadas. Se abre cuando, con al menos
+ * minimumCalls registradas, el porcentaje de fallos alcanza failureRateThreshold. Abierto rechaza todo durante
+ * openMs; luego deja pasar halfOpenCalls llamadas de prueba: si todas van bien se cierra, si una falla se reabre.
+ * Cada permiso lleva la generación (cambio de estado) en que se concedió: una llamada concedida con el circuito
+ * cerrado que termina después de abrirse no cuenta como prueba ni reabre uno semiabierto.
+ */
+public class CircuitBreaker {
+    // El orden define el valor de la métrica bff.circuit.state
+    public enum State { CLOSED, HALF_OPEN, OPEN }
+
+    // Valor de tryAcquire cuando la llamada se rechaza
+    public static final long REJECTED = -1L;
+
+    private final String name;
+    private final int failureRateThreshold;
+    private final int minimumCalls;
+    private final long openMs;
+    private final int halfOpenCalls;
+    private final LongSupplier clock;
+    private final ReentrantLock lock = new ReentrantLock();
+    // Ventana circular: true = fallo
+    private final boolean[] window;
+    private int next;
+    private int recorded;
+    private int failures;
+    private State state = State.CLOSED;
+    // Se incrementa en cada transición; identifica el estado en que se concedió cada permiso
+    private long generation;
+    private long openedAt;
+    private int probesInFlight;
+    private int probesSucceeded;
+
+    public CircuitBreaker(String name, int failureRateThreshold, int minimumCalls, int slidingWindowSize, long openMs, int halfOpenCalls) {
+        this(name, failureRateThreshold, minimumCalls, slidingWindowSize, openMs, halfOpenCalls, System::currentTimeMillis);
+    }
+
+    CircuitBreaker(String name, int failureRateThreshold, int minimumCalls, int slidingWindowSize, long openMs, int halfOpenCalls, LongSupplier clock) {
+        this.name = name;
+        this.failureRateThreshold = Math.min(100, Math.max(1, failureRateThreshold));
+        this.window = new boolean[Math.max(1, slidingWindowSize)];
+        this.minimumCalls = Math.min(window.length, Math.max(1, minimumCalls));
+        this.openMs = Math.max(0, openMs);
+        this.halfOpenCalls = Math.max(1, halfOpenCalls);
+        this.clock = clock;
+    }
+
+    /**
+     * Pide permiso para una llamada: devuelve el permiso o REJECTED. Cada permiso concedido debe cerrarse con
+     * onSuccess, onFailure u onIgnored; los de una generación anterior se descartan al cerrarse.
+     */
+    public long tryAcquire() {
+        lock.lock();
+        try {
+            if (state == State.OPEN) {
+                if (clock.getAsLong() - openedAt < openMs) return REJECTED;
+                state = State.HALF_OPEN;
+                generation++;
+                probesInFlight = 0;
+                probesSucceeded = 0;
+            }
+            if (state == State.HALF_OPEN) {
+                if (probesInFlight + probesSucceeded >= halfOpenCalls) return REJECTED;
+                probesInFlight++;
+            }
+            return generation;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void onSuccess(long permit) {
+        lock.lock();
+        try {
+            if (permit != generation) return;
+            if (state == State.HALF_OPEN) {
+                probesInFlight = Math.max(0, probesInFlight - 1);
+                if (++probesSucceeded >= halfOpenCalls) close();
+            } else if (state == State.CLOSED) {
+                record(false);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void onFailure(long permit) {
+        lock.lock();
+        try {
+            if (permit != generation) return;
+            if (state == State.HALF_OPEN) {
+                open();
+            } else if (state == State.CLOSED) {
+                record(true);
+                if (recorded >= minimumCalls && failures * 100 >= failureRateThreshold * recorded) open();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Llamada cancelada o rechazada por otro motivo: no cuenta como éxito ni como fallo
+    public void onIgnored(long permit) {
+        lock.lock();
+        try {
+            if (permit == generation && state == State.HALF_OPEN) probesInFlight = Math.max(0, probesInFlight - 1);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public State getState() {
+        lock.lock();
+        try {
+            // Un circuito abierto cuyo plazo venció se informa como semiabierto aunque aún no haya llegado una prueba
+            if (state == State.OPEN && clock.getAsLong() - openedAt >= openMs) return State.HALF_OPEN;
+            return state;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public String getName() { return name; }
+
+    private void record(boolean failure) {
+        if (recorded == window.length) {
+            if (window[next]) failures--;
+        } else {
+            recorded++;
+        }
+        window[next] = failure;
+        if (failure) failures++;
+        next = (next + 1) % window.length;
+    }
+
+    private void open() {
+        state = State.OPEN;
+        generation++;
+        openedAt = clock.getAsLong();
+    }
+
+    private void close() {
+        state = State.CLOSED;
+        generation++;
+        java.util.Arrays.fill(window, false);
+        next = 0;
+        recorded = 0;
+        failures = 0;
+    }
+}
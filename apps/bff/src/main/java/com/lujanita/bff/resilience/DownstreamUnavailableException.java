@@ -0,0 +1,18 @@
+package com.lujanita.bff.resilience;
+
+/**
+ * La llamada no se hizo porque el circuito del backend está abierto o su bulkhead está lleno.
+ */
+public class DownstreamUnavailableException extends RuntimeException {
+    private final String downstream;
+    private final String reason;
+
+    public DownstreamUnavailableException(String downstream, String reason) {
+        super("Backend " + downstream + " no disponible (" + reason + ")");
+        this.downstream = downstream;
+        this.reason = reason;
+    }
+
+    public String getDownstream() { return downstream; }
+    public String getReason() { return reason; }
+}
@@ -0,0 +1,18 @@
+package com.lujanita.bff.resilience;
+
+/**
+ * El limitador de concurrencia no pudo dar turno (cola llena o espera agotada). Se responde 503 con Retry-After.
+ */
+public class OverloadedException extends RuntimeException {
+    private final String downstream;
+    private final long retryAfterSeconds;
+
+    public OverloadedException(String downstream, long retryAfterSeconds, String reason) {
+        super("Backend " + downstream + " saturado (" + reason + ")");
+        this.downstream = downstream;
+        this.retryAfterSeconds = Math.max(1, retryAfterSeconds);
+    }
+
+    public String getDownstream() { return downstream; }
+    public long getRetryAfterSeconds() { return retryAfterSeconds; }
+}
@@ -0,0 +1,354 @@
+package com.lujanita.bff.resilience;
+
+import com.lujanita.bff.config.BffProperties;
+import com.lujanita.bff.prompt.PromptConfigService;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Circuit breakers y bulkheads por backend (ollama, mcp y mcp:&lt;método&gt;), creados al primer uso con la
+ * configuración de bff.resilience, y el limitador adaptativo de Ollama. Exporta el estado como métricas:
+ * bff.circuit.state (0 cerrado, 1 semiabierto, 2 abierto), bff.bulkhead.available, bff.resilience.rejected y
+ * llm.limiter.{limit,inflight,queue}; por clase de trabajo, llm.scheduler.queue.time, llm.scheduler.queue y
+ * llm.scheduler.rejected.
+ */
+@Slf4j
+@Component
+public class ResilienceRegistry {
+    public static final String OLLAMA = "ollama";
+    public static final String MCP = "mcp";
+
+    @Autowired
+    private BffProperties bffProperties;
+    @Autowired(required = false)
+    private MeterRegistry meterRegistry;
+    @Autowired(required = false)
+    private PromptConfigService promptConfigService;
+
+    private final Map<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+    private final Map<String, Bulkhead> bulkheads = new ConcurrentHashMap<>();
+    private final Map<String, AdaptiveLimiter> limiters = new ConcurrentHashMap<>();
+    private final Set<String> classGauges = ConcurrentHashMap.newKeySet();
+
+    public ResilienceRegistry() {}
+
+    public ResilienceRegistry(BffProperties bffProperties, MeterRegistry meterRegistry) {
+        this.bffProperties = bffProperties;
+        this.meterRegistry = meterRegistry;
+    }
+
+    public boolean isEnabled() {
+        return bffProperties != null && bffProperties.getResilience() != null && bffProperties.getResilience().isEnabled();
+    }
+
+    public CircuitBreaker breaker(String name) {
+        return breakers.computeIfAbsent(name, n -> {
+            BffProperties.Resilience props = bffProperties.getResilience();
+            CircuitBreaker cb = new CircuitBreaker(n, props.getFailureRateThreshold(), props.getMinimumCalls(),
+                props.getSlidingWindowSize(), props.getOpenStateSeconds() * 1000L, props.getHalfOpenCalls());
+            try {
+                if (meterRegistry != null) {
+                    Gauge.builder("bff.circuit.state", cb, b -> b.getState().ordinal())
+                        .description("Circuit breaker state (0 closed, 1 half-open, 2 open)")
+                        .tag("name", n)
+                        .register(meterRegistry);
+                }
+            } catch (Exception ignore) {}
+            return cb;
+        });
+    }
+
+    public Bulkhead bulkhead(String name) {
+        return bulkheads.computeIfAbsent(name, n -> {
+            BffProperties.Resilience props = bffProperties.getResilience();
+            Bulkhead bh = new Bulkhead(n, OLLAMA.equals(n) ? props.getOllamaMaxConcurrent() : props.getMcpMaxConcurrent());
+            try {
+                if (meterRegistry != null) {
+                    Gauge.builder("bff.bulkhead.available", bh, Bulkhead::available)
+                        .description("Free concurrent call slots per downstream")
+                        .tag("name", n)
+                        .register(meterRegistry);
+                }
+            } catch (Exception ignore) {}
+            return bh;
+        });
+    }
+
+    // Limitador adaptativo del backend; null si está desactivado
+    public AdaptiveLimiter limiter(String name) {
+        BffProperties.Resilience props = bffProperties != null ? bffProperties.getResilience() : null;
+        if (props == null || !props.isLimiterEnabled()) return null;
+        return limiters.computeIfAbsent(name, n -> {
+            AdaptiveLimiter limiter = new AdaptiveLimiter(n, props.getLimiterInitial(), props.getLimiterMin(), props.getLimiterMax(),
+                props.getLimiterQueueSize(), props.getLimiterMaxWaitMs(), this::weight);
+            try {
+                if (meterRegistry != null) {
+                    Gauge.builder("llm.limiter.limit", limiter, AdaptiveLimiter::getLimit)
+                        .description("Current adaptive concurrency limit").tag("name", n).register(meterRegistry);
+                    Gauge.builder("llm.limiter.inflight", limiter, AdaptiveLimiter::getInFlight)
+                        .description("Calls holding a limiter permit").tag("name", n).register(meterRegistry);
+                    Gauge.builder("llm.limiter.queue", limiter, AdaptiveLimiter::getQueueDepth)
+                        .description("Calls waiting for a limiter permit").tag("name", n).register(meterRegistry);
+                }
+            } catch (Exception ignore) {}
+            return limiter;
+        });
+    }
+
+    /**
+     * Clase de trabajo para la cola del limitador: el perfil si tiene peso configurado (premium, batch), si no el
+     * rol, si no "default". Los valores sin peso no crean clases nuevas. Perfil y rol llegan en headers del cliente:
+     * sólo se aceptan los declarados en prompts.yml o las clases internas (schedulerInternalClasses), para que un
+     * cliente no pueda darse una prioridad que el servidor no le reconoce.
+     */
+    public String workClass(String role, String profile) {
+        BffProperties.Resilience props = bffProperties != null ? bffProperties.getResilience() : null;
+        if (props == null) return AdaptiveLimiter.DEFAULT_CLASS;
+        String p = profile == null ? "" : profile.trim();
+        if (props.getSchedulerProfileWeights() != null && props.getSchedulerProfileWeights().containsKey(p.toLowerCase())
+            && (isInternalClass(props, p) || promptConfigService == null || promptConfigService.isValidProfile(p))) {
+            return p.toLowerCase();
+        }
+        String r = role == null ? "" : role.trim();
+        if (props.getSchedulerRoleWeights() != null && props.getSchedulerRoleWeights().containsKey(r.toLowerCase())
+            && (isInternalClass(props, r) || promptConfigService == null || promptConfigService.isValidRole(r))) {
+            return r.toLowerCase();
+        }
+        return AdaptiveLimiter.DEFAULT_CLASS;
+    }
+
+    private static boolean isInternalClass(BffProperties.Resilience props, String value) {
+        if (props.getSchedulerInternalClasses() == null) return false;
+        for (String internal : props.getSchedulerInternalClasses()) {
+            if (internal != null && internal.trim().equalsIgnoreCase(value)) return true;
+        }
+        return false;
+    }
+
+    private int weight(String workClass) {
+        BffProperties.Resilience props = bffProperties.getResilience();
+        Integer w = props.getSchedulerProfileWeights() != null ? props.getSchedulerProfileWeights().get(workClass) : null;
+        if (w == null && props.getSchedulerRoleWeights() != null) w = props.getSchedulerRoleWeights().get(workClass);
+        return w != null ? w : props.getSchedulerDefaultWeight();
+    }
+
+    public <T> T limited(String name, Supplier<T> supplier) {
+        return limited(name, AdaptiveLimiter.DEFAULT_CLASS, supplier);
+    }
+
+    public <T> Mono<T> limited(String name, Mono<T> source) {
+        return limited(name, AdaptiveLimiter.DEFAULT_CLASS, source);
+    }
+
+    public <T> Flux<T> limitedFlux(String name, Flux<T> source) {
+        return limitedFlux(name, AdaptiveLimiter.DEFAULT_CLASS, source);
+    }
+
+    /**
+     * Ejecuta supplier con turno del limitador (esperando en la cola de workClass): la latencia de las llamadas correctas ajusta el límite, los errores
+     * lo reducen y los rechazos de circuito/bulkhead no cuentan. Sin turno lanza OverloadedException.
+     */
+    public <T> T limited(String name, String workClass, Supplier<T> supplier) {
+        AdaptiveLimiter limiter = limiter(name);
+        if (limiter == null) return supplier.get();
+        AdaptiveLimiter.Permit permit = acquireBlocking(limiter, workClass);
+        try {
+            T value = supplier.get();
+            permit.success();
+            return value;
+        } catch (DownstreamUnavailableException e) {
+            permit.ignore();
+            throw e;
+        } catch (RuntimeException e) {
+            permit.dropped();
+            throw e;
+        }
+    }
+
+    public <T> Mono<T> limited(String name, String workClass, Mono<T> source) {
+        AdaptiveLimiter limiter = limiter(name);
+        if (limiter == null) return source;
+        return limiter.acquireReactive(workClass)
+            .doOnNext(permit -> recordQueued(limiter, permit))
+            .doOnError(OverloadedException.class, e -> countOverloaded(name, workClass))
+            .flatMap(permit -> source
+                .doOnSuccess(value -> permit.success())
+                .doOnError(e -> {
+                    if (e instanceof DownstreamUnavailableException) permit.ignore(); else permit.dropped();
+                })
+                .doOnCancel(permit::ignore));
+    }
+
+    public <T> Flux<T> limitedFlux(String name, String workClass, Flux<T> source) {
+        AdaptiveLimiter limiter = limiter(name);
+        if (limiter == null) return source;
+        return limiter.acquireReactive(workClass)
+            .doOnNext(permit -> recordQueued(limiter, permit))
+            .doOnError(OverloadedException.class, e -> countOverloaded(name, workClass))
+            .flatMapMany(permit -> source
+                .doOnComplete(permit::success)
+                .doOnError(e -> {
+                    if (e instanceof DownstreamUnavailableException) permit.ignore(); else permit.dropped();
+                })
+                .doOnCancel(permit::ignore));
+    }
+
+    private AdaptiveLimiter.Permit acquireBlocking(AdaptiveLimiter limiter, String workClass) {
+        try {
+            AdaptiveLimiter.Permit permit = limiter.acquireBlocking(workClass);
+            recordQueued(limiter, permit);
+            return permit;
+        } catch (OverloadedException e) {
+            countOverloaded(limiter.getName(), workClass);
+            throw e;
+        }
+    }
+
+    // Tiempo en cola por clase; la primera vez que aparece una clase registra su gauge de profundidad de cola
+    private void recordQueued(AdaptiveLimiter limiter, AdaptiveLimiter.Permit permit) {
+        try {
+            if (meterRegistry == null) return;
+            String cls = permit.getWorkClass();
+            if (classGauges.add(limiter.getName() + "|" + cls)) {
+                Gauge.builder("llm.scheduler.queue", limiter, l -> l.getQueueDepth(cls))
+                    .description("Calls waiting for a limiter permit per work class")
+                    .tag("name", limiter.getName()).tag("class", cls).register(meterRegistry);
+            }
+            Timer.builder("llm.scheduler.queue.time")
+                .description("Time waiting for a limiter permit per work class")
+                .tag("name", limiter.getName())
+                .tag("class", cls)
+                .register(meterRegistry)
+                .record(permit.getQueuedMs(), TimeUnit.MILLISECONDS);
+        } catch (Exception ignore) {}
+    }
+
+    private void countOverloaded(String name, String workClass) {
+        log.warn("[Resilience] Llamada rechazada por saturación name={} class={}", name, workClass);
+        try {
+            if (meterRegistry != null) {
+                meterRegistry.counter("bff.resilience.rejected", "name", name, "reason", "overloaded").increment();
+                meterRegistry.counter("llm.scheduler.rejected", "name", name, "class", String.valueOf(workClass)).increment();
+            }
+        } catch (Exception ignore) {}
+    }
+
+    /**
+     * Ejecuta source bajo el bulkhead y los circuitos indicados. failed decide si un valor emitido cuenta como
+     * fallo del backend (p.ej. MW005); los errores siempre cuentan y las cancelaciones no. Si algún circuito está
+     * abierto o no hay cupo emite DownstreamUnavailableException sin suscribirse a source.
+     */
+    public <T> Mono<T> protect(String bulkhead, Predicate<T> failed, Mono<T> source, String... breakerNames) {
+        if (!isEnabled()) return source;
+        return Mono.defer(() -> {
+            Permit permit = acquire(bulkhead, breakerNames);
+            return source
+                .doOnSuccess(value -> permit.complete(value != null && failed != null && failed.test(value)))
+                .doOnError(e -> permit.complete(true))
+                .doOnCancel(permit::cancel);
+        });
+    }
+
+    // Variante streaming: el resultado se decide al completar o fallar el flujo
+    public <T> Flux<T> protectFlux(String bulkhead, Flux<T> source, String... breakerNames) {
+        if (!isEnabled()) return source;
+        return Flux.defer(() -> {
+            Permit permit = acquire(bulkhead, breakerNames);
+            return source
+                .doOnComplete(() -> permit.complete(false))
+                .doOnError(e -> permit.complete(true))
+                .doOnCancel(permit::cancel);
+        });
+    }
+
+    // Variante bloqueante
+    public <T> T call(String bulkhead, Predicate<T> failed, Supplier<T> supplier, String... breakerNames) {
+        if (!isEnabled()) return supplier.get();
+        Permit permit = acquire(bulkhead, breakerNames);
+        try {
+            T value = supplier.get();
+            permit.complete(value != null && failed != null && failed.test(value));
+            return value;
+        } catch (RuntimeException e) {
+            permit.complete(true);
+            throw e;
+        }
+    }
+
+    private Permit acquire(String bulkheadName, String... breakerNames) {
+        List<BreakerPermit> acquired = new ArrayList<>(breakerNames.length);
+        for (String name : breakerNames) {
+            CircuitBreaker cb = breaker(name);
+            long permit = cb.tryAcquire();
+            if (permit == CircuitBreaker.REJECTED) {
+                acquired.forEach(BreakerPermit::ignore);
+                countRejected(name, "circuit_open");
+                throw new DownstreamUnavailableException(name, "circuito abierto");
+            }
+            acquired.add(new BreakerPermit(cb, permit));
+        }
+        Bulkhead bh = bulkhead(bulkheadName);
+        if (!bh.tryAcquire()) {
+            acquired.forEach(BreakerPermit::ignore);
+            countRejected(bulkheadName, "bulkhead_full");
+            throw new DownstreamUnavailableException(bulkheadName, "sin cupo de concurrencia");
+        }
+        return new Permit(acquired, bh);
+    }
+
+    private void countRejected(String name, String reason) {
+        log.warn("[Resilience] Llamada rechazada name={} reason={}", name, reason);
+        try {
+            if (meterRegistry != null) {
+                meterRegistry.counter("bff.resilience.rejected", "name", name, "reason", reason).increment();
+            }
+        } catch (Exception ignore) {}
+    }
+
+    // Permiso concedido por un circuito, con la generación de estado en que se concedió
+    private record BreakerPermit(CircuitBreaker breaker, long permit) {
+        void ignore() { breaker.onIgnored(permit); }
+    }
+
+    // Permiso de una llamada en curso; se cierra una sola vez (éxito, fallo o cancelación)
+    private static final class Permit {
+        private final List<BreakerPermit> breakers;
+        private final Bulkhead bulkhead;
+        private final AtomicBoolean done = new AtomicBoolean();
+
+        Permit(List<BreakerPermit> breakers, Bulkhead bulkhead) {
+            this.breakers = breakers;
+            this.bulkhead = bulkhead;
+        }
+
+        void complete(boolean failure) {
+            if (!done.compareAndSet(false, true)) return;
+            for (BreakerPermit p : breakers) {
+                if (failure) p.breaker().onFailure(p.permit()); else p.breaker().onSuccess(p.permit());
+            }
+            bulkhead.release();
+        }
+
+        void cancel() {
+            if (!done.compareAndSet(false, true)) return;
+            breakers.forEach(BreakerPermit::ignore);
+            bulkhead.release();
+        }
+    }
+}
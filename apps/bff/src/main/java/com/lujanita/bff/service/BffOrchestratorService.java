@@ -5,12 +5,16 @@ import com.fasterxml.jackson.core.type.TypeReference;
 import com.lujanita.bff.service.LlmInteractionService;
 import com.lujanita.bff.service.McpInteractionService;
 import com.lujanita.bff.model.dto.McpResponse;
+import com.lujanita.bff.ollama.OllamaNativeClient.ChatMessage;
+import com.lujanita.bff.resilience.OverloadedException;
 import org.springframework.beans.factory.annotation.Autowired;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 import java.util.Map;
 import com.lujanita.bff.config.BffProperties;
+import java.util.Optional;
 import java.util.UUID;
+import reactor.core.publisher.Mono;
 
 @Service
 @Slf4j
@@ -24,8 +28,19 @@ public class BffOrchestratorService {
     private BffProperties bffProperties;
     @Autowired
     private com.lujanita.bff.prompt.PromptConfigService promptConfigService;
+    @Autowired(required = false)
+    private ChatResponseCache chatResponseCache;
+    @Autowired(required = false)
+    private ConversationStore conversationStore;
+    @Autowired(required = false)
+    private io.micrometer.core.instrument.MeterRegistry meterRegistry;
 
     private final ObjectMapper objectMapper = new ObjectMapper();
+    private volatile KeywordFilter keywordFilter = KeywordFilter.EMPTY;
+    private volatile IntentRouter intentRouter = IntentRouter.EMPTY;
+    private volatile RulePlanner rulePlanner = RulePlanner.EMPTY;
+    // Cada cuánto se revisa, mientras se espera a Ollama, si el cliente del streaming se desconectó
+    private static final java.time.Duration STREAM_CANCEL_POLL = java.time.Duration.ofMillis(200);
 
     public String handleChat(Map<String, String> headers, String message) {
         String corrId = java.util.Optional.ofNullable(headers.get("x-correlation-id")).orElse(UUID.randomUUID().toString());
@@ -34,6 +49,317 @@ public class BffOrchestratorService {
             String hdrJson = new ObjectMapper().writeValueAsString(headers);
             log.info("[BFF][{}] Chat request received headers={} messageLen={} ", corrId, hdrJson, message == null ? 0 : message.length());
         } catch (Exception ignore) {}
+        String validationError = validateChatRequest(headers, message);
+        if (validationError != null) {
+            return validationError;
+        }
+        String role = headers.getOrDefault("x-role", headers.getOrDefault("X-Role", ""));
+        String profile = headers.getOrDefault("x-profile", headers.getOrDefault("X-Profile", ""));
+        String conversationId = conversationKey(headers);
+        String local = localIntentResponse(message, corrId);
+        if (local != null) {
+            rememberTurn(conversationId, message, local, corrId);
+            return local;
+        }
+        java.util.List<ChatMessage> history = conversationHistory(conversationId);
+
+        String out;
+        // Con historial la respuesta depende de los turnos previos: no se comparte vía cache
+        if (history.isEmpty() && chatResponseCache != null && chatResponseCache.isEnabled()) {
+            out = chatResponseCache.getOrCompute(message, headers, corrId,
+                () -> runChatPipeline(headers, message, role, profile, corrId, history));
+        } else {
+            out = runChatPipeline(headers, message, role, profile, corrId, history).json();
+        }
+        rememberTurn(conversationId, message, out, corrId);
+        return out;
+    }
+
+    // Pipeline completo de handleChat; marca como no cacheables los fallbacks y (según config) las respuestas con datos MCP
+    private ChatResponseCache.Answer runChatPipeline(Map<String, String> headers, String message, String role, String profile, String corrId,
+                                                     java.util.List<ChatMessage> history) {
+        try {
+            KeywordFilter keywords = filterKeywords();
+
+            // Paso 1: Tooling-first en MCP
+            ToolCatalog catalog = mcpInteractionService.getToolCatalog(headers, corrId);
+            java.util.List<Map<String, Object>> tools = catalog.getTools();
+            // Paso 2: Plan por reglas (IDs explícitos en el mensaje) o, si ninguna aplica, pedir al LLM las llamadas MCP (mcpCalls)
+            Map<String, Object> planning = rulePlan(message, tools, corrId);
+            if (planning == null) {
+                log.info("[BFF][{}] Calling LLM for tool planning", corrId);
+                planning = llmInteractionService.planWithTools(message, role, profile, catalog, corrId, history);
+            }
+
+            McpStep step = resolveMcpCall(planning, tools, message, headers, corrId);
+            if (step.unavailable) {
+                return new ChatResponseCache.Answer(mcpUnavailableResponse(), false);
+            }
+            String finalLlmInput;
+            boolean usedMcpData = false;
+            if (step.promptWithData != null) {
+                finalLlmInput = generateWithMcpData(step.promptWithData, role, profile, corrId, history);
+                usedMcpData = true;
+            } else {
+                // Paso 2b: respuesta directa, sólo cuando el plan no produjo un mcpCall ejecutable
+                log.info("[BFF][{}] Calling LLM for direct answer", corrId);
+                String directLlmResp = llmInteractionService.generate(message, role, profile, corrId, history);
+                log.info("[BFF][{}] LLM direct response length={}", corrId, directLlmResp != null ? directLlmResp.length() : 0);
+                finalLlmInput = directLlmResp;
+
+                // La respuesta directa también puede pedir una llamada MCP explícita
+                Map<String, Object> parsed = directMcpCall(directLlmResp, keywords);
+                if (parsed != null) {
+                    try {
+                        McpStep directStep = resolveMcpCall(parsed, tools, message, headers, corrId);
+                        if (directStep.unavailable) {
+                            return new ChatResponseCache.Answer(mcpUnavailableResponse(), false);
+                        }
+                        if (directStep.promptWithData != null) {
+                            finalLlmInput = generateWithMcpData(directStep.promptWithData, role, profile, corrId, history);
+                            usedMcpData = true;
+                        }
+                    } catch (Exception ignore) {
+                        // Si no es JSON, seguimos con la respuesta directa
+                    }
+                }
+            }
+
+            // Paso 3: Usar la respuesta final (con datos MCP si los hubo) para devolver al usuario
+            String outJson = renderChatResponse(finalLlmInput, keywords);
+            log.info("[BFF][{}] Chat response {} ", corrId, outJson);
+            boolean cacheMcpAnswers = bffProperties.getChatCache() != null && bffProperties.getChatCache().isCacheMcpAnswers();
+            return new ChatResponseCache.Answer(outJson, !usedMcpData || cacheMcpAnswers);
+
+        } catch (OverloadedException e) {
+            log.warn("[BFF][{}] Chat rechazado por saturación: {}", corrId, e.getMessage());
+            return new ChatResponseCache.Answer(overloadedResponse(e, corrId), false);
+        } catch (Exception e) {
+            log.error("[BFF][{}] Chat error {} ", corrId, e.getMessage());
+            return new ChatResponseCache.Answer("{\"response\":\"Lo siento, no puedo ayudar con eso ahora\",\"correlationId\":\"fallback\"}", false);
+        }
+    }
+
+    /**
+     * Variante no bloqueante de handleChat: compone catálogo MCP, planificación, llamada MCP y
+     * respuesta del LLM como Monos, sin retener un hilo mientras Ollama genera. Devuelve el mismo
+     * JSON que handleChat (incluidos los errores MW00X y la respuesta de fallback).
+     */
+    public Mono<String> handleChatReactive(Map<String, String> headers, String message) {
+        String corrId = java.util.Optional.ofNullable(headers.get("x-correlation-id")).orElse(UUID.randomUUID().toString());
+        log.info("[BFF][{}] Chat request (reactive) received messageLen={} ", corrId, message == null ? 0 : message.length());
+        String validationError = validateChatRequest(headers, message);
+        if (validationError != null) {
+            return Mono.just(validationError);
+        }
+        String role = headers.getOrDefault("x-role", headers.getOrDefault("X-Role", ""));
+        String profile = headers.getOrDefault("x-profile", headers.getOrDefault("X-Profile", ""));
+        KeywordFilter keywords = filterKeywords();
+        String conversationId = conversationKey(headers);
+        String local = localIntentResponse(message, corrId);
+        if (local != null) {
+            rememberTurn(conversationId, message, local, corrId);
+            return Mono.just(local);
+        }
+        java.util.List<ChatMessage> history = conversationHistory(conversationId);
+
+        Mono<String> out;
+        // Con historial la respuesta depende de los turnos previos: no se comparte vía cache
+        if (history.isEmpty() && chatResponseCache != null && chatResponseCache.isEnabled()) {
+            out = chatResponseCache.getOrComputeReactive(message, headers, corrId,
+                () -> runChatPipelineReactive(headers, message, role, profile, keywords, corrId, history));
+        } else {
+            out = runChatPipelineReactive(headers, message, role, profile, keywords, corrId, history)
+                .map(ChatResponseCache.Answer::json);
+        }
+        return out.doOnNext(outJson -> rememberTurn(conversationId, message, outJson, corrId));
+    }
+
+    // Pipeline reactivo de handleChatReactive; mismo criterio de cacheabilidad que runChatPipeline
+    private Mono<ChatResponseCache.Answer> runChatPipelineReactive(Map<String, String> headers, String message, String role,
+                                                                   String profile, KeywordFilter keywords, String corrId,
+                                                                   java.util.List<ChatMessage> history) {
+        boolean cacheMcpAnswers = bffProperties.getChatCache() != null && bffProperties.getChatCache().isCacheMcpAnswers();
+        return mcpInteractionService.getToolCatalogReactive(headers, corrId)
+            .flatMap(catalog -> Mono.justOrEmpty(rulePlan(message, catalog.getTools(), corrId))
+                .switchIfEmpty(Mono.defer(() -> llmInteractionService.planWithToolsReactive(message, role, profile, catalog, corrId, history)))
+                .flatMap(planning -> resolveMcpCallReactive(planning, catalog.getTools(), message, headers, corrId))
+                .flatMap(step -> {
+                    if (step.unavailable) return Mono.fromCallable(() -> new ChatResponseCache.Answer(mcpUnavailableResponse(), false));
+                    if (step.promptWithData != null) {
+                        return generateWithMcpDataReactive(step.promptWithData, role, profile, corrId, history)
+                            .flatMap(out -> Mono.fromCallable(() -> new ChatResponseCache.Answer(renderChatResponse(out, keywords), cacheMcpAnswers)));
+                    }
+                    log.info("[BFF][{}] Calling LLM for direct answer (reactive)", corrId);
+                    return llmInteractionService.generateReactive(message, role, profile, corrId, history)
+                        .flatMap(direct -> directAnswerReactive(direct, catalog.getTools(), message, headers, role, profile, keywords, corrId,
+                            history, cacheMcpAnswers));
+                }))
+            .doOnNext(answer -> log.info("[BFF][{}] Chat response {} ", corrId, answer.json()))
+            .onErrorResume(e -> {
+                if (e instanceof OverloadedException overloaded) {
+                    log.warn("[BFF][{}] Chat rechazado por saturación: {}", corrId, e.getMessage());
+                    return Mono.just(new ChatResponseCache.Answer(overloadedResponse(overloaded, corrId), false));
+                }
+                log.error("[BFF][{}] Chat error {} ", corrId, e.getMessage());
+                return Mono.just(new ChatResponseCache.Answer("{\"response\":\"Lo siento, no puedo ayudar con eso ahora\",\"correlationId\":\"fallback\"}", false));
+            });
+    }
+
+    // La respuesta directa también puede pedir una llamada MCP explícita (mismo criterio que handleChat)
+    private Mono<ChatResponseCache.Answer> directAnswerReactive(String direct, java.util.List<Map<String, Object>> tools, String message,
+                                                                Map<String, String> headers, String role, String profile,
+                                                                KeywordFilter keywords, String corrId, java.util.List<ChatMessage> history,
+                                                                boolean cacheMcpAnswers) {
+        Map<String, Object> parsed = directMcpCall(direct, keywords);
+        if (parsed == null) {
+            return Mono.fromCallable(() -> new ChatResponseCache.Answer(renderChatResponse(direct, keywords), true));
+        }
+        return resolveMcpCallReactive(parsed, tools, message, headers, corrId)
+            .flatMap(step -> {
+                if (step.unavailable) return Mono.fromCallable(() -> new ChatResponseCache.Answer(mcpUnavailableResponse(), false));
+                if (step.promptWithData == null) {
+                    return Mono.fromCallable(() -> new ChatResponseCache.Answer(renderChatResponse(direct, keywords), true));
+                }
+                return generateWithMcpDataReactive(step.promptWithData, role, profile, corrId, history)
+                    .flatMap(out -> Mono.fromCallable(() -> new ChatResponseCache.Answer(renderChatResponse(out, keywords), cacheMcpAnswers)));
+            });
+    }
+
+    // Llamada MCP pedida por la respuesta directa ({"mcpCall":...} o {"mcpCalls":[...]}); null si no es JSON o no la pide
+    private Map<String, Object> directMcpCall(String direct, KeywordFilter keywords) {
+        String fullyCleanedDirect = filterLines(stripPromptEcho(direct), keywords);
+        if (!fullyCleanedDirect.contains("mcpCall")) return null;
+        try {
+            return objectMapper.readValue(fullyCleanedDirect, new TypeReference<Map<String,Object>>(){});
+        } catch (Exception ignore) {
+            // Si no es JSON, seguimos con la respuesta directa
+            return null;
+        }
+    }
+
+    /**
+     * Variante streaming de handleChat: notifica etapas (planning, mcp, answering), emite el texto de la
+     * respuesta a medida que el LLM lo genera (filtrado por líneas) y termina con el correlationId.
+     * Es bloqueante: el llamador debe ejecutarla fuera del hilo de la petición.
+     */
+    public void handleChatStream(Map<String, String> headers, String message, ChatStreamListener listener) {
+        String corrId = java.util.Optional.ofNullable(headers.get("x-correlation-id")).orElse(UUID.randomUUID().toString());
+        log.info("[BFF][{}] Chat stream request received messageLen={} ", corrId, message == null ? 0 : message.length());
+        String validationError = validateChatRequest(headers, message);
+        if (validationError != null) {
+            listener.onError(validationError, corrId);
+            return;
+        }
+        String role = headers.getOrDefault("x-role", headers.getOrDefault("X-Role", ""));
+        String profile = headers.getOrDefault("x-profile", headers.getOrDefault("X-Profile", ""));
+        String conversationId = conversationKey(headers);
+        java.util.List<ChatMessage> history = conversationHistory(conversationId);
+
+        try {
+            String local = localIntentResponse(message, corrId);
+            if (local != null) {
+                String text = objectMapper.readTree(local).path("response").asText();
+                listener.onToken(text);
+                if (conversationStore != null) conversationStore.append(conversationId, message, text);
+                listener.onComplete(corrId);
+                return;
+            }
+            KeywordFilter keywords = filterKeywords();
+
+            if (streamCancelled(listener, corrId)) return;
+            listener.onStage(ChatStreamListener.STAGE_PLANNING);
+            ToolCatalog catalog = mcpInteractionService.getToolCatalog(headers, corrId);
+            Map<String, Object> planning = rulePlan(message, catalog.getTools(), corrId);
+            if (planning == null) planning = llmInteractionService.planWithTools(message, role, profile, catalog, corrId, history);
+
+            String answerPrompt = message;
+            LlmInteractionService.Stage answerStage = LlmInteractionService.Stage.DIRECT;
+            if (streamCancelled(listener, corrId)) return;
+            if (ToolPlan.hasCalls(planning)) {
+                listener.onStage(ChatStreamListener.STAGE_MCP);
+                McpStep step = resolveMcpCall(planning, catalog.getTools(), message, headers, corrId);
+                if (step.unavailable) {
+                    listener.onToken(objectMapper.readTree(mcpUnavailableResponse()).path("response").asText());
+                    listener.onComplete(corrId);
+                    return;
+                }
+                if (step.promptWithData != null) {
+                    answerPrompt = step.promptWithData;
+                    answerStage = LlmInteractionService.Stage.GROUNDED;
+                }
+            }
+
+            if (streamCancelled(listener, corrId)) return;
+            StringBuilder answered = new StringBuilder();
+            StreamingAnswerFilter filter = streamAnswer(answerStage, answerPrompt, role, profile, corrId, history, listener, keywords, answered);
+            if (filter == null) return;
+            String tail = filter.finish();
+            Map<String, Object> directCall = tail == null && answerStage == LlmInteractionService.Stage.DIRECT
+                ? directMcpCall(filter.raw(), keywords) : null;
+            if (directCall != null) {
+                // La respuesta directa pidió una llamada MCP (como en handleChat): se ejecuta y se responde con los datos
+                listener.onStage(ChatStreamListener.STAGE_MCP);
+                McpStep directStep = resolveMcpCall(directCall, catalog.getTools(), message, headers, corrId);
+                if (directStep.unavailable) {
+                    listener.onToken(objectMapper.readTree(mcpUnavailableResponse()).path("response").asText());
+                    listener.onComplete(corrId);
+                    return;
+                }
+                if (directStep.promptWithData != null) {
+                    if (streamCancelled(listener, corrId)) return;
+                    filter = streamAnswer(LlmInteractionService.Stage.GROUNDED, directStep.promptWithData, role, profile, corrId,
+                        history, listener, keywords, answered);
+                    if (filter == null) return;
+                    tail = filter.finish();
+                }
+            }
+            if (tail == null) {
+                // No hubo texto emitible en streaming (p.ej. JSON sin campo response): procesar la salida completa
+                tail = objectMapper.readTree(renderChatResponse(filter.raw(), keywords)).path("response").asText();
+            }
+            if (!tail.isEmpty()) listener.onToken(tail);
+            answered.append(tail);
+            if (conversationStore != null) conversationStore.append(conversationId, message, answered.toString());
+            listener.onComplete(corrId);
+        } catch (OverloadedException e) {
+            log.warn("[BFF][{}] Chat stream rechazado por saturación: {}", corrId, e.getMessage());
+            listener.onError(overloadedResponse(e, corrId), corrId);
+        } catch (Exception e) {
+            log.error("[BFF][{}] Chat stream error {} ", corrId, e.getMessage());
+            listener.onError("{\"response\":\"Lo siento, no puedo ayudar con eso ahora\",\"correlationId\":\"" + corrId + "\"}", corrId);
+        }
+    }
+
+    // Emite la respuesta del LLM por tokens filtrados; null si el cliente se desconectó mientras se generaba
+    private StreamingAnswerFilter streamAnswer(LlmInteractionService.Stage stage, String prompt, String role, String profile,
+                                               String corrId, java.util.List<ChatMessage> history, ChatStreamListener listener,
+                                               KeywordFilter keywords, StringBuilder answered) {
+        listener.onStage(ChatStreamListener.STAGE_ANSWERING);
+        StreamingAnswerFilter filter = new StreamingAnswerFilter(keywords);
+        // Si el cliente se va, cancelar la suscripción corta la petición a Ollama y libera limitador y bulkhead
+        llmInteractionService.generateStream(stage, prompt, role, profile, corrId, history)
+            .takeUntilOther(reactor.core.publisher.Flux.interval(STREAM_CANCEL_POLL).filter(tick -> listener.isCancelled()))
+            .takeWhile(chunk -> !listener.isCancelled())
+            .doOnNext(chunk -> {
+                String text = filter.accept(chunk);
+                if (!text.isEmpty()) {
+                    answered.append(text);
+                    listener.onToken(text);
+                }
+            })
+            .blockLast();
+        return streamCancelled(listener, corrId) ? null : filter;
+    }
+
+    private boolean streamCancelled(ChatStreamListener listener, String corrId) {
+        if (!listener.isCancelled()) return false;
+        log.info("[BFF][{}] Chat stream cancelado: el cliente se desconectó", corrId);
+        return true;
+    }
+
+    // Valida apiKey, rol/perfil y mensaje; devuelve el JSON de error o null si es válido
+    private String validateChatRequest(Map<String, String> headers, String message) {
         // 1. Validar headers (apiKey, role, profile)
         String apiKey = headers.getOrDefault("x-api-key", headers.get("X-Api-Key"));
         String role = headers.getOrDefault("x-role", headers.getOrDefault("X-Role", ""));
@@ -51,107 +377,325 @@ public class BffOrchestratorService {
         if (message == null || message.isBlank()) {
             return "{\"code\":\"MW003\",\"message\":\"Mensaje vacío\"}";
         }
+        return null;
+    }
 
+    // Autómata de palabras clave; se reconstruye sólo cuando cambia bff.llmFilterKeywords
+    private KeywordFilter filterKeywords() {
+        java.util.List<String> keywords = bffProperties.getLlmFilterKeywords();
+        KeywordFilter current = keywordFilter;
+        if (keywords == null || keywords.isEmpty()) return KeywordFilter.EMPTY;
+        if (current.source() == keywords) return current;
+        current = KeywordFilter.of(keywords);
+        keywordFilter = current;
+        return current;
+    }
+
+    // Intenciones triviales (saludo, gracias, horario, contacto, mensaje demasiado corto) respondidas sin LLM ni MCP;
+    // null si el mensaje debe seguir el pipeline normal
+    private String localIntentResponse(String message, String corrId) {
+        IntentRouter.Intent intent = intentRouter().route(message);
+        if (intent == null) return null;
+        log.info("[BFF][{}] Intent local '{}': respuesta sin LLM", corrId, intent.name());
+        if (meterRegistry != null) {
+            try { meterRegistry.counter("bff.intent.hits", "intent", intent.name()).increment(); } catch (Exception ignore) {}
+        }
         try {
-            // Paso 1: Llamada inicial LLM (contexto usuario)
-            log.info("[BFF][{}] Calling LLM for initial planning", corrId);
-            String initialLlmResp = llmInteractionService.generate(message, role, profile, corrId);
-            log.info("[BFF][{}] LLM initial response length={}", corrId, initialLlmResp != null ? initialLlmResp.length() : 0);
-
-            // Paso 2: Sanitizar y parsear la primera respuesta
-            String finalLlmInput = initialLlmResp;
-            String systemPrompt = bffProperties.getOllama().getSystemPrompt();
-            String assistantGuidelines = bffProperties.getOllama().getAssistantGuidelines();
-            java.util.List<String> keywords = bffProperties.getLlmFilterKeywords();
-            if (keywords == null) keywords = java.util.Collections.emptyList();
-
-            String cleanedInitial = initialLlmResp == null ? "" : initialLlmResp;
-            if (systemPrompt != null && !systemPrompt.isBlank()) cleanedInitial = cleanedInitial.replace(systemPrompt, "");
-            if (assistantGuidelines != null && !assistantGuidelines.isBlank()) cleanedInitial = cleanedInitial.replace(assistantGuidelines, "");
-            cleanedInitial = cleanedInitial.trim();
-            String fullyCleanedInitial = filterLines(cleanedInitial, keywords);
-
-            // Paso 1.5: Tooling-first en MCP
-            java.util.List<Map<String, Object>> tools = mcpInteractionService.listTools(headers, corrId);
-            // Paso 2: Pedir al LLM un mcpCall válido, condicionado por tooling
-            Map<String, Object> planning = llmInteractionService.planWithTools(message, role, profile, tools, corrId);
-
-            try {
-                Map<String, Object> parsed = planning.isEmpty() ? objectMapper.readValue(fullyCleanedInitial, new TypeReference<Map<String,Object>>(){}) : planning;
-
-                // Si el LLM ha devuelto una instrucción MCP explícita, ejecutarla
-                if (parsed.containsKey("mcpCall") && parsed.get("mcpCall") instanceof Map) {
-                    @SuppressWarnings("unchecked")
-                    Map<String, Object> mcpCall = (Map<String, Object>) parsed.get("mcpCall");
-                    Object methodObj = mcpCall.get("method");
-                    Object paramsObj = mcpCall.get("params");
-                    String mcpMethod = methodObj != null ? methodObj.toString() : null;
-                    @SuppressWarnings("unchecked")
-                    Map<String, Object> mcpParams = paramsObj instanceof Map ? (Map<String, Object>) paramsObj : java.util.Collections.emptyMap();
-
-                    boolean valid = mcpInteractionService.validateToolCall(tools, mcpMethod, mcpParams);
-                    if (valid && mcpMethod != null && !mcpMethod.isBlank()) {
-                        log.info("[BFF][{}] Calling MCP method={} params={}", corrId, mcpMethod, mcpParams);
-                        com.lujanita.bff.model.dto.McpResponse mcpResp = mcpInteractionService.call(mcpMethod, mcpParams, headers, corrId);
-                        log.info("[BFF][{}] MCP call result code={} message={}", corrId, mcpResp != null ? mcpResp.getCode() : "null", mcpResp != null ? mcpResp.getMessage() : "null");
-
-                        if (mcpResp == null || "MW005".equals(mcpResp.getCode())) {
-                            String outMsg = "No puedo acceder en este momento a los datos de Odoo, por favor intenta más tarde o contacta a soporte";
-                            Map<String, String> out = Map.of("response", outMsg, "correlationId", UUID.randomUUID().toString());
-                            return objectMapper.writeValueAsString(out);
-                        }
+            return objectMapper.writeValueAsString(Map.of("response", intent.response(), "correlationId", corrId));
+        } catch (Exception e) {
+            return null;
+        }
+    }
 
-                        // Reinvocar al LLM con los datos MCP para generar la respuesta final
-                        String mcpDataJson = objectMapper.writeValueAsString(mcpResp.getData());
-                        String promptWithData = message + "\n\nDatos MCP (JSON):\n" + mcpDataJson;
-                        log.info("[BFF][{}] Calling LLM with MCP data, prompt length={}", corrId, promptWithData.length());
-                        finalLlmInput = llmInteractionService.generate(promptWithData, role, profile, corrId);
-                        log.info("[BFF][{}] LLM final response length={}", corrId, finalLlmInput != null ? finalLlmInput.length() : 0);
-                    }
-                }
-            } catch (Exception ignore) {
-                // Si no es JSON, seguimos con la respuesta inicial
+    // Enrutador de intenciones; se recompila sólo cuando cambia bff.intents
+    private IntentRouter intentRouter() {
+        BffProperties.Intents intents = bffProperties.getIntents();
+        IntentRouter current = intentRouter;
+        if (intents == null || !intents.isEnabled()) return IntentRouter.EMPTY;
+        if (current.source() == intents) return current;
+        String botName = bffProperties.getChatbotName();
+        String welcome = bffProperties.getWelcomeMessage();
+        if (welcome != null && botName != null) welcome = String.format(welcome, botName);
+        BffProperties.Ollama ollama = bffProperties.getOllama();
+        Map<String, String> vars = new java.util.HashMap<>();
+        vars.put("welcomeMessage", welcome);
+        vars.put("chatbotName", botName);
+        vars.put("corporateName", ollama != null ? ollama.getCorporateName() : null);
+        vars.put("corporateWebsite", ollama != null ? ollama.getCorporateWebsite() : null);
+        vars.put("corporateInfo", ollama != null ? ollama.getCorporateInfo() : null);
+        vars.put("corporateAddress", ollama != null ? ollama.getCorporateAddress() : null);
+        vars.put("corporateHours", ollama != null ? ollama.getCorporateHours() : null);
+        vars.put("corporateContact", ollama != null ? ollama.getCorporateContact() : null);
+        current = IntentRouter.of(intents, vars);
+        intentRouter = current;
+        return current;
+    }
+
+    // Quita el eco del prompt de sistema/directrices que a veces repite el LLM
+    private String stripPromptEcho(String llmOutput) {
+        String systemPrompt = bffProperties.getOllama().getSystemPrompt();
+        String assistantGuidelines = bffProperties.getOllama().getAssistantGuidelines();
+        String cleaned = llmOutput == null ? "" : llmOutput;
+        if (systemPrompt != null && !systemPrompt.isBlank()) cleaned = cleaned.replace(systemPrompt, "");
+        if (assistantGuidelines != null && !assistantGuidelines.isBlank()) cleaned = cleaned.replace(assistantGuidelines, "");
+        return cleaned.trim();
+    }
+
+    // Convierte la salida del LLM en el JSON {response, correlationId} que ve el usuario
+    private String renderChatResponse(String llmOutput, KeywordFilter keywords) throws Exception {
+        String fullyCleanedFinal = filterLines(stripPromptEcho(llmOutput), keywords);
+        try {
+            Map<String, Object> parsed = objectMapper.readValue(fullyCleanedFinal, new TypeReference<Map<String,Object>>(){});
+            Map<String, Object> filteredParsed = filterJsonStrings(parsed, keywords);
+            if (filteredParsed.containsKey("response")) {
+                Object respVal = filteredParsed.get("response");
+                String respText = respVal != null ? respVal.toString().trim() : "";
+                String corr = filteredParsed.containsKey("correlationId") ? String.valueOf(filteredParsed.get("correlationId")) : UUID.randomUUID().toString();
+                Map<String, String> out = Map.of("response", respText, "correlationId", corr);
+                return objectMapper.writeValueAsString(out);
+            } else {
+                String respText = objectMapper.writeValueAsString(filteredParsed);
+                Map<String, String> out = Map.of("response", respText, "correlationId", UUID.randomUUID().toString());
+                return objectMapper.writeValueAsString(out);
             }
+        } catch (Exception ex) {
+            // No es JSON: devolver como texto plano dentro del campo response, limpiando líneas con instrucciones
+            Map<String, String> out = Map.of("response", fullyCleanedFinal, "correlationId", UUID.randomUUID().toString());
+            return objectMapper.writeValueAsString(out);
+        }
+    }
 
-            // Paso 3: Usar la respuesta final (segunda si hubo MCP) para devolver al usuario
-            String cleanedFinal = finalLlmInput == null ? "" : finalLlmInput;
-            if (systemPrompt != null && !systemPrompt.isBlank()) cleanedFinal = cleanedFinal.replace(systemPrompt, "");
-            if (assistantGuidelines != null && !assistantGuidelines.isBlank()) cleanedFinal = cleanedFinal.replace(assistantGuidelines, "");
-            cleanedFinal = cleanedFinal.trim();
-            String fullyCleanedFinal = filterLines(cleanedFinal, keywords);
-
-            try {
-                Map<String, Object> parsed = objectMapper.readValue(fullyCleanedFinal, new TypeReference<Map<String,Object>>(){});
-                Map<String, Object> filteredParsed = filterJsonStrings(parsed, keywords);
-                if (filteredParsed.containsKey("response")) {
-                    Object respVal = filteredParsed.get("response");
-                    String respText = respVal != null ? respVal.toString().trim() : "";
-                    String corr = filteredParsed.containsKey("correlationId") ? String.valueOf(filteredParsed.get("correlationId")) : UUID.randomUUID().toString();
-                    Map<String, String> out = Map.of("response", respText, "correlationId", corr);
-                    String outJson = objectMapper.writeValueAsString(out);
-                    log.info("[BFF][{}] Chat response {} ", corrId, outJson);
-                    return outJson;
-                } else {
-                    String respText = objectMapper.writeValueAsString(filteredParsed);
-                    Map<String, String> out = Map.of("response", respText, "correlationId", UUID.randomUUID().toString());
-                    String outJson = objectMapper.writeValueAsString(out);
-                    log.info("[BFF][{}] Chat response {} ", corrId, outJson);
-                    return outJson;
-                }
-            } catch (Exception ex) {
-                // No es JSON: devolver como texto plano dentro del campo response, limpiando líneas con instrucciones
-                Map<String, String> out = Map.of("response", fullyCleanedFinal, "correlationId", UUID.randomUUID().toString());
-                String outJson = objectMapper.writeValueAsString(out);
-                log.info("[BFF][{}] Chat response {} ", corrId, outJson);
-                return outJson;
+    // Resultado de resolver el mcpCall de un plan: prompt con datos MCP, MCP no disponible, o nada que ejecutar
+    private static final class McpStep {
+        static final McpStep NONE = new McpStep(null, false);
+        static final McpStep UNAVAILABLE = new McpStep(null, true);
+        final String promptWithData;
+        final boolean unavailable;
+        McpStep(String promptWithData, boolean unavailable) {
+            this.promptWithData = promptWithData;
+            this.unavailable = unavailable;
+        }
+    }
+
+    // Resultado MCP de una llamada del plan, con los params ya resueltos
+    private record ExecutedCall(ToolPlan.Call call, Map<String, Object> params, McpResponse response) {
+        boolean ok() { return response != null && !"MW005".equals(response.getCode()); }
+    }
+
+    // Si el plan trae llamadas válidas las ejecuta y arma el prompt con los datos MCP
+    private McpStep resolveMcpCall(Map<String, Object> plan, java.util.List<Map<String, Object>> tools, String message,
+                                   Map<String, String> headers, String corrId) throws Exception {
+        McpStep step = resolveMcpCallReactive(plan, tools, message, headers, corrId).block();
+        return step == null ? McpStep.NONE : step;
+    }
+
+    private Mono<McpStep> resolveMcpCallReactive(Map<String, Object> plan, java.util.List<Map<String, Object>> tools, String message,
+                                                 Map<String, String> headers, String corrId) {
+        ToolPlan toolPlan = toolPlan(plan, tools, corrId);
+        if (toolPlan.isEmpty()) return Mono.just(McpStep.NONE);
+        return executePlan(toolPlan, headers, corrId)
+            .flatMap(results -> Mono.fromCallable(() -> toMcpStep(toolPlan, results, message, corrId)));
+    }
+
+    /**
+     * Plan deducido por bff.mcp.planRules (p. ej. "estado del pedido SO001" -> orders.get), o null para pedírselo
+     * al LLM. Sólo se usa si todas sus llamadas pasan la validación contra el tooling; si alguna no, decide el LLM.
+     */
+    private Map<String, Object> rulePlan(String message, java.util.List<Map<String, Object>> tools, String corrId) {
+        java.util.List<RulePlanner.Match> matches = rulePlanner().match(message);
+        if (matches.isEmpty()) return null;
+        BffProperties.Mcp mcpProps = bffProperties.getMcp();
+        int maxCalls = Math.max(1, mcpProps != null ? mcpProps.getPlanMaxCalls() : 4);
+        if (matches.size() > maxCalls) matches = matches.subList(0, maxCalls);
+        for (RulePlanner.Match match : matches) {
+            if (!mcpInteractionService.validateToolCall(tools, match.method(), match.params())) {
+                log.info("[BFF][{}] Rule plan '{}' rechazado por el tooling ({}); se planifica con el LLM", corrId, match.rule(), match.method());
+                return null;
+            }
+        }
+        log.info("[BFF][{}] Rule plan: {} llamada(s) sin planificación LLM {}", corrId, matches.size(),
+            matches.stream().map(m -> m.rule() + ":" + m.method()).toList());
+        if (meterRegistry != null) {
+            for (RulePlanner.Match match : matches) {
+                try { meterRegistry.counter("bff.plan.rule.hits", "rule", match.rule()).increment(); } catch (Exception ignore) {}
+            }
+        }
+        return RulePlanner.toPlan(matches);
+    }
+
+    // Reglas de planificación compiladas; se reconstruyen sólo cuando cambia bff.mcp.planRules
+    private RulePlanner rulePlanner() {
+        BffProperties.Mcp mcpProps = bffProperties.getMcp();
+        java.util.List<BffProperties.PlanRule> rules = mcpProps != null ? mcpProps.getPlanRules() : null;
+        RulePlanner current = rulePlanner;
+        if (rules == null || rules.isEmpty()) return RulePlanner.EMPTY;
+        if (current.source() == rules) return current;
+        current = RulePlanner.of(rules);
+        rulePlanner = current;
+        return current;
+    }
+
+    // Valida cada llamada del plan contra el tooling y la ubica en su oleada según dependsOn
+    private ToolPlan toolPlan(Map<String, Object> plan, java.util.List<Map<String, Object>> tools, String corrId) {
+        BffProperties.Mcp mcpProps = bffProperties.getMcp();
+        int maxCalls = mcpProps != null ? mcpProps.getPlanMaxCalls() : 4;
+        ToolPlan toolPlan = ToolPlan.from(plan, (method, params) -> mcpInteractionService.validateToolCall(tools, method, params), maxCalls);
+        if (!toolPlan.getRejected().isEmpty()) {
+            log.info("[BFF][{}] Planned mcpCalls rejected by tooling validation: {}", corrId, toolPlan.getRejected());
+        }
+        return toolPlan;
+    }
+
+    /**
+     * Ejecuta el plan oleada por oleada; dentro de cada oleada las llamadas van en paralelo (hasta
+     * bff.mcp.planParallelism). Las referencias ${id.campo} se resuelven con los resultados de oleadas anteriores.
+     */
+    private Mono<Map<String, ExecutedCall>> executePlan(ToolPlan toolPlan, Map<String, String> headers, String corrId) {
+        BffProperties.Mcp mcpProps = bffProperties.getMcp();
+        int parallelism = Math.max(1, mcpProps != null ? mcpProps.getPlanParallelism() : 4);
+        boolean batch = mcpProps == null || mcpProps.isBatchCalls();
+        Map<String, ExecutedCall> results = new java.util.concurrent.ConcurrentHashMap<>();
+        Mono<Void> chain = Mono.empty();
+        for (java.util.List<ToolPlan.Call> wave : toolPlan.getWaves()) {
+            chain = chain.then(Mono.defer(() -> executeWave(wave, results, batch, parallelism, headers, corrId)));
+        }
+        return chain.thenReturn(results);
+    }
+
+    /**
+     * Una ola: llamadas sin dependencias entre sí, con los params ya resueltos contra las olas anteriores. Si una
+     * dependencia falló o una referencia quedó sin resolver la llamada no se envía (el MCP recibiría el literal
+     * "${id.campo}"): se registra sin respuesta y el LLM explica el dato faltante.
+     */
+    private Mono<Void> executeWave(java.util.List<ToolPlan.Call> allCalls, Map<String, ExecutedCall> results, boolean batch,
+                                   int parallelism, Map<String, String> headers, String corrId) {
+        java.util.List<ToolPlan.Call> wave = new java.util.ArrayList<>(allCalls.size());
+        java.util.List<Map<String, Object>> params = new java.util.ArrayList<>(allCalls.size());
+        for (ToolPlan.Call call : allCalls) {
+            String failedDependency = call.dependsOn().stream()
+                .filter(id -> results.get(id) == null || !results.get(id).ok())
+                .findFirst().orElse(null);
+            if (failedDependency != null) {
+                log.info("[BFF][{}] MCP id={} method={} omitida: falló la dependencia {}", corrId, call.id(), call.method(), failedDependency);
+                results.put(call.id(), new ExecutedCall(call, call.params(), null));
+                continue;
+            }
+            Map<String, Object> resolved = ToolPlan.resolveParams(call.params(), id -> {
+                ExecutedCall done = results.get(id);
+                return done != null && done.ok() ? done.response().getData() : null;
+            });
+            if (ToolPlan.hasReferences(resolved)) {
+                log.info("[BFF][{}] MCP id={} method={} omitida: referencias sin resolver params={}", corrId, call.id(), call.method(), resolved);
+                results.put(call.id(), new ExecutedCall(call, resolved, null));
+                continue;
+            }
+            log.info("[BFF][{}] Calling MCP id={} method={} params={}", corrId, call.id(), call.method(), resolved);
+            wave.add(call);
+            params.add(resolved);
+        }
+        if (wave.isEmpty()) return Mono.empty();
+        if (batch && wave.size() > 1) {
+            java.util.List<com.lujanita.bff.mcp.McpClientWebClientService.McpCall> calls = new java.util.ArrayList<>(wave.size());
+            for (int i = 0; i < wave.size(); i++) {
+                calls.add(new com.lujanita.bff.mcp.McpClientWebClientService.McpCall(wave.get(i).method(), params.get(i)));
+            }
+            return mcpInteractionService.callBatchReactive(calls, headers, corrId)
+                .doOnNext(resps -> {
+                    for (int i = 0; i < wave.size(); i++) {
+                        results.put(wave.get(i).id(), new ExecutedCall(wave.get(i), params.get(i), resps.get(i).orElse(null)));
+                    }
+                })
+                .then();
+        }
+        return reactor.core.publisher.Flux.range(0, wave.size())
+            .flatMap(i -> mcpInteractionService.callReactive(wave.get(i).method(), params.get(i), headers, corrId)
+                .map(Optional::of)
+                .defaultIfEmpty(Optional.empty())
+                .doOnNext(resp -> results.put(wave.get(i).id(), new ExecutedCall(wave.get(i), params.get(i), resp.orElse(null)))),
+                parallelism)
+            .then();
+    }
+
+    private McpStep toMcpStep(ToolPlan toolPlan, Map<String, ExecutedCall> results, String message, String corrId) throws Exception {
+        java.util.List<Map<String, Object>> merged = new java.util.ArrayList<>();
+        boolean anyOk = false;
+        for (ToolPlan.Call call : toolPlan.getCalls()) {
+            ExecutedCall done = results.get(call.id());
+            McpResponse mcpResp = done != null ? done.response() : null;
+            log.info("[BFF][{}] MCP call id={} method={} result code={} message={}", corrId, call.id(), call.method(),
+                mcpResp != null ? mcpResp.getCode() : "null", mcpResp != null ? mcpResp.getMessage() : "null");
+            if (toolPlan.getCalls().size() == 1) {
+                if (done == null || !done.ok()) return McpStep.UNAVAILABLE;
+                return new McpStep(message + "\n\nDatos MCP (JSON):\n" + objectMapper.writeValueAsString(mcpResp.getData()), false);
             }
+            Map<String, Object> entry = new java.util.LinkedHashMap<>();
+            entry.put("method", call.method());
+            entry.put("params", done != null ? done.params() : call.params());
+            if (done != null && done.ok()) {
+                entry.put("data", mcpResp.getData());
+                anyOk = true;
+            } else {
+                entry.put("error", "Dato no disponible en este momento");
+            }
+            merged.add(entry);
+        }
+        // Con varias llamadas basta con que una responda; el LLM explica lo que falte
+        if (!anyOk) return McpStep.UNAVAILABLE;
+        return new McpStep(message + "\n\nDatos MCP (JSON):\n" + objectMapper.writeValueAsString(merged), false);
+    }
+
+    // Reinvocar al LLM con los datos MCP para generar la respuesta final
+    private String generateWithMcpData(String promptWithData, String role, String profile, String corrId,
+                                       java.util.List<ChatMessage> history) {
+        log.info("[BFF][{}] Calling LLM with MCP data, prompt length={}", corrId, promptWithData.length());
+        String finalResp = llmInteractionService.generate(LlmInteractionService.Stage.GROUNDED, promptWithData, role, profile, corrId, history);
+        log.info("[BFF][{}] LLM final response length={}", corrId, finalResp != null ? finalResp.length() : 0);
+        return finalResp == null ? "" : finalResp;
+    }
+
+    private Mono<String> generateWithMcpDataReactive(String promptWithData, String role, String profile, String corrId,
+                                                     java.util.List<ChatMessage> history) {
+        log.info("[BFF][{}] Calling LLM with MCP data (reactive), prompt length={}", corrId, promptWithData.length());
+        return llmInteractionService.generateReactive(LlmInteractionService.Stage.GROUNDED, promptWithData, role, profile, corrId, history)
+            .defaultIfEmpty("");
+    }
+
+    // Clave del historial: el id lo elige el cliente, así que se acota al llamador (rol, perfil y hash de credenciales)
+    // para que otra API key con el mismo X-Conversation-Id no lea ni contamine la conversación ajena
+    String conversationKey(Map<String, String> headers) {
+        String id = headers.getOrDefault("x-conversation-id", headers.get("X-Conversation-Id"));
+        if (id == null || id.isBlank()) return null;
+        return McpInteractionService.callerScope(headers) + "|" + id;
+    }
+
+    private java.util.List<ChatMessage> conversationHistory(String conversationId) {
+        return conversationStore == null ? java.util.List.of() : conversationStore.history(conversationId);
+    }
 
+    // Guarda el turno tal como lo vio el usuario (sin datos MCP crudos); el fallback de error no se guarda
+    private void rememberTurn(String conversationId, String message, String outJson, String corrId) {
+        if (conversationStore == null || conversationId == null) return;
+        try {
+            com.fasterxml.jackson.databind.JsonNode out = objectMapper.readTree(outJson);
+            if (!out.has("response") || "fallback".equals(out.path("correlationId").asText())) return;
+            conversationStore.append(conversationId, message, out.path("response").asText());
         } catch (Exception e) {
-            log.error("[BFF][{}] Chat error {} ", corrId, e.getMessage());
-            return "{\"response\":\"Lo siento, no puedo ayudar con eso ahora\",\"correlationId\":\"fallback\"}";
+            log.debug("[BFF][{}] No se pudo guardar el turno de la conversación: {}", corrId, e.getMessage());
         }
     }
 
+    // Ollama saturado: MW008, el controlador responde 503 con Retry-After = retryAfter
+    private static String overloadedResponse(OverloadedException e, String corrId) {
+        return "{\"code\":\"MW008\",\"message\":\"Servicio saturado, reintenta en unos segundos\",\"retryAfter\":"
+            + e.getRetryAfterSeconds() + ",\"correlationId\":\"" + corrId + "\"}";
+    }
+
+    private String mcpUnavailableResponse() throws Exception {
+        String outMsg = "No puedo acceder en este momento a los datos de Odoo, por favor intenta más tarde o contacta a soporte";
+        Map<String, String> out = Map.of("response", outMsg, "correlationId", UUID.randomUUID().toString());
+        return objectMapper.writeValueAsString(out);
+    }
+
     public McpResponse handleMcpGeneric(Map<String, String> headers, String method, Map<String, Object> params) {
         String apiKey = headers.getOrDefault("x-api-key", headers.get("X-Api-Key"));
         if (apiKey == null) {
@@ -171,21 +715,12 @@ public class BffOrchestratorService {
     }
 
     // Filtra líneas que contengan palabras clave (case-insensitive)
-    private String filterLines(String text, java.util.List<String> keywords) {
-        StringBuilder sb = new StringBuilder();
-        for (String line : text.split("\r?\n")) {
-            boolean skip = false;
-            String l = line.toLowerCase();
-            for (String kw : keywords) {
-                if (l.contains(kw.toLowerCase())) { skip = true; break; }
-            }
-            if (!skip && !l.trim().isEmpty()) sb.append(line).append("\n");
-        }
-        return sb.toString().trim();
+    private String filterLines(String text, KeywordFilter keywords) {
+        return keywords.filterLines(text);
     }
 
     // Limpia recursivamente todos los campos string de un JSON (Map/List)
-    private Map<String, Object> filterJsonStrings(Map<String, Object> map, java.util.List<String> keywords) {
+    private Map<String, Object> filterJsonStrings(Map<String, Object> map, KeywordFilter keywords) {
         Map<String, Object> out = new java.util.HashMap<>();
         for (Map.Entry<String, Object> entry : map.entrySet()) {
             Object val = entry.getValue();
@@ -204,7 +739,7 @@ public class BffOrchestratorService {
         return out;
     }
 
-    private java.util.List<?> filterJsonList(java.util.List<?> list, java.util.List<String> keywords) {
+    private java.util.List<?> filterJsonList(java.util.List<?> list, KeywordFilter keywords) {
         java.util.List<Object> out = new java.util.ArrayList<>();
         for (Object val : list) {
             if (val instanceof String) {
@@ -240,8 +775,15 @@ public class BffOrchestratorService {
 // Setters para test
     public void setLlmInteractionService(LlmInteractionService s) { this.llmInteractionService = s; }
     public void setMcpInteractionService(McpInteractionService s) { this.mcpInteractionService = s; }
-    public void setBffProperties(BffProperties b) { this.bffProperties = b; }
+    public void setBffProperties(BffProperties b) {
+        this.bffProperties = b;
+        // Mantener sincronizados los wrappers creados por los setters deprecados
+        injectIfMissing(LlmInteractionService.class, llmInteractionService, "bffProperties", b);
+        injectIfMissing(McpInteractionService.class, mcpInteractionService, "bffProperties", b);
+    }
     public void setPromptConfigService(com.lujanita.bff.prompt.PromptConfigService p) { this.promptConfigService = p; }
+    public void setChatResponseCache(ChatResponseCache c) { this.chatResponseCache = c; }
+    public void setConversationStore(ConversationStore c) { this.conversationStore = c; }
     // Sesión eliminada; no se usa
 
     // Backward-compatible setters for existing tests
@@ -267,7 +809,19 @@ public class BffOrchestratorService {
             java.lang.reflect.Field f = McpInteractionService.class.getDeclaredField("mcpClientWebClientService");
             f.setAccessible(true);
             f.set(wrapper, m);
+            java.lang.reflect.Field f2 = McpInteractionService.class.getDeclaredField("bffProperties");
+            f2.setAccessible(true);
+            f2.set(wrapper, this.bffProperties);
         } catch (Exception ignore) {}
         this.mcpInteractionService = wrapper;
     }
+
+    private static void injectIfMissing(Class<?> type, Object target, String field, Object value) {
+        if (target == null || !type.isInstance(target)) return;
+        try {
+            java.lang.reflect.Field f = type.getDeclaredField(field);
+            f.setAccessible(true);
+            if (f.get(target) == null) f.set(target, value);
+        } catch (Exception ignore) {}
+    }
 }
@@ -0,0 +1,186 @@
+package com.lujanita.bff.service;
+
+import com.lujanita.bff.cache.MonoSingleFlight;
+import com.lujanita.bff.cache.SingleFlight;
+import com.lujanita.bff.cache.TtlLruCache;
+import com.lujanita.bff.config.BffProperties;
+import com.lujanita.bff.prompt.PromptConfigService;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Cache de respuestas de /api/chat con coalescencia de peticiones idénticas en curso.
+ * La clave combina mensaje normalizado, ámbito del llamante (rol, perfil y hash de credenciales), versión de
+ * prompts.yml y modelos/opciones de las etapas de respuesta, de modo que ni otro llamante ni un cambio de
+ * prompts o de modelo reciben respuestas generadas fuera de su contexto.
+ */
+@Service
+@Slf4j
+public class ChatResponseCache {
+
+    @Autowired
+    private BffProperties bffProperties;
+    @Autowired
+    private PromptConfigService promptConfigService;
+    @Autowired(required = false)
+    private MeterRegistry meterRegistry;
+    @Autowired(required = false)
+    private LlmInteractionService llmInteractionService;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private volatile TtlLruCache<String, String> responses;
+    private final SingleFlight<String, Answer> inFlight = new SingleFlight<>();
+    private final MonoSingleFlight<String, Answer> inFlightReactive = new MonoSingleFlight<>();
+
+    // Resultado del pipeline de chat; cacheable=false para fallbacks, errores o respuestas excluidas
+    public record Answer(String json, boolean cacheable) {}
+
+    public boolean isEnabled() {
+        BffProperties.ChatCache props = bffProperties != null ? bffProperties.getChatCache() : null;
+        return props != null && props.isEnabled() && props.getTtlSeconds() > 0 && props.getMaxEntries() > 0;
+    }
+
+    /**
+     * Devuelve la respuesta cacheada o ejecuta el pipeline (una sola vez por clave entre peticiones concurrentes).
+     * Quien se une a una ejecución en curso sólo recibe su respuesta si es cacheable; si no (fallback, datos MCP),
+     * ejecuta su propio pipeline. La respuesta devuelta lleva siempre el correlationId de esta petición.
+     */
+    public String getOrCompute(String message, Map<String, String> headers, String corrId, Supplier<Answer> pipeline) {
+        String key = key(message, headers);
+        String cached = cache().get(key);
+        if (cached != null) {
+            count("hit");
+            log.info("[BFF][{}] Chat cache hit", corrId);
+            return withCorrelationId(cached, corrId);
+        }
+        count("miss");
+        boolean[] leader = {false};
+        Answer answer = inFlight.execute(key, () -> {
+            leader[0] = true;
+            Answer computed = pipeline.get();
+            if (computed != null && computed.cacheable()) {
+                cache().put(key, computed.json());
+            }
+            return computed;
+        }, () -> {
+            count("coalesced");
+            log.info("[BFF][{}] Chat cache coalesced with in-flight request", corrId);
+        });
+        if (!leader[0] && answer != null && !answer.cacheable()) {
+            log.info("[BFF][{}] Respuesta en curso no compartible: se ejecuta el pipeline propio", corrId);
+            answer = pipeline.get();
+            return answer == null ? null : answer.json();
+        }
+        return answer == null ? null : leader[0] ? answer.json() : withCorrelationId(answer.json(), corrId);
+    }
+
+    /**
+     * Variante reactiva de getOrCompute para el puerto WebFlux: misma clave, mismas reglas de compartición
+     * (sólo respuestas cacheables) y mismo reemplazo del correlationId, sin bloquear mientras se genera.
+     */
+    public Mono<String> getOrComputeReactive(String message, Map<String, String> headers, String corrId,
+                                             Supplier<Mono<Answer>> pipeline) {
+        return Mono.defer(() -> {
+            String key = key(message, headers);
+            String cached = cache().get(key);
+            if (cached != null) {
+                count("hit");
+                log.info("[BFF][{}] Chat cache hit", corrId);
+                return Mono.just(withCorrelationId(cached, corrId));
+            }
+            count("miss");
+            boolean[] leader = {false};
+            return inFlightReactive.execute(key, () -> {
+                leader[0] = true;
+                return pipeline.get().doOnNext(computed -> {
+                    if (computed.cacheable()) {
+                        cache().put(key, computed.json());
+                    }
+                });
+            }, () -> {
+                count("coalesced");
+                log.info("[BFF][{}] Chat cache coalesced with in-flight request", corrId);
+            }).flatMap(answer -> {
+                if (!leader[0] && !answer.cacheable()) {
+                    log.info("[BFF][{}] Respuesta en curso no compartible: se ejecuta el pipeline propio", corrId);
+                    return pipeline.get().map(Answer::json);
+                }
+                return Mono.justOrEmpty(leader[0] ? answer.json() : withCorrelationId(answer.json(), corrId));
+            });
+        });
+    }
+
+    public void clear() {
+        if (responses != null) responses.clear();
+    }
+
+    String key(String message, Map<String, String> headers) {
+        String promptVersion = promptConfigService != null ? promptConfigService.getVersion() : null;
+        return String.join("|", McpInteractionService.callerScope(headers), String.valueOf(promptVersion),
+            stageModels(), normalize(message));
+    }
+
+    // Modelo y opciones resueltos de las etapas que producen la respuesta (DIRECT y GROUNDED)
+    private String stageModels() {
+        if (llmInteractionService != null) {
+            try {
+                return llmInteractionService.options(LlmInteractionService.Stage.DIRECT) + ","
+                    + llmInteractionService.options(LlmInteractionService.Stage.GROUNDED);
+            } catch (Exception ignore) {}
+        }
+        return String.valueOf(bffProperties.getOllama() != null ? bffProperties.getOllama().getModel() : null);
+    }
+
+    // La respuesta cacheada o compartida lleva el correlationId de quien la generó: se reemplaza por el actual
+    private String withCorrelationId(String json, String corrId) {
+        if (json == null || corrId == null) return json;
+        try {
+            if (objectMapper.readTree(json) instanceof ObjectNode node && node.has("correlationId")) {
+                node.put("correlationId", corrId);
+                return objectMapper.writeValueAsString(node);
+            }
+        } catch (Exception ignore) {}
+        return json;
+    }
+
+    // Minúsculas, espacios colapsados y sin signos de puntuación al inicio/final ("¿Horarios?" == "horarios")
+    static String normalize(String message) {
+        if (message == null) return "";
+        String m = message.strip().toLowerCase(Locale.ROOT).replaceAll("\\s+", " ");
+        return m.replaceAll("^[¿¡\\p{Punct}\\s]+|[\\p{Punct}\\s]+$", "");
+    }
+
+    private TtlLruCache<String, String> cache() {
+        TtlLruCache<String, String> c = responses;
+        if (c == null) {
+            synchronized (this) {
+                c = responses;
+                if (c == null) {
+                    BffProperties.ChatCache props = bffProperties.getChatCache();
+                    c = new TtlLruCache<>(props.getMaxEntries(), props.getTtlSeconds() * 1000L);
+                    responses = c;
+                }
+            }
+        }
+        return c;
+    }
+
+    private void count(String result) {
+        try {
+            if (meterRegistry != null) {
+                meterRegistry.counter("chat.cache", "result", result).increment();
+            }
+        } catch (Exception ignore) {}
+    }
+}
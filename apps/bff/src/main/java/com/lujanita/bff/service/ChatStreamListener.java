@@ -0,0 +1,27 @@
+package com.lujanita.bff.service;
+
+/**
+ * Receptor de eventos del chat en streaming (ver BffOrchestratorService#handleChatStream).
+ */
+public interface ChatStreamListener {
+    String STAGE_PLANNING = "planning";
+    String STAGE_MCP = "mcp";
+    String STAGE_ANSWERING = "answering";
+
+    // Cambio de etapa del pipeline (planning, mcp, answering)
+    void onStage(String stage);
+
+    // Fragmento de texto ya filtrado para mostrar al usuario
+    void onToken(String text);
+
+    // Fin correcto de la respuesta
+    void onComplete(String correlationId);
+
+    // Error terminal; errorJson usa el mismo formato que /api/chat (MW00X o respuesta de fallback)
+    void onError(String errorJson, String correlationId);
+
+    // true si el cliente se fue (desconexión, timeout): el orquestador deja de generar y libera el turno de Ollama
+    default boolean isCancelled() {
+        return false;
+    }
+}
@@ -0,0 +1,79 @@
+package com.lujanita.bff.service;
+
+import com.lujanita.bff.cache.TtlLruCache;
+import com.lujanita.bff.config.BffProperties;
+import com.lujanita.bff.ollama.OllamaNativeClient.ChatMessage;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Historial compacto por conversación (pares usuario/asistente ya filtrados) para que las preguntas de
+ * seguimiento lleguen a Ollama con contexto. Acotado por conversación (turnos y caracteres) y globalmente
+ * (LRU de conversaciones con expiración por inactividad).
+ */
+@Service
+public class ConversationStore {
+
+    @Autowired
+    private BffProperties bffProperties;
+
+    private volatile TtlLruCache<String, List<ChatMessage>> conversations;
+
+    public boolean isEnabled() {
+        BffProperties.Conversation props = bffProperties != null ? bffProperties.getConversation() : null;
+        return props != null && props.isEnabled() && props.getMaxTurns() > 0;
+    }
+
+    // Mensajes previos de la conversación (más antiguos primero); vacío si no hay id o expiró
+    public List<ChatMessage> history(String conversationId) {
+        if (conversationId == null || conversationId.isBlank() || !isEnabled()) return List.of();
+        List<ChatMessage> h = store().get(conversationId);
+        return h == null ? List.of() : h;
+    }
+
+    public void append(String conversationId, String userMessage, String assistantMessage) {
+        if (conversationId == null || conversationId.isBlank() || !isEnabled()) return;
+        if (userMessage == null || assistantMessage == null || assistantMessage.isBlank()) return;
+        BffProperties.Conversation props = bffProperties.getConversation();
+        store().compute(conversationId, current -> {
+            List<ChatMessage> next = new ArrayList<>(current == null ? List.of() : current);
+            next.add(new ChatMessage("user", userMessage.trim()));
+            next.add(new ChatMessage("assistant", assistantMessage.trim()));
+            int maxMessages = props.getMaxTurns() * 2;
+            while (next.size() > maxMessages || (next.size() > 2 && chars(next) > props.getMaxChars())) {
+                // Se descarta siempre el turno completo más antiguo (usuario + asistente)
+                next.remove(0);
+                next.remove(0);
+            }
+            return List.copyOf(next);
+        });
+    }
+
+    public void forget(String conversationId) {
+        if (conversationId != null && conversations != null) conversations.invalidate(conversationId);
+    }
+
+    private static int chars(List<ChatMessage> messages) {
+        int total = 0;
+        for (ChatMessage m : messages) total += m.content().length();
+        return total;
+    }
+
+    private TtlLruCache<String, List<ChatMessage>> store() {
+        TtlLruCache<String, List<ChatMessage>> c = conversations;
+        if (c == null) {
+            synchronized (this) {
+                c = conversations;
+                if (c == null) {
+                    BffProperties.Conversation props = bffProperties.getConversation();
+                    c = new TtlLruCache<>(props.getMaxConversations(), props.getIdleTtlSeconds() * 1000L);
+                    conversations = c;
+                }
+            }
+        }
+        return c;
+    }
+}
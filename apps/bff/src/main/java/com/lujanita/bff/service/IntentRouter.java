@@ -0,0 +1,131 @@
+package com.lujanita.bff.service;
+
+import com.lujanita.bff.config.BffProperties;
+
+import java.text.Normalizer;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Enrutador previo al LLM para intenciones triviales (bff.intents): si el mensaje completo, normalizado
+ * (minúsculas, sin tildes ni puntuación, sin letras estiradas como "holaaa"), es una frase de una intención o
+ * una secuencia de frases de la misma intención ("hola buenas tardes"), se responde con su texto sin llamar a
+ * Ollama ni al MCP. El nombre del bot se ignora ("hola lujanita"). Se compila una vez por configuración y es
+ * inmutable: se puede compartir entre hilos.
+ */
+public final class IntentRouter {
+    public static final IntentRouter EMPTY = new IntentRouter(null, Map.of(), 0, Set.of(), 0, null);
+    public static final String TOO_SHORT = "too_short";
+
+    private static final Pattern DIACRITICS = Pattern.compile("\\p{M}+");
+    private static final Pattern NON_WORD = Pattern.compile("[^\\p{L}\\p{N}]+");
+    private static final Pattern STRETCHED = Pattern.compile("(\\p{L})\\1{2,}");
+
+    public record Intent(String name, String response) {}
+
+    private final Object source;
+    // Frase normalizada -> intención; maxWords es el largo (en palabras) de la frase más larga
+    private final Map<String, Intent> phrases;
+    private final int maxWords;
+    private final Set<String> ignoredWords;
+    private final int minChars;
+    private final Intent tooShort;
+
+    private IntentRouter(Object source, Map<String, Intent> phrases, int maxWords, Set<String> ignoredWords, int minChars, Intent tooShort) {
+        this.source = source;
+        this.phrases = phrases;
+        this.maxWords = maxWords;
+        this.ignoredWords = ignoredWords;
+        this.minChars = minChars;
+        this.tooShort = tooShort;
+    }
+
+    /**
+     * vars reemplaza los marcadores {clave} de cada respuesta (welcomeMessage, chatbotName, corporateHours...).
+     * Las intenciones sin frases o sin respuesta se omiten, también si usan un marcador sin valor configurado
+     * (esas preguntas siguen al LLM en lugar de responder con un dato vacío).
+     */
+    public static IntentRouter of(BffProperties.Intents config, Map<String, String> vars) {
+        if (config == null || !config.isEnabled()) return EMPTY;
+        Map<String, Intent> phrases = new HashMap<>();
+        int maxWords = 0;
+        for (BffProperties.Intent route : config.getRoutes() == null ? List.<BffProperties.Intent>of() : config.getRoutes()) {
+            String response = render(route.getResponse(), vars);
+            if (route.getName() == null || response.isBlank() || route.getPhrases() == null) continue;
+            Intent intent = new Intent(route.getName(), response);
+            for (String phrase : route.getPhrases()) {
+                String normalized = normalize(phrase);
+                if (normalized.isEmpty()) continue;
+                phrases.putIfAbsent(normalized, intent);
+                maxWords = Math.max(maxWords, normalized.split(" ").length);
+            }
+        }
+        Set<String> ignored = new HashSet<>();
+        String botName = normalize(vars.get("chatbotName"));
+        if (!botName.isEmpty()) ignored.add(botName);
+        String tooShortResponse = render(config.getTooShortResponse(), vars);
+        Intent tooShort = tooShortResponse.isBlank() ? null : new Intent(TOO_SHORT, tooShortResponse);
+        return new IntentRouter(config, Map.copyOf(phrases), maxWords, Set.copyOf(ignored), Math.max(0, config.getMinChars()), tooShort);
+    }
+
+    /**
+     * Intención del mensaje, o null si hay que seguir con el pipeline normal (LLM + MCP).
+     */
+    public Intent route(String message) {
+        if (this == EMPTY || message == null) return null;
+        String normalized = normalize(message);
+        if (tooShort != null && normalized.replace(" ", "").length() < minChars) return tooShort;
+        if (normalized.isEmpty() || phrases.isEmpty()) return null;
+        Intent direct = phrases.get(normalized);
+        if (direct != null) return direct;
+
+        String[] words = normalized.split(" ");
+        Intent matched = null;
+        int i = 0;
+        // Segmentación voraz por la frase más larga; todas las frases deben ser de la misma intención
+        while (i < words.length) {
+            if (ignoredWords.contains(words[i])) {
+                i++;
+                continue;
+            }
+            Intent found = null;
+            int end = Math.min(words.length, i + maxWords);
+            for (; end > i; end--) {
+                found = phrases.get(String.join(" ", java.util.Arrays.copyOfRange(words, i, end)));
+                if (found != null) break;
+            }
+            if (found == null || (matched != null && !matched.name().equals(found.name()))) return null;
+            matched = found;
+            i = end;
+        }
+        return matched;
+    }
+
+    public Object source() {
+        return source;
+    }
+
+    static String normalize(String text) {
+        if (text == null) return "";
+        String s = Normalizer.normalize(text.toLowerCase(java.util.Locale.ROOT), Normalizer.Form.NFD);
+        s = DIACRITICS.matcher(s).replaceAll("");
+        s = NON_WORD.matcher(s).replaceAll(" ").trim();
+        return STRETCHED.matcher(s).replaceAll("$1");
+    }
+
+    private static String render(String template, Map<String, String> vars) {
+        if (template == null) return "";
+        String out = template;
+        for (Map.Entry<String, String> v : vars.entrySet()) {
+            String placeholder = "{" + v.getKey() + "}";
+            if (!out.contains(placeholder)) continue;
+            if (v.getValue() == null || v.getValue().isBlank()) return "";
+            out = out.replace(placeholder, v.getValue().trim());
+        }
+        return out.trim();
+    }
+}
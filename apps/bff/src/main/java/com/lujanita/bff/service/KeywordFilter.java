@@ -0,0 +1,187 @@
+package com.lujanita.bff.service;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Autómata Aho-Corasick (sin distinguir mayúsculas) para bff.llmFilterKeywords.
+ * Se construye una vez por lista de palabras clave y es inmutable: se puede compartir entre hilos.
+ * El recorrido compara carácter a carácter con Character.toLowerCase, sin crear strings en minúsculas.
+ */
+public final class KeywordFilter {
+    public static final KeywordFilter EMPTY = new KeywordFilter(List.of());
+
+    private static final int ROOT = 0;
+
+    private final List<String> source;
+    // Transiciones por estado: etiquetas ordenadas + destino (búsqueda binaria, sin boxing)
+    private final char[][] labels;
+    private final int[][] targets;
+    private final int[] fail;
+    private final boolean[] terminal;
+
+    private KeywordFilter(List<String> keywords) {
+        this.source = keywords;
+        List<Map<Character, Integer>> trie = new ArrayList<>();
+        List<Boolean> ends = new ArrayList<>();
+        trie.add(new TreeMap<>());
+        ends.add(false);
+        for (String kw : keywords) {
+            if (kw == null || kw.isEmpty()) continue;
+            int state = ROOT;
+            for (int i = 0; i < kw.length(); i++) {
+                char c = Character.toLowerCase(kw.charAt(i));
+                Integer next = trie.get(state).get(c);
+                if (next == null) {
+                    next = trie.size();
+                    trie.add(new TreeMap<>());
+                    ends.add(false);
+                    trie.get(state).put(c, next);
+                }
+                state = next;
+            }
+            ends.set(state, true);
+        }
+        int n = trie.size();
+        labels = new char[n][];
+        targets = new int[n][];
+        terminal = new boolean[n];
+        for (int s = 0; s < n; s++) {
+            Map<Character, Integer> edges = trie.get(s);
+            labels[s] = new char[edges.size()];
+            targets[s] = new int[edges.size()];
+            int i = 0;
+            for (Map.Entry<Character, Integer> e : edges.entrySet()) {
+                labels[s][i] = e.getKey();
+                targets[s][i] = e.getValue();
+                i++;
+            }
+            terminal[s] = ends.get(s);
+        }
+        // Enlaces de fallo por BFS; un estado es terminal si algún sufijo suyo lo es
+        fail = new int[n];
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        for (int t : targets[ROOT]) {
+            fail[t] = ROOT;
+            queue.add(t);
+        }
+        while (!queue.isEmpty()) {
+            int s = queue.poll();
+            for (int i = 0; i < labels[s].length; i++) {
+                char c = labels[s][i];
+                int t = targets[s][i];
+                int f = fail[s];
+                while (f != ROOT && edge(f, c) < 0) f = fail[f];
+                int ft = edge(f, c);
+                fail[t] = ft >= 0 && ft != t ? ft : ROOT;
+                terminal[t] |= terminal[fail[t]];
+                queue.add(t);
+            }
+        }
+    }
+
+    public static KeywordFilter of(List<String> keywords) {
+        if (keywords == null || keywords.isEmpty()) return EMPTY;
+        return new KeywordFilter(keywords);
+    }
+
+    // Lista con la que se construyó (para detectar cambios de configuración)
+    public List<String> source() {
+        return source;
+    }
+
+    public boolean isEmpty() {
+        return labels[ROOT].length == 0;
+    }
+
+    public boolean containsAny(CharSequence text) {
+        return containsAny(text, 0, text.length());
+    }
+
+    public boolean containsAny(CharSequence text, int start, int end) {
+        if (isEmpty()) return false;
+        int state = ROOT;
+        for (int i = start; i < end; i++) {
+            state = step(state, text.charAt(i));
+            if (terminal[state]) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Equivalente a filterLines: descarta líneas en blanco o con alguna palabra clave y devuelve el resto
+     * unido por '\n' y recortado.
+     */
+    public String filterLines(String text) {
+        if (text == null || text.isEmpty()) return "";
+        StringBuilder sb = new StringBuilder(text.length());
+        int len = text.length();
+        int lineStart = 0;
+        while (lineStart <= len) {
+            int nl = text.indexOf('\n', lineStart);
+            int lineEnd = nl < 0 ? len : nl;
+            int contentEnd = lineEnd > lineStart && text.charAt(lineEnd - 1) == '\r' ? lineEnd - 1 : lineEnd;
+            if (!isBlank(text, lineStart, contentEnd) && !containsAny(text, lineStart, contentEnd)) {
+                sb.append(text, lineStart, contentEnd).append('\n');
+            }
+            if (nl < 0) break;
+            lineStart = nl + 1;
+        }
+        return sb.toString().trim();
+    }
+
+    // Recorrido incremental sobre un flujo de caracteres (una instancia por flujo, no thread-safe)
+    public Matcher matcher() {
+        return new Matcher();
+    }
+
+    public final class Matcher {
+        private int state = ROOT;
+        private boolean matched;
+
+        // Consume un carácter; devuelve true si desde el último reset apareció alguna palabra clave
+        public boolean feed(char c) {
+            if (!matched && !isEmpty()) {
+                state = step(state, c);
+                matched = terminal[state];
+            }
+            return matched;
+        }
+
+        public boolean matched() {
+            return matched;
+        }
+
+        public void reset() {
+            state = ROOT;
+            matched = false;
+        }
+    }
+
+    private int step(int state, char raw) {
+        char c = Character.toLowerCase(raw);
+        while (true) {
+            int t = edge(state, c);
+            if (t >= 0) return t;
+            if (state == ROOT) return ROOT;
+            state = fail[state];
+        }
+    }
+
+    private int edge(int state, char c) {
+        int i = Arrays.binarySearch(labels[state], c);
+        return i >= 0 ? targets[state][i] : -1;
+    }
+
+    // Mismo criterio que String.trim().isEmpty()
+    private static boolean isBlank(String text, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (text.charAt(i) > ' ') return false;
+        }
+        return true;
+    }
+}
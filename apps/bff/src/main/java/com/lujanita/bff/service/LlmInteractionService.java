@@ -1,7 +1,10 @@
 package com.lujanita.bff.service;
 
+import com.lujanita.bff.ollama.ModelOptions;
 import com.lujanita.bff.ollama.OllamaClientService;
+import com.lujanita.bff.ollama.OllamaNativeClient.ChatMessage;
 import com.lujanita.bff.config.BffProperties;
+import com.lujanita.bff.resilience.ResilienceRegistry;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import lombok.extern.slf4j.Slf4j;
@@ -9,27 +12,223 @@ import io.micrometer.core.instrument.MeterRegistry;
 import io.micrometer.core.instrument.Timer;
 import java.util.Map;
 import java.util.List;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
 @Service
 @Slf4j
 public class LlmInteractionService {
 
+    /**
+     * Etapa de la petición: cada una puede usar su propio modelo y opciones (bff.ollama.planning*, direct*,
+     * grounded*); lo que no se configura sale de bff.ollama.model/temperature/maxTokens.
+     */
+    public enum Stage { PLANNING, DIRECT, GROUNDED }
+
     @Autowired
     private OllamaClientService ollamaClientService;
     @Autowired
     private BffProperties bffProperties;
     @Autowired(required = false)
     private MeterRegistry meterRegistry;
+    @Autowired(required = false)
+    private ResilienceRegistry resilience;
+    @Autowired(required = false)
+    private ToolSelector toolSelector;
 
     public String generate(String message, String role, String profile, String corrId) {
-        String model = bffProperties.getOllama().getModel();
+        return generate(message, role, profile, corrId, List.of());
+    }
+
+    // history: turnos previos de la conversación (ver ConversationStore); vacío para peticiones sueltas
+    public String generate(String message, String role, String profile, String corrId, List<ChatMessage> history) {
+        return generate(Stage.DIRECT, message, role, profile, corrId, history);
+    }
+
+    // GROUNDED para la respuesta con datos MCP, DIRECT para la respuesta sin herramientas
+    public String generate(Stage stage, String message, String role, String profile, String corrId, List<ChatMessage> history) {
+        ModelOptions options = options(stage);
+        String model = options.model();
+        long t0 = System.currentTimeMillis();
+        log.info("[LLM][{}] Generate start model={} role={} profile={} historyMessages={} ", corrId, model, role, profile, history.size());
+        String resp = guarded(role, profile, () -> history.isEmpty()
+            ? ollamaClientService.generate(options, message, role, profile)
+            : ollamaClientService.generate(options, message, role, profile, null, history));
+        long durMs = System.currentTimeMillis() - t0;
+        recordGenerate(model, role, profile, durMs);
+        int len = resp == null ? 0 : resp.length();
+        String preview = resp == null ? "" : (resp.length() > 500 ? resp.substring(0, 500) + "..." : resp);
+        log.info("[LLM][{}] Generate done durMs={} chars={} preview=\n{}", corrId, durMs, len, preview);
+        return resp;
+    }
+
+    // Variante streaming: fragmentos de texto a medida que el LLM los genera
+    public Flux<String> generateStream(String message, String role, String profile, String corrId) {
+        return generateStream(message, role, profile, corrId, List.of());
+    }
+
+    public Flux<String> generateStream(String message, String role, String profile, String corrId, List<ChatMessage> history) {
+        return generateStream(Stage.DIRECT, message, role, profile, corrId, history);
+    }
+
+    public Flux<String> generateStream(Stage stage, String message, String role, String profile, String corrId, List<ChatMessage> history) {
+        ModelOptions options = options(stage);
+        String model = options.model();
+        long t0 = System.currentTimeMillis();
+        java.util.concurrent.atomic.AtomicLong firstTokenMs = new java.util.concurrent.atomic.AtomicLong(-1);
+        log.info("[LLM][{}] Stream start model={} role={} profile={} historyMessages={} ", corrId, model, role, profile, history.size());
+        Flux<String> chunks = guardedStream(role, profile, Flux.defer(() -> history.isEmpty()
+            ? ollamaClientService.generateStream(options, message, role, profile)
+            : ollamaClientService.generateStream(options, message, role, profile, null, history)));
+        return chunks
+            .doOnNext(chunk -> firstTokenMs.compareAndSet(-1, System.currentTimeMillis() - t0))
+            .doOnComplete(() -> {
+                long durMs = System.currentTimeMillis() - t0;
+                try {
+                    if (meterRegistry != null) {
+                        Timer.builder("llm.generate.stream")
+                            .description("Duration of streamed LLM generate calls")
+                            .tag("model", model)
+                            .tag("role", String.valueOf(role))
+                            .tag("profile", String.valueOf(profile))
+                            .register(meterRegistry)
+                            .record(durMs, java.util.concurrent.TimeUnit.MILLISECONDS);
+                        if (firstTokenMs.get() >= 0) {
+                            Timer.builder("llm.generate.firstToken")
+                                .description("Time to first streamed LLM token")
+                                .tag("model", model)
+                                .register(meterRegistry)
+                                .record(firstTokenMs.get(), java.util.concurrent.TimeUnit.MILLISECONDS);
+                        }
+                    }
+                } catch (Exception ignore) {}
+                log.info("[LLM][{}] Stream done durMs={} firstTokenMs={}", corrId, durMs, firstTokenMs.get());
+            });
+    }
+
+    // Plan con tooling: pedir al LLM que devuelva JSON con mcpCall válido
+    public Map<String, Object> planWithTools(String message, String role, String profile, java.util.List<Map<String, Object>> tools, String corrId) {
+        return planWithTools(message, role, profile, ToolCatalog.of(tools), corrId);
+    }
+
+    // Variante con catálogo cacheado: reutiliza el fragmento de prompt ya renderizado
+    public Map<String, Object> planWithTools(String message, String role, String profile, ToolCatalog catalog, String corrId) {
+        return planWithTools(message, role, profile, catalog, corrId, List.of());
+    }
+
+    // Con historial el plan puede resolver referencias del tipo "¿y el otro pedido?"
+    public Map<String, Object> planWithTools(String message, String role, String profile, ToolCatalog catalog, String corrId,
+                                             List<ChatMessage> history) {
+        ModelOptions options = options(Stage.PLANNING);
+        String model = options.model();
+        long t0 = System.currentTimeMillis();
+        // Sólo las herramientas relevantes para el mensaje (ver ToolSelector); la validación del plan usa el catálogo completo
+        ToolCatalog planning = toolSelector != null ? toolSelector.select(catalog, message, corrId) : catalog;
+        log.info("[LLM][{}] Planning with tools start model={} toolsCount={}/{} catalogVersion={} ", corrId, model,
+            planning.getTools().size(), catalog.getTools().size(), catalog.getVersion());
+        // El catálogo va en el prefijo estático (antes del mensaje) para que Ollama reutilice su evaluación
+        String resp = guarded(role, profile, () -> history.isEmpty()
+            ? ollamaClientService.generate(options, message, role, profile, planning.getPromptFragment())
+            : ollamaClientService.generate(options, message, role, profile, planning.getPromptFragment(), history));
+        long durMs = System.currentTimeMillis() - t0;
+        recordPlanning(model, role, profile, durMs);
+        log.info("[LLM][{}] Planning with tools done durMs={} chars={} ", corrId, durMs, resp == null ? 0 : resp.length());
+        return parsePlan(resp);
+    }
+
+    // Variantes no bloqueantes para la ruta reactiva (ver BffOrchestratorService#handleChatReactive)
+    public Mono<String> generateReactive(String message, String role, String profile, String corrId) {
+        return generateReactive(message, role, profile, corrId, List.of());
+    }
+
+    public Mono<String> generateReactive(String message, String role, String profile, String corrId, List<ChatMessage> history) {
+        return generateReactive(Stage.DIRECT, message, role, profile, corrId, history);
+    }
+
+    public Mono<String> generateReactive(Stage stage, String message, String role, String profile, String corrId, List<ChatMessage> history) {
+        return Mono.defer(() -> {
+            ModelOptions options = options(stage);
+            String model = options.model();
+            long t0 = System.currentTimeMillis();
+            log.info("[LLM][{}] Generate (reactive) start model={} role={} profile={} ", corrId, model, role, profile);
+            Mono<String> call = guarded(role, profile, Mono.defer(() -> history.isEmpty()
+                ? ollamaClientService.generateReactive(options, message, role, profile)
+                : ollamaClientService.generateReactive(options, message, role, profile, null, history)));
+            return call
+                .doOnNext(resp -> {
+                    long durMs = System.currentTimeMillis() - t0;
+                    recordGenerate(model, role, profile, durMs);
+                    log.info("[LLM][{}] Generate (reactive) done durMs={} chars={}", corrId, durMs, resp.length());
+                });
+        });
+    }
+
+    public Mono<Map<String, Object>> planWithToolsReactive(String message, String role, String profile, ToolCatalog catalog, String corrId) {
+        return planWithToolsReactive(message, role, profile, catalog, corrId, List.of());
+    }
+
+    public Mono<Map<String, Object>> planWithToolsReactive(String message, String role, String profile, ToolCatalog catalog, String corrId,
+                                                           List<ChatMessage> history) {
+        Mono<ToolCatalog> selected = toolSelector != null ? toolSelector.selectReactive(catalog, message, corrId) : Mono.just(catalog);
+        return selected.flatMap(planning -> {
+            ModelOptions options = options(Stage.PLANNING);
+            String model = options.model();
+            long t0 = System.currentTimeMillis();
+            log.info("[LLM][{}] Planning (reactive) start model={} toolsCount={}/{} catalogVersion={} ", corrId, model,
+                planning.getTools().size(), catalog.getTools().size(), catalog.getVersion());
+            Mono<String> call = guarded(role, profile, Mono.defer(() -> history.isEmpty()
+                ? ollamaClientService.generateReactive(options, message, role, profile, planning.getPromptFragment())
+                : ollamaClientService.generateReactive(options, message, role, profile, planning.getPromptFragment(), history)));
+            return call
+                .map(resp -> {
+                    long durMs = System.currentTimeMillis() - t0;
+                    recordPlanning(model, role, profile, durMs);
+                    log.info("[LLM][{}] Planning (reactive) done durMs={} chars={} ", corrId, durMs, resp.length());
+                    return parsePlan(resp);
+                });
+        });
+    }
+
+    // Limitador adaptativo + circuit breaker y bulkhead de Ollama: con el circuito abierto falla al instante y el
+    // orquestador responde el fallback; sin turno en el limitador lanza OverloadedException (503 + Retry-After).
+    // La espera por turno se reparte por pesos según la clase de trabajo (perfil/rol) de la petición
+    private String guarded(String role, String profile, java.util.function.Supplier<String> call) {
+        if (resilience == null) return call.get();
+        return resilience.limited(ResilienceRegistry.OLLAMA, resilience.workClass(role, profile),
+            () -> resilience.call(ResilienceRegistry.OLLAMA, null, call, ResilienceRegistry.OLLAMA));
+    }
+
+    private Mono<String> guarded(String role, String profile, Mono<String> call) {
+        if (resilience == null) return call;
+        return resilience.limited(ResilienceRegistry.OLLAMA, resilience.workClass(role, profile),
+            resilience.protect(ResilienceRegistry.OLLAMA, null, call, ResilienceRegistry.OLLAMA));
+    }
+
+    private Flux<String> guardedStream(String role, String profile, Flux<String> chunks) {
+        if (resilience == null) return chunks;
+        return resilience.limitedFlux(ResilienceRegistry.OLLAMA, resilience.workClass(role, profile),
+            resilience.protectFlux(ResilienceRegistry.OLLAMA, chunks, ResilienceRegistry.OLLAMA));
+    }
+
+    // Modelo y opciones de la etapa; sin modelo propio usa bff.ollama.model
+    ModelOptions options(Stage stage) {
+        BffProperties.Ollama props = bffProperties.getOllama();
+        String model;
+        Double temperature;
+        Integer maxTokens;
+        switch (stage) {
+            case PLANNING -> { model = props.getPlanningModel(); temperature = props.getPlanningTemperature(); maxTokens = props.getPlanningMaxTokens(); }
+            case GROUNDED -> { model = props.getGroundedModel(); temperature = props.getGroundedTemperature(); maxTokens = props.getGroundedMaxTokens(); }
+            default -> { model = props.getDirectModel(); temperature = props.getDirectTemperature(); maxTokens = props.getDirectMaxTokens(); }
+        }
+        if (model == null || model.isBlank()) model = props.getModel();
         if (model == null || model.isBlank()) {
             throw new IllegalStateException("El modelo de Ollama no está configurado en application.yml");
         }
-        long t0 = System.currentTimeMillis();
-        log.info("[LLM][{}] Generate start model={} role={} profile={} ", corrId, model, role, profile);
-        String resp = ollamaClientService.generate(model, message, role, profile);
-        long durMs = System.currentTimeMillis() - t0;
+        return new ModelOptions(model, temperature, maxTokens);
+    }
+
+    private void recordGenerate(String model, String role, String profile, long durMs) {
         try {
             if (meterRegistry != null) {
                 Timer.builder("llm.generate")
@@ -41,29 +240,9 @@ public class LlmInteractionService {
                     .record(durMs, java.util.concurrent.TimeUnit.MILLISECONDS);
             }
         } catch (Exception ignore) {}
-        int len = resp == null ? 0 : resp.length();
-        String preview = resp == null ? "" : (resp.length() > 500 ? resp.substring(0, 500) + "..." : resp);
-        log.info("[LLM][{}] Generate done durMs={} chars={} preview=\n{}", corrId, durMs, len, preview);
-        return resp;
     }
 
-    // Plan con tooling: pedir al LLM que devuelva JSON con mcpCall válido
-    public Map<String, Object> planWithTools(String message, String role, String profile, java.util.List<Map<String, Object>> tools, String corrId) {
-        String model = bffProperties.getOllama().getModel();
-        if (model == null || model.isBlank()) {
-            throw new IllegalStateException("El modelo de Ollama no está configurado en application.yml");
-        }
-        String toolsJson;
-        try {
-            toolsJson = new com.fasterxml.jackson.databind.ObjectMapper().writeValueAsString(tools);
-        } catch (Exception e) {
-            toolsJson = "[]";
-        }
-        String planningPrompt = message + "\n\nHerramientas disponibles (JSON):\n" + toolsJson + "\n\nDevuelve estrictamente JSON con {\"mcpCall\":{\"method\":<string>,\"params\":<object>}}. No incluyas texto adicional.";
-        long t0 = System.currentTimeMillis();
-        log.info("[LLM][{}] Planning with tools start model={} toolsCount={} ", corrId, model, tools.size());
-        String resp = ollamaClientService.generate(model, planningPrompt, role, profile);
-        long durMs = System.currentTimeMillis() - t0;
+    private void recordPlanning(String model, String role, String profile, long durMs) {
         try {
             if (meterRegistry != null) {
                 Timer.builder("llm.planWithTools")
@@ -75,7 +254,9 @@ public class LlmInteractionService {
                     .record(durMs, java.util.concurrent.TimeUnit.MILLISECONDS);
             }
         } catch (Exception ignore) {}
-        log.info("[LLM][{}] Planning with tools done durMs={} chars={} ", corrId, durMs, resp == null ? 0 : resp.length());
+    }
+
+    private static Map<String, Object> parsePlan(String resp) {
         try {
             var mapper = new com.fasterxml.jackson.databind.ObjectMapper();
             @SuppressWarnings("unchecked")
@@ -1,21 +1,33 @@
 package com.lujanita.bff.service;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.lujanita.bff.cache.MonoSingleFlight;
+import com.lujanita.bff.cache.TtlLruCache;
 import com.lujanita.bff.mcp.McpClientWebClientService;
 import com.lujanita.bff.config.BffProperties;
 import com.lujanita.bff.model.dto.McpResponse;
+import com.lujanita.bff.resilience.DownstreamUnavailableException;
+import com.lujanita.bff.resilience.ResilienceRegistry;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import lombok.extern.slf4j.Slf4j;
 import io.micrometer.core.instrument.MeterRegistry;
 import io.micrometer.core.instrument.Timer;
+import reactor.core.publisher.Mono;
 
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 @Service
 @Slf4j
 public class McpInteractionService {
+    // Separa "getOrCreate" / "list_open" / "find-all" en palabras para comparar verbos enteros
+    private static final java.util.regex.Pattern ACTION_WORD_BOUNDARY = java.util.regex.Pattern.compile("[_\\-]+|(?<=[a-z0-9])(?=[A-Z])");
+    private static final Set<String> WRITE_WORDS = Set.of(
+        "create", "update", "upsert", "delete", "remove", "set", "put", "add", "save", "insert", "cancel", "confirm");
 
     @Autowired
     private McpClientWebClientService mcpClientWebClientService;
@@ -23,13 +35,184 @@ public class McpInteractionService {
     private BffProperties bffProperties;
     @Autowired(required = false)
     private MeterRegistry meterRegistry;
+    @Autowired(required = false)
+    private ResilienceRegistry resilience;
+    @Autowired(required = false)
+    private com.lujanita.bff.prompt.PromptConfigService promptConfigService;
     private final ObjectMapper objectMapper = new ObjectMapper();
+    // Serialización estable de params (claves ordenadas) para las claves de coalescencia
+    private final ObjectMapper canonicalMapper = new ObjectMapper().configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true);
+    private final MonoSingleFlight<String, McpResponse> inFlightCalls = new MonoSingleFlight<>();
+    // Resultados MCP cacheados (métodos de bff.mcp.resultCacheTtlSeconds); se crea al primer uso
+    private volatile TtlLruCache<String, CachedResult> resultCache;
+    private final Set<String> resultRefreshing = ConcurrentHashMap.newKeySet();
+
+    private record CachedResult(McpResponse response, long storedAt) {
+        long ageMillis() { return System.currentTimeMillis() - storedAt; }
+    }
+    // Catálogos por rol/perfil válidos (acotado: hay pocos roles y perfiles en prompts.yml)
+    private static final int MAX_TOOL_CATALOGS = 64;
+    private final TtlLruCache<String, ToolCatalog> toolCatalogs = new TtlLruCache<>(MAX_TOOL_CATALOGS, 60_000L);
+    private final Set<String> toolCatalogRefreshing = ConcurrentHashMap.newKeySet();
 
     public McpResponse call(String method, Map<String, Object> params, Map<String, String> incomingHeaders, String corrId) {
-        long t0 = System.currentTimeMillis();
+        try {
+            return callReactive(method, params, incomingHeaders, corrId).block();
+        } catch (Exception ex) {
+            log.warn("[MCP][{}] Error calling MCP: {} ", corrId, ex.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Variante no bloqueante de call. Emite vacío (en lugar de null) si la llamada MCP falla.
+     */
+    public Mono<McpResponse> callReactive(String method, Map<String, Object> params, Map<String, String> incomingHeaders, String corrId) {
+        long ttlMs = resultCacheTtlMs(method);
+        String cacheKey = ttlMs > 0 ? callKey(method, params, incomingHeaders) : null;
+        McpResponse cached = cachedResult(cacheKey, ttlMs, method, params, incomingHeaders, corrId);
+        if (cached != null) return Mono.just(cached);
+        Mono<McpResponse> response = outbound(method, params, incomingHeaders, corrId);
+        if (cacheKey != null) {
+            response = response.doOnNext(resp -> storeResult(cacheKey, ttlMs, resp));
+        }
+        return response.onErrorResume(ex -> {
+            log.warn("[MCP][{}] Error calling MCP: {} ", corrId, ex.getMessage());
+            return Mono.empty();
+        });
+    }
+
+    /**
+     * Llamadas independientes (una ola de un plan) en un único lote JSON-RPC: los aciertos de la cache de resultados
+     * no viajan y el resto va en un solo POST bajo el bulkhead y los circuitos MCP. Emite una respuesta por llamada,
+     * en el orden de calls y vacía si esa llamada falló, igual que callReactive. Con una sola llamada pendiente, o si
+     * algún circuito rechaza el lote, se llama de a una con callReactive.
+     */
+    public Mono<java.util.List<Optional<McpResponse>>> callBatchReactive(java.util.List<McpClientWebClientService.McpCall> calls,
+                                                                       Map<String, String> incomingHeaders, String corrId) {
+        int n = calls.size();
+        java.util.List<Optional<McpResponse>> out = new java.util.ArrayList<>(java.util.Collections.nCopies(n, Optional.<McpResponse>empty()));
+        String[] cacheKeys = new String[n];
+        long[] ttls = new long[n];
+        java.util.List<Integer> pending = new java.util.ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            McpClientWebClientService.McpCall call = calls.get(i);
+            ttls[i] = resultCacheTtlMs(call.method());
+            cacheKeys[i] = ttls[i] > 0 ? callKey(call.method(), call.params(), incomingHeaders) : null;
+            McpResponse cached = cachedResult(cacheKeys[i], ttls[i], call.method(), call.params(), incomingHeaders, corrId);
+            if (cached != null) out.set(i, Optional.of(cached));
+            else pending.add(i);
+        }
+        if (pending.size() <= 1) return callOneByOne(calls, pending, out, incomingHeaders, corrId);
+
+        java.util.List<McpClientWebClientService.McpCall> batch = pending.stream().map(calls::get).toList();
+        String[] breakers = java.util.stream.Stream.concat(java.util.stream.Stream.of(ResilienceRegistry.MCP),
+            batch.stream().map(c -> ResilienceRegistry.MCP + ":" + c.method()).distinct()).toArray(String[]::new);
+        Mono<java.util.List<McpResponse>> response = Mono.defer(() -> {
+            long t0 = System.currentTimeMillis();
+            log.info("[MCP][{}] Calling batch methods={}", corrId, batch.stream().map(McpClientWebClientService.McpCall::method).toList());
+            Mono<java.util.List<McpResponse>> call = mcpClientWebClientService.callMcpBatch(batch, effectiveHeaders(incomingHeaders));
+            return (call == null ? Mono.<java.util.List<McpResponse>>empty() : call).doOnNext(resps -> {
+                for (int j = 0; j < resps.size() && j < batch.size(); j++) logResponse(batch.get(j).method(), resps.get(j), t0, corrId);
+            });
+        });
+        if (resilience != null) {
+            // El lote cuenta como fallo de transporte sólo si ninguna llamada obtuvo respuesta del servidor
+            response = resilience.protect(ResilienceRegistry.MCP,
+                resps -> !resps.isEmpty() && resps.stream().allMatch(r -> r == null || "MW005".equals(r.getCode())), response, breakers);
+        }
+        return response
+            .map(resps -> {
+                for (int j = 0; j < pending.size() && j < resps.size(); j++) {
+                    int i = pending.get(j);
+                    McpResponse resp = resps.get(j);
+                    if (cacheKeys[i] != null) storeResult(cacheKeys[i], ttls[i], resp);
+                    out.set(i, Optional.ofNullable(resp));
+                }
+                return out;
+            })
+            .onErrorResume(DownstreamUnavailableException.class, e -> {
+                log.info("[MCP][{}] Lote no enviado ({}); se llama de a una", corrId, e.getMessage());
+                return callOneByOne(calls, pending, out, incomingHeaders, corrId);
+            })
+            .onErrorResume(ex -> {
+                log.warn("[MCP][{}] Error calling MCP batch: {} ", corrId, ex.getMessage());
+                return Mono.just(out);
+            })
+            .defaultIfEmpty(out);
+    }
+
+    private Mono<java.util.List<Optional<McpResponse>>> callOneByOne(java.util.List<McpClientWebClientService.McpCall> calls,
+                                                                   java.util.List<Integer> pending, java.util.List<Optional<McpResponse>> out,
+                                                                   Map<String, String> incomingHeaders, String corrId) {
+        return reactor.core.publisher.Flux.fromIterable(pending)
+            .flatMap(i -> callReactive(calls.get(i).method(), calls.get(i).params(), incomingHeaders, corrId)
+                .doOnNext(resp -> {
+                    synchronized (out) { out.set(i, Optional.of(resp)); }
+                }))
+            .then(Mono.fromSupplier(() -> {
+                synchronized (out) { return java.util.List.copyOf(out); }
+            }));
+    }
+
+    // Resultado cacheado vigente, o vencido dentro de la ventana stale (se sirve y se revalida aparte); null si no hay
+    private McpResponse cachedResult(String cacheKey, long ttlMs, String method, Map<String, Object> params,
+                                     Map<String, String> incomingHeaders, String corrId) {
+        if (cacheKey == null) return null;
+        CachedResult cached = resultCache().get(cacheKey);
+        if (cached == null) {
+            recordResultCache(method, "miss", -1);
+            return null;
+        }
+        long age = cached.ageMillis();
+        if (age < ttlMs) {
+            recordResultCache(method, "hit", age);
+        } else {
+            // Vencido pero dentro de la ventana stale-while-revalidate: se sirve y se refresca aparte
+            recordResultCache(method, "stale", age);
+            revalidateAsync(cacheKey, ttlMs, method, params, incomingHeaders);
+        }
+        log.info("[MCP][{}] Result cache {} method={} ageMs={}", corrId, age < ttlMs ? "hit" : "stale", method, age);
+        return cached.response().copy();
+    }
+
+    // Petición al MCP, compartida con las llamadas idénticas en curso; cada suscriptor recibe su propia copia
+    private Mono<McpResponse> outbound(String method, Map<String, Object> params, Map<String, String> incomingHeaders, String corrId) {
+        String key = coalesceKey(method, params, incomingHeaders);
+        if (key == null) return send(method, params, incomingHeaders, corrId);
+        return inFlightCalls.execute(key, () -> {
+            countCoalesce(method, "leader");
+            return send(method, params, incomingHeaders, corrId);
+        }, () -> {
+            countCoalesce(method, "coalesced");
+            log.info("[MCP][{}] Joining in-flight call method={}", corrId, method);
+        }).map(McpResponse::copy);
+    }
+
+    private Mono<McpResponse> send(String method, Map<String, Object> params, Map<String, String> incomingHeaders, String corrId) {
+        return Mono.defer(() -> {
+            long t0 = System.currentTimeMillis();
+            Map<String, String> effectiveHeaders = effectiveHeaders(incomingHeaders);
+
+            try {
+                String paramsJson = objectMapper.writeValueAsString(params);
+                String headersJson = objectMapper.writeValueAsString(effectiveHeaders);
+                log.info("[MCP][{}] Calling method={} params={} headers={} ", corrId, method, paramsJson, headersJson);
+            } catch (Exception ignore) {}
+
+            // La petición se arma sólo si el circuito y el bulkhead la dejan pasar
+            Mono<McpResponse> response = Mono.defer(() -> {
+                Mono<McpResponse> call = mcpClientWebClientService.callMcp(method, params, effectiveHeaders);
+                return call == null ? Mono.<McpResponse>empty() : call;
+            });
+            return guarded(method, response, corrId).doOnNext(resp -> logResponse(method, resp, t0, corrId));
+        });
+    }
+
+    // Headers del cliente más credenciales y sesión MCP del BFF
+    private Map<String, String> effectiveHeaders(Map<String, String> incomingHeaders) {
         Map<String, String> effectiveHeaders = new java.util.HashMap<>();
         if (incomingHeaders != null) effectiveHeaders.putAll(incomingHeaders);
-
         String apiKey = resolveApiKey();
         if (apiKey != null && !apiKey.isBlank()) {
             effectiveHeaders.put("X-Api-Key", apiKey);
@@ -39,20 +222,162 @@ public class McpInteractionService {
         if (sessionId != null && !sessionId.isBlank()) {
             effectiveHeaders.put("mcp-session-id", sessionId);
         }
+        return effectiveHeaders;
+    }
 
-        try {
-            String paramsJson = objectMapper.writeValueAsString(params);
-            String headersJson = objectMapper.writeValueAsString(effectiveHeaders);
-            log.info("[MCP][{}] Calling method={} params={} headers={} ", corrId, method, paramsJson, headersJson);
-        } catch (Exception ignore) {}
+    // Circuitos mcp y mcp:<método> + bulkhead MCP. Cuentan como fallo los MW005 (transporte/timeout), no los
+    // errores de negocio del MCP. Con el circuito abierto se responde MW005 sin llamar al servidor.
+    private Mono<McpResponse> guarded(String method, Mono<McpResponse> response, String corrId) {
+        if (resilience == null) return response;
+        return resilience.protect(ResilienceRegistry.MCP, resp -> "MW005".equals(resp.getCode()), response,
+                ResilienceRegistry.MCP, ResilienceRegistry.MCP + ":" + method)
+            .onErrorResume(DownstreamUnavailableException.class, e -> {
+                log.warn("[MCP][{}] Llamada a {} no realizada: {}", corrId, method, e.getMessage());
+                McpResponse unavailable = new McpResponse();
+                unavailable.setCode("MW005");
+                unavailable.setMessage(e.getMessage());
+                return Mono.just(unavailable);
+            });
+    }
+
+    /**
+     * Clave de coalescencia: método, params canónicos y ámbito del llamante (rol, perfil y credenciales del
+     * cliente, estas últimas como hash). Dos peticiones sólo comparten respuesta si el MCP les respondería lo
+     * mismo. Devuelve null para métodos que no son de lectura o si la coalescencia está desactivada.
+     */
+    String coalesceKey(String method, Map<String, Object> params, Map<String, String> headers) {
+        BffProperties.Mcp mcpProps = bffProperties != null ? bffProperties.getMcp() : null;
+        if (mcpProps == null || !mcpProps.isCoalesceCalls() || !isReadOnly(method, mcpProps.getCoalesceVerbs())) return null;
+        return callKey(method, params, headers);
+    }
 
-        McpResponse resp;
+    // Clave "método\nparams\námbito"; compartida por la coalescencia y la cache de resultados
+    private String callKey(String method, Map<String, Object> params, Map<String, String> headers) {
         try {
-            resp = mcpClientWebClientService.callMcp(method, params, effectiveHeaders).block();
-        } catch (Exception ex) {
-            log.warn("[MCP][{}] Error calling MCP: {} ", corrId, ex.getMessage());
+            return method + "\n" + canonicalMapper.writeValueAsString(params == null ? Map.of() : params) + "\n" + callerScope(headers);
+        } catch (Exception e) {
             return null;
         }
+    }
+
+    /**
+     * El verbo es la primera palabra de lo que sigue al último punto (orders.get -> get, orders.getById -> get,
+     * orders.list_open -> list): debe coincidir entero con uno de los verbos de lectura ("getaway" no es get) y
+     * ninguna palabra posterior puede ser de escritura ("getOrCreate", "findAndUpdate").
+     */
+    static boolean isReadOnly(String method, java.util.List<String> verbs) {
+        if (method == null || verbs == null) return false;
+        String[] words = ACTION_WORD_BOUNDARY.split(method.substring(method.lastIndexOf('.') + 1));
+        if (words.length == 0 || words[0].isEmpty()) return false;
+        for (int i = 1; i < words.length; i++) {
+            if (WRITE_WORDS.contains(words[i].toLowerCase(java.util.Locale.ROOT))) return false;
+        }
+        for (String verb : verbs) {
+            if (verb != null && !verb.isBlank() && words[0].equalsIgnoreCase(verb.trim())) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Ámbito del llamante para claves de cache/historial: rol, perfil y hash de apiKey + Authorization, para que
+     * un llamante nunca reciba datos obtenidos con las credenciales de otro.
+     */
+    public static String callerScope(Map<String, String> headers) {
+        if (headers == null) headers = Map.of();
+        String role = Optional.ofNullable(headers.get("x-role")).orElse(headers.getOrDefault("X-Role", ""));
+        String profile = Optional.ofNullable(headers.get("x-profile")).orElse(headers.getOrDefault("X-Profile", ""));
+        String apiKey = Optional.ofNullable(headers.get("x-api-key")).orElse(headers.getOrDefault("X-Api-Key", ""));
+        String auth = Optional.ofNullable(headers.get("authorization")).orElse(headers.getOrDefault("Authorization", ""));
+        try {
+            byte[] digest = java.security.MessageDigest.getInstance("SHA-256")
+                .digest((apiKey + "\n" + auth).getBytes(java.nio.charset.StandardCharsets.UTF_8));
+            return role + "|" + profile + "|" + java.util.HexFormat.of().formatHex(digest, 0, 16);
+        } catch (java.security.NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // TTL configurado para el método en bff.mcp.resultCacheTtlSeconds (0 = no se cachea)
+    private long resultCacheTtlMs(String method) {
+        BffProperties.Mcp mcpProps = bffProperties != null ? bffProperties.getMcp() : null;
+        if (mcpProps == null || method == null || mcpProps.getResultCacheTtlSeconds() == null) return 0L;
+        Integer ttlSeconds = mcpProps.getResultCacheTtlSeconds().get(method);
+        return ttlSeconds == null || ttlSeconds <= 0 ? 0L : ttlSeconds * 1000L;
+    }
+
+    // Sólo se cachean respuestas correctas; las entradas viven TTL + ventana stale
+    private void storeResult(String cacheKey, long ttlMs, McpResponse resp) {
+        if (resp == null || !"OK".equals(resp.getCode())) return;
+        long staleMs = Math.max(0, bffProperties.getMcp().getResultCacheStaleSeconds()) * 1000L;
+        resultCache().put(cacheKey, new CachedResult(resp.copy(), System.currentTimeMillis()), ttlMs + staleMs);
+    }
+
+    private void revalidateAsync(String cacheKey, long ttlMs, String method, Map<String, Object> params, Map<String, String> incomingHeaders) {
+        if (!resultRefreshing.add(cacheKey)) return;
+        Map<String, String> headersCopy = incomingHeaders == null ? Map.of() : new java.util.HashMap<>(incomingHeaders);
+        String corrId = "mcp-revalidate-" + method;
+        outbound(method, params, headersCopy, corrId)
+            .doFinally(signal -> resultRefreshing.remove(cacheKey))
+            .subscribe(
+                resp -> storeResult(cacheKey, ttlMs, resp),
+                ex -> log.warn("[MCP][{}] Revalidation failed: {}", corrId, ex.getMessage()));
+    }
+
+    /**
+     * Invalida los resultados cacheados de un método (todas las combinaciones de params y llamantes),
+     * o toda la cache si method es null o vacío. Devuelve cuántas entradas se eliminaron.
+     */
+    public int invalidateResults(String method) {
+        TtlLruCache<String, CachedResult> cache = resultCache;
+        if (cache == null) return 0;
+        if (method == null || method.isBlank()) {
+            int size = cache.size();
+            cache.clear();
+            return size;
+        }
+        String prefix = method + "\n";
+        return cache.invalidateIf(key -> key.startsWith(prefix));
+    }
+
+    private TtlLruCache<String, CachedResult> resultCache() {
+        TtlLruCache<String, CachedResult> c = resultCache;
+        if (c == null) {
+            synchronized (this) {
+                c = resultCache;
+                if (c == null) {
+                    // El TTL por defecto no se usa: cada put lleva el TTL de su método
+                    c = new TtlLruCache<>(bffProperties.getMcp().getResultCacheMaxEntries(), 60_000L);
+                    resultCache = c;
+                }
+            }
+        }
+        return c;
+    }
+
+    private void recordResultCache(String method, String result, long ageMs) {
+        try {
+            if (meterRegistry != null) {
+                meterRegistry.counter("mcp.result.cache", "method", String.valueOf(method), "result", result).increment();
+                if (ageMs >= 0) {
+                    Timer.builder("mcp.result.cache.age")
+                        .description("Age of MCP results served from cache")
+                        .tag("method", String.valueOf(method))
+                        .register(meterRegistry)
+                        .record(ageMs, java.util.concurrent.TimeUnit.MILLISECONDS);
+                }
+            }
+        } catch (Exception ignore) {}
+    }
+
+    private void countCoalesce(String method, String result) {
+        try {
+            if (meterRegistry != null) {
+                meterRegistry.counter("mcp.singleflight", "method", String.valueOf(method), "result", result).increment();
+            }
+        } catch (Exception ignore) {}
+    }
+
+    private void logResponse(String method, McpResponse resp, long t0, String corrId) {
         try {
             long durMs = System.currentTimeMillis() - t0;
             try {
@@ -75,29 +400,126 @@ public class McpInteractionService {
                 dataLen,
                 preview);
         } catch (Exception ignore) {}
-        return resp;
     }
 
     // Tooling-first: obtener catálogo de herramientas MCP
     public java.util.List<Map<String, Object>> listTools(Map<String, String> incomingHeaders, String corrId) {
+        return getToolCatalog(incomingHeaders, corrId).getTools();
+    }
+
+    /**
+     * Catálogo de herramientas cacheado por rol/perfil (el MCP filtra tools por X-Role).
+     * Dentro de la ventana de refresh-ahead devuelve la entrada vigente y la refresca en segundo plano.
+     */
+    public ToolCatalog getToolCatalog(Map<String, String> incomingHeaders, String corrId) {
+        ToolCatalog catalog = getToolCatalogReactive(incomingHeaders, corrId).block();
+        return catalog == null ? ToolCatalog.EMPTY : catalog;
+    }
+
+    public Mono<ToolCatalog> getToolCatalogReactive(Map<String, String> incomingHeaders, String corrId) {
+        BffProperties.Mcp mcpProps = bffProperties != null ? bffProperties.getMcp() : null;
+        long ttlMs = mcpProps != null ? mcpProps.getToolsCacheTtlSeconds() * 1000L : 0L;
+        if (ttlMs <= 0) {
+            return fetchToolCatalog(incomingHeaders, corrId);
+        }
+        // El catálogo se pide y se guarda sólo con el rol/perfil reconocidos: un X-Role inventado no crea entradas
+        Map<String, String> catalogHeaders = toolCatalogHeaders(incomingHeaders);
+        String key = toolCatalogKey(catalogHeaders);
+        ToolCatalog cached = toolCatalogs.get(key);
+        if (cached != null) {
+            long age = cached.ageMillis();
+            if (age < ttlMs) {
+                long refreshAheadMs = mcpProps.getToolsRefreshAheadSeconds() * 1000L;
+                if (refreshAheadMs > 0 && age >= ttlMs - refreshAheadMs) {
+                    refreshToolCatalogAsync(key, catalogHeaders);
+                }
+                countToolCatalog("hit");
+                return Mono.just(cached);
+            }
+        }
+        countToolCatalog("miss");
+        return fetchToolCatalog(catalogHeaders, corrId).map(fresh -> storeToolCatalog(key, cached, fresh, ttlMs));
+    }
+
+    public void invalidateToolCatalog() {
+        toolCatalogs.clear();
+    }
+
+    private Mono<ToolCatalog> fetchToolCatalog(Map<String, String> incomingHeaders, String corrId) {
         long t0 = System.currentTimeMillis();
-        McpResponse resp = call("tools.list", java.util.Collections.emptyMap(), incomingHeaders, corrId);
+        return callReactive("tools.list", java.util.Collections.emptyMap(), incomingHeaders, corrId)
+            .map(resp -> {
+                if (resp.getData() == null) return ToolCatalog.EMPTY;
+                Object toolsObj = resp.getData().get("tools");
+                if (toolsObj instanceof java.util.List) {
+                    @SuppressWarnings("unchecked")
+                    java.util.List<Map<String, Object>> tools = (java.util.List<Map<String, Object>>) toolsObj;
+                    return ToolCatalog.of(tools);
+                }
+                return ToolCatalog.EMPTY;
+            })
+            // Sin catálogo el orquestador sigue con respuesta directa
+            .defaultIfEmpty(ToolCatalog.EMPTY)
+            .doFinally(signal -> {
+                try {
+                    if (meterRegistry != null) {
+                        Timer.builder("mcp.tools.list")
+                            .description("Duration of MCP tooling list calls")
+                            .register(meterRegistry)
+                            .record(System.currentTimeMillis() - t0, java.util.concurrent.TimeUnit.MILLISECONDS);
+                    }
+                } catch (Exception ignore) {}
+            });
+    }
+
+    // Un catálogo vacío suele ser un error transitorio: no se cachea
+    private ToolCatalog storeToolCatalog(String key, ToolCatalog previous, ToolCatalog fresh, long ttlMs) {
+        if (fresh.isEmpty()) return previous != null ? previous : fresh;
+        ToolCatalog toStore = previous != null && previous.getVersion().equals(fresh.getVersion()) ? previous.refreshed() : fresh;
+        toolCatalogs.put(key, toStore, ttlMs);
+        return toStore;
+    }
+
+    private void refreshToolCatalogAsync(String key, Map<String, String> incomingHeaders) {
+        if (!toolCatalogRefreshing.add(key)) return;
+        Map<String, String> headersCopy = incomingHeaders == null ? Map.of() : Map.copyOf(incomingHeaders);
+        String corrId = "tools-refresh-" + key;
+        long ttlMs = bffProperties.getMcp().getToolsCacheTtlSeconds() * 1000L;
+        fetchToolCatalog(headersCopy, corrId)
+            .map(fresh -> storeToolCatalog(key, toolCatalogs.get(key), fresh, ttlMs))
+            .doFinally(signal -> toolCatalogRefreshing.remove(key))
+            .subscribe(
+                stored -> {
+                    countToolCatalog("refresh");
+                    log.info("[MCP][{}] Tool catalog refreshed version={} tools={}", corrId, stored.getVersion(), stored.getTools().size());
+                },
+                ex -> log.warn("[MCP][{}] Tool catalog refresh failed: {}", corrId, ex.getMessage()));
+    }
+
+    private String toolCatalogKey(Map<String, String> catalogHeaders) {
+        return catalogHeaders.getOrDefault("X-Role", "") + "|" + catalogHeaders.getOrDefault("X-Profile", "");
+    }
+
+    // Headers para tools.list: rol y perfil sólo si prompts.yml los declara (si no, vacíos)
+    private Map<String, String> toolCatalogHeaders(Map<String, String> headers) {
+        Map<String, String> out = new java.util.HashMap<>();
+        if (headers == null) return out;
+        headers.forEach((k, v) -> {
+            if (!"x-role".equalsIgnoreCase(k) && !"x-profile".equalsIgnoreCase(k) && v != null) out.put(k, v);
+        });
+        String role = Optional.ofNullable(headers.get("x-role")).orElse(headers.getOrDefault("X-Role", ""));
+        String profile = Optional.ofNullable(headers.get("x-profile")).orElse(headers.getOrDefault("X-Profile", ""));
+        if (promptConfigService == null || promptConfigService.isValidRole(role)) out.put("X-Role", role);
+        if (promptConfigService == null || promptConfigService.isValidProfile(profile)) out.put("X-Profile", profile);
+        return out;
+    }
+
+    private void countToolCatalog(String result) {
         try {
             if (meterRegistry != null) {
-                Timer.builder("mcp.tools.list")
-                    .description("Duration of MCP tooling list calls")
-                    .register(meterRegistry)
-                    .record(System.currentTimeMillis() - t0, java.util.concurrent.TimeUnit.MILLISECONDS);
+                meterRegistry.counter("mcp.tools.cache", "result", result).increment();
             }
         } catch (Exception ignore) {}
-        if (resp == null || resp.getData() == null) return java.util.Collections.emptyList();
-        Object toolsObj = resp.getData().get("tools");
-        if (toolsObj instanceof java.util.List) {
-            @SuppressWarnings("unchecked")
-            java.util.List<Map<String, Object>> tools = (java.util.List<Map<String, Object>>) toolsObj;
-            return tools;
-        }
-        return java.util.Collections.emptyList();
     }
 
     // Validación básica contra tooling (nombre y params requeridos)
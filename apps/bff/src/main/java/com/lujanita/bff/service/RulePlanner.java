@@ -0,0 +1,125 @@
+package com.lujanita.bff.service;
+
+import com.lujanita.bff.config.BffProperties;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Planificador por reglas (bff.mcp.planRules) para consultas estructuradas: "estado del pedido SO001" ya trae
+ * todo lo necesario para llamar a orders.get sin pedirle el plan al LLM. Cada regla es una regex compilada una
+ * vez; cada coincidencia en el mensaje produce una llamada con sus params tomados de los grupos de captura.
+ * Es inmutable: se puede compartir entre hilos.
+ */
+@Slf4j
+public final class RulePlanner {
+    public static final RulePlanner EMPTY = new RulePlanner(null, List.of());
+
+    // Marcador de parámetro: {grupo} o {grupo:upper}; grupo es un nombre o un número de grupo de captura
+    private static final Pattern PLACEHOLDER = Pattern.compile("\\{([A-Za-z0-9_]+)(?::(upper|lower))?}");
+
+    public record Match(String rule, String method, Map<String, Object> params) {}
+
+    private record Rule(String name, Pattern pattern, String method, Map<String, String> params) {}
+
+    private final Object source;
+    private final List<Rule> rules;
+
+    private RulePlanner(Object source, List<Rule> rules) {
+        this.source = source;
+        this.rules = rules;
+    }
+
+    // Las reglas incompletas o con una regex inválida se omiten (con warning) para no bloquear el arranque
+    public static RulePlanner of(List<BffProperties.PlanRule> config) {
+        if (config == null || config.isEmpty()) return EMPTY;
+        List<Rule> rules = new ArrayList<>();
+        for (BffProperties.PlanRule r : config) {
+            if (r == null || r.getPattern() == null || r.getPattern().isBlank() || r.getMethod() == null || r.getMethod().isBlank()) continue;
+            String name = r.getName() != null && !r.getName().isBlank() ? r.getName() : r.getMethod();
+            try {
+                Pattern pattern = Pattern.compile(r.getPattern(), Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
+                rules.add(new Rule(name, pattern, r.getMethod(), r.getParams() == null ? Map.of() : new LinkedHashMap<>(r.getParams())));
+            } catch (PatternSyntaxException e) {
+                log.warn("[BFF] Regla de planificación '{}' ignorada: regex inválida ({})", name, e.getDescription());
+            }
+        }
+        return new RulePlanner(config, List.copyOf(rules));
+    }
+
+    /**
+     * Llamadas deducidas del mensaje, en orden de reglas y de aparición; sin duplicados (mismo método y params).
+     * Vacío si ninguna regla coincide o si un marcador no pudo resolverse.
+     */
+    public List<Match> match(String message) {
+        if (rules.isEmpty() || message == null || message.isBlank()) return List.of();
+        List<Match> out = new ArrayList<>();
+        Set<String> seen = new LinkedHashSet<>();
+        for (Rule rule : rules) {
+            Matcher m = rule.pattern().matcher(message);
+            while (m.find()) {
+                Map<String, Object> params = render(rule.params(), m);
+                if (params == null) continue;
+                if (seen.add(rule.method() + params)) out.add(new Match(rule.name(), rule.method(), params));
+            }
+        }
+        return out;
+    }
+
+    // Plan con el contrato del LLM ({"mcpCalls":[{id, method, params}]}) para reutilizar ToolPlan y su validación
+    public static Map<String, Object> toPlan(List<Match> matches) {
+        List<Map<String, Object>> calls = new ArrayList<>();
+        for (int i = 0; i < matches.size(); i++) {
+            Match match = matches.get(i);
+            calls.add(Map.of("id", match.rule() + (i + 1), "method", match.method(), "params", match.params()));
+        }
+        return Map.of("mcpCalls", calls);
+    }
+
+    public Object source() {
+        return source;
+    }
+
+    private static Map<String, Object> render(Map<String, String> templates, Matcher m) {
+        Map<String, Object> params = new LinkedHashMap<>();
+        for (Map.Entry<String, String> e : templates.entrySet()) {
+            String template = e.getValue() == null ? "" : e.getValue();
+            Matcher ph = PLACEHOLDER.matcher(template);
+            StringBuilder value = new StringBuilder();
+            boolean placeholders = false;
+            while (ph.find()) {
+                String group = group(m, ph.group(1));
+                if (group == null || group.isBlank()) return null;
+                group = group.trim();
+                if ("upper".equals(ph.group(2))) group = group.toUpperCase(java.util.Locale.ROOT);
+                if ("lower".equals(ph.group(2))) group = group.toLowerCase(java.util.Locale.ROOT);
+                ph.appendReplacement(value, Matcher.quoteReplacement(group));
+                placeholders = true;
+            }
+            ph.appendTail(value);
+            String v = value.toString();
+            if (!placeholders && ("true".equalsIgnoreCase(v) || "false".equalsIgnoreCase(v))) {
+                params.put(e.getKey(), Boolean.parseBoolean(v));
+            } else {
+                params.put(e.getKey(), v);
+            }
+        }
+        return params;
+    }
+
+    private static String group(Matcher m, String ref) {
+        try {
+            return ref.chars().allMatch(Character::isDigit) ? m.group(Integer.parseInt(ref)) : m.group(ref);
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.lujanita.bff.service;
+
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Filtro incremental para respuestas del LLM en streaming.
+ * Si la salida llega como JSON {"response":"..."} extrae el texto del campo response a medida que llega;
+ * en otro caso deja pasar el texto plano. En ambos casos aplica el filtrado de palabras clave por línea
+ * (igual que filterLines): una línea sólo se emite cuando está completa y no contiene palabras clave;
+ * el autómata de KeywordFilter avanza carácter a carácter mientras la línea se acumula.
+ * No es thread-safe: una instancia por respuesta.
+ */
+class StreamingAnswerFilter {
+    private static final Pattern RESPONSE_FIELD = Pattern.compile("\"response\"\\s*:\\s*\"$");
+    private static final int MAX_ENVELOPE_HEADER = 4096;
+
+    private enum Mode { DETECT, PLAIN, ENVELOPE_HEADER, ENVELOPE_VALUE, DONE }
+
+    private final KeywordFilter keywords;
+    private final KeywordFilter.Matcher lineMatcher;
+    private final StringBuilder raw = new StringBuilder();
+    private final StringBuilder header = new StringBuilder();
+    private final StringBuilder line = new StringBuilder();
+    private Mode mode = Mode.DETECT;
+    private boolean escape;
+    private StringBuilder unicode;
+    private boolean emittedAny;
+
+    StreamingAnswerFilter(List<String> keywords) {
+        this(KeywordFilter.of(keywords));
+    }
+
+    StreamingAnswerFilter(KeywordFilter keywords) {
+        this.keywords = keywords == null ? KeywordFilter.EMPTY : keywords;
+        this.lineMatcher = this.keywords.matcher();
+    }
+
+    /**
+     * Procesa un fragmento y devuelve el texto listo para emitir (posiblemente vacío).
+     */
+    String accept(String chunk) {
+        if (chunk == null || chunk.isEmpty()) return "";
+        raw.append(chunk);
+        StringBuilder out = new StringBuilder();
+        for (int i = 0; i < chunk.length(); i++) {
+            char c = chunk.charAt(i);
+            switch (mode) {
+                case DETECT -> {
+                    if (Character.isWhitespace(c)) continue;
+                    if (c == '{') {
+                        mode = Mode.ENVELOPE_HEADER;
+                        header.append(c);
+                    } else {
+                        mode = Mode.PLAIN;
+                        onChar(c, out);
+                    }
+                }
+                case PLAIN -> onChar(c, out);
+                case ENVELOPE_HEADER -> {
+                    header.append(c);
+                    if (c == '"') {
+                        Matcher m = RESPONSE_FIELD.matcher(header);
+                        if (m.find()) {
+                            mode = Mode.ENVELOPE_VALUE;
+                        }
+                    }
+                    if (mode == Mode.ENVELOPE_HEADER && header.length() > MAX_ENVELOPE_HEADER) {
+                        // JSON sin campo response: se resuelve al finalizar con la salida completa
+                        mode = Mode.DONE;
+                    }
+                }
+                case ENVELOPE_VALUE -> decodeJsonStringChar(c, out);
+                case DONE -> { }
+            }
+        }
+        return out.toString();
+    }
+
+    /**
+     * Vacía la última línea pendiente. Devuelve null si nunca se emitió texto (el llamador debe
+     * procesar la salida completa con {@link #raw()}).
+     */
+    String finish() {
+        StringBuilder out = new StringBuilder();
+        flushLine(out);
+        if (!emittedAny) return null;
+        return out.toString();
+    }
+
+    String raw() {
+        return raw.toString();
+    }
+
+    private void decodeJsonStringChar(char c, StringBuilder out) {
+        if (unicode != null) {
+            unicode.append(c);
+            if (unicode.length() == 4) {
+                try {
+                    onChar((char) Integer.parseInt(unicode.toString(), 16), out);
+                } catch (NumberFormatException ignore) {}
+                unicode = null;
+            }
+            return;
+        }
+        if (escape) {
+            escape = false;
+            switch (c) {
+                case 'n' -> onChar('\n', out);
+                case 't' -> onChar('\t', out);
+                case 'r' -> { }
+                case 'b', 'f' -> { }
+                case 'u' -> unicode = new StringBuilder(4);
+                default -> onChar(c, out);
+            }
+            return;
+        }
+        if (c == '\\') {
+            escape = true;
+        } else if (c == '"') {
+            mode = Mode.DONE;
+            flushLine(out);
+        } else {
+            onChar(c, out);
+        }
+    }
+
+    private void onChar(char c, StringBuilder out) {
+        if (c == '\r') return;
+        if (c == '\n') {
+            flushLine(out);
+        } else {
+            line.append(c);
+            lineMatcher.feed(c);
+        }
+    }
+
+    private void flushLine(StringBuilder out) {
+        if (line.isEmpty()) return;
+        boolean hasKeyword = lineMatcher.matched();
+        String text = line.toString();
+        line.setLength(0);
+        lineMatcher.reset();
+        if (text.isBlank() || hasKeyword) return;
+        if (emittedAny) out.append('\n');
+        else text = text.stripLeading();
+        out.append(text);
+        emittedAny = true;
+    }
+}
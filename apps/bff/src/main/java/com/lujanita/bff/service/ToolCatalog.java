@@ -0,0 +1,69 @@
+package com.lujanita.bff.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Catálogo inmutable de herramientas MCP (tools.list) con su versión (hash del contenido)
+ * y el fragmento de prompt de planificación ya renderizado.
+ */
+public final class ToolCatalog {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final String PLANNING_HEADER = "\n\nHerramientas disponibles (JSON):\n";
+    private static final String PLANNING_FOOTER = "\n\nDevuelve estrictamente JSON con {\"mcpCalls\":[{\"id\":<string>,\"method\":<string>,\"params\":<object>,\"dependsOn\":[<id>]}]}."
+        + " Incluye una llamada por cada dato que necesites (varias si la pregunta tiene varias partes)."
+        + " Si una llamada necesita un dato de otra, pon el id de esa llamada en dependsOn y usa \"${id.campo}\" como valor del parámetro."
+        + " No incluyas texto adicional.";
+
+    public static final ToolCatalog EMPTY = of(Collections.emptyList());
+
+    private final List<Map<String, Object>> tools;
+    private final String version;
+    private final String promptFragment;
+    private final long fetchedAtMillis;
+
+    private ToolCatalog(List<Map<String, Object>> tools, String version, String promptFragment, long fetchedAtMillis) {
+        this.tools = tools;
+        this.version = version;
+        this.promptFragment = promptFragment;
+        this.fetchedAtMillis = fetchedAtMillis;
+    }
+
+    public static ToolCatalog of(List<Map<String, Object>> tools) {
+        List<Map<String, Object>> safe = tools == null ? Collections.emptyList() : Collections.unmodifiableList(new java.util.ArrayList<>(tools));
+        String toolsJson;
+        try {
+            toolsJson = MAPPER.writeValueAsString(safe);
+        } catch (Exception e) {
+            toolsJson = "[]";
+        }
+        return new ToolCatalog(safe, hash(toolsJson), PLANNING_HEADER + toolsJson + PLANNING_FOOTER, System.currentTimeMillis());
+    }
+
+    // Misma versión y fragmento, con nueva marca de refresco
+    ToolCatalog refreshed() {
+        return new ToolCatalog(tools, version, promptFragment, System.currentTimeMillis());
+    }
+
+    public List<Map<String, Object>> getTools() { return tools; }
+    public String getVersion() { return version; }
+    public String getPromptFragment() { return promptFragment; }
+    public long getFetchedAtMillis() { return fetchedAtMillis; }
+    public boolean isEmpty() { return tools.isEmpty(); }
+    public long ageMillis() { return System.currentTimeMillis() - fetchedAtMillis; }
+
+    private static String hash(String content) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(content.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest, 0, 8);
+        } catch (Exception e) {
+            return Integer.toHexString(content.hashCode());
+        }
+    }
+}
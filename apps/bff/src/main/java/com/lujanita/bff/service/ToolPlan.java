@@ -0,0 +1,195 @@
+package com.lujanita.bff.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiPredicate;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Plan de llamadas MCP devuelto por el LLM, ya validado contra el tooling y ordenado en oleadas:
+ * las llamadas de una misma oleada no dependen entre sí y se pueden ejecutar en paralelo.
+ * Acepta el contrato {"mcpCalls":[{id, method, params, dependsOn}]} y el anterior {"mcpCall":{method, params}}.
+ */
+public final class ToolPlan {
+    public static final ToolPlan EMPTY = new ToolPlan(List.of(), List.of(), List.of());
+
+    // Referencia al resultado de otra llamada dentro de un parámetro: "${id.campo.subcampo}"
+    private static final Pattern REFERENCE = Pattern.compile("\\$\\{([A-Za-z0-9_-]+)\\.([^}]+)}");
+
+    public record Call(String id, String method, Map<String, Object> params, Set<String> dependsOn) {}
+
+    private final List<Call> calls;
+    private final List<List<Call>> waves;
+    private final List<String> rejected;
+
+    private ToolPlan(List<Call> calls, List<List<Call>> waves, List<String> rejected) {
+        this.calls = calls;
+        this.waves = waves;
+        this.rejected = rejected;
+    }
+
+    // true si el plan del LLM pide al menos una llamada (sin validar)
+    public static boolean hasCalls(Map<String, Object> plan) {
+        if (plan == null) return false;
+        return plan.get("mcpCall") instanceof Map || (plan.get("mcpCalls") instanceof List<?> l && !l.isEmpty());
+    }
+
+    /**
+     * Construye el plan. validator decide si (método, params) es una llamada válida del tooling; las llamadas
+     * inválidas, las que exceden maxCalls, las que dependen de una llamada descartada y los ciclos se descartan
+     * (ver {@link #getRejected()}).
+     */
+    public static ToolPlan from(Map<String, Object> plan, BiPredicate<String, Map<String, Object>> validator, int maxCalls) {
+        if (!hasCalls(plan)) return EMPTY;
+        List<Object> entries = new ArrayList<>();
+        if (plan.get("mcpCalls") instanceof List<?> list) {
+            entries.addAll(list);
+        } else {
+            entries.add(plan.get("mcpCall"));
+        }
+
+        List<String> rejected = new ArrayList<>();
+        Map<String, Call> valid = new LinkedHashMap<>();
+        for (int i = 0; i < entries.size(); i++) {
+            if (!(entries.get(i) instanceof Map<?, ?> entry)) continue;
+            Object idObj = entry.get("id");
+            String id = idObj != null && !idObj.toString().isBlank() ? idObj.toString().trim() : "c" + (i + 1);
+            Object methodObj = entry.get("method");
+            String method = methodObj != null ? methodObj.toString() : null;
+            @SuppressWarnings("unchecked")
+            Map<String, Object> params = entry.get("params") instanceof Map ? (Map<String, Object>) entry.get("params") : Collections.emptyMap();
+            if (valid.size() >= Math.max(1, maxCalls)) {
+                rejected.add(id + ":" + method + " (máximo de llamadas)");
+                continue;
+            }
+            if (valid.containsKey(id) || method == null || method.isBlank() || !validator.test(method, params)) {
+                rejected.add(id + ":" + method);
+                continue;
+            }
+            Set<String> deps = new LinkedHashSet<>(dependsOn(entry.get("dependsOn")));
+            collectReferences(params, deps);
+            deps.remove(id);
+            valid.put(id, new Call(id, method, params, Collections.unmodifiableSet(deps)));
+        }
+
+        // Oleadas por niveles de dependencia; lo que no se puede ubicar (dependencia descartada o ciclo) se descarta
+        List<List<Call>> waves = new ArrayList<>();
+        Set<String> placed = new LinkedHashSet<>();
+        List<Call> pending = new ArrayList<>(valid.values());
+        while (!pending.isEmpty()) {
+            List<Call> wave = new ArrayList<>();
+            for (Call c : pending) {
+                if (placed.containsAll(c.dependsOn())) wave.add(c);
+            }
+            if (wave.isEmpty()) break;
+            pending.removeAll(wave);
+            for (Call c : wave) placed.add(c.id());
+            waves.add(List.copyOf(wave));
+        }
+        for (Call c : pending) rejected.add(c.id() + ":" + c.method() + " (dependencias " + c.dependsOn() + ")");
+
+        List<Call> ordered = new ArrayList<>();
+        for (Call c : valid.values()) {
+            if (placed.contains(c.id())) ordered.add(c);
+        }
+        return new ToolPlan(List.copyOf(ordered), List.copyOf(waves), List.copyOf(rejected));
+    }
+
+    /**
+     * Copia de params con las referencias "${id.campo}" reemplazadas por el valor del resultado de la llamada id.
+     * Un valor que es sólo la referencia conserva su tipo; dentro de un texto se inserta como cadena.
+     * Las referencias que no se pueden resolver quedan tal cual.
+     */
+    public static Map<String, Object> resolveParams(Map<String, Object> params, Function<String, Map<String, Object>> resultsById) {
+        Map<String, Object> out = new LinkedHashMap<>();
+        for (Map.Entry<String, Object> e : params.entrySet()) {
+            out.put(e.getKey(), resolveValue(e.getValue(), resultsById));
+        }
+        return out;
+    }
+
+    // true si params aún contiene alguna referencia "${id.campo}" (p. ej. tras resolveParams con un dato ausente)
+    public static boolean hasReferences(Map<String, Object> params) {
+        Set<String> refs = new LinkedHashSet<>();
+        collectReferences(params, refs);
+        return !refs.isEmpty();
+    }
+
+    public List<Call> getCalls() { return calls; }
+    public List<List<Call>> getWaves() { return waves; }
+    public List<String> getRejected() { return rejected; }
+    public boolean isEmpty() { return calls.isEmpty(); }
+
+    private static Object resolveValue(Object value, Function<String, Map<String, Object>> resultsById) {
+        if (value instanceof String s) {
+            Matcher whole = REFERENCE.matcher(s);
+            if (whole.matches()) {
+                Object resolved = lookup(resultsById.apply(whole.group(1)), whole.group(2));
+                return resolved != null ? resolved : s;
+            }
+            Matcher m = REFERENCE.matcher(s);
+            StringBuilder sb = new StringBuilder();
+            while (m.find()) {
+                Object resolved = lookup(resultsById.apply(m.group(1)), m.group(2));
+                m.appendReplacement(sb, Matcher.quoteReplacement(resolved != null ? String.valueOf(resolved) : m.group()));
+            }
+            m.appendTail(sb);
+            return sb.toString();
+        }
+        if (value instanceof Map<?, ?> map) {
+            Map<String, Object> out = new LinkedHashMap<>();
+            for (Map.Entry<?, ?> e : map.entrySet()) out.put(String.valueOf(e.getKey()), resolveValue(e.getValue(), resultsById));
+            return out;
+        }
+        if (value instanceof List<?> list) {
+            List<Object> out = new ArrayList<>(list.size());
+            for (Object item : list) out.add(resolveValue(item, resultsById));
+            return out;
+        }
+        return value;
+    }
+
+    // Navega campo.subcampo.0.campo sobre los datos de la respuesta MCP
+    private static Object lookup(Map<String, Object> data, String path) {
+        Object current = data;
+        for (String segment : path.split("\\.")) {
+            if (current instanceof Map<?, ?> map) {
+                current = map.get(segment);
+            } else if (current instanceof List<?> list && segment.chars().allMatch(Character::isDigit) && !segment.isEmpty()) {
+                int idx = Integer.parseInt(segment);
+                current = idx < list.size() ? list.get(idx) : null;
+            } else {
+                return null;
+            }
+        }
+        return current;
+    }
+
+    private static List<String> dependsOn(Object raw) {
+        if (raw instanceof List<?> list) {
+            List<String> out = new ArrayList<>();
+            for (Object o : list) if (o != null && !o.toString().isBlank()) out.add(o.toString().trim());
+            return out;
+        }
+        if (raw instanceof String s && !s.isBlank()) return List.of(s.trim());
+        return List.of();
+    }
+
+    private static void collectReferences(Object value, Set<String> into) {
+        if (value instanceof String s) {
+            Matcher m = REFERENCE.matcher(s);
+            while (m.find()) into.add(m.group(1));
+        } else if (value instanceof Map<?, ?> map) {
+            for (Object v : map.values()) collectReferences(v, into);
+        } else if (value instanceof List<?> list) {
+            for (Object v : list) collectReferences(v, into);
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package com.lujanita.bff.service;
+
+import com.lujanita.bff.cache.TtlLruCache;
+import com.lujanita.bff.config.BffProperties;
+import com.lujanita.bff.ollama.EmbeddingProvider;
+import com.lujanita.bff.resilience.CircuitBreaker;
+import com.lujanita.bff.resilience.ResilienceRegistry;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Selección de herramientas para el prompt de planificación: en vez de todo tools.list, sólo las
+ * bff.ollama.toolSelectionTopK más parecidas al mensaje (similitud coseno entre embeddings), de modo que el
+ * prompt no crece con el catálogo. Las descripciones se embeben una vez por versión de catálogo (índice en
+ * memoria) y se vuelven a embeber cuando cambia. Ante cualquier error o demora se usa el catálogo completo; los
+ * embeddings pasan por el circuito y el bulkhead de Ollama y, con el circuito no cerrado, no se selecciona.
+ * Cada subconjunto seleccionado se memoriza por (versión, herramientas elegidas): mensajes que eligen las mismas
+ * herramientas reciben el mismo ToolCatalog y el mismo fragmento de prompt, así que el prefijo estable del prompt
+ * de planificación (y la cache de prefijo de Ollama) sólo se reutiliza entre peticiones con la misma selección.
+ */
+@Service
+@Slf4j
+public class ToolSelector {
+    // Espera máxima por la selección; el índice sigue construyéndose en segundo plano si se excede
+    private static final Duration SELECTION_TIMEOUT = Duration.ofSeconds(3);
+    // Versiones de catálogo indexadas a la vez (hay un catálogo por rol/perfil)
+    private static final int MAX_INDEXES = 16;
+    // Subconjuntos seleccionados memorizados; los de versiones de catálogo viejas salen por LRU o expiración
+    private static final int MAX_SELECTIONS = 256;
+    private static final long SELECTION_TTL_MS = 30 * 60 * 1000L;
+
+    @Autowired
+    private BffProperties bffProperties;
+    @Autowired(required = false)
+    private EmbeddingProvider embeddingProvider;
+    @Autowired(required = false)
+    private MeterRegistry meterRegistry;
+    @Autowired(required = false)
+    private ResilienceRegistry resilience;
+
+    // Índice por versión de catálogo; el Mono cacheado comparte una única construcción entre peticiones concurrentes
+    private final Map<String, Mono<ToolIndex>> indexes = new ConcurrentHashMap<>();
+    // "versión|índices elegidos" -> catálogo seleccionado (con su fragmento de prompt ya renderizado)
+    private final TtlLruCache<String, ToolCatalog> selections = new TtlLruCache<>(MAX_SELECTIONS, SELECTION_TTL_MS);
+
+    // Vectores normalizados, uno por herramienta y en el orden del catálogo
+    private record ToolIndex(List<Map<String, Object>> tools, float[][] vectors) {}
+
+    public ToolSelector() {
+    }
+
+    ToolSelector(BffProperties bffProperties, EmbeddingProvider embeddingProvider, MeterRegistry meterRegistry) {
+        this.bffProperties = bffProperties;
+        this.embeddingProvider = embeddingProvider;
+        this.meterRegistry = meterRegistry;
+    }
+
+    public ToolCatalog select(ToolCatalog catalog, String message, String corrId) {
+        ToolCatalog selected = selectReactive(catalog, message, corrId).block();
+        return selected == null ? catalog : selected;
+    }
+
+    /**
+     * Catálogo con las topK herramientas más relevantes para el mensaje, en el orden original; el mismo
+     * catálogo si la selección está desactivada o el catálogo ya tiene topK herramientas o menos.
+     */
+    public Mono<ToolCatalog> selectReactive(ToolCatalog catalog, String message, String corrId) {
+        int topK = bffProperties.getOllama().getToolSelectionTopK();
+        if (embeddingProvider == null || !embeddingProvider.isEnabled() || topK <= 0
+            || catalog.getTools().size() <= topK || message == null || message.isBlank()) {
+            return Mono.just(catalog);
+        }
+        if (ollamaDegraded()) {
+            count("skipped");
+            log.info("[LLM][{}] Tool selection omitida: circuito de Ollama no cerrado, se usa el catálogo completo", corrId);
+            return Mono.just(catalog);
+        }
+        long t0 = System.currentTimeMillis();
+        return index(catalog)
+            .zipWith(guarded(Mono.defer(() -> embeddingProvider.embed(List.of(message)))))
+            .map(t -> {
+                int[] chosen = topK(t.getT1(), normalize(t.getT2().get(0)), topK);
+                count("selected");
+                log.info("[LLM][{}] Tool selection: {} de {} herramientas en {}ms catalogVersion={}", corrId, chosen.length,
+                    catalog.getTools().size(), System.currentTimeMillis() - t0, catalog.getVersion());
+                return selectedCatalog(catalog.getVersion(), t.getT1(), chosen);
+            })
+            .timeout(SELECTION_TIMEOUT)
+            .onErrorResume(e -> {
+                count("error");
+                log.warn("[LLM][{}] Tool selection falló, se usa el catálogo completo: {}", corrId, e.toString());
+                return Mono.just(catalog);
+            });
+    }
+
+    private Mono<ToolIndex> index(ToolCatalog catalog) {
+        String version = catalog.getVersion();
+        Mono<ToolIndex> existing = indexes.get(version);
+        if (existing != null) return existing;
+        if (indexes.size() >= MAX_INDEXES) indexes.clear();
+        return indexes.computeIfAbsent(version, v -> buildIndex(catalog)
+            .doOnError(e -> indexes.remove(v))
+            .cache());
+    }
+
+    private Mono<ToolIndex> buildIndex(ToolCatalog catalog) {
+        List<Map<String, Object>> tools = catalog.getTools();
+        List<String> texts = new ArrayList<>(tools.size());
+        for (Map<String, Object> tool : tools) texts.add(describe(tool));
+        return Mono.defer(() -> {
+            long t0 = System.currentTimeMillis();
+            return guarded(embeddingProvider.embed(texts)).map(vectors -> {
+                if (vectors.size() != tools.size()) {
+                    throw new IllegalStateException(vectors.size() + " embeddings para " + tools.size() + " herramientas");
+                }
+                float[][] normalized = new float[vectors.size()][];
+                for (int i = 0; i < normalized.length; i++) normalized[i] = normalize(vectors.get(i));
+                log.info("[LLM] Índice de herramientas construido: {} herramientas en {}ms catalogVersion={}",
+                    tools.size(), System.currentTimeMillis() - t0, catalog.getVersion());
+                return new ToolIndex(tools, normalized);
+            });
+        });
+    }
+
+    // Los embeddings comparten Ollama con la generación: mismo bulkhead y mismo circuito
+    private <T> Mono<T> guarded(Mono<T> call) {
+        if (resilience == null) return call;
+        return resilience.protect(ResilienceRegistry.OLLAMA, null, call, ResilienceRegistry.OLLAMA);
+    }
+
+    // Con Ollama fallando o en prueba no se gasta una llamada (ni cupo) en elegir herramientas
+    private boolean ollamaDegraded() {
+        return resilience != null && resilience.isEnabled()
+            && resilience.breaker(ResilienceRegistry.OLLAMA).getState() != CircuitBreaker.State.CLOSED;
+    }
+
+    // Mismo subconjunto, mismo catálogo: conserva versión y fragmento de prompt entre peticiones
+    private ToolCatalog selectedCatalog(String version, ToolIndex index, int[] chosen) {
+        String key = version + "|" + java.util.Arrays.toString(chosen);
+        ToolCatalog cached = selections.get(key);
+        if (cached != null) return cached;
+        List<Map<String, Object>> tools = new ArrayList<>(chosen.length);
+        for (int i : chosen) tools.add(index.tools().get(i));
+        ToolCatalog selected = ToolCatalog.of(tools);
+        selections.put(key, selected);
+        return selected;
+    }
+
+    // Texto embebido por herramienta: nombre, descripción y nombres de parámetros
+    static String describe(Map<String, Object> tool) {
+        StringBuilder sb = new StringBuilder(String.valueOf(tool.get("name")));
+        Object description = tool.get("description");
+        if (description != null) sb.append(": ").append(description);
+        if (tool.get("parameters") instanceof Map<?, ?> schema && schema.get("properties") instanceof Map<?, ?> props && !props.isEmpty()) {
+            sb.append(" (parámetros: ").append(String.join(", ", props.keySet().stream().map(String::valueOf).toList())).append(')');
+        }
+        return sb.toString();
+    }
+
+    // Posiciones de las k herramientas más parecidas, en el orden del catálogo
+    private static int[] topK(ToolIndex index, float[] query, int k) {
+        float[][] vectors = index.vectors();
+        double[] scores = new double[vectors.length];
+        Integer[] order = new Integer[vectors.length];
+        for (int i = 0; i < vectors.length; i++) {
+            scores[i] = dot(vectors[i], query);
+            order[i] = i;
+        }
+        java.util.Arrays.sort(order, (a, b) -> Double.compare(scores[b], scores[a]));
+        int[] out = new int[Math.min(k, order.length)];
+        for (int i = 0; i < out.length; i++) out[i] = order[i];
+        java.util.Arrays.sort(out);
+        return out;
+    }
+
+    private static double dot(float[] a, float[] b) {
+        int n = Math.min(a.length, b.length);
+        double sum = 0;
+        for (int i = 0; i < n; i++) sum += a[i] * b[i];
+        return sum;
+    }
+
+    private static float[] normalize(float[] v) {
+        double norm = 0;
+        for (float x : v) norm += x * x;
+        if (norm == 0) return v;
+        float inv = (float) (1 / Math.sqrt(norm));
+        float[] out = new float[v.length];
+        for (int i = 0; i < v.length; i++) out[i] = v[i] * inv;
+        return out;
+    }
+
+    private void count(String result) {
+        try {
+            if (meterRegistry != null) meterRegistry.counter("llm.tools.selection", "result", result).increment();
+        } catch (Exception ignore) {}
+    }
+}
@@ -0,0 +1,66 @@
+package com.lujanita.bff.controller;
+
+import com.lujanita.bff.config.BffProperties;
+import com.lujanita.bff.config.RateLimitFilter;
+import com.lujanita.bff.service.BffOrchestratorService;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.http.server.reactive.ReactorHttpHandlerAdapter;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+
+class ReactiveChatServerTest {
+
+    @Test
+    void appliesRateLimitAndCorsOnNettyPort() {
+        BffProperties props = new BffProperties();
+        props.getOllama().setEnabled(true);
+        props.getRateLimit().setEnabled(true);
+        props.getRateLimit().setRequestsPerMinute(1);
+        props.getCors().setAllowedOrigins("http://localhost:5173");
+        RateLimitFilter rateLimit = new RateLimitFilter();
+        ReflectionTestUtils.setField(rateLimit, "bffProperties", props);
+        BffOrchestratorService orchestrator = Mockito.mock(BffOrchestratorService.class);
+        Mockito.when(orchestrator.handleChatReactive(anyMap(), anyString()))
+            .thenReturn(Mono.just("{\"response\":\"Hola\",\"correlationId\":\"c1\"}"));
+        ReactiveChatServer chatServer = new ReactiveChatServer();
+        ReflectionTestUtils.setField(chatServer, "bffProperties", props);
+        ReflectionTestUtils.setField(chatServer, "orchestrator", orchestrator);
+        ReflectionTestUtils.setField(chatServer, "rateLimitFilter", rateLimit);
+
+        DisposableServer server = HttpServer.create().port(0).handle(new ReactorHttpHandlerAdapter(chatServer.httpHandler())).bindNow();
+        try {
+            WebClient client = WebClient.create("http://localhost:" + server.port());
+            assertEquals(200, status(client, "k1"));
+            assertEquals(429, status(client, "k1"));
+            // La ventana es por apiKey
+            assertEquals(200, status(client, "k2"));
+
+            var preflight = client.options().uri("/api/chat")
+                .header("Origin", "http://localhost:5173")
+                .header("Access-Control-Request-Method", "POST")
+                .retrieve().toBodilessEntity().block();
+            assertEquals("http://localhost:5173", preflight.getHeaders().getAccessControlAllowOrigin());
+            int foreign = client.post().uri("/api/chat").header("Origin", "http://evil.example").header("X-Api-Key", "k3")
+                .bodyValue(Map.of("message", "hola"))
+                .exchangeToMono(r -> Mono.just(r.statusCode().value())).block();
+            assertEquals(403, foreign);
+        } finally {
+            server.disposeNow();
+        }
+    }
+
+    private static int status(WebClient client, String apiKey) {
+        return client.post().uri("/api/chat").header("X-Api-Key", apiKey)
+            .bodyValue(Map.of("message", "hola"))
+            .exchangeToMono(r -> Mono.just(r.statusCode().value())).block();
+    }
+}
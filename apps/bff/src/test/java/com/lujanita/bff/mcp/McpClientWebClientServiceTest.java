@@ -16,7 +16,7 @@ class McpClientWebClientServiceTest {
         BffPropertiesMock props = new BffPropertiesMock();
         WebClient.Builder builder = WebClient.builder();
         McpSessionService sessionService = Mockito.mock(McpSessionService.class);
-        Mockito.when(sessionService.getSessionId()).thenReturn("test-session-id");
+        Mockito.when(sessionService.getSessionIdAsync()).thenReturn(Mono.just("test-session-id"));
         McpClientWebClientService service = new McpClientWebClientService(props, builder, sessionService);
         // Simula endpoint inválido
         McpResponse resp = service.callMcp("test.method", Map.of(), Map.of()).block();
@@ -25,6 +25,169 @@ class McpClientWebClientServiceTest {
         assertTrue(resp.getMessage().contains("Error MCP WebClient"));
     }
 
+    @Test
+    void callMcpBatch_sendsOneRequestAndCorrelatesById() throws Exception {
+        java.util.concurrent.atomic.AtomicInteger requests = new java.util.concurrent.atomic.AtomicInteger();
+        com.sun.net.httpserver.HttpServer server = mockServer(true, requests);
+        try {
+            McpClientWebClientService service = serviceFor(server);
+            java.util.List<McpResponse> resps = service.callMcpBatch(java.util.List.of(
+                new McpClientWebClientService.McpCall("customers.get", Map.of("customerId", "C001")),
+                new McpClientWebClientService.McpCall("orders.get", Map.of("orderId", "SO001", "includeLines", true))), Map.of()).block();
+
+            assertEquals(1, requests.get());
+            assertEquals(2, resps.size());
+            assertEquals("C001", resps.get(0).getData().get("customerId"));
+            assertEquals("SO001", resps.get(1).getData().get("orderId"));
+            assertNotNull(resps.get(1).getData().get("lines"));
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    void callMcpBatch_fallsBackToSingleCallsWhenBatchRejected() throws Exception {
+        java.util.concurrent.atomic.AtomicInteger requests = new java.util.concurrent.atomic.AtomicInteger();
+        com.sun.net.httpserver.HttpServer server = mockServer(false, requests);
+        try {
+            McpClientWebClientService service = serviceFor(server);
+            java.util.List<McpClientWebClientService.McpCall> calls = java.util.List.of(
+                new McpClientWebClientService.McpCall("customers.get", Map.of("customerId", "C001")),
+                new McpClientWebClientService.McpCall("orders.get", Map.of("orderId", "SO001")));
+            java.util.List<McpResponse> resps = service.callMcpBatch(calls, Map.of()).block();
+
+            // Lote rechazado + una llamada por método
+            assertEquals(3, requests.get());
+            assertEquals("C001", resps.get(0).getData().get("customerId"));
+            assertEquals("SO001", resps.get(1).getData().get("orderId"));
+            // Ya sabe que el servidor no acepta lotes: no vuelve a intentarlo
+            service.callMcpBatch(calls, Map.of()).block();
+            assertEquals(5, requests.get());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    void callMcpBatch_keepsBatchingAfterATransientNonArrayResponse() throws Exception {
+        java.util.concurrent.atomic.AtomicInteger requests = new java.util.concurrent.atomic.AtomicInteger();
+        com.sun.net.httpserver.HttpServer server = com.sun.net.httpserver.HttpServer.create(new java.net.InetSocketAddress("localhost", 0), 0);
+        MockMcpAutoStarter.McpHandler handler = new MockMcpAutoStarter.McpHandler(true);
+        server.createContext("/mcp", exchange -> {
+            // El primer POST recibe una página de error del proxy en lugar de la respuesta JSON-RPC
+            if (requests.incrementAndGet() == 1) {
+                byte[] body = "<html>502 Bad Gateway</html>".getBytes(java.nio.charset.StandardCharsets.UTF_8);
+                exchange.sendResponseHeaders(200, body.length);
+                exchange.getResponseBody().write(body);
+                exchange.close();
+                return;
+            }
+            handler.handle(exchange);
+        });
+        server.start();
+        try {
+            McpClientWebClientService service = serviceFor(server);
+            java.util.List<McpClientWebClientService.McpCall> calls = java.util.List.of(
+                new McpClientWebClientService.McpCall("customers.get", Map.of("customerId", "C001")),
+                new McpClientWebClientService.McpCall("orders.get", Map.of("orderId", "SO001")));
+            java.util.List<McpResponse> resps = service.callMcpBatch(calls, Map.of()).block();
+            // Lote fallido + una llamada por método
+            assertEquals(3, requests.get());
+            assertEquals("C001", resps.get(0).getData().get("customerId"));
+
+            // No fue un rechazo JSON-RPC de lotes: el siguiente lote vuelve a ir en un único POST
+            resps = service.callMcpBatch(calls, Map.of()).block();
+            assertEquals(4, requests.get());
+            assertEquals("SO001", resps.get(1).getData().get("orderId"));
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    void callMcp_reusesClientAndBaseHeadersUntilConfigChanges() throws Exception {
+        java.util.List<String> auth = new java.util.concurrent.CopyOnWriteArrayList<>();
+        com.sun.net.httpserver.HttpServer server = com.sun.net.httpserver.HttpServer.create(new java.net.InetSocketAddress("localhost", 0), 0);
+        MockMcpAutoStarter.McpHandler handler = new MockMcpAutoStarter.McpHandler(true);
+        server.createContext("/mcp", exchange -> {
+            auth.add(exchange.getRequestHeaders().getFirst("Authorization") + "|" + exchange.getRequestHeaders().getFirst("X-Role"));
+            handler.handle(exchange);
+        });
+        server.start();
+        try {
+            com.lujanita.bff.config.BffProperties props = new com.lujanita.bff.config.BffProperties();
+            props.getMcp().setEndpoint("http://localhost:" + server.getAddress().getPort() + "/mcp");
+            props.getMcp().setAuthToken("clave-1");
+            McpSessionService sessionService = Mockito.mock(McpSessionService.class);
+            Mockito.when(sessionService.getSessionIdAsync()).thenReturn(Mono.just("test-session-id"));
+            WebClient.Builder builder = Mockito.spy(WebClient.builder());
+            McpClientWebClientService service = new McpClientWebClientService(props, builder, sessionService);
+
+            service.callMcp("customers.get", Map.of("customerId", "C001"), Map.of("x-role", "admin")).block();
+            service.callMcp("customers.get", Map.of("customerId", "C002"), Map.of("x-role", "user")).block();
+            Mockito.verify(builder, Mockito.times(1)).build();
+
+            props.getMcp().setAuthToken("clave-2");
+            service.callMcp("customers.get", Map.of("customerId", "C003"), Map.of()).block();
+            Mockito.verify(builder, Mockito.times(2)).build();
+            assertEquals(java.util.List.of("Bearer clave-1|admin", "Bearer clave-1|user", "Bearer clave-2|null"), auth);
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    void callMcp_renewsSessionAndRetriesOnceWhenRejected() throws Exception {
+        java.util.List<String> sessions = new java.util.concurrent.CopyOnWriteArrayList<>();
+        com.sun.net.httpserver.HttpServer server = com.sun.net.httpserver.HttpServer.create(new java.net.InetSocketAddress("localhost", 0), 0);
+        MockMcpAutoStarter.McpHandler handler = new MockMcpAutoStarter.McpHandler(true);
+        server.createContext("/mcp", exchange -> {
+            String session = exchange.getRequestHeaders().getFirst("mcp-session-id");
+            sessions.add(session);
+            if ("vencida".equals(session)) {
+                exchange.getRequestBody().readAllBytes();
+                exchange.sendResponseHeaders(401, -1);
+                exchange.close();
+                return;
+            }
+            handler.handle(exchange);
+        });
+        server.start();
+        try {
+            com.lujanita.bff.config.BffProperties props = new com.lujanita.bff.config.BffProperties();
+            props.getMcp().setEndpoint("http://localhost:" + server.getAddress().getPort() + "/mcp");
+            McpSessionService sessionService = Mockito.mock(McpSessionService.class);
+            Mockito.when(sessionService.getSessionIdAsync()).thenReturn(Mono.just("vencida"), Mono.just("nueva"));
+            McpClientWebClientService service = new McpClientWebClientService(props, WebClient.builder(), sessionService);
+
+            McpResponse resp = service.callMcp("customers.get", Map.of("customerId", "C001"), Map.of()).block();
+            assertEquals("OK", resp.getCode());
+            assertEquals(java.util.List.of("vencida", "nueva"), sessions);
+            Mockito.verify(sessionService).invalidateSession("vencida");
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    private static com.sun.net.httpserver.HttpServer mockServer(boolean batchSupported, java.util.concurrent.atomic.AtomicInteger requests) throws Exception {
+        com.sun.net.httpserver.HttpServer server = com.sun.net.httpserver.HttpServer.create(new java.net.InetSocketAddress("localhost", 0), 0);
+        MockMcpAutoStarter.McpHandler handler = new MockMcpAutoStarter.McpHandler(batchSupported);
+        server.createContext("/mcp", exchange -> {
+            requests.incrementAndGet();
+            handler.handle(exchange);
+        });
+        server.start();
+        return server;
+    }
+
+    private static McpClientWebClientService serviceFor(com.sun.net.httpserver.HttpServer server) {
+        com.lujanita.bff.config.BffProperties props = new com.lujanita.bff.config.BffProperties();
+        props.getMcp().setEndpoint("http://localhost:" + server.getAddress().getPort() + "/mcp");
+        McpSessionService sessionService = Mockito.mock(McpSessionService.class);
+        Mockito.when(sessionService.getSessionIdAsync()).thenReturn(Mono.just("test-session-id"));
+        return new McpClientWebClientService(props, WebClient.builder(), sessionService);
+    }
+
     // Mock mínimo para BffProperties
     static class BffPropertiesMock extends com.lujanita.bff.config.BffProperties {
         @Override
@@ -0,0 +1,79 @@
+package com.lujanita.bff.mcp;
+
+import com.lujanita.bff.config.BffProperties;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.client.RestTemplate;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+
+class McpSessionServiceTest {
+    private BffProperties props;
+    private RestTemplate restTemplate;
+    private final AtomicInteger handshakes = new AtomicInteger();
+    private final AtomicLong now = new AtomicLong(1_000_000L);
+
+    @BeforeEach
+    void setup() {
+        props = new BffProperties();
+        props.getMcp().setEndpoint("http://mcp.local/mcp");
+        props.getMcp().setAuthToken("clave");
+        props.getMcp().setSessionTtlSeconds(100);
+        props.getMcp().setSessionRefreshAheadSeconds(20);
+        restTemplate = Mockito.mock(RestTemplate.class);
+        Mockito.when(restTemplate.exchange(anyString(), eq(HttpMethod.GET), any(HttpEntity.class), eq(String.class)))
+            .thenReturn(ResponseEntity.ok(""));
+        Mockito.when(restTemplate.postForEntity(anyString(), any(), eq(String.class))).thenAnswer(inv -> {
+            Thread.sleep(100);
+            return ResponseEntity.ok().header("mcp-session-id", "s" + handshakes.incrementAndGet()).body("");
+        });
+    }
+
+    @Test
+    void getSessionIdAsync_concurrentCallersShareOneHandshake() {
+        McpSessionService service = new McpSessionService(props, restTemplate, now::get);
+        List<String> ids = Flux.range(0, 8)
+            .flatMap(i -> service.getSessionIdAsync())
+            .collectList()
+            .block(Duration.ofSeconds(5));
+        assertEquals(8, ids.size());
+        assertTrue(ids.stream().allMatch("s1"::equals));
+        assertEquals(1, handshakes.get());
+        assertEquals("s1", service.getSessionId());
+    }
+
+    @Test
+    void getSessionIdAsync_refreshesAheadOfExpiryWithoutBlocking() throws Exception {
+        McpSessionService service = new McpSessionService(props, restTemplate, now::get);
+        assertEquals("s1", service.getSessionIdAsync().block());
+        now.addAndGet(85_000L);
+        // Dentro de la ventana de renovación: responde la sesión actual y renueva en segundo plano
+        assertEquals("s1", service.getSessionIdAsync().block());
+        for (int i = 0; i < 50 && handshakes.get() < 2; i++) Thread.sleep(20);
+        Thread.sleep(50);
+        assertEquals("s2", service.getSessionIdAsync().block());
+        assertEquals(2, handshakes.get());
+    }
+
+    @Test
+    void invalidateSession_onlyDiscardsTheRejectedSession() {
+        McpSessionService service = new McpSessionService(props, restTemplate, now::get);
+        assertEquals("s1", service.getSessionIdAsync().block());
+        service.invalidateSession("otra");
+        assertEquals("s1", service.getSessionIdAsync().block());
+        service.invalidateSession("s1");
+        assertEquals("s2", service.getSessionIdAsync().block());
+        assertEquals(2, handshakes.get());
+    }
+}
@@ -0,0 +1,100 @@
+package com.lujanita.bff.ollama;
+
+import com.lujanita.bff.config.BffProperties;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OllamaBackendPoolTest {
+
+    @Test
+    void routesToNodeWithFewestOutstandingRequests() {
+        BffProperties props = new BffProperties();
+        props.getOllama().setEndpoints(List.of("http://gpu-a:11434/api/generate", "http://gpu-b:11434"));
+        OllamaBackendPool pool = new OllamaBackendPool(props, new SimpleMeterRegistry(), System::currentTimeMillis);
+
+        OllamaBackendPool.Lease first = pool.acquire("mistral");
+        OllamaBackendPool.Lease second = pool.acquire("mistral");
+        assertNotEquals(first.baseUrl(), second.baseUrl());
+
+        // gpu-a/gpu-b con una en curso cada uno; al liberar una, la siguiente va a ese nodo
+        first.success();
+        assertEquals(first.baseUrl(), pool.acquire("mistral").baseUrl());
+    }
+
+    @Test
+    void ejectsNodeAfterConsecutiveFailuresAndReadmitsItLater() {
+        AtomicLong now = new AtomicLong(1_000);
+        BffProperties props = new BffProperties();
+        props.getOllama().setEndpoints(List.of("http://gpu-a:11434", "http://gpu-b:11434"));
+        props.getOllama().setPoolFailureThreshold(2);
+        props.getOllama().setPoolEjectSeconds(30);
+        props.getOllama().setPoolProbeIntervalSeconds(0);
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        OllamaBackendPool pool = new OllamaBackendPool(props, registry, now::get);
+
+        for (int i = 0; i < 4; i++) {
+            OllamaBackendPool.Lease lease = pool.acquire("mistral");
+            if (lease.baseUrl().contains("gpu-a")) lease.failure(new RuntimeException("Connection refused")); else lease.success();
+        }
+        for (int i = 0; i < 3; i++) {
+            OllamaBackendPool.Lease lease = pool.acquire("mistral");
+            assertEquals("http://gpu-b:11434", lease.baseUrl());
+            lease.success();
+        }
+        assertEquals(1.0, registry.counter("ollama.backend.ejections", "backend", "http://gpu-a:11434").count());
+
+        now.addAndGet(31_000);
+        List<String> urls = new java.util.ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            OllamaBackendPool.Lease lease = pool.acquire("mistral");
+            urls.add(lease.baseUrl());
+            lease.success();
+        }
+        assertTrue(urls.contains("http://gpu-a:11434"), urls.toString());
+    }
+
+    @Test
+    void skipsNodesThatDoNotHaveTheModel() throws Exception {
+        HttpServer withModel = tagsServer("{\"models\":[{\"name\":\"mistral:latest\"}]}");
+        HttpServer withoutModel = tagsServer("{\"models\":[{\"name\":\"llama3:8b\"}]}");
+        try {
+            String a = "http://localhost:" + withModel.getAddress().getPort();
+            String b = "http://localhost:" + withoutModel.getAddress().getPort();
+            BffProperties props = new BffProperties();
+            props.getOllama().setEndpoints(List.of(b, a));
+            OllamaBackendPool pool = new OllamaBackendPool(props, null, System::currentTimeMillis);
+
+            pool.validateModel("mistral");
+            OllamaBackendPool.Lease first = pool.acquire("mistral");
+            OllamaBackendPool.Lease second = pool.acquire("mistral");
+            assertEquals(a, first.baseUrl());
+            assertEquals(a, second.baseUrl());
+            assertEquals(b, pool.acquire("llama3:8b").baseUrl());
+            assertThrows(IllegalStateException.class, () -> pool.validateModel("phi3"));
+        } finally {
+            withModel.stop(0);
+            withoutModel.stop(0);
+        }
+    }
+
+    private static HttpServer tagsServer(String body) throws Exception {
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/api/tags", exchange -> {
+            byte[] resp = body.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, resp.length);
+            exchange.getResponseBody().write(resp);
+            exchange.close();
+        });
+        server.start();
+        return server;
+    }
+}
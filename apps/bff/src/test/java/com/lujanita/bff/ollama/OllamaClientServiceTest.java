@@ -0,0 +1,99 @@
+package com.lujanita.bff.ollama;
+
+import com.lujanita.bff.config.BffProperties;
+import com.lujanita.bff.prompt.PromptConfigService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import static org.junit.jupiter.api.Assertions.*;
+
+class OllamaClientServiceTest {
+    @TempDir
+    Path tmp;
+    private Path promptsFile;
+    private PromptConfigService promptConfigService;
+    private OllamaClientService service;
+
+    @BeforeEach
+    void setup() throws Exception {
+        promptsFile = tmp.resolve("prompts.yml");
+        Files.writeString(promptsFile, """
+            default:
+              systemPrompt: "Eres {chatbotName}."
+              assistantGuidelines: "Saluda con: %s"
+            role:
+              cliente:
+                systemPrompt: "Eres {chatbotName}, para clientes."
+            profile:
+              premium:
+                assistantGuidelines: "Trato premium."
+            """);
+        promptConfigService = new PromptConfigService();
+        ReflectionTestUtils.setField(promptConfigService, "promptsPath", promptsFile.toString());
+        promptConfigService.loadPrompts();
+        BffProperties bffProperties = new BffProperties();
+        bffProperties.setChatbotName("Lujanita");
+        bffProperties.setWelcomeMessage("Hola, soy %s");
+        service = new OllamaClientService();
+        ReflectionTestUtils.setField(service, "bffProperties", bffProperties);
+        ReflectionTestUtils.setField(service, "promptConfigService", promptConfigService);
+        service.registerPromptReload();
+    }
+
+    @Test
+    void systemPromptFor_resolvesRoleProfileAndDefaults() {
+        assertEquals("Eres Lujanita, para clientes.\nTrato premium.", service.systemPromptFor("cliente", "premium"));
+        assertEquals("Eres Lujanita, para clientes.\nSaluda con: Hola, soy Lujanita", service.systemPromptFor("cliente", "otro"));
+        assertEquals("Eres Lujanita.\nTrato premium.", service.systemPromptFor("desconocido", "premium"));
+        assertEquals("Eres Lujanita.\nSaluda con: Hola, soy Lujanita", service.systemPromptFor(null, null));
+    }
+
+    @Test
+    void reload_swapsPrecompiledTable() throws Exception {
+        assertTrue(service.systemPromptFor("cliente", "").contains("para clientes"));
+        Files.writeString(promptsFile, """
+            default:
+              systemPrompt: "Nuevo default."
+            role:
+              cliente:
+                systemPrompt: "Nuevo cliente."
+            """);
+        promptConfigService.reload();
+        assertEquals("Nuevo cliente.", service.systemPromptFor("cliente", "premium"));
+    }
+
+    @Test
+    void nativeMessages_placesHistoryBetweenStaticPrefixAndNewTurn() {
+        var history = java.util.List.of(
+            new OllamaNativeClient.ChatMessage("user", "¿Estado del pedido 42?"),
+            new OllamaNativeClient.ChatMessage("assistant", "Está en camino."));
+        var messages = service.nativeMessages("¿Y cuándo llega?", "cliente", "premium", "Herramientas", history);
+        assertEquals(java.util.List.of("system", "system", "user", "assistant", "user"),
+            messages.stream().map(OllamaNativeClient.ChatMessage::role).toList());
+        assertEquals("Herramientas", messages.get(1).content());
+        assertEquals("¿Y cuándo llega?", messages.get(4).content());
+        // El prefijo coincide con la petición anterior de la conversación
+        assertEquals(service.nativeMessages("¿Estado del pedido 42?", "cliente", "premium", "Herramientas").subList(0, 3),
+            messages.subList(0, 3));
+    }
+
+    @Test
+    void fallbackRequestBody_keepsSystemPromptStaticContextAndHistory() {
+        var history = java.util.List.of(
+            new OllamaNativeClient.ChatMessage("user", "¿Estado del pedido 42?"),
+            new OllamaNativeClient.ChatMessage("assistant", "Está en camino."));
+        var body = service.fallbackRequestBody(new com.fasterxml.jackson.databind.ObjectMapper(), new ModelOptions("mistral", 0.2, 256),
+            service.nativeMessages("¿Y cuándo llega?", "cliente", "premium", "Herramientas", history));
+        assertEquals("mistral", body.path("model").asText());
+        assertFalse(body.path("stream").asBoolean(true));
+        assertEquals(5, body.path("messages").size());
+        assertEquals("Eres Lujanita, para clientes.\nTrato premium.", body.path("messages").get(0).path("content").asText());
+        assertEquals("Herramientas", body.path("messages").get(1).path("content").asText());
+        assertEquals("assistant", body.path("messages").get(3).path("role").asText());
+        assertEquals("¿Y cuándo llega?", body.path("messages").get(4).path("content").asText());
+        assertEquals(256, body.path("options").path("num_predict").asInt());
+    }
+}
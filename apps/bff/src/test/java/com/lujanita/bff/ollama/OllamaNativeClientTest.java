@@ -0,0 +1,73 @@
+package com.lujanita.bff.ollama;
+
+import com.lujanita.bff.config.BffProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import com.sun.net.httpserver.HttpServer;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+import static org.junit.jupiter.api.Assertions.*;
+
+class OllamaNativeClientTest {
+    private HttpServer server;
+    private final AtomicReference<String> lastBody = new AtomicReference<>();
+    private OllamaNativeClient client;
+    private SimpleMeterRegistry meterRegistry;
+
+    @BeforeEach
+    void setup() throws Exception {
+        server = HttpServer.create(new InetSocketAddress(0), 0);
+        server.createContext("/api/chat", exchange -> {
+            lastBody.set(new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8));
+            byte[] resp = ("{\"message\":{\"role\":\"assistant\",\"content\":\" hola \"},\"done\":true,"
+                + "\"prompt_eval_count\":12,\"prompt_eval_duration\":3000000,\"eval_count\":5,\"load_duration\":0}").getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, resp.length);
+            exchange.getResponseBody().write(resp);
+            exchange.close();
+        });
+        server.start();
+        BffProperties props = new BffProperties();
+        props.getOllama().setEndpoint("http://localhost:" + server.getAddress().getPort() + "/api/generate");
+        props.getOllama().setKeepAlive("30m");
+        props.getOllama().setTemperature(0.0);
+        meterRegistry = new SimpleMeterRegistry();
+        client = new OllamaNativeClient();
+        ReflectionTestUtils.setField(client, "bffProperties", props);
+        ReflectionTestUtils.setField(client, "meterRegistry", meterRegistry);
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    void chat_sendsKeepAliveAndRecordsPromptEvalMetrics() {
+        String out = client.chat("mistral", List.of(
+            new OllamaNativeClient.ChatMessage("system", "sys"),
+            new OllamaNativeClient.ChatMessage("user", "hola"))).block();
+
+        assertEquals(" hola ", out);
+        assertTrue(lastBody.get().contains("\"keep_alive\":\"30m\""));
+        assertTrue(lastBody.get().indexOf("\"system\"") < lastBody.get().indexOf("\"user\""));
+        assertTrue(lastBody.get().contains("\"temperature\":0.0"));
+        assertEquals(12.0, meterRegistry.summary("ollama.prompt_eval.count", "model", "mistral").totalAmount());
+        assertEquals(3.0, meterRegistry.timer("ollama.prompt_eval.duration", "model", "mistral").totalTime(java.util.concurrent.TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    void baseUrl_stripsApiPath() {
+        BffProperties props = (BffProperties) ReflectionTestUtils.getField(client, "bffProperties");
+        props.getOllama().setEndpoint("http://ollama:11434/api/generate");
+        assertEquals("http://ollama:11434", client.baseUrl());
+        assertEquals(Map.of("model", "m", "messages", List.of(), "stream", false, "keep_alive", "30m", "options", Map.of("temperature", 0.0)),
+            client.requestBody("m", List.of(), false));
+    }
+}
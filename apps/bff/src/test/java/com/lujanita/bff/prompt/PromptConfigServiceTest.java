@@ -2,7 +2,10 @@ package com.lujanita.bff.prompt;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.springframework.test.util.ReflectionTestUtils;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Map;
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -33,7 +36,7 @@ class PromptConfigServiceTest {
                 )
             )
         );
-        ReflectionTestUtils.setField(service, "config", config);
+        service.publish(PromptConfigSnapshot.parse(config, "test"));
     }
 
     @Test
@@ -71,5 +74,81 @@ class PromptConfigServiceTest {
         assertTrue(service.isValidProfile("premium"));
         assertFalse(service.isValidProfile("nope"));
     }
-}
 
+    @Test
+    void testReload_invalidYamlKeepsPreviousSnapshot(@TempDir Path tmp) throws Exception {
+        Path file = tmp.resolve("prompts.yml");
+        Files.writeString(file, "default:\n  systemPrompt: v1\nrole:\n  cliente: {}\n");
+        PromptConfigService fresh = new PromptConfigService();
+        ReflectionTestUtils.setField(fresh, "promptsPath", file.toString());
+        fresh.init();
+        String version = fresh.getVersion();
+
+        Files.writeString(file, "role: [cliente\n");
+        assertThrows(RuntimeException.class, fresh::reload);
+        assertEquals(version, fresh.getVersion());
+        assertEquals("v1", fresh.getSystemPrompt("cliente", null));
+    }
+
+    @Test
+    void testWatcher_hotReloadsOnFileChange(@TempDir Path tmp) throws Exception {
+        Path file = tmp.resolve("prompts.yml");
+        Files.writeString(file, "default:\n  systemPrompt: v1\n");
+        PromptConfigService fresh = new PromptConfigService();
+        ReflectionTestUtils.setField(fresh, "promptsPath", file.toString());
+        ReflectionTestUtils.setField(fresh, "watchEnabled", true);
+        ReflectionTestUtils.setField(fresh, "watchDebounceMs", 50L);
+        try {
+            fresh.init();
+            Files.writeString(file, "default:\n  systemPrompt: v2\nrole:\n  operador: {}\n");
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (!"v2".equals(fresh.getSystemPrompt(null, null)) && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            assertEquals("v2", fresh.getSystemPrompt(null, null));
+            assertTrue(fresh.isValidRole("operador"));
+        } finally {
+            fresh.stopWatcher();
+        }
+    }
+
+    @Test
+    void publish_rebuildsDerivedTablesBeforeExposingNewVersion() {
+        java.util.List<String> seen = new java.util.ArrayList<>();
+        service.addReloadListener(next -> seen.add(service.getVersion() + "->" + next.getVersion() + ":" + next.resolve("cliente", null).systemPrompt()));
+        service.publish(PromptConfigSnapshot.parse(Map.of("role", Map.of("cliente", Map.of("systemPrompt", "cliente v2"))), "v2"));
+        // Mientras el listener recompila, los lectores siguen viendo la versión anterior
+        assertEquals(java.util.List.of("test->v2:cliente v2"), seen);
+        assertEquals("v2", service.getVersion());
+    }
+
+    @Test
+    void loadPrompts_concurrentLoadsNeverPublishAStaleSnapshot(@TempDir Path tmp) throws Exception {
+        Path file = tmp.resolve("prompts.yml");
+        Files.writeString(file, "default:\n  systemPrompt: v1\n");
+        PromptConfigService fresh = new PromptConfigService();
+        ReflectionTestUtils.setField(fresh, "promptsPath", file.toString());
+        java.util.concurrent.CountDownLatch inListener = new java.util.concurrent.CountDownLatch(1);
+        java.util.concurrent.CountDownLatch release = new java.util.concurrent.CountDownLatch(1);
+        fresh.addReloadListener(next -> {
+            if ("v1".equals(next.resolve(null, null).systemPrompt())) {
+                inListener.countDown();
+                try { release.await(5, java.util.concurrent.TimeUnit.SECONDS); } catch (InterruptedException ignore) {}
+            }
+        });
+        Thread slow = new Thread(fresh::loadPrompts);
+        slow.start();
+        assertTrue(inListener.await(5, java.util.concurrent.TimeUnit.SECONDS));
+
+        Files.writeString(file, "default:\n  systemPrompt: v2\n");
+        Thread newer = new Thread(fresh::loadPrompts);
+        newer.start();
+        newer.join(200);
+        // La carga más nueva espera a que termine la anterior en lugar de publicar primero y ser pisada
+        assertTrue(newer.isAlive());
+        release.countDown();
+        slow.join(5_000);
+        newer.join(5_000);
+        assertEquals("v2", fresh.getSystemPrompt(null, null));
+    }
+}
@@ -0,0 +1,118 @@
+package com.lujanita.bff.resilience;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AdaptiveLimiterTest {
+
+    @Test
+    void queuesBeyondLimitAndRejectsWhenQueueIsFull() throws Exception {
+        AdaptiveLimiter limiter = new AdaptiveLimiter("ollama", 1, 1, 4, 1, 5_000);
+        AdaptiveLimiter.Permit first = limiter.acquire().get();
+        CompletableFuture<AdaptiveLimiter.Permit> queued = limiter.acquire();
+        assertFalse(queued.isDone());
+        assertEquals(1, limiter.getQueueDepth());
+
+        ExecutionException full = assertThrows(ExecutionException.class, () -> limiter.acquire().get());
+        OverloadedException overloaded = assertInstanceOf(OverloadedException.class, full.getCause());
+        assertTrue(overloaded.getRetryAfterSeconds() >= 1);
+
+        first.success();
+        AdaptiveLimiter.Permit second = queued.get(1, TimeUnit.SECONDS);
+        assertEquals(1, limiter.getInFlight());
+        assertEquals(0, limiter.getQueueDepth());
+        second.ignore();
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    void waitingCallGivesUpAfterMaxWait() throws Exception {
+        AdaptiveLimiter limiter = new AdaptiveLimiter("ollama", 1, 1, 4, 4, 50);
+        AdaptiveLimiter.Permit held = limiter.acquire().get();
+        ExecutionException timeout = assertThrows(ExecutionException.class, () -> limiter.acquire().get(2, TimeUnit.SECONDS));
+        assertInstanceOf(OverloadedException.class, timeout.getCause());
+        assertEquals(0, limiter.getQueueDepth());
+        held.success();
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    void limitGrowsWithStableLatencyUnderLoadAndShrinksWhenLatencyClimbs() throws Exception {
+        AtomicLong now = new AtomicLong();
+        AdaptiveLimiter limiter = new AdaptiveLimiter("ollama", 4, 1, 16, 8, 1_000, now::get);
+        for (int round = 0; round < 10; round++) {
+            runRound(limiter, now, 4, 1_000);
+        }
+        double grown = limiter.getLimit();
+        assertTrue(grown > 4, "limit=" + grown);
+
+        // Latencia disparada por exceso de paralelismo: el límite baja antes de que la media larga se adapte
+        for (int round = 0; round < 2; round++) {
+            runRound(limiter, now, (int) limiter.getLimit(), 6_000);
+        }
+        assertTrue(limiter.getLimit() < grown, "limit=" + limiter.getLimit());
+
+        double beforeError = limiter.getLimit();
+        limiter.acquire().get().dropped();
+        assertEquals(Math.max(1, beforeError * 0.9), limiter.getLimit(), 0.001);
+    }
+
+    @Test
+    void grantsTurnsByClassWeightInsteadOfArrivalOrder() throws Exception {
+        AdaptiveLimiter limiter = new AdaptiveLimiter("ollama", 1, 1, 1, 16, 5_000,
+            cls -> "premium".equals(cls) ? 4 : 1, System::currentTimeMillis);
+        AdaptiveLimiter.Permit held = limiter.acquire("cliente").get();
+        java.util.List<String> order = new java.util.ArrayList<>();
+        java.util.Deque<AdaptiveLimiter.Permit> granted = new java.util.ArrayDeque<>();
+        for (int i = 0; i < 4; i++) limiter.acquire("cliente").thenAccept(granted::add);
+        for (int i = 0; i < 2; i++) limiter.acquire("premium").thenAccept(granted::add);
+        assertEquals(4, limiter.getQueueDepth("cliente"));
+        assertEquals(2, limiter.getQueueDepth("premium"));
+
+        // Cada turno concedido se libera enseguida y da paso al siguiente según los pesos
+        held.success();
+        while (!granted.isEmpty()) {
+            AdaptiveLimiter.Permit p = granted.poll();
+            order.add(p.getWorkClass());
+            p.success();
+        }
+        // Llegaron después, pero los dos premium pasan antes que los cliente
+        assertEquals(java.util.List.of("premium", "premium", "cliente", "cliente", "cliente", "cliente"), order);
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    void higherWeightClassDisplacesLowerWeightWaiterWhenQueueIsFull() throws Exception {
+        AdaptiveLimiter limiter = new AdaptiveLimiter("ollama", 1, 1, 1, 2, 5_000,
+            cls -> "operador".equals(cls) ? 6 : 1, System::currentTimeMillis);
+        AdaptiveLimiter.Permit held = limiter.acquire("cliente").get();
+        CompletableFuture<AdaptiveLimiter.Permit> first = limiter.acquire("cliente");
+        CompletableFuture<AdaptiveLimiter.Permit> last = limiter.acquire("cliente");
+        // Otro cliente con la cola llena se rechaza; un operador desplaza al último cliente en espera
+        assertThrows(ExecutionException.class, () -> limiter.acquire("cliente").get());
+        CompletableFuture<AdaptiveLimiter.Permit> operador = limiter.acquire("operador");
+
+        ExecutionException displaced = assertThrows(ExecutionException.class, () -> last.get(1, TimeUnit.SECONDS));
+        assertInstanceOf(OverloadedException.class, displaced.getCause());
+        assertFalse(first.isDone());
+        assertEquals(2, limiter.getQueueDepth());
+
+        held.success();
+        assertEquals("operador", operador.get(1, TimeUnit.SECONDS).getWorkClass());
+        assertTrue(operador.get().getQueuedMs() >= 0);
+    }
+
+    // Lanza n llamadas concurrentes que tardan rttMs cada una
+    private static void runRound(AdaptiveLimiter limiter, AtomicLong now, int n, long rttMs) throws Exception {
+        AdaptiveLimiter.Permit[] permits = new AdaptiveLimiter.Permit[n];
+        for (int i = 0; i < n; i++) permits[i] = limiter.acquire().get(1, TimeUnit.SECONDS);
+        now.addAndGet(rttMs);
+        for (AdaptiveLimiter.Permit p : permits) p.success();
+    }
+}
@@ -0,0 +1,81 @@
+package com.lujanita.bff.resilience;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CircuitBreakerTest {
+
+    @Test
+    void opensAtFailureRateAndRejectsUntilOpenPeriodEnds() {
+        AtomicLong now = new AtomicLong(0);
+        CircuitBreaker cb = new CircuitBreaker("mcp", 50, 4, 10, 1000, 1, now::get);
+        for (int i = 0; i < 3; i++) {
+            long p = cb.tryAcquire();
+            assertNotEquals(CircuitBreaker.REJECTED, p);
+            if (i == 0) cb.onSuccess(p); else cb.onFailure(p);
+        }
+        // 2 fallos de 3 llamadas: aún por debajo de minimumCalls
+        assertEquals(CircuitBreaker.State.CLOSED, cb.getState());
+        cb.onSuccess(cb.tryAcquire());
+        assertEquals(CircuitBreaker.State.CLOSED, cb.getState());
+        cb.onFailure(cb.tryAcquire());
+        assertEquals(CircuitBreaker.State.OPEN, cb.getState());
+        assertEquals(CircuitBreaker.REJECTED, cb.tryAcquire());
+
+        now.set(1000);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, cb.getState());
+        long probe = cb.tryAcquire();
+        assertNotEquals(CircuitBreaker.REJECTED, probe);
+        // Sólo una llamada de prueba a la vez
+        assertEquals(CircuitBreaker.REJECTED, cb.tryAcquire());
+        cb.onSuccess(probe);
+        assertEquals(CircuitBreaker.State.CLOSED, cb.getState());
+    }
+
+    @Test
+    void failedProbeReopensAndCancelledProbeFreesItsSlot() {
+        AtomicLong now = new AtomicLong(0);
+        CircuitBreaker cb = new CircuitBreaker("ollama", 50, 1, 10, 1000, 1, now::get);
+        cb.onFailure(cb.tryAcquire());
+        assertEquals(CircuitBreaker.State.OPEN, cb.getState());
+
+        now.set(1000);
+        long cancelled = cb.tryAcquire();
+        assertNotEquals(CircuitBreaker.REJECTED, cancelled);
+        cb.onIgnored(cancelled);
+        long probe = cb.tryAcquire();
+        assertNotEquals(CircuitBreaker.REJECTED, probe);
+        cb.onFailure(probe);
+        assertEquals(CircuitBreaker.State.OPEN, cb.getState());
+        now.set(1500);
+        assertEquals(CircuitBreaker.REJECTED, cb.tryAcquire());
+    }
+
+    @Test
+    void completionsOfPermitsGrantedBeforeATransitionAreIgnored() {
+        AtomicLong now = new AtomicLong(0);
+        CircuitBreaker cb = new CircuitBreaker("mcp", 50, 1, 10, 1000, 1, now::get);
+        // Llamada lenta concedida con el circuito cerrado
+        long slowOk = cb.tryAcquire();
+        long slowFailed = cb.tryAcquire();
+        cb.onFailure(cb.tryAcquire());
+        assertEquals(CircuitBreaker.State.OPEN, cb.getState());
+
+        now.set(1000);
+        long probe = cb.tryAcquire();
+        assertNotEquals(CircuitBreaker.REJECTED, probe);
+        // Terminan ya semiabierto: no cuentan como prueba exitosa ni reabren el circuito
+        cb.onSuccess(slowOk);
+        cb.onFailure(slowFailed);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, cb.getState());
+        assertEquals(CircuitBreaker.REJECTED, cb.tryAcquire());
+        cb.onSuccess(probe);
+        assertEquals(CircuitBreaker.State.CLOSED, cb.getState());
+        // La prueba ya cerrada no vuelve a contar en el nuevo estado
+        cb.onFailure(probe);
+        assertEquals(CircuitBreaker.State.CLOSED, cb.getState());
+    }
+}
@@ -0,0 +1,31 @@
+package com.lujanita.bff.resilience;
+
+import com.lujanita.bff.config.BffProperties;
+import com.lujanita.bff.prompt.PromptConfigService;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ResilienceRegistryTest {
+
+    @Test
+    void workClass_acceptsOnlyPromptProfilesRolesAndInternalClasses() {
+        BffProperties props = new BffProperties();
+        props.getResilience().getSchedulerProfileWeights().put("vip", 20);
+        PromptConfigService prompts = Mockito.mock(PromptConfigService.class);
+        Mockito.when(prompts.isValidProfile("premium")).thenReturn(true);
+        Mockito.when(prompts.isValidRole("cliente")).thenReturn(true);
+        ResilienceRegistry registry = new ResilienceRegistry(props, null);
+        ReflectionTestUtils.setField(registry, "promptConfigService", prompts);
+
+        assertEquals("premium", registry.workClass("cliente", "premium"));
+        assertEquals("batch", registry.workClass("cliente", "batch"));
+        // Tiene peso pero no es un perfil de prompts.yml ni una clase interna: no se le reconoce la prioridad
+        assertEquals("cliente", registry.workClass("cliente", "vip"));
+        // Rol con peso que prompts.yml no declara
+        assertEquals(AdaptiveLimiter.DEFAULT_CLASS, registry.workClass("operador", "vip"));
+        assertEquals(AdaptiveLimiter.DEFAULT_CLASS, registry.workClass("desconocido", "otro"));
+    }
+}
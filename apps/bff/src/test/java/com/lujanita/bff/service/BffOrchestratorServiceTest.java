@@ -1,6 +1,7 @@
 package com.lujanita.bff.service;
 
 import com.lujanita.bff.mcp.McpClientWebClientService;
+import com.lujanita.bff.ollama.ModelOptions;
 import com.lujanita.bff.ollama.OllamaClientService;
 import com.lujanita.bff.config.BffProperties;
 import com.lujanita.bff.model.dto.McpResponse;
@@ -73,11 +74,23 @@ class BffOrchestratorServiceTest {
         Map<String, String> headers = Map.of("x-api-key", "test", "x-role", "user", "x-profile", "default");
         Mockito.when(bffProperties.getOllama()).thenReturn(Mockito.mock(BffProperties.Ollama.class));
         Mockito.when(bffProperties.getOllama().getModel()).thenReturn("mistral");
-        Mockito.when(ollamaClientService.generate(anyString(), anyString(), anyString(), anyString())).thenThrow(new RuntimeException("Fallo LLM"));
+        Mockito.when(ollamaClientService.generate(any(ModelOptions.class), anyString(), anyString(), anyString())).thenThrow(new RuntimeException("Fallo LLM"));
         String result = service.handleChat(headers, "hola");
         assertTrue(result.contains("Lo siento"));
     }
 
+    @Test
+    void handleChat_returnsOverloadedCodeWithRetryAfterWhenLlmIsSaturated() {
+        Map<String, String> headers = Map.of("x-api-key", "test", "x-role", "user", "x-profile", "default");
+        Mockito.when(bffProperties.getOllama()).thenReturn(Mockito.mock(BffProperties.Ollama.class));
+        Mockito.when(bffProperties.getOllama().getModel()).thenReturn("mistral");
+        Mockito.when(ollamaClientService.generate(any(ModelOptions.class), anyString(), anyString(), anyString(), any()))
+            .thenThrow(new com.lujanita.bff.resilience.OverloadedException("ollama", 7, "cola llena"));
+        String result = service.handleChat(headers, "hola");
+        assertTrue(result.contains("\"code\":\"MW008\""));
+        assertTrue(result.contains("\"retryAfter\":7"));
+    }
+
     @Test
     void handleChat_returnsJsonIfOllamaReturnsJson() {
         Map<String, String> headers = Map.of("x-api-key", "test", "x-role", "user", "x-profile", "default");
@@ -85,7 +98,7 @@ class BffOrchestratorServiceTest {
         Mockito.when(bffProperties.getOllama().getModel()).thenReturn("mistral");
         Mockito.when(bffProperties.getLlmFilterKeywords()).thenReturn(java.util.List.of());
         String json = "{\"response\":\"ok\",\"correlationId\":\"id\"}";
-        Mockito.when(ollamaClientService.generate(anyString(), anyString(), anyString(), anyString())).thenReturn(json);
+        Mockito.when(ollamaClientService.generate(any(ModelOptions.class), anyString(), anyString(), anyString())).thenReturn(json);
         String result = service.handleChat(headers, "hola");
         assertTrue(result.contains("ok"));
         assertTrue(result.contains("correlationId"));
@@ -97,7 +110,7 @@ class BffOrchestratorServiceTest {
         Mockito.when(bffProperties.getOllama()).thenReturn(Mockito.mock(BffProperties.Ollama.class));
         Mockito.when(bffProperties.getOllama().getModel()).thenReturn("mistral");
         Mockito.when(bffProperties.getLlmFilterKeywords()).thenReturn(java.util.List.of());
-        Mockito.when(ollamaClientService.generate(anyString(), anyString(), anyString(), anyString())).thenReturn("Solo texto plano");
+        Mockito.when(ollamaClientService.generate(any(ModelOptions.class), anyString(), anyString(), anyString())).thenReturn("Solo texto plano");
         String result = service.handleChat(headers, "hola");
         assertTrue(result.contains("Solo texto plano"));
         assertTrue(result.contains("correlationId"));
@@ -109,9 +122,333 @@ class BffOrchestratorServiceTest {
         Mockito.when(bffProperties.getOllama()).thenReturn(Mockito.mock(BffProperties.Ollama.class));
         Mockito.when(bffProperties.getOllama().getModel()).thenReturn("mistral");
         Mockito.when(bffProperties.getLlmFilterKeywords()).thenReturn(java.util.List.of("oculto"));
-        Mockito.when(ollamaClientService.generate(anyString(), anyString(), anyString(), anyString())).thenReturn("{\"response\":\"ok\noculto\",\"correlationId\":\"id\"}");
+        Mockito.when(ollamaClientService.generate(any(ModelOptions.class), anyString(), anyString(), anyString())).thenReturn("{\"response\":\"ok\noculto\",\"correlationId\":\"id\"}");
         String result = service.handleChat(headers, "hola");
         assertTrue(result.contains("ok"));
         assertFalse(result.contains("oculto"));
     }
+
+    @Test
+    void handleChat_skipsDirectAnswerWhenPlanYieldsMcpCall() {
+        Map<String, String> headers = Map.of("x-api-key", "test", "x-role", "user", "x-profile", "default");
+        Mockito.when(bffProperties.getOllama()).thenReturn(Mockito.mock(BffProperties.Ollama.class));
+        Mockito.when(bffProperties.getOllama().getModel()).thenReturn("mistral");
+        Mockito.when(bffProperties.getMcp()).thenReturn(new BffProperties.Mcp());
+        Mockito.when(bffProperties.getLlmFilterKeywords()).thenReturn(java.util.List.of());
+        McpResponse tools = new McpResponse();
+        tools.setCode("OK");
+        tools.setData(Map.of("tools", java.util.List.of(Map.of("name", "orders.get"))));
+        McpResponse order = new McpResponse();
+        order.setCode("OK");
+        order.setData(Map.of("orderId", "SO001", "status", "confirmed"));
+        Mockito.when(mcpClientWebClientService.callMcp(eq("tools.list"), any(), any())).thenReturn(Mono.just(tools));
+        Mockito.when(mcpClientWebClientService.callMcp(eq("orders.get"), any(), any())).thenReturn(Mono.just(order));
+        Mockito.when(ollamaClientService.generate(any(ModelOptions.class), anyString(), anyString(), anyString(), contains("Herramientas disponibles")))
+            .thenReturn("{\"mcpCall\":{\"method\":\"orders.get\",\"params\":{\"orderId\":\"SO001\"}}}");
+        Mockito.when(ollamaClientService.generate(any(ModelOptions.class), contains("Datos MCP"), anyString(), anyString()))
+            .thenReturn("{\"response\":\"Tu pedido SO001 está confirmado\"}");
+        String result = service.handleChat(headers, "estado del pedido SO001");
+        assertTrue(result.contains("SO001"));
+        Mockito.verify(ollamaClientService, Mockito.times(1)).generate(any(ModelOptions.class), anyString(), anyString(), anyString(), anyString());
+        Mockito.verify(ollamaClientService, Mockito.times(1)).generate(any(ModelOptions.class), anyString(), anyString(), anyString());
+    }
+
+    @Test
+    void handleChat_usesPlanningModelForPlanAndGroundedModelForAnswer() {
+        Map<String, String> headers = Map.of("x-api-key", "test", "x-role", "user", "x-profile", "default");
+        BffProperties.Ollama ollama = Mockito.mock(BffProperties.Ollama.class);
+        Mockito.when(bffProperties.getOllama()).thenReturn(ollama);
+        Mockito.when(ollama.getModel()).thenReturn("mistral");
+        Mockito.when(ollama.getPlanningModel()).thenReturn("qwen2.5:0.5b");
+        Mockito.when(ollama.getPlanningMaxTokens()).thenReturn(128);
+        Mockito.when(bffProperties.getMcp()).thenReturn(new BffProperties.Mcp());
+        Mockito.when(bffProperties.getLlmFilterKeywords()).thenReturn(java.util.List.of());
+        McpResponse tools = new McpResponse();
+        tools.setCode("OK");
+        tools.setData(Map.of("tools", java.util.List.of(Map.of("name", "orders.get"))));
+        McpResponse order = new McpResponse();
+        order.setCode("OK");
+        order.setData(Map.of("orderId", "SO001", "status", "confirmed"));
+        Mockito.when(mcpClientWebClientService.callMcp(eq("tools.list"), any(), any())).thenReturn(Mono.just(tools));
+        Mockito.when(mcpClientWebClientService.callMcp(eq("orders.get"), any(), any())).thenReturn(Mono.just(order));
+        Mockito.when(ollamaClientService.generate(argThat((ModelOptions o) -> "qwen2.5:0.5b".equals(o.model()) && o.maxTokens() == 128), anyString(), anyString(), anyString(), contains("Herramientas disponibles")))
+            .thenReturn("{\"mcpCall\":{\"method\":\"orders.get\",\"params\":{\"orderId\":\"SO001\"}}}");
+        Mockito.when(ollamaClientService.generate(argThat((ModelOptions o) -> "mistral".equals(o.model())), contains("Datos MCP"), anyString(), anyString()))
+            .thenReturn("{\"response\":\"Tu pedido SO001 está confirmado\"}");
+
+        String result = service.handleChat(headers, "estado del pedido SO001");
+        assertTrue(result.contains("SO001"), result);
+    }
+
+    @Test
+    void handleChat_rulePlanSkipsLlmPlanningForExplicitOrderId() {
+        Map<String, String> headers = Map.of("x-api-key", "test", "x-role", "user", "x-profile", "default");
+        Mockito.when(bffProperties.getOllama()).thenReturn(Mockito.mock(BffProperties.Ollama.class));
+        Mockito.when(bffProperties.getOllama().getModel()).thenReturn("mistral");
+        BffProperties.PlanRule rule = new BffProperties.PlanRule();
+        rule.setName("order");
+        rule.setPattern("\\b(?<orderId>SO\\d{3,})\\b");
+        rule.setMethod("orders.get");
+        rule.setParams(Map.of("orderId", "{orderId:upper}"));
+        BffProperties.Mcp mcp = new BffProperties.Mcp();
+        mcp.setPlanRules(java.util.List.of(rule));
+        Mockito.when(bffProperties.getMcp()).thenReturn(mcp);
+        Mockito.when(bffProperties.getLlmFilterKeywords()).thenReturn(java.util.List.of());
+        McpResponse tools = new McpResponse();
+        tools.setCode("OK");
+        tools.setData(Map.of("tools", java.util.List.of(Map.of("name", "orders.get",
+            "parameters", Map.of("properties", Map.of("orderId", Map.of("type", "string")), "required", java.util.List.of("orderId"))))));
+        McpResponse order = new McpResponse();
+        order.setCode("OK");
+        order.setData(Map.of("orderId", "SO001", "status", "confirmed"));
+        Mockito.when(mcpClientWebClientService.callMcp(eq("tools.list"), any(), any())).thenReturn(Mono.just(tools));
+        Mockito.when(mcpClientWebClientService.callMcp(eq("orders.get"), eq(Map.of("orderId", "SO001")), any())).thenReturn(Mono.just(order));
+        Mockito.when(ollamaClientService.generate(any(ModelOptions.class), contains("Datos MCP"), anyString(), anyString()))
+            .thenReturn("{\"response\":\"Tu pedido SO001 está confirmado\"}");
+
+        String result = service.handleChat(headers, "¿estado del pedido so001?");
+        assertTrue(result.contains("Tu pedido SO001 está confirmado"), result);
+        Mockito.verify(ollamaClientService, Mockito.never()).generate(any(ModelOptions.class), anyString(), anyString(), anyString(), anyString());
+        Mockito.verify(mcpClientWebClientService).callMcp(eq("orders.get"), eq(Map.of("orderId", "SO001")), any());
+    }
+
+    @Test
+    void handleChatReactive_composesPlanMcpAndAnswer() {
+        Map<String, String> headers = Map.of("x-api-key", "test", "x-role", "user", "x-profile", "default");
+        Mockito.when(bffProperties.getOllama()).thenReturn(Mockito.mock(BffProperties.Ollama.class));
+        Mockito.when(bffProperties.getOllama().getModel()).thenReturn("mistral");
+        Mockito.when(bffProperties.getMcp()).thenReturn(new BffProperties.Mcp());
+        Mockito.when(bffProperties.getLlmFilterKeywords()).thenReturn(java.util.List.of());
+        McpResponse tools = new McpResponse();
+        tools.setCode("OK");
+        tools.setData(Map.of("tools", java.util.List.of(Map.of("name", "orders.get"))));
+        McpResponse order = new McpResponse();
+        order.setCode("OK");
+        order.setData(Map.of("orderId", "SO001", "status", "confirmed"));
+        Mockito.when(mcpClientWebClientService.callMcp(eq("tools.list"), any(), any())).thenReturn(Mono.just(tools));
+        Mockito.when(mcpClientWebClientService.callMcp(eq("orders.get"), any(), any())).thenReturn(Mono.just(order));
+        Mockito.when(ollamaClientService.generateReactive(any(ModelOptions.class), anyString(), anyString(), anyString(), contains("Herramientas disponibles")))
+            .thenReturn(Mono.just("{\"mcpCall\":{\"method\":\"orders.get\",\"params\":{\"orderId\":\"SO001\"}}}"));
+        Mockito.when(ollamaClientService.generateReactive(any(ModelOptions.class), contains("Datos MCP"), anyString(), anyString()))
+            .thenReturn(Mono.just("{\"response\":\"Tu pedido SO001 está confirmado\"}"));
+        String result = service.handleChatReactive(headers, "estado del pedido SO001").block();
+        assertTrue(result.contains("Tu pedido SO001 está confirmado"));
+        Mockito.verify(ollamaClientService, Mockito.never()).generate(any(ModelOptions.class), anyString(), anyString(), anyString());
+    }
+
+    @Test
+    void handleChatReactive_runsMultiCallPlanAndMergesResults() {
+        Map<String, String> headers = Map.of("x-api-key", "test", "x-role", "user", "x-profile", "default");
+        Mockito.when(bffProperties.getOllama()).thenReturn(Mockito.mock(BffProperties.Ollama.class));
+        Mockito.when(bffProperties.getOllama().getModel()).thenReturn("mistral");
+        Mockito.when(bffProperties.getMcp()).thenReturn(new BffProperties.Mcp());
+        Mockito.when(bffProperties.getLlmFilterKeywords()).thenReturn(java.util.List.of());
+        McpResponse tools = new McpResponse();
+        tools.setCode("OK");
+        tools.setData(Map.of("tools", java.util.List.of(Map.of("name", "customers.get"), Map.of("name", "orders.list"))));
+        McpResponse customer = new McpResponse();
+        customer.setCode("OK");
+        customer.setData(Map.of("id", 7, "name", "Ana"));
+        McpResponse orders = new McpResponse();
+        orders.setCode("OK");
+        orders.setData(Map.of("orders", java.util.List.of("SO009")));
+        Mockito.when(mcpClientWebClientService.callMcp(eq("tools.list"), any(), any())).thenReturn(Mono.just(tools));
+        Mockito.when(mcpClientWebClientService.callMcp(eq("customers.get"), any(), any())).thenReturn(Mono.just(customer));
+        Mockito.when(mcpClientWebClientService.callMcp(eq("orders.list"), eq(Map.of("customerId", 7)), any())).thenReturn(Mono.just(orders));
+        Mockito.when(ollamaClientService.generateReactive(any(ModelOptions.class), anyString(), anyString(), anyString(), contains("Herramientas disponibles")))
+            .thenReturn(Mono.just("{\"mcpCalls\":[{\"id\":\"cli\",\"method\":\"customers.get\",\"params\":{\"email\":\"ana@x.com\"}},"
+                + "{\"id\":\"ped\",\"method\":\"orders.list\",\"params\":{\"customerId\":\"${cli.id}\"},\"dependsOn\":[\"cli\"]}]}"));
+        Mockito.when(ollamaClientService.generateReactive(any(ModelOptions.class), org.mockito.AdditionalMatchers.and(contains("Ana"), contains("SO009")), anyString(), anyString()))
+            .thenReturn(Mono.just("{\"response\":\"Ana tiene el pedido SO009\"}"));
+        String result = service.handleChatReactive(headers, "pedidos de ana@x.com").block();
+        assertTrue(result.contains("Ana tiene el pedido SO009"));
+        Mockito.verify(mcpClientWebClientService).callMcp(eq("orders.list"), eq(Map.of("customerId", 7)), any());
+    }
+
+    @Test
+    void handleChatReactive_skipsDependentCallWhenFirstWaveFails() {
+        Map<String, String> headers = Map.of("x-api-key", "test", "x-role", "user", "x-profile", "default");
+        Mockito.when(bffProperties.getOllama()).thenReturn(Mockito.mock(BffProperties.Ollama.class));
+        Mockito.when(bffProperties.getOllama().getModel()).thenReturn("mistral");
+        Mockito.when(bffProperties.getMcp()).thenReturn(new BffProperties.Mcp());
+        Mockito.when(bffProperties.getLlmFilterKeywords()).thenReturn(java.util.List.of());
+        McpResponse tools = new McpResponse();
+        tools.setCode("OK");
+        tools.setData(Map.of("tools", java.util.List.of(Map.of("name", "customers.get"), Map.of("name", "orders.list"))));
+        McpResponse down = new McpResponse();
+        down.setCode("MW005");
+        down.setMessage("timeout");
+        Mockito.when(mcpClientWebClientService.callMcp(eq("tools.list"), any(), any())).thenReturn(Mono.just(tools));
+        Mockito.when(mcpClientWebClientService.callMcp(eq("customers.get"), any(), any())).thenReturn(Mono.just(down));
+        Mockito.when(ollamaClientService.generateReactive(any(ModelOptions.class), anyString(), anyString(), anyString(), contains("Herramientas disponibles")))
+            .thenReturn(Mono.just("{\"mcpCalls\":[{\"id\":\"cli\",\"method\":\"customers.get\",\"params\":{\"email\":\"ana@x.com\"}},"
+                + "{\"id\":\"ped\",\"method\":\"orders.list\",\"params\":{\"customerId\":\"${cli.id}\"},\"dependsOn\":[\"cli\"]}]}"));
+
+        String result = service.handleChatReactive(headers, "pedidos de ana@x.com").block();
+
+        assertNotNull(result);
+        Mockito.verify(mcpClientWebClientService).callMcp(eq("customers.get"), any(), any());
+        Mockito.verify(mcpClientWebClientService, Mockito.never()).callMcp(eq("orders.list"), any(), any());
+    }
+
+    @Test
+    void handleChatReactive_sendsIndependentCallsOfAWaveAsOneBatch() {
+        Map<String, String> headers = Map.of("x-api-key", "test", "x-role", "user", "x-profile", "default");
+        Mockito.when(bffProperties.getOllama()).thenReturn(Mockito.mock(BffProperties.Ollama.class));
+        Mockito.when(bffProperties.getOllama().getModel()).thenReturn("mistral");
+        Mockito.when(bffProperties.getMcp()).thenReturn(new BffProperties.Mcp());
+        Mockito.when(bffProperties.getLlmFilterKeywords()).thenReturn(java.util.List.of());
+        McpResponse tools = new McpResponse();
+        tools.setCode("OK");
+        tools.setData(Map.of("tools", java.util.List.of(Map.of("name", "customers.get"), Map.of("name", "orders.get"))));
+        McpResponse customer = new McpResponse();
+        customer.setCode("OK");
+        customer.setData(Map.of("name", "Ana"));
+        McpResponse order = new McpResponse();
+        order.setCode("OK");
+        order.setData(Map.of("orderId", "SO009"));
+        Mockito.when(mcpClientWebClientService.callMcp(eq("tools.list"), any(), any())).thenReturn(Mono.just(tools));
+        Mockito.when(mcpClientWebClientService.callMcpBatch(anyList(), any())).thenReturn(Mono.just(java.util.List.of(customer, order)));
+        Mockito.when(ollamaClientService.generateReactive(any(ModelOptions.class), anyString(), anyString(), anyString(), contains("Herramientas disponibles")))
+            .thenReturn(Mono.just("{\"mcpCalls\":[{\"id\":\"cli\",\"method\":\"customers.get\",\"params\":{\"customerId\":\"C001\"}},"
+                + "{\"id\":\"ped\",\"method\":\"orders.get\",\"params\":{\"orderId\":\"SO009\"}}]}"));
+        Mockito.when(ollamaClientService.generateReactive(any(ModelOptions.class), org.mockito.AdditionalMatchers.and(contains("Ana"), contains("SO009")), anyString(), anyString()))
+            .thenReturn(Mono.just("{\"response\":\"Ana tiene el pedido SO009\"}"));
+
+        String result = service.handleChatReactive(headers, "datos de C001 y pedido SO009").block();
+
+        assertTrue(result.contains("Ana tiene el pedido SO009"));
+        Mockito.verify(mcpClientWebClientService).callMcpBatch(argThat(calls -> calls.size() == 2
+            && calls.get(0).method().equals("customers.get") && calls.get(1).method().equals("orders.get")), any());
+        Mockito.verify(mcpClientWebClientService, Mockito.never()).callMcp(eq("customers.get"), any(), any());
+        Mockito.verify(mcpClientWebClientService, Mockito.never()).callMcp(eq("orders.get"), any(), any());
+    }
+
+    @Test
+    void handleChatReactive_returnsFallbackIfOllamaFails() {
+        Map<String, String> headers = Map.of("x-api-key", "test", "x-role", "user", "x-profile", "default");
+        Mockito.when(bffProperties.getOllama()).thenReturn(Mockito.mock(BffProperties.Ollama.class));
+        Mockito.when(bffProperties.getOllama().getModel()).thenReturn("mistral");
+        Mockito.when(ollamaClientService.generateReactive(any(ModelOptions.class), anyString(), anyString(), anyString(), anyString()))
+            .thenReturn(Mono.error(new RuntimeException("Fallo LLM")));
+        String result = service.handleChatReactive(headers, "hola").block();
+        assertTrue(result.contains("Lo siento"));
+    }
+
+    @Test
+    void handleChat_answersGreetingLocallyWithoutLlmOrMcp() throws Exception {
+        Map<String, String> headers = Map.of("x-api-key", "test", "x-role", "user", "x-profile", "default");
+        BffProperties.Intent greeting = new BffProperties.Intent();
+        greeting.setName("greeting");
+        greeting.setPhrases(java.util.List.of("hola", "buenas tardes"));
+        greeting.setResponse("{welcomeMessage}");
+        BffProperties.Intents intents = new BffProperties.Intents();
+        intents.setRoutes(java.util.List.of(greeting));
+        Mockito.when(bffProperties.getIntents()).thenReturn(intents);
+        Mockito.when(bffProperties.getChatbotName()).thenReturn("Lujanita");
+        Mockito.when(bffProperties.getWelcomeMessage()).thenReturn("Hola — soy %s. ¿En qué te puedo ayudar?");
+
+        String result = service.handleChat(headers, "¡Hola, buenas tardes!");
+        assertEquals("Hola — soy Lujanita. ¿En qué te puedo ayudar?",
+            new com.fasterxml.jackson.databind.ObjectMapper().readTree(result).path("response").asText());
+        Mockito.verifyNoInteractions(ollamaClientService, mcpClientWebClientService);
+    }
+
+    @Test
+    void conversationHistory_isScopedByCallerNotOnlyByConversationId() {
+        BffProperties.Intent greeting = new BffProperties.Intent();
+        greeting.setName("greeting");
+        greeting.setPhrases(java.util.List.of("hola"));
+        greeting.setResponse("¡Hola!");
+        BffProperties.Intents intents = new BffProperties.Intents();
+        intents.setRoutes(java.util.List.of(greeting));
+        Mockito.when(bffProperties.getIntents()).thenReturn(intents);
+        Mockito.when(bffProperties.getConversation()).thenReturn(new BffProperties.Conversation());
+        ConversationStore store = new ConversationStore();
+        org.springframework.test.util.ReflectionTestUtils.setField(store, "bffProperties", bffProperties);
+        org.springframework.test.util.ReflectionTestUtils.setField(service, "conversationStore", store);
+        Map<String, String> alice = Map.of("x-api-key", "key-a", "x-role", "user", "x-profile", "default", "x-conversation-id", "c1");
+        Map<String, String> bob = Map.of("x-api-key", "key-b", "x-role", "user", "x-profile", "default", "x-conversation-id", "c1");
+
+        service.handleChat(alice, "hola");
+
+        assertEquals(2, store.history(service.conversationKey(alice)).size());
+        assertTrue(store.history(service.conversationKey(bob)).isEmpty());
+        assertNotEquals(service.conversationKey(alice), service.conversationKey(bob));
+        assertNull(service.conversationKey(Map.of("x-api-key", "key-a")));
+    }
+
+    @Test
+    void handleChatStream_cancelsOllamaStreamWhenClientDisconnects() {
+        Map<String, String> headers = Map.of("x-api-key", "test", "x-role", "user", "x-profile", "default");
+        Mockito.when(bffProperties.getOllama()).thenReturn(Mockito.mock(BffProperties.Ollama.class));
+        Mockito.when(bffProperties.getOllama().getModel()).thenReturn("mistral");
+        Mockito.when(bffProperties.getMcp()).thenReturn(new BffProperties.Mcp());
+        Mockito.when(bffProperties.getLlmFilterKeywords()).thenReturn(java.util.List.of());
+        McpResponse tools = new McpResponse();
+        tools.setCode("OK");
+        tools.setData(Map.of("tools", java.util.List.of(Map.of("name", "orders.get"))));
+        Mockito.when(mcpClientWebClientService.callMcp(eq("tools.list"), any(), any())).thenReturn(Mono.just(tools));
+        Mockito.when(ollamaClientService.generate(any(ModelOptions.class), anyString(), anyString(), anyString(), anyString())).thenReturn("{}");
+        java.util.concurrent.atomic.AtomicBoolean upstreamCancelled = new java.util.concurrent.atomic.AtomicBoolean();
+        // Ollama emite un fragmento y después queda generando indefinidamente
+        Mockito.when(ollamaClientService.generateStream(any(ModelOptions.class), anyString(), anyString(), anyString()))
+            .thenReturn(reactor.core.publisher.Flux.just("Hola").concatWith(reactor.core.publisher.Flux.never())
+                .doOnCancel(() -> upstreamCancelled.set(true)));
+
+        java.util.List<String> events = new java.util.concurrent.CopyOnWriteArrayList<>();
+        java.util.concurrent.atomic.AtomicBoolean disconnected = new java.util.concurrent.atomic.AtomicBoolean();
+        ChatStreamListener listener = new ChatStreamListener() {
+            // El cliente se desconecta mientras Ollama genera la respuesta
+            @Override public void onStage(String stage) { events.add("stage:" + stage); if (STAGE_ANSWERING.equals(stage)) disconnected.set(true); }
+            @Override public void onToken(String text) { events.add("token"); }
+            @Override public void onComplete(String correlationId) { events.add("done"); }
+            @Override public void onError(String errorJson, String correlationId) { events.add("error"); }
+            @Override public boolean isCancelled() { return disconnected.get(); }
+        };
+
+        assertTimeoutPreemptively(java.time.Duration.ofSeconds(5), () -> service.handleChatStream(headers, "contame algo", listener));
+        assertTrue(upstreamCancelled.get());
+        assertFalse(events.contains("done"), events.toString());
+        assertFalse(events.contains("error"), events.toString());
+    }
+
+    @Test
+    void handleChatStream_executesMcpCallReturnedByDirectAnswer() {
+        Map<String, String> headers = Map.of("x-api-key", "test", "x-role", "user", "x-profile", "default");
+        Mockito.when(bffProperties.getOllama()).thenReturn(Mockito.mock(BffProperties.Ollama.class));
+        Mockito.when(bffProperties.getOllama().getModel()).thenReturn("mistral");
+        Mockito.when(bffProperties.getMcp()).thenReturn(new BffProperties.Mcp());
+        Mockito.when(bffProperties.getLlmFilterKeywords()).thenReturn(java.util.List.of());
+        McpResponse tools = new McpResponse();
+        tools.setCode("OK");
+        tools.setData(Map.of("tools", java.util.List.of(Map.of("name", "orders.get"))));
+        McpResponse order = new McpResponse();
+        order.setCode("OK");
+        order.setData(Map.of("orderId", "SO001", "state", "en camino"));
+        Mockito.when(mcpClientWebClientService.callMcp(eq("tools.list"), any(), any())).thenReturn(Mono.just(tools));
+        Mockito.when(mcpClientWebClientService.callMcp(eq("orders.get"), any(), any())).thenReturn(Mono.just(order));
+        // El plan no trae llamadas, pero la respuesta directa pide una
+        Mockito.when(ollamaClientService.generate(any(ModelOptions.class), anyString(), anyString(), anyString(), anyString())).thenReturn("{}");
+        Mockito.when(ollamaClientService.generateStream(any(ModelOptions.class), eq("estado de mi pedido"), anyString(), anyString()))
+            .thenReturn(reactor.core.publisher.Flux.just("{\"mcpCall\":{\"method\":\"orders.get\",", "\"params\":{\"orderId\":\"SO001\"}}}"));
+        Mockito.when(ollamaClientService.generateStream(any(ModelOptions.class), contains("en camino"), anyString(), anyString()))
+            .thenReturn(reactor.core.publisher.Flux.just("{\"response\":\"Tu pedido SO001 está en camino\"}"));
+
+        StringBuilder tokens = new StringBuilder();
+        java.util.List<String> events = new java.util.ArrayList<>();
+        ChatStreamListener listener = new ChatStreamListener() {
+            @Override public void onStage(String stage) { events.add("stage:" + stage); }
+            @Override public void onToken(String text) { tokens.append(text); }
+            @Override public void onComplete(String correlationId) { events.add("done"); }
+            @Override public void onError(String errorJson, String correlationId) { events.add("error"); }
+        };
+
+        service.handleChatStream(headers, "estado de mi pedido", listener);
+
+        assertEquals("Tu pedido SO001 está en camino", tokens.toString());
+        assertFalse(tokens.toString().contains("mcpCall"));
+        assertTrue(events.contains("done"), events.toString());
+        Mockito.verify(mcpClientWebClientService).callMcp(eq("orders.get"), eq(Map.of("orderId", "SO001")), any());
+    }
 }
@@ -0,0 +1,181 @@
+package com.lujanita.bff.service;
+
+import com.lujanita.bff.config.BffProperties;
+import com.lujanita.bff.prompt.PromptConfigService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.test.util.ReflectionTestUtils;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChatResponseCacheTest {
+    private ChatResponseCache cache;
+    private BffProperties bffProperties;
+    private PromptConfigService promptConfigService;
+    private SimpleMeterRegistry meterRegistry;
+
+    @BeforeEach
+    void setup() {
+        bffProperties = new BffProperties();
+        bffProperties.getOllama().setModel("mistral");
+        promptConfigService = Mockito.mock(PromptConfigService.class);
+        Mockito.when(promptConfigService.getVersion()).thenReturn("v1");
+        meterRegistry = new SimpleMeterRegistry();
+        cache = new ChatResponseCache();
+        ReflectionTestUtils.setField(cache, "bffProperties", bffProperties);
+        ReflectionTestUtils.setField(cache, "promptConfigService", promptConfigService);
+        ReflectionTestUtils.setField(cache, "meterRegistry", meterRegistry);
+    }
+
+    @Test
+    void normalize_ignoresCaseSpacingAndPunctuation() {
+        assertEquals("horarios de atención", ChatResponseCache.normalize("  ¿Horarios   de ATENCIÓN? "));
+        assertEquals(cache.key("Cómo cotizo un envío", headers("k1", "cliente")), cache.key("cómo cotizo un envío?", headers("k1", "cliente")));
+        assertNotEquals(cache.key("hola", headers("k1", "cliente")), cache.key("hola", headers("k1", "vendedor")));
+    }
+
+    @Test
+    void getOrCompute_servesHitsAndSkipsNonCacheableAnswers() {
+        AtomicInteger runs = new AtomicInteger();
+        assertEquals("a", cache.getOrCompute("hola", headers("k1", "cliente"), "c1", () -> { runs.incrementAndGet(); return new ChatResponseCache.Answer("a", true); }));
+        assertEquals("a", cache.getOrCompute("Hola!", headers("k1", "cliente"), "c2", () -> { runs.incrementAndGet(); return new ChatResponseCache.Answer("b", true); }));
+        assertEquals(1, runs.get());
+
+        cache.getOrCompute("pedido SO001", headers("k1", "cliente"), "c3", () -> new ChatResponseCache.Answer("x", false));
+        assertEquals("y", cache.getOrCompute("pedido SO001", headers("k1", "cliente"), "c4", () -> new ChatResponseCache.Answer("y", false)));
+        assertEquals(1.0, meterRegistry.counter("chat.cache", "result", "hit").count());
+        assertEquals(3.0, meterRegistry.counter("chat.cache", "result", "miss").count());
+    }
+
+    @Test
+    void getOrCompute_promptVersionChangeInvalidatesKey() {
+        cache.getOrCompute("hola", headers("k1", "cliente"), "c1", () -> new ChatResponseCache.Answer("old", true));
+        Mockito.when(promptConfigService.getVersion()).thenReturn("v2");
+        assertEquals("new", cache.getOrCompute("hola", headers("k1", "cliente"), "c2", () -> new ChatResponseCache.Answer("new", true)));
+    }
+
+    @Test
+    void getOrCompute_scopesEntriesByCallerAndRestampsCorrelationId() {
+        String first = "{\"response\":\"Abrimos a las 8\",\"correlationId\":\"c1\"}";
+        cache.getOrCompute("horarios", headers("k1", "cliente"), "c1", () -> new ChatResponseCache.Answer(first, true));
+        assertEquals("{\"response\":\"Abrimos a las 8\",\"correlationId\":\"c2\"}",
+            cache.getOrCompute("horarios", headers("k1", "cliente"), "c2", () -> new ChatResponseCache.Answer("otra", true)));
+        // Otra apiKey con el mismo rol/perfil no comparte la entrada
+        assertEquals("propia", cache.getOrCompute("horarios", headers("k2", "cliente"), "c3", () -> new ChatResponseCache.Answer("propia", true)));
+    }
+
+    @Test
+    void key_changesWithStageModels() {
+        LlmInteractionService llm = new LlmInteractionService();
+        ReflectionTestUtils.setField(llm, "bffProperties", bffProperties);
+        ReflectionTestUtils.setField(cache, "llmInteractionService", llm);
+        String before = cache.key("hola", headers("k1", "cliente"));
+        bffProperties.getOllama().setGroundedModel("llama3:8b");
+        assertNotEquals(before, cache.key("hola", headers("k1", "cliente")));
+    }
+
+    @Test
+    void getOrCompute_followerRunsOwnPipelineWhenInFlightAnswerIsNotCacheable() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            Future<String> leader = pool.submit(() -> cache.getOrCompute("pedido SO001", headers("k1", "cliente"), "c1", () -> {
+                started.countDown();
+                try { release.await(5, TimeUnit.SECONDS); } catch (InterruptedException ignore) {}
+                return new ChatResponseCache.Answer("datos de k1", false);
+            }));
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            Future<String> follower = pool.submit(() -> cache.getOrCompute("pedido SO001", headers("k1", "cliente"), "c2",
+                () -> new ChatResponseCache.Answer("datos propios", false)));
+            while (meterRegistry.counter("chat.cache", "result", "coalesced").count() < 1) Thread.sleep(5);
+            release.countDown();
+            assertEquals("datos de k1", leader.get(5, TimeUnit.SECONDS));
+            assertEquals("datos propios", follower.get(5, TimeUnit.SECONDS));
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void getOrCompute_coalescesConcurrentIdenticalRequests() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger runs = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            Future<String> leader = pool.submit(() -> cache.getOrCompute("horarios", headers("k1", "cliente"), "c1", () -> {
+                runs.incrementAndGet();
+                started.countDown();
+                try { release.await(5, TimeUnit.SECONDS); } catch (InterruptedException ignore) {}
+                return new ChatResponseCache.Answer("abierto", true);
+            }));
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            Future<String> follower = pool.submit(() -> cache.getOrCompute("horarios", headers("k1", "cliente"), "c2", () -> {
+                runs.incrementAndGet();
+                return new ChatResponseCache.Answer("otra", false);
+            }));
+            while (meterRegistry.counter("chat.cache", "result", "coalesced").count() < 1) Thread.sleep(5);
+            release.countDown();
+            assertEquals("abierto", leader.get(5, TimeUnit.SECONDS));
+            assertEquals("abierto", follower.get(5, TimeUnit.SECONDS));
+            assertEquals(1, runs.get());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void getOrComputeReactive_coalescesInFlightAndServesHitsWithOwnCorrelationId() {
+        Sinks.One<ChatResponseCache.Answer> pending = Sinks.one();
+        AtomicInteger runs = new AtomicInteger();
+        Mono<String> leader = cache.getOrComputeReactive("horarios", headers("k1", "cliente"), "c1", () -> {
+            runs.incrementAndGet();
+            return pending.asMono();
+        }).cache();
+        Mono<String> follower = cache.getOrComputeReactive("horarios", headers("k1", "cliente"), "c2", () -> {
+            runs.incrementAndGet();
+            return Mono.just(new ChatResponseCache.Answer("otra", true));
+        }).cache();
+        leader.subscribe();
+        follower.subscribe();
+        pending.tryEmitValue(new ChatResponseCache.Answer("{\"response\":\"abierto\",\"correlationId\":\"c1\"}", true));
+
+        assertEquals("{\"response\":\"abierto\",\"correlationId\":\"c1\"}", leader.block());
+        assertEquals("{\"response\":\"abierto\",\"correlationId\":\"c2\"}", follower.block());
+        assertEquals(1, runs.get());
+        assertEquals("{\"response\":\"abierto\",\"correlationId\":\"c3\"}",
+            cache.getOrComputeReactive("¿Horarios?", headers("k1", "cliente"), "c3", () -> Mono.just(new ChatResponseCache.Answer("x", true))).block());
+        assertEquals(1.0, meterRegistry.counter("chat.cache", "result", "coalesced").count());
+        assertEquals(1.0, meterRegistry.counter("chat.cache", "result", "hit").count());
+    }
+
+    @Test
+    void getOrComputeReactive_followerRunsOwnPipelineWhenInFlightAnswerIsNotCacheable() {
+        Sinks.One<ChatResponseCache.Answer> pending = Sinks.one();
+        Mono<String> leader = cache.getOrComputeReactive("pedido SO001", headers("k1", "cliente"), "c1", pending::asMono).cache();
+        Mono<String> follower = cache.getOrComputeReactive("pedido SO001", headers("k1", "cliente"), "c2",
+            () -> Mono.just(new ChatResponseCache.Answer("datos propios", false))).cache();
+        leader.subscribe();
+        follower.subscribe();
+        pending.tryEmitValue(new ChatResponseCache.Answer("datos de k1", false));
+
+        assertEquals("datos de k1", leader.block());
+        assertEquals("datos propios", follower.block());
+        assertEquals("nuevo", cache.getOrComputeReactive("pedido SO001", headers("k1", "cliente"), "c3",
+            () -> Mono.just(new ChatResponseCache.Answer("nuevo", false))).block());
+    }
+
+    private static java.util.Map<String, String> headers(String apiKey, String role) {
+        return java.util.Map.of("x-api-key", apiKey, "x-role", role, "x-profile", "default");
+    }
+}
@@ -0,0 +1,70 @@
+package com.lujanita.bff.service;
+
+import com.lujanita.bff.config.BffProperties;
+import com.lujanita.bff.ollama.OllamaNativeClient.ChatMessage;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import java.util.List;
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConversationStoreTest {
+    private ConversationStore store;
+    private BffProperties bffProperties;
+
+    @BeforeEach
+    void setup() {
+        bffProperties = new BffProperties();
+        bffProperties.getConversation().setMaxTurns(2);
+        bffProperties.getConversation().setMaxChars(1000);
+        bffProperties.getConversation().setMaxConversations(2);
+        store = new ConversationStore();
+        ReflectionTestUtils.setField(store, "bffProperties", bffProperties);
+    }
+
+    @Test
+    void append_keepsUserAssistantPairsInOrder() {
+        store.append("c1", "hola", "¡Hola! ¿En qué te ayudo?");
+        store.append("c1", "mi pedido 42", "Está en camino.");
+        List<ChatMessage> history = store.history("c1");
+        assertEquals(List.of(
+            new ChatMessage("user", "hola"),
+            new ChatMessage("assistant", "¡Hola! ¿En qué te ayudo?"),
+            new ChatMessage("user", "mi pedido 42"),
+            new ChatMessage("assistant", "Está en camino.")), history);
+        assertTrue(store.history("otra").isEmpty());
+        assertTrue(store.history(null).isEmpty());
+    }
+
+    @Test
+    void append_dropsOldestTurnsBeyondTurnAndCharLimits() {
+        store.append("c1", "uno", "r1");
+        store.append("c1", "dos", "r2");
+        store.append("c1", "tres", "r3");
+        assertEquals("dos", store.history("c1").get(0).content());
+        assertEquals(4, store.history("c1").size());
+
+        bffProperties.getConversation().setMaxChars(30);
+        store.append("c1", "cuatro", "x".repeat(20));
+        // Sólo entra el último turno completo
+        assertEquals(List.of(new ChatMessage("user", "cuatro"), new ChatMessage("assistant", "x".repeat(20))), store.history("c1"));
+    }
+
+    @Test
+    void conversations_areEvictedLeastRecentlyUsedFirst() {
+        store.append("a", "hola", "r");
+        store.append("b", "hola", "r");
+        store.history("a");
+        store.append("c", "hola", "r");
+        assertFalse(store.history("a").isEmpty());
+        assertTrue(store.history("b").isEmpty());
+        assertFalse(store.history("c").isEmpty());
+    }
+
+    @Test
+    void disabled_storesNothing() {
+        bffProperties.getConversation().setEnabled(false);
+        store.append("c1", "hola", "r");
+        assertTrue(store.history("c1").isEmpty());
+    }
+}
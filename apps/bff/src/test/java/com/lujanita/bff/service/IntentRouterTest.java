@@ -0,0 +1,76 @@
+package com.lujanita.bff.service;
+
+import com.lujanita.bff.config.BffProperties;
+import org.junit.jupiter.api.Test;
+import java.util.List;
+import java.util.Map;
+import static org.junit.jupiter.api.Assertions.*;
+
+class IntentRouterTest {
+
+    private static IntentRouter router() {
+        BffProperties.Intents intents = new BffProperties.Intents();
+        intents.setTooShortResponse("¿Me contás un poco más?");
+        intents.setRoutes(List.of(
+            intent("greeting", List.of("hola", "buenas", "buenas tardes", "que tal"), "{welcomeMessage}"),
+            intent("thanks", List.of("gracias", "muchas gracias"), "¡De nada!"),
+            intent("hours", List.of("horario de atencion"), "Atendemos de 08:30 a 17:30 ({corporateName})")));
+        return IntentRouter.of(intents, Map.of("welcomeMessage", "Hola — soy Lujanita", "chatbotName", "Lujanita", "corporateName", "Expreso"));
+    }
+
+    private static BffProperties.Intent intent(String name, List<String> phrases, String response) {
+        BffProperties.Intent intent = new BffProperties.Intent();
+        intent.setName(name);
+        intent.setPhrases(phrases);
+        intent.setResponse(response);
+        return intent;
+    }
+
+    @Test
+    void route_matchesWholeMessageIgnoringAccentsPunctuationAndBotName() {
+        IntentRouter router = router();
+        for (String greeting : List.of("Hola", "¡HOLA!", "holaaa", "hola lujanita", "Hola, buenas tardes. ¿Qué tal?")) {
+            IntentRouter.Intent intent = router.route(greeting);
+            assertNotNull(intent, greeting);
+            assertEquals("greeting", intent.name());
+            assertEquals("Hola — soy Lujanita", intent.response());
+        }
+        assertEquals("thanks", router.route("Muchas gracias!!").name());
+        assertEquals("Atendemos de 08:30 a 17:30 (Expreso)", router.route("¿Horario de atención?").response());
+    }
+
+    @Test
+    void route_leavesRealQuestionsToTheLlm() {
+        IntentRouter router = router();
+        assertNull(router.route("hola, ¿cuál es el estado del pedido SO001?"));
+        assertNull(router.route("gracias, y mi factura?"));
+        // Frases de intenciones distintas en el mismo mensaje: no se resuelve localmente
+        assertNull(router.route("hola gracias"));
+        assertNull(router.route("lujanita"));
+    }
+
+    @Test
+    void route_answersTooShortMessagesAndHonoursDisabledConfig() {
+        assertEquals(IntentRouter.TOO_SHORT, router().route(" ? ").name());
+        assertEquals(IntentRouter.TOO_SHORT, router().route("k").name());
+
+        BffProperties.Intents disabled = new BffProperties.Intents();
+        disabled.setEnabled(false);
+        disabled.setRoutes(List.of(intent("greeting", List.of("hola"), "Hola")));
+        assertNull(IntentRouter.of(disabled, Map.of()).route("hola"));
+    }
+
+    @Test
+    void of_skipsIntentsWhosePlaceholdersHaveNoConfiguredValue() {
+        BffProperties.Intents intents = new BffProperties.Intents();
+        intents.setRoutes(List.of(
+            intent("hours", List.of("horario"), "Atendemos {corporateHours}. Planta: {corporateAddress}."),
+            intent("contact", List.of("contacto"), "Podés contactarnos así: {corporateContact}")));
+        IntentRouter router = IntentRouter.of(intents, Map.of("corporateHours", "de 08:30 a 17:30",
+            "corporateAddress", "Acceso Sur Km 16.5", "corporateContact", ""));
+
+        assertEquals("Atendemos de 08:30 a 17:30. Planta: Acceso Sur Km 16.5.", router.route("horario").response());
+        // Sin datos de contacto configurados la pregunta sigue al LLM
+        assertNull(router.route("contacto"));
+    }
+}
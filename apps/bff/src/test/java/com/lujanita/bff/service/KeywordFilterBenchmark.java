@@ -0,0 +1,75 @@
+package com.lujanita.bff.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.yaml.snakeyaml.Yaml;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Microbenchmark manual (no se ejecuta con los tests): KeywordFilter vs. el filterLines anterior
+ * (toLowerCase por línea y por palabra clave + contains).
+ * Uso: mvn -q test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.lujanita.bff.service.KeywordFilterBenchmark
+ */
+public class KeywordFilterBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        List<String> keywords = loadKeywords();
+        KeywordFilter filter = KeywordFilter.of(keywords);
+        String sample = sampleOutput();
+        if (!legacyFilterLines(sample, keywords).equals(filter.filterLines(sample))) {
+            throw new IllegalStateException("Las implementaciones no coinciden");
+        }
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        for (int round = 0; round < 3; round++) {
+            long legacy = time(() -> legacyFilterLines(sample, keywords), iterations);
+            long compiled = time(() -> filter.filterLines(sample), iterations);
+            System.out.printf("ronda %d: legacy=%d ns/op  aho-corasick=%d ns/op  (x%.1f)%n",
+                round, legacy, compiled, (double) legacy / Math.max(1, compiled));
+        }
+    }
+
+    private static long time(java.util.function.Supplier<String> op, int iterations) {
+        int sink = 0;
+        for (int i = 0; i < iterations / 10; i++) sink += op.get().length();
+        long t0 = System.nanoTime();
+        for (int i = 0; i < iterations; i++) sink += op.get().length();
+        long perOp = (System.nanoTime() - t0) / iterations;
+        if (sink == 42) System.out.println();
+        return perOp;
+    }
+
+    // Implementación previa de BffOrchestratorService.filterLines
+    static String legacyFilterLines(String text, List<String> keywords) {
+        StringBuilder sb = new StringBuilder();
+        for (String line : text.split("\r?\n")) {
+            boolean skip = false;
+            String l = line.toLowerCase();
+            for (String kw : keywords) {
+                if (l.contains(kw.toLowerCase())) { skip = true; break; }
+            }
+            if (!skip && !l.trim().isEmpty()) sb.append(line).append("\n");
+        }
+        return sb.toString().trim();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<String> loadKeywords() throws Exception {
+        try (InputStream in = Files.newInputStream(Paths.get("src/main/resources/application.yml"))) {
+            Map<String, Object> yml = new Yaml().load(in);
+            return (List<String>) ((Map<String, Object>) yml.get("bff")).get("llmFilterKeywords");
+        }
+    }
+
+    private static String sampleOutput() throws Exception {
+        String response = "Hola, soy Lujanita.\nTu pedido SO001 está confirmado y sale mañana desde Mendoza.\n"
+            + "INSTRUCCIÓN PRINCIPAL: responder en castellano\n"
+            + "El total es de 123,45 ARS. Podés seguir el envío desde la web.\n"
+            + "Según las guidelines no incluyas datos sensibles\n"
+            + "¿Necesitás algo más?";
+        return new ObjectMapper().writeValueAsString(Map.of("response", response, "correlationId", "abc123"))
+            + "\n" + response;
+    }
+}
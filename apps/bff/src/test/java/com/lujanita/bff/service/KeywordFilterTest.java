@@ -0,0 +1,46 @@
+package com.lujanita.bff.service;
+
+import org.junit.jupiter.api.Test;
+import java.util.List;
+import static org.junit.jupiter.api.Assertions.*;
+
+class KeywordFilterTest {
+
+    @Test
+    void containsAny_isCaseInsensitiveIncludingAccents() {
+        KeywordFilter filter = KeywordFilter.of(List.of("instrucción", "prompt", "llamadas mcp"));
+        assertTrue(filter.containsAny("INSTRUCCIÓN PRINCIPAL"));
+        assertTrue(filter.containsAny("no repitas el Prompt"));
+        assertTrue(filter.containsAny("Las LLAMADAS MCP van en JSON"));
+        assertFalse(filter.containsAny("Tu pedido está confirmado"));
+    }
+
+    @Test
+    void containsAny_findsOverlappingKeywordsViaFailureLinks() {
+        KeywordFilter filter = KeywordFilter.of(List.of("contexto", "texto plano", "salida"));
+        assertTrue(filter.containsAny("con texto plano"));
+        assertTrue(filter.containsAny("consalida"));
+        assertFalse(filter.containsAny("contextual"));
+    }
+
+    @Test
+    void filterLines_matchesLegacyBehaviour() {
+        KeywordFilter filter = KeywordFilter.of(List.of("oculto", "guidelines"));
+        String text = "  Hola\r\nesto está OCULTO\n\n   \nSegún las Guidelines\nChau  ";
+        assertEquals("Hola\nChau", filter.filterLines(text));
+        assertEquals("", KeywordFilter.EMPTY.filterLines(null));
+        assertEquals("a\nb", KeywordFilter.EMPTY.filterLines("a\n\nb\n"));
+    }
+
+    @Test
+    void matcher_detectsKeywordsIncrementally() {
+        KeywordFilter.Matcher matcher = KeywordFilter.of(List.of("prompt")).matcher();
+        boolean hit = false;
+        for (char c : "el PROM".toCharArray()) hit = matcher.feed(c);
+        assertFalse(hit);
+        for (char c : "pt".toCharArray()) hit = matcher.feed(c);
+        assertTrue(hit);
+        matcher.reset();
+        assertFalse(matcher.feed('x'));
+    }
+}
@@ -0,0 +1,197 @@
+package com.lujanita.bff.service;
+
+import com.lujanita.bff.config.BffProperties;
+import com.lujanita.bff.mcp.McpClientWebClientService;
+import com.lujanita.bff.model.dto.McpResponse;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.test.util.ReflectionTestUtils;
+import reactor.core.publisher.Mono;
+import java.util.List;
+import java.util.Map;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+
+class McpInteractionServiceTest {
+    private McpInteractionService service;
+    private McpClientWebClientService mcpClientWebClientService;
+    private BffProperties bffProperties;
+
+    @BeforeEach
+    void setup() {
+        mcpClientWebClientService = Mockito.mock(McpClientWebClientService.class);
+        bffProperties = new BffProperties();
+        service = new McpInteractionService();
+        ReflectionTestUtils.setField(service, "mcpClientWebClientService", mcpClientWebClientService);
+        ReflectionTestUtils.setField(service, "bffProperties", bffProperties);
+    }
+
+    private static McpResponse toolsResponse(String... names) {
+        McpResponse resp = new McpResponse();
+        resp.setCode("OK");
+        resp.setData(Map.of("tools", java.util.Arrays.stream(names).map(n -> Map.<String, Object>of("name", n)).toList()));
+        return resp;
+    }
+
+    @Test
+    void getToolCatalog_cachesPerRoleAndProfile() {
+        Mockito.when(mcpClientWebClientService.callMcp(eq("tools.list"), any(), any())).thenReturn(Mono.just(toolsResponse("orders.get")));
+        Map<String, String> cliente = Map.of("x-role", "cliente", "x-profile", "default");
+        Map<String, String> operador = Map.of("x-role", "operador", "x-profile", "default");
+
+        ToolCatalog first = service.getToolCatalog(cliente, "c1");
+        ToolCatalog second = service.getToolCatalog(cliente, "c2");
+        service.getToolCatalog(operador, "c3");
+
+        assertSame(first, second);
+        assertTrue(first.getPromptFragment().contains("orders.get"));
+        Mockito.verify(mcpClientWebClientService, Mockito.times(2)).callMcp(eq("tools.list"), any(), any());
+    }
+
+    @Test
+    void getToolCatalog_keysOnlyByRolesAndProfilesDeclaredInPrompts() {
+        com.lujanita.bff.prompt.PromptConfigService prompts = Mockito.mock(com.lujanita.bff.prompt.PromptConfigService.class);
+        Mockito.when(prompts.isValidRole("cliente")).thenReturn(true);
+        Mockito.when(prompts.isValidProfile("premium")).thenReturn(true);
+        ReflectionTestUtils.setField(service, "promptConfigService", prompts);
+        Mockito.when(mcpClientWebClientService.callMcp(eq("tools.list"), any(), any())).thenReturn(Mono.just(toolsResponse("orders.get")));
+
+        // Roles inventados con un perfil válido: comparten la entrada sin rol y no piden tools.list cada uno
+        ToolCatalog first = service.getToolCatalog(Map.of("x-role", "rol-1", "x-profile", "premium"), "c1");
+        ToolCatalog second = service.getToolCatalog(Map.of("x-role", "rol-2", "x-profile", "premium"), "c2");
+        service.getToolCatalog(Map.of("x-role", "cliente", "x-profile", "premium"), "c3");
+
+        assertSame(first, second);
+        Mockito.verify(mcpClientWebClientService, Mockito.times(2)).callMcp(eq("tools.list"), any(), any());
+        Mockito.verify(mcpClientWebClientService, Mockito.never()).callMcp(eq("tools.list"), any(),
+            argThat(h -> "rol-1".equals(h.get("X-Role")) || "rol-2".equals(h.get("X-Role"))));
+    }
+
+    @Test
+    void getToolCatalog_doesNotCacheEmptyCatalog() {
+        Mockito.when(mcpClientWebClientService.callMcp(eq("tools.list"), any(), any()))
+            .thenReturn(Mono.just(new McpResponse()))
+            .thenReturn(Mono.just(toolsResponse("orders.get", "customers.get")));
+        Map<String, String> headers = Map.of("x-role", "cliente");
+
+        assertTrue(service.getToolCatalog(headers, "c1").isEmpty());
+        ToolCatalog catalog = service.getToolCatalog(headers, "c2");
+
+        assertEquals(2, catalog.getTools().size());
+        assertEquals(ToolCatalog.of(List.of(Map.of("name", "orders.get"), Map.of("name", "customers.get"))).getVersion(), catalog.getVersion());
+    }
+
+    private static McpResponse orderResponse(String id) {
+        McpResponse resp = new McpResponse();
+        resp.setCode("OK");
+        resp.setData(Map.of("id", id));
+        return resp;
+    }
+
+    @Test
+    void callReactive_coalescesConcurrentIdenticalReads() {
+        reactor.core.publisher.Sinks.One<McpResponse> pending = reactor.core.publisher.Sinks.one();
+        Mockito.when(mcpClientWebClientService.callMcp(eq("orders.get"), any(), any())).thenReturn(pending.asMono());
+        Map<String, String> headers = Map.of("x-role", "cliente", "x-profile", "default", "x-api-key", "k1");
+
+        var first = service.callReactive("orders.get", Map.of("id", "42", "lang", "es"), headers, "c1").toFuture();
+        // Mismos params en otro orden: misma clave
+        var second = service.callReactive("orders.get", Map.of("lang", "es", "id", "42"), headers, "c2").toFuture();
+        pending.tryEmitValue(orderResponse("42"));
+
+        // Una sola petición; cada llamante recibe su propia copia de la respuesta
+        assertNotSame(first.join(), second.join());
+        assertSame(first.join().getData(), second.join().getData());
+        Mockito.verify(mcpClientWebClientService, Mockito.times(1)).callMcp(eq("orders.get"), any(), any());
+    }
+
+    @Test
+    void coalesceKey_isScopedByCallerAndSkipsWrites() {
+        Map<String, Object> params = Map.of("id", "42");
+        Map<String, String> tenantA = Map.of("x-role", "cliente", "x-profile", "default", "x-api-key", "secreto-a");
+        Map<String, String> tenantB = Map.of("x-role", "cliente", "x-profile", "default", "x-api-key", "b");
+        Map<String, String> operador = Map.of("x-role", "operador", "x-profile", "default", "x-api-key", "secreto-a");
+
+        assertNotNull(service.coalesceKey("orders.get", params, tenantA));
+        assertNotEquals(service.coalesceKey("orders.get", params, tenantA), service.coalesceKey("orders.get", params, tenantB));
+        assertNotEquals(service.coalesceKey("orders.get", params, tenantA), service.coalesceKey("orders.get", params, operador));
+        assertFalse(service.coalesceKey("orders.get", params, tenantA).contains("secreto-a"));
+        assertNull(service.coalesceKey("orders.create", params, tenantA));
+
+        bffProperties.getMcp().setCoalesceCalls(false);
+        assertNull(service.coalesceKey("orders.get", params, tenantA));
+    }
+
+    @Test
+    void isReadOnly_matchesWholeVerbAndRejectsWriteLikeNames() {
+        java.util.List<String> verbs = java.util.List.of("get", "list", "find");
+        assertTrue(McpInteractionService.isReadOnly("orders.get", verbs));
+        assertTrue(McpInteractionService.isReadOnly("orders.getById", verbs));
+        assertTrue(McpInteractionService.isReadOnly("orders.list_open", verbs));
+        assertTrue(McpInteractionService.isReadOnly("customers.GET", verbs));
+        assertFalse(McpInteractionService.isReadOnly("orders.getOrCreate", verbs));
+        assertFalse(McpInteractionService.isReadOnly("orders.findAndUpdate", verbs));
+        assertFalse(McpInteractionService.isReadOnly("orders.getaway", verbs));
+        assertFalse(McpInteractionService.isReadOnly("orders.listing", verbs));
+        assertFalse(McpInteractionService.isReadOnly("orders.create", verbs));
+    }
+
+    @Test
+    void callReactive_servesCachedResultsPerMethodAndCaller() {
+        bffProperties.getMcp().getResultCacheTtlSeconds().put("products.search", 300);
+        Mockito.when(mcpClientWebClientService.callMcp(eq("products.search"), any(), any()))
+            .thenAnswer(inv -> Mono.just(orderResponse("p1")));
+        Map<String, String> tenantA = Map.of("x-role", "cliente", "x-api-key", "a");
+        Map<String, String> tenantB = Map.of("x-role", "cliente", "x-api-key", "b");
+
+        McpResponse first = service.call("products.search", Map.of("q", "yerba"), tenantA, "c1");
+        first.setCorrelationId("mutado");
+        McpResponse second = service.call("products.search", Map.of("q", "yerba"), tenantA, "c2");
+        service.call("products.search", Map.of("q", "yerba"), tenantB, "c3");
+
+        assertEquals("p1", second.getData().get("id"));
+        assertNull(second.getCorrelationId());
+        Mockito.verify(mcpClientWebClientService, Mockito.times(2)).callMcp(eq("products.search"), any(), any());
+
+        assertEquals(2, service.invalidateResults("products.search"));
+        service.call("products.search", Map.of("q", "yerba"), tenantA, "c4");
+        Mockito.verify(mcpClientWebClientService, Mockito.times(3)).callMcp(eq("products.search"), any(), any());
+    }
+
+    @Test
+    void callReactive_doesNotCacheErrorsOrUnlistedMethods() {
+        bffProperties.getMcp().getResultCacheTtlSeconds().put("customers.get", 120);
+        McpResponse error = new McpResponse();
+        error.setCode("MW005");
+        Mockito.when(mcpClientWebClientService.callMcp(eq("customers.get"), any(), any())).thenReturn(Mono.just(error));
+        Mockito.when(mcpClientWebClientService.callMcp(eq("orders.get"), any(), any())).thenAnswer(inv -> Mono.just(orderResponse("42")));
+
+        service.call("customers.get", Map.of("id", 1), Map.of(), "c1");
+        service.call("customers.get", Map.of("id", 1), Map.of(), "c2");
+        service.call("orders.get", Map.of("id", "42"), Map.of(), "c3");
+        service.call("orders.get", Map.of("id", "42"), Map.of(), "c4");
+
+        Mockito.verify(mcpClientWebClientService, Mockito.times(2)).callMcp(eq("customers.get"), any(), any());
+        Mockito.verify(mcpClientWebClientService, Mockito.times(2)).callMcp(eq("orders.get"), any(), any());
+    }
+
+    @Test
+    void callReactive_shortCircuitsWhenMcpCircuitIsOpen() {
+        bffProperties.getResilience().setMinimumCalls(2);
+        bffProperties.getResilience().setSlidingWindowSize(2);
+        ReflectionTestUtils.setField(service, "resilience", new com.lujanita.bff.resilience.ResilienceRegistry(bffProperties, null));
+        McpResponse down = new McpResponse();
+        down.setCode("MW005");
+        down.setMessage("Error MCP WebClient: Connection refused");
+        Mockito.when(mcpClientWebClientService.callMcp(eq("orders.create"), any(), any())).thenReturn(Mono.just(down));
+
+        service.callReactive("orders.create", Map.of("n", 1), Map.of(), "c1").block();
+        service.callReactive("orders.create", Map.of("n", 2), Map.of(), "c2").block();
+        McpResponse rejected = service.callReactive("orders.create", Map.of("n", 3), Map.of(), "c3").block();
+
+        assertEquals("MW005", rejected.getCode());
+        assertTrue(rejected.getMessage().contains("circuito abierto"));
+        Mockito.verify(mcpClientWebClientService, Mockito.times(2)).callMcp(eq("orders.create"), any(), any());
+    }
+}
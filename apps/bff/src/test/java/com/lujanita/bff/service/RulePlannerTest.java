@@ -0,0 +1,51 @@
+package com.lujanita.bff.service;
+
+import com.lujanita.bff.config.BffProperties;
+import org.junit.jupiter.api.Test;
+import java.util.List;
+import java.util.Map;
+import static org.junit.jupiter.api.Assertions.*;
+
+class RulePlannerTest {
+
+    private static BffProperties.PlanRule rule(String name, String pattern, String method, Map<String, String> params) {
+        BffProperties.PlanRule rule = new BffProperties.PlanRule();
+        rule.setName(name);
+        rule.setPattern(pattern);
+        rule.setMethod(method);
+        rule.setParams(params);
+        return rule;
+    }
+
+    @Test
+    void match_extractsIdsIntoParamsForEveryOccurrence() {
+        RulePlanner planner = RulePlanner.of(List.of(
+            rule("order", "\\b(?<orderId>SO\\d{3,})\\b", "orders.get", Map.of("orderId", "{orderId:upper}", "includeLines", "true")),
+            rule("customer", "cliente\\s+(\\w+)", "customers.get", Map.of("customerId", "{1}"))));
+
+        List<RulePlanner.Match> matches = planner.match("¿Cómo van los pedidos so001 y SO002 (y otra vez SO001) del cliente C7?");
+        assertEquals(3, matches.size());
+        assertEquals(new RulePlanner.Match("order", "orders.get", Map.of("orderId", "SO001", "includeLines", true)), matches.get(0));
+        assertEquals("SO002", matches.get(1).params().get("orderId"));
+        assertEquals(new RulePlanner.Match("customer", "customers.get", Map.of("customerId", "C7")), matches.get(2));
+
+        @SuppressWarnings("unchecked")
+        List<Map<String, Object>> calls = (List<Map<String, Object>>) RulePlanner.toPlan(matches).get("mcpCalls");
+        assertEquals(List.of("order1", "order2", "customer3"), calls.stream().map(c -> c.get("id")).toList());
+        assertTrue(ToolPlan.hasCalls(RulePlanner.toPlan(matches)));
+    }
+
+    @Test
+    void match_returnsNothingWithoutMatchesAndSkipsInvalidRules() {
+        RulePlanner planner = RulePlanner.of(List.of(
+            rule("broken", "(SO\\d+", "orders.get", Map.of("orderId", "{1}")),
+            rule("unknownGroup", "SO\\d+", "orders.get", Map.of("orderId", "{orderId}")),
+            rule("order", "\\b(SO\\d{3,})\\b", "orders.get", Map.of("orderId", "{1}"))));
+
+        assertTrue(planner.match("¿cuál es el horario de atención?").isEmpty());
+        assertTrue(planner.match("pedido SOX").isEmpty());
+        // La regla rota se ignora y la del grupo inexistente no produce llamadas
+        assertEquals(List.of(new RulePlanner.Match("order", "orders.get", Map.of("orderId", "SO123"))), planner.match("pedido SO123"));
+        assertTrue(RulePlanner.of(List.of()).match("pedido SO123").isEmpty());
+    }
+}
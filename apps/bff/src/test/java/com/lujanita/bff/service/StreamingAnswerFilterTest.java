@@ -0,0 +1,45 @@
+package com.lujanita.bff.service;
+
+import org.junit.jupiter.api.Test;
+import java.util.List;
+import static org.junit.jupiter.api.Assertions.*;
+
+class StreamingAnswerFilterTest {
+
+    private static String feed(StreamingAnswerFilter filter, String... chunks) {
+        StringBuilder out = new StringBuilder();
+        for (String c : chunks) out.append(filter.accept(c));
+        String tail = filter.finish();
+        if (tail != null) out.append(tail);
+        return out.toString();
+    }
+
+    @Test
+    void extractsResponseFieldAcrossChunks() {
+        StreamingAnswerFilter filter = new StreamingAnswerFilter(List.of());
+        String out = feed(filter, " {\"resp", "onse\": \"Hola, ", "tu pedido \\\"SO001\\\"", " está listo\\u0021\",\"correlationId\":\"x\"}");
+        assertEquals("Hola, tu pedido \"SO001\" está listo!", out);
+    }
+
+    @Test
+    void dropsLinesWithKeywordsOnceComplete() {
+        StreamingAnswerFilter filter = new StreamingAnswerFilter(List.of("Instrucción"));
+        assertEquals("", filter.accept("Primera línea"));
+        assertEquals("Primera línea", filter.accept("\nINSTRUCCIÓN oculta\nÚlt"));
+        assertEquals("\nÚltima", filter.accept("ima") + filter.finish());
+    }
+
+    @Test
+    void plainTextPassesThroughLineByLine() {
+        StreamingAnswerFilter filter = new StreamingAnswerFilter(List.of("prompt"));
+        assertEquals("Hola\nChau", feed(filter, "Hola\n", "\n  \nno repitas el prompt\nChau"));
+    }
+
+    @Test
+    void finishReturnsNullWhenNothingWasEmittable() {
+        StreamingAnswerFilter filter = new StreamingAnswerFilter(List.of());
+        filter.accept("{\"mcpCall\":{\"method\":\"orders.get\"}}");
+        assertNull(filter.finish());
+        assertTrue(filter.raw().contains("mcpCall"));
+    }
+}
@@ -0,0 +1,70 @@
+package com.lujanita.bff.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ToolPlanTest {
+
+    @Test
+    void from_groupsIndependentCallsInOneWaveAndDependentsAfter() {
+        Map<String, Object> plan = Map.of("mcpCalls", List.of(
+            Map.of("id", "cli", "method", "customers.get", "params", Map.of("customerId", "C1")),
+            Map.of("id", "prod", "method", "products.search", "params", Map.of("q", "yerba")),
+            Map.of("id", "ord", "method", "orders.list", "params", Map.of("customerId", "${cli.id}"))
+        ));
+        ToolPlan toolPlan = ToolPlan.from(plan, (m, p) -> true, 4);
+        assertEquals(3, toolPlan.getCalls().size());
+        assertEquals(2, toolPlan.getWaves().size());
+        assertEquals(List.of("cli", "prod"), toolPlan.getWaves().get(0).stream().map(ToolPlan.Call::id).toList());
+        assertEquals("ord", toolPlan.getWaves().get(1).get(0).id());
+        assertTrue(toolPlan.getRejected().isEmpty());
+    }
+
+    @Test
+    void from_acceptsLegacySingleMcpCall() {
+        Map<String, Object> plan = Map.of("mcpCall", Map.of("method", "orders.get", "params", Map.of("orderId", "SO001")));
+        ToolPlan toolPlan = ToolPlan.from(plan, (m, p) -> true, 4);
+        assertEquals(1, toolPlan.getCalls().size());
+        assertEquals("c1", toolPlan.getCalls().get(0).id());
+        assertEquals("orders.get", toolPlan.getCalls().get(0).method());
+    }
+
+    @Test
+    void from_rejectsInvalidCallsTheirDependentsCyclesAndExcess() {
+        Map<String, Object> plan = Map.of("mcpCalls", List.of(
+            Map.of("id", "a", "method", "unknown.tool", "params", Map.of()),
+            Map.of("id", "b", "method", "orders.list", "params", Map.of("customerId", "${a.id}")),
+            Map.of("id", "x", "method", "orders.get", "params", Map.of(), "dependsOn", List.of("y")),
+            Map.of("id", "y", "method", "orders.get", "params", Map.of(), "dependsOn", List.of("x")),
+            Map.of("id", "ok", "method", "orders.get", "params", Map.of("orderId", "SO1")),
+            Map.of("id", "extra", "method", "orders.get", "params", Map.of("orderId", "SO2"))
+        ));
+        ToolPlan toolPlan = ToolPlan.from(plan, (m, p) -> !"unknown.tool".equals(m), 4);
+        assertEquals(List.of("ok"), toolPlan.getCalls().stream().map(ToolPlan.Call::id).toList());
+        assertEquals(5, toolPlan.getRejected().size());
+        assertTrue(ToolPlan.from(Map.of("response", "hola"), (m, p) -> true, 4).isEmpty());
+    }
+
+    @Test
+    void resolveParams_substitutesReferencesKeepingTypes() {
+        Map<String, Map<String, Object>> results = Map.of("cli", Map.of("id", 42, "orders", List.of(Map.of("name", "SO7"))));
+        Map<String, Object> resolved = ToolPlan.resolveParams(
+            Map.of("customerId", "${cli.id}", "ref", "pedido ${cli.orders.0.name}", "missing", "${otro.id}"),
+            results::get);
+        assertEquals(42, resolved.get("customerId"));
+        assertEquals("pedido SO7", resolved.get("ref"));
+        assertEquals("${otro.id}", resolved.get("missing"));
+    }
+
+    @Test
+    void hasReferences_detectsReferencesLeftUnresolved() {
+        Map<String, Object> resolved = ToolPlan.resolveParams(Map.of("customerId", "${cli.id}"), id -> null);
+        assertTrue(ToolPlan.hasReferences(resolved));
+        assertTrue(ToolPlan.hasReferences(Map.of("filter", Map.of("ids", List.of("${cli.id}")))));
+        assertFalse(ToolPlan.hasReferences(Map.of("customerId", 42, "note", "sin referencias")));
+    }
+}
@@ -0,0 +1,156 @@
+package com.lujanita.bff.service;
+
+import com.lujanita.bff.config.BffProperties;
+import com.lujanita.bff.ollama.EmbeddingProvider;
+import com.lujanita.bff.resilience.CircuitBreaker;
+import com.lujanita.bff.resilience.ResilienceRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ToolSelectorTest {
+
+    // Embedding de prueba: una dimensión por palabra del vocabulario (presencia en el texto)
+    static class StubEmbeddings implements EmbeddingProvider {
+        static final List<String> VOCABULARY = List.of("pedido", "cliente", "factura", "producto", "stock", "envio");
+        final List<List<String>> calls = new CopyOnWriteArrayList<>();
+        boolean failing;
+
+        @Override
+        public boolean isEnabled() {
+            return true;
+        }
+
+        @Override
+        public Mono<List<float[]>> embed(List<String> texts) {
+            calls.add(texts);
+            if (failing) return Mono.error(new IllegalStateException("Ollama caído"));
+            List<float[]> out = new ArrayList<>();
+            for (String text : texts) {
+                float[] v = new float[VOCABULARY.size()];
+                for (int i = 0; i < v.length; i++) v[i] = text.toLowerCase().contains(VOCABULARY.get(i)) ? 1 : 0;
+                out.add(v);
+            }
+            return Mono.just(out);
+        }
+    }
+
+    private static Map<String, Object> tool(String name, String description) {
+        return Map.of("name", name, "description", description);
+    }
+
+    private static final List<Map<String, Object>> TOOLS = List.of(
+        tool("orders.get", "Detalle de un pedido"),
+        tool("customers.get", "Datos de un cliente"),
+        tool("invoices.list", "Facturas de un cliente"),
+        tool("products.search", "Buscar producto por nombre"),
+        tool("stock.get", "Stock disponible de un producto"),
+        tool("shipments.track", "Seguimiento de envio de un pedido"));
+
+    private static ToolSelector selector(StubEmbeddings embeddings, int topK, SimpleMeterRegistry registry) {
+        BffProperties props = new BffProperties();
+        props.getOllama().setToolSelectionTopK(topK);
+        return new ToolSelector(props, embeddings, registry);
+    }
+
+    @Test
+    void selectsMostSimilarToolsKeepingCatalogOrder() {
+        StubEmbeddings embeddings = new StubEmbeddings();
+        ToolSelector selector = selector(embeddings, 2, new SimpleMeterRegistry());
+        ToolCatalog catalog = ToolCatalog.of(TOOLS);
+
+        ToolCatalog selected = selector.select(catalog, "¿Cuándo llega el envio del pedido SO001?", "t1");
+        assertEquals(List.of("orders.get", "shipments.track"), selected.getTools().stream().map(t -> t.get("name")).toList());
+        assertFalse(selected.getPromptFragment().contains("products.search"));
+
+        selected = selector.select(catalog, "¿Hay stock del producto tornillo?", "t2");
+        assertEquals(List.of("products.search", "stock.get"), selected.getTools().stream().map(t -> t.get("name")).toList());
+    }
+
+    @Test
+    void embedsCatalogOncePerVersionAndAgainWhenItChanges() {
+        StubEmbeddings embeddings = new StubEmbeddings();
+        ToolSelector selector = selector(embeddings, 2, new SimpleMeterRegistry());
+        ToolCatalog catalog = ToolCatalog.of(TOOLS);
+
+        selector.select(catalog, "pedido", "t1");
+        selector.select(catalog, "cliente", "t2");
+        // 1 lote con las 6 descripciones + 1 embedding por mensaje
+        assertEquals(3, embeddings.calls.size());
+        assertEquals(6, embeddings.calls.get(0).size());
+
+        List<Map<String, Object>> grown = new ArrayList<>(TOOLS);
+        grown.add(tool("payments.list", "Pagos de un cliente"));
+        selector.select(ToolCatalog.of(grown), "cliente", "t3");
+        assertEquals(5, embeddings.calls.size());
+        assertEquals(7, embeddings.calls.get(3).size());
+    }
+
+    @Test
+    void usesFullCatalogWhenSmallOrWhenEmbeddingsFail() {
+        StubEmbeddings embeddings = new StubEmbeddings();
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        ToolCatalog catalog = ToolCatalog.of(TOOLS);
+
+        assertSame(catalog, selector(embeddings, 6, registry).select(catalog, "pedido", "t1"));
+        assertTrue(embeddings.calls.isEmpty());
+
+        embeddings.failing = true;
+        ToolSelector selector = selector(embeddings, 2, registry);
+        assertSame(catalog, selector.select(catalog, "pedido", "t2"));
+        assertEquals(1.0, registry.counter("llm.tools.selection", "result", "error").count());
+        // El índice fallido no queda cacheado: al recuperarse Ollama se construye
+        embeddings.failing = false;
+        assertEquals(2, selector.select(catalog, "pedido", "t3").getTools().size());
+    }
+
+    @Test
+    void returnsSameCatalogInstanceForTheSameSelection() {
+        StubEmbeddings embeddings = new StubEmbeddings();
+        ToolSelector selector = selector(embeddings, 2, new SimpleMeterRegistry());
+        ToolCatalog catalog = ToolCatalog.of(TOOLS);
+
+        ToolCatalog first = selector.select(catalog, "¿Dónde está el envio del pedido SO001?", "t1");
+        ToolCatalog second = selector.select(catalog, "Seguimiento del envio de mi pedido", "t2");
+        ToolCatalog other = selector.select(catalog, "¿Hay stock del producto?", "t3");
+
+        // Misma selección: mismo catálogo y fragmento de prompt, para reutilizar el prefijo estable
+        assertSame(first, second);
+        assertNotSame(first, other);
+        assertEquals(first.getVersion(), second.getVersion());
+    }
+
+    @Test
+    void embeddingFailuresOpenOllamaCircuitAndSelectionIsSkippedWhileOpen() {
+        StubEmbeddings embeddings = new StubEmbeddings();
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        BffProperties props = new BffProperties();
+        props.getOllama().setToolSelectionTopK(2);
+        props.getResilience().setMinimumCalls(2);
+        props.getResilience().setSlidingWindowSize(2);
+        ResilienceRegistry resilience = new ResilienceRegistry(props, null);
+        ToolSelector selector = new ToolSelector(props, embeddings, registry);
+        ReflectionTestUtils.setField(selector, "resilience", resilience);
+        ToolCatalog catalog = ToolCatalog.of(TOOLS);
+
+        embeddings.failing = true;
+        for (int i = 0; i < 4 && resilience.breaker(ResilienceRegistry.OLLAMA).getState() == CircuitBreaker.State.CLOSED; i++) {
+            assertSame(catalog, selector.select(catalog, "pedido", "t" + i));
+        }
+        assertEquals(CircuitBreaker.State.OPEN, resilience.breaker(ResilienceRegistry.OLLAMA).getState());
+
+        embeddings.failing = false;
+        embeddings.calls.clear();
+        assertSame(catalog, selector.select(catalog, "pedido", "t9"));
+        assertTrue(embeddings.calls.isEmpty());
+        assertEquals(1.0, registry.counter("llm.tools.selection", "result", "skipped").count());
+    }
+}